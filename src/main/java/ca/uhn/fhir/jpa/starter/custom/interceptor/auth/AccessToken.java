@@ -18,6 +18,8 @@ public class AccessToken {
     private String organizationName;
     private String clientId;
     private String scope;
+    /** Der Scope als Bitmaske für {@link AuthorizationPolicy}, einmalig beim Setzen berechnet */
+    private int scopeMask;
 
     // Getter und Setter
     public String getIss() {
@@ -130,6 +132,35 @@ public class AccessToken {
 
     public void setScope(String scope) {
         this.scope = scope;
+        this.scopeMask = AuthorizationPolicy.scopeMask(scope);
+    }
+
+    int getScopeMask() {
+        return scopeMask;
+    }
+
+    /**
+     * Erzeugt eine unabhängige Kopie, damit geteilte Instanzen (z.B. aus dem Token-Cache) nicht von einem
+     * Request für einen anderen verändert werden können.
+     */
+    AccessToken copy() {
+        AccessToken copy = new AccessToken();
+        copy.iss = iss;
+        copy.sub = sub;
+        copy.aud = aud;
+        copy.nonce = nonce;
+        copy.exp = exp;
+        copy.iat = iat;
+        copy.nbf = nbf;
+        copy.profession = profession;
+        copy.idNumber = idNumber;
+        copy.givenName = givenName;
+        copy.familyName = familyName;
+        copy.organizationName = organizationName;
+        copy.clientId = clientId;
+        copy.scope = scope;
+        copy.scopeMask = scopeMask;
+        return copy;
     }
 
     // Business Logik
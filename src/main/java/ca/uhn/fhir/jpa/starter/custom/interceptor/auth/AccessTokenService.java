@@ -8,8 +8,13 @@ import com.auth0.jwt.exceptions.JWTVerificationException;
 import com.auth0.jwt.interfaces.JWTVerifier;
 import org.springframework.stereotype.Service;
 import java.time.Instant;
+import java.security.PublicKey;
 import java.security.interfaces.ECPublicKey;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -17,14 +22,18 @@ import org.slf4j.LoggerFactory;
 public class AccessTokenService {
     
     private final PukTokenManager pukTokenManager;
+    private final VerifiedTokenCache tokenCache;
+    private volatile VerifierSet verifierSet;
     private boolean skipTimeValidation = false;
     private boolean skipSignatureValidation = false;
     private static final Logger logger = LoggerFactory.getLogger(AccessTokenService.class);
     private static final long MAX_FUTURE_SECONDS = 365 * 24 * 60 * 60L;
     
     @Autowired
-    public AccessTokenService(PukTokenManager pukTokenManager) {
+    public AccessTokenService(PukTokenManager pukTokenManager,
+                              @Value("${hapi.fhir.auth.token_cache.max_entries:10000}") int tokenCacheMaxEntries) {
         this.pukTokenManager = pukTokenManager;
+        this.tokenCache = new VerifiedTokenCache(tokenCacheMaxEntries);
     }
 
     public void setSkipTimeValidation(boolean skip) {
@@ -59,14 +68,32 @@ public class AccessTokenService {
         return authHeader.substring(7);
     }
     
-    private Algorithm getAlgorithm(DecodedJWT unverifiedJwt) {
-        String alg = unverifiedJwt.getAlgorithm();
-        logger.info("JWT verwendet Algorithmus: {}", alg);
-        
-        ECPublicKey publicKey = (ECPublicKey) pukTokenManager.getCurrentPublicKey();
+    /**
+     * Liefert einen vorbereiteten Verifier für den Schlüssel mit der 'kid' aus dem Token-Header.
+     * Verifier und Algorithmus-Instanzen sind threadsicher und werden von allen Requests geteilt;
+     * ändern sich die Schlüssel des IdP, wird der gesamte Satz ersetzt.
+     */
+    private JWTVerifier getVerifier(DecodedJWT unverifiedJwt, Map<String, PublicKey> keys) {
+        VerifierSet current = verifierSet;
+        if (current == null || current.keys != keys) {
+            current = new VerifierSet(keys);
+            verifierSet = current;
+        }
+        String kid = unverifiedJwt.getKeyId() != null ? unverifiedJwt.getKeyId() : PukTokenManager.DEFAULT_KID;
+        PublicKey publicKey = keys.get(kid);
         if (publicKey == null) {
-            throw new AccessTokenException(AccessTokenError.INVALID_VALUE, "Kein Public Key für Signaturvalidierung verfügbar");
+            // Möglicherweise hat der IdP rotiert: nächste Aktualisierung vorziehen, ohne hier zu warten
+            pukTokenManager.requestRefresh();
+            throw new AccessTokenException(AccessTokenError.INVALID_VALUE, "Unbekannter Signaturschlüssel (kid): " + kid);
         }
+        String alg = unverifiedJwt.getAlgorithm() != null ? unverifiedJwt.getAlgorithm().toUpperCase(Locale.ROOT) : "";
+        // Der Schalter für die Zeitprüfung gehört zum Schlüssel, da er in den Verifier eingebaut wird
+        return current.verifiers.computeIfAbsent(kid + "|" + alg + "|" + skipTimeValidation,
+            key -> createVerifier(getAlgorithm(alg, (ECPublicKey) publicKey)));
+    }
+
+    private Algorithm getAlgorithm(String alg, ECPublicKey publicKey) {
+        logger.info("Erzeuge Verifier für JWT Algorithmus: {}", alg);
         
         if (alg.equalsIgnoreCase("BP256R1")) {
             logger.debug("Verwende Brainpool P256r1 Algorithmus");
@@ -110,22 +137,47 @@ public class AccessTokenService {
         return accessToken;
     }
     
+    /**
+     * Leert den Cache geprüfter Tokens, z.B. nach einem manuellen Schlüsselwechsel.
+     */
+    public void clearTokenCache() {
+        tokenCache.clear();
+    }
+
+    VerifiedTokenCache getTokenCache() {
+        return tokenCache;
+    }
+
     public AccessToken verifyAndDecode(String authHeader) {
         try {
             String token = extractToken(authHeader);
             DecodedJWT jwt;
+            String tokenHash = null;
             
             if (skipSignatureValidation) {
                 jwt = JWT.decode(token);
             } else {
+                Map<String, PublicKey> keys = pukTokenManager.getKeys();
+                if (keys.isEmpty()) {
+                    throw new AccessTokenException(AccessTokenError.INVALID_VALUE, "Kein Public Key für Signaturvalidierung verfügbar");
+                }
+                // Bereits geprüfte Tokens nur noch zeitlich validieren, die Signatur nicht erneut
+                tokenCache.bindToKeys(keys);
+                tokenHash = VerifiedTokenCache.hash(token);
+                AccessToken cached = tokenCache.get(tokenHash);
+                if (cached != null) {
+                    validateToken(cached);
+                    return cached;
+                }
                 DecodedJWT unverifiedJwt = JWT.decode(token);
-                Algorithm algorithm = getAlgorithm(unverifiedJwt);
-                JWTVerifier verifier = createVerifier(algorithm);
-                jwt = verifier.verify(token);
+                jwt = getVerifier(unverifiedJwt, keys).verify(unverifiedJwt);
             }
             
             AccessToken accessToken = createAccessToken(jwt);
             validateToken(accessToken);
+            if (tokenHash != null) {
+                tokenCache.put(tokenHash, accessToken);
+            }
             return accessToken;
             
         } catch (JWTDecodeException e) {
@@ -134,4 +186,13 @@ public class AccessTokenService {
             throw new AccessTokenException(AccessTokenError.INVALID_VALUE, "Token Signatur ungültig: " + e.getMessage());
         }
     }
-} 
\ No newline at end of file
+
+    private static final class VerifierSet {
+        private final Map<String, PublicKey> keys;
+        private final Map<String, JWTVerifier> verifiers = new ConcurrentHashMap<>();
+
+        private VerifierSet(Map<String, PublicKey> keys) {
+            this.keys = keys;
+        }
+    }
+}
@@ -5,6 +5,7 @@ import ca.uhn.fhir.interceptor.api.Interceptor;
 import ca.uhn.fhir.interceptor.api.Pointcut;
 import ca.uhn.fhir.rest.server.exceptions.AuthenticationException;
 import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
 import org.springframework.stereotype.Component;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,6 +18,12 @@ public class AuthenticationInterceptor {
     
     private static final Logger LOGGER = LoggerFactory.getLogger(AuthenticationInterceptor.class);
     
+    /**
+     * Servlet-Request-Attribut mit dem bereits geprüften {@link AccessToken}. Die VAU setzt es für Folge-Requests
+     * einer Sitzung mit unverändertem Token; nach erfolgreicher Prüfung enthält es den Token des Requests.
+     */
+    public static final String VERIFIED_ACCESS_TOKEN_ATTRIBUTE = AuthenticationInterceptor.class.getName() + ".verifiedAccessToken";
+
     private final AccessTokenService accessTokenService;
     
     // Nur noch technische Pfade ohne Auth
@@ -60,8 +67,17 @@ public class AuthenticationInterceptor {
         }
         
         try {
-            AccessToken accessToken = accessTokenService.verifyAndDecode(authHeader);
+            AccessToken accessToken = takeVerifiedAccessToken(requestDetails);
+            if (accessToken != null) {
+                // Signatur wurde innerhalb der VAU-Sitzung bereits geprüft, nur noch die zeitliche Gültigkeit
+                accessTokenService.validateToken(accessToken);
+            } else {
+                accessToken = accessTokenService.verifyAndDecode(authHeader);
+            }
             LOGGER.debug("Token wurde validiert für Profession: {}", accessToken.getProfession());
+            if (requestDetails instanceof ServletRequestDetails servletRequestDetails) {
+                servletRequestDetails.getServletRequest().setAttribute(VERIFIED_ACCESS_TOKEN_ATTRIBUTE, accessToken);
+            }
             
             // Speichere den decodierten Token im RequestDetails für spätere Verwendung
             requestDetails.getUserData().put("ACCESS_TOKEN", accessToken);
@@ -69,7 +85,8 @@ public class AuthenticationInterceptor {
             // Prüfe spezielle Berechtigungen für die Submit-Operation
             boolean isSubmitOperation = requestPath != null && 
                                       requestDetails.getOperation() != null && 
-                                      requestDetails.getOperation().equals("$erechnung-submit");
+                                      (requestDetails.getOperation().equals("$erechnung-submit") ||
+                                       requestDetails.getOperation().equals("$erechnung-submit-multipart"));
             
             if (isSubmitOperation && accessToken.getProfession() == Profession.VERSICHERTER) {
                 throw new AuthenticationException("Keine ausreichende Berechtigung für die Submit-Operation. Nur Leistungserbringer und Kostenträger dürfen Rechnungen einreichen.");
@@ -80,4 +97,18 @@ public class AuthenticationInterceptor {
             throw new AuthenticationException("Token Validierungsfehler: " + e.getMessage());
         }
     }
+
+    /**
+     * Entnimmt einen vorab geprüften Token aus dem Servlet-Request. Das Attribut kann nur serverseitig gesetzt
+     * werden; es bleibt nur bestehen, wenn die erneute Prüfung gelingt.
+     */
+    private static AccessToken takeVerifiedAccessToken(RequestDetails requestDetails) {
+        if (!(requestDetails instanceof ServletRequestDetails servletRequestDetails)
+                || servletRequestDetails.getServletRequest() == null) {
+            return null;
+        }
+        Object attribute = servletRequestDetails.getServletRequest().getAttribute(VERIFIED_ACCESS_TOKEN_ATTRIBUTE);
+        servletRequestDetails.getServletRequest().removeAttribute(VERIFIED_ACCESS_TOKEN_ATTRIBUTE);
+        return attribute instanceof AccessToken accessToken ? accessToken : null;
+    }
 } 
\ No newline at end of file
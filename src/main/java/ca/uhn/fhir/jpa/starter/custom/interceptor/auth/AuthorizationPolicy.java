@@ -0,0 +1,234 @@
+package ca.uhn.fhir.jpa.starter.custom.interceptor.auth;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Berechtigungsmatrix aus Aktion, Profession und Scope. Die Regeln in {@link Action} werden beim Start in eine
+ * Entscheidungstabelle übersetzt: je Aktion und Profession ein int, das die zulässigen Scopes als Bitmaske und
+ * ein Bit für die Zulässigkeit der Profession enthält. Der Scope eines Tokens wird einmalig in eine Bitmaske
+ * übersetzt ({@link AccessToken#getScopeMask()}); eine Prüfung besteht dann aus einem Array-Zugriff und einer
+ * UND-Verknüpfung. Mit {@link #dump()} lässt sich die vollständige Matrix ausgeben.
+ * <p>
+ * Die Bitmaske enthält die Scopes zweifach: in den unteren Bits jeden im Claim enthaltenen Scope
+ * ({@link ScopeMatch#CONTAINED}), ab {@link #EXACT_SHIFT} nur den Scope, dem der Claim vollständig entspricht
+ * ({@link ScopeMatch#EXACT}). Welche Hälfte eine Aktion prüft, legt ihre {@link ScopeMatch} fest.
+ */
+@Component
+public class AuthorizationPolicy {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuthorizationPolicy.class);
+
+    /** Bekannte Scopes; unbekannte Scopes im Token werden ignoriert. */
+    public enum Scope {
+        OPENID("openid"),
+        E_REZEPT("e-rezept"),
+        INSURANT_ACCOUNT_RS("insurantAccount.rs"),
+        INVOICE_DOC_C("invoiceDoc.c"),
+        INVOICE_DOC_R("invoiceDoc.r"),
+        INVOICE_DOC_S("invoiceDoc.s"),
+        INVOICE_DOC_U("invoiceDoc.u"),
+        AUDIT_EVENT_RS("auditEvent.rs"),
+        /** Gesetzt, wenn der Token "openid" unmittelbar gefolgt von "e-rezept" enthält */
+        WILDCARD("openid e-rezept");
+
+        private final String value;
+
+        Scope(String value) {
+            this.value = value;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        int bit() {
+            return 1 << ordinal();
+        }
+    }
+
+    /** Wie der Scope-Claim eines Tokens mit den zulässigen Scopes einer Aktion verglichen wird. */
+    public enum ScopeMatch {
+        /** Der gesamte Claim muss genau einem zulässigen Scope entsprechen, z.B. nur "insurantAccount.rs" */
+        EXACT,
+        /** Der Claim muss einen zulässigen Scope als durch Leerzeichen getrennten Wert enthalten */
+        CONTAINED
+    }
+
+    /**
+     * Die geprüften Aktionen mit Vergleichsart, zulässigen Professionen (leer: jede Profession, auch ohne) und
+     * zulässigen Scopes (einer davon genügt). Die Ressourcenzugriffe verlangen wie in der Spezifikation einen
+     * Token mit genau dem geforderten Scope; ein Token mit mehreren Scopes berechtigt dort nicht.
+     */
+    public enum Action {
+        /** Zugriff auf Patient-Ressourcen (A_26028) */
+        PATIENT_RESOURCE(ScopeMatch.EXACT, Set.of(), Scope.INSURANT_ACCOUNT_RS, Scope.WILDCARD),
+        /** Suche nach DocumentReference-Ressourcen (A_26033) */
+        DOCUMENT_SEARCH(ScopeMatch.EXACT, Set.of(), Scope.INVOICE_DOC_S, Scope.WILDCARD),
+        /** Sonstiger Zugriff auf DocumentReference-Ressourcen (A_26034) */
+        DOCUMENT_READ(ScopeMatch.EXACT, Set.of(), Scope.INVOICE_DOC_R, Scope.WILDCARD),
+        /** Zugriff auf AuditEvent-Ressourcen (A_26041) */
+        AUDIT_EVENT_RESOURCE(ScopeMatch.EXACT, Set.of(), Scope.AUDIT_EVENT_RS, Scope.WILDCARD),
+        /** Abruf, Markierung und Löschung von Rechnungsdokumenten */
+        DOCUMENT_ACCESS(ScopeMatch.CONTAINED, EnumSet.of(Profession.VERSICHERTER, Profession.KOSTENTRAEGER), Scope.INVOICE_DOC_R, Scope.WILDCARD),
+        /** Einreichen von Rechnungen (A_26029) */
+        SUBMIT(ScopeMatch.CONTAINED, EnumSet.of(Profession.LEISTUNGSERBRINGER, Profession.ARZT_KRANKENHAUS), Scope.INVOICE_DOC_C, Scope.WILDCARD),
+        /** Ändern des Dokumentenstatus */
+        CHANGE_STATUS(ScopeMatch.CONTAINED, EnumSet.of(Profession.VERSICHERTER), Scope.INVOICE_DOC_U, Scope.WILDCARD);
+
+        private final ScopeMatch scopeMatch;
+        private final Set<Profession> professions;
+        private final List<Scope> scopes;
+
+        Action(ScopeMatch scopeMatch, Set<Profession> professions, Scope... scopes) {
+            this.scopeMatch = scopeMatch;
+            this.professions = professions;
+            this.scopes = List.of(scopes);
+        }
+
+        public ScopeMatch getScopeMatch() {
+            return scopeMatch;
+        }
+
+        public Set<Profession> getProfessions() {
+            return professions;
+        }
+
+        public List<Scope> getScopes() {
+            return scopes;
+        }
+
+        /**
+         * @return Die zulässigen Scopes für Fehlermeldungen, z.B. "'invoiceDoc.u' oder 'openid e-rezept'"
+         */
+        public String describeScopes() {
+            return scopes.stream().map(s -> "'" + s.getValue() + "'").collect(Collectors.joining(" oder "));
+        }
+    }
+
+    /** Markiert in einer Tabellenzelle, dass die Profession für die Aktion zulässig ist. */
+    private static final int PROFESSION_ALLOWED = 1 << 31;
+    /** Ab diesem Bit stehen die Scopes, denen der Claim vollständig entspricht */
+    static final int EXACT_SHIFT = 16;
+    private static final Map<String, Scope> SCOPES_BY_VALUE = Stream.of(Scope.values())
+        .filter(s -> s != Scope.WILDCARD)
+        .collect(Collectors.toUnmodifiableMap(Scope::getValue, Function.identity()));
+    /** Letzte Spalte: Token ohne Profession */
+    private static final int COLUMNS = Profession.values().length + 1;
+
+    private final int[] table;
+
+    public AuthorizationPolicy() {
+        this.table = compile();
+        logger.debug("Berechtigungsmatrix kompiliert:\n{}", dump());
+    }
+
+    private static int[] compile() {
+        int[] compiled = new int[Action.values().length * COLUMNS];
+        for (Action action : Action.values()) {
+            int scopeMask = 0;
+            for (Scope scope : action.scopes) {
+                scopeMask |= scope.bit();
+            }
+            if (action.scopeMatch == ScopeMatch.EXACT) {
+                scopeMask <<= EXACT_SHIFT;
+            }
+            for (int column = 0; column < COLUMNS; column++) {
+                boolean professionAllowed = action.professions.isEmpty()
+                    || column < Profession.values().length && action.professions.contains(Profession.values()[column]);
+                compiled[action.ordinal() * COLUMNS + column] = scopeMask | (professionAllowed ? PROFESSION_ALLOWED : 0);
+            }
+        }
+        return compiled;
+    }
+
+    /**
+     * Übersetzt einen Scope-Claim (durch Leerzeichen getrennte Scopes) in eine Bitmaske: die enthaltenen Scopes
+     * in den unteren Bits, der vollständig übereinstimmende Scope ab {@link #EXACT_SHIFT}.
+     */
+    public static int scopeMask(String scope) {
+        if (scope == null || scope.isBlank()) {
+            return 0;
+        }
+        int mask = 0;
+        String[] parts = scope.trim().split("\\s+");
+        for (int i = 0; i < parts.length; i++) {
+            Scope known = SCOPES_BY_VALUE.get(parts[i]);
+            if (known != null) {
+                mask |= known.bit();
+            }
+            if (known == Scope.OPENID && i + 1 < parts.length && Scope.E_REZEPT.getValue().equals(parts[i + 1])) {
+                mask |= Scope.WILDCARD.bit();
+            }
+        }
+        Scope exact = Scope.WILDCARD.getValue().equals(scope) ? Scope.WILDCARD : SCOPES_BY_VALUE.get(scope);
+        if (exact != null) {
+            mask |= exact.bit() << EXACT_SHIFT;
+        }
+        return mask;
+    }
+
+    private int cell(Action action, Profession profession) {
+        int column = profession != null ? profession.ordinal() : COLUMNS - 1;
+        return table[action.ordinal() * COLUMNS + column];
+    }
+
+    public boolean isProfessionAllowed(Action action, Profession profession) {
+        return (cell(action, profession) & PROFESSION_ALLOWED) != 0;
+    }
+
+    public boolean hasRequiredScope(Action action, AccessToken accessToken) {
+        return hasRequiredScope(action, accessToken.getProfession(), accessToken.getScopeMask());
+    }
+
+    boolean hasRequiredScope(Action action, Profession profession, int scopeMask) {
+        return (cell(action, profession) & ~PROFESSION_ALLOWED & scopeMask) != 0;
+    }
+
+    public boolean isAllowed(Action action, AccessToken accessToken) {
+        return isAllowed(action, accessToken.getProfession(), accessToken.getScopeMask());
+    }
+
+    boolean isAllowed(Action action, Profession profession, int scopeMask) {
+        int cell = cell(action, profession);
+        return (cell & PROFESSION_ALLOWED) != 0 && (cell & ~PROFESSION_ALLOWED & scopeMask) != 0;
+    }
+
+    /**
+     * @return Die kompilierte Matrix, eine Zeile je Aktion mit den zulässigen Professionen und Scopes
+     */
+    public String dump() {
+        List<String> lines = new ArrayList<>();
+        for (Action action : Action.values()) {
+            List<String> professions = new ArrayList<>();
+            int scopes = 0;
+            for (int column = 0; column < COLUMNS; column++) {
+                Profession profession = column < Profession.values().length ? Profession.values()[column] : null;
+                int cell = cell(action, profession);
+                if ((cell & PROFESSION_ALLOWED) != 0) {
+                    professions.add(profession != null ? profession.name() : "OHNE_PROFESSION");
+                    scopes |= cell & ~PROFESSION_ALLOWED;
+                }
+            }
+            int scopeMask = action.scopeMatch == ScopeMatch.EXACT ? scopes >>> EXACT_SHIFT : scopes;
+            String scopeList = Stream.of(Scope.values())
+                .filter(s -> (scopeMask & s.bit()) != 0)
+                .map(Scope::getValue)
+                .collect(Collectors.joining(" | "));
+            lines.add(action + ": " + (professions.size() == COLUMNS ? "alle" : String.join(", ", professions))
+                + " -> " + (professions.isEmpty() ? "-" : scopeList)
+                + (action.scopeMatch == ScopeMatch.EXACT ? " (exakt)" : ""));
+        }
+        return String.join("\n", lines);
+    }
+}
@@ -9,19 +9,34 @@ import java.security.interfaces.ECPrivateKey;
 import java.security.Signature;
 import java.util.Base64;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
-import org.bouncycastle.asn1.ASN1EncodableVector;
-import org.bouncycastle.asn1.ASN1Integer;
-import org.bouncycastle.asn1.DERSequence;
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.Security;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import java.math.BigInteger;
 
 public class BrainpoolP256r1Algorithm extends Algorithm {
     private static final Logger logger = LoggerFactory.getLogger(BrainpoolP256r1Algorithm.class);
     private final ECPublicKey publicKey;
     private final ECPrivateKey privateKey;
+
+    private static final int COORDINATE_LENGTH = 32;
+    /** Base64url ohne Padding für r || s (64 Byte) */
+    private static final int ENCODED_SIGNATURE_LENGTH = 86;
+    /** SEQUENCE-Header (2) + zwei INTEGER mit Header (2) und ggf. führendem Nullbyte (33) */
+    private static final int MAX_DER_LENGTH = 2 + 2 * (2 + COORDINATE_LENGTH + 1);
+
+    /** Signature-Instanzen sind nicht threadsicher, werden aber pro Thread wiederverwendet. */
+    private static final ThreadLocal<Signature> VERIFY_SIGNATURE = ThreadLocal.withInitial(() -> {
+        try {
+            return Signature.getInstance("SHA256withECDSA", "BC");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("SHA256withECDSA (BC) nicht verfügbar", e);
+        }
+    });
+    private static final ThreadLocal<byte[]> DER_BUFFER = ThreadLocal.withInitial(() -> new byte[MAX_DER_LENGTH]);
+    private static final ThreadLocal<byte[]> ENCODED_BUFFER = ThreadLocal.withInitial(() -> new byte[ENCODED_SIGNATURE_LENGTH]);
+    private static final ThreadLocal<byte[]> CONCAT_BUFFER = ThreadLocal.withInitial(() -> new byte[2 * COORDINATE_LENGTH]);
     
     static {
         if (Security.getProvider("BC") == null) {
@@ -39,47 +54,93 @@ public class BrainpoolP256r1Algorithm extends Algorithm {
         this.privateKey = privateKey;
     }
     
-    private byte[] convertConcatToDER(byte[] concat) throws Exception {
-        if (concat.length != 64) {
+    /**
+     * Wandelt die JOSE-Signatur (r || s, je 32 Byte) in DER um und schreibt das Ergebnis in den übergebenen Puffer.
+     * @return Länge der DER-Kodierung im Puffer
+     */
+    static int convertConcatToDER(byte[] concat, byte[] der) {
+        if (concat.length != 2 * COORDINATE_LENGTH) {
             throw new IllegalArgumentException("Ungültige Signaturlänge: " + concat.length);
         }
-        
-        byte[] r = new byte[32];
-        byte[] s = new byte[32];
-        System.arraycopy(concat, 0, r, 0, 32);
-        System.arraycopy(concat, 32, s, 0, 32);
-        
-        ASN1EncodableVector vector = new ASN1EncodableVector();
-        vector.add(new ASN1Integer(new BigInteger(1, r)));
-        vector.add(new ASN1Integer(new BigInteger(1, s)));
-        
-        return new DERSequence(vector).getEncoded();
+        int rOffset = firstSignificantByte(concat, 0);
+        int sOffset = firstSignificantByte(concat, COORDINATE_LENGTH);
+        int rLength = COORDINATE_LENGTH - rOffset;
+        int sLength = 2 * COORDINATE_LENGTH - sOffset;
+        // Ein gesetztes höchstes Bit würde als negative Zahl gelesen, daher ein Nullbyte voranstellen
+        int rPad = (concat[rOffset] & 0x80) != 0 ? 1 : 0;
+        int sPad = (concat[sOffset] & 0x80) != 0 ? 1 : 0;
+
+        int pos = 0;
+        der[pos++] = 0x30;
+        der[pos++] = (byte) (2 + rPad + rLength + 2 + sPad + sLength);
+        pos = writeInteger(concat, rOffset, rLength, rPad, der, pos);
+        return writeInteger(concat, sOffset, sLength, sPad, der, pos);
+    }
+
+    private static int firstSignificantByte(byte[] concat, int start) {
+        int last = start + COORDINATE_LENGTH - 1;
+        int i = start;
+        while (i < last && concat[i] == 0) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int writeInteger(byte[] concat, int offset, int length, int pad, byte[] der, int pos) {
+        der[pos++] = 0x02;
+        der[pos++] = (byte) (length + pad);
+        if (pad == 1) {
+            der[pos++] = 0x00;
+        }
+        System.arraycopy(concat, offset, der, pos, length);
+        return pos + length;
     }
     
     @Override
     public void verify(DecodedJWT jwt) throws SignatureVerificationException {
+        boolean valid;
         try {
-            String headerAndPayload = String.format("%s.%s", jwt.getHeader(), jwt.getPayload());
-            byte[] contentBytes = headerAndPayload.getBytes(StandardCharsets.UTF_8);
-            byte[] signatureBytes = convertConcatToDER(Base64.getUrlDecoder().decode(jwt.getSignature()));
-            
-            Signature signature = Signature.getInstance("SHA256withECDSA", "BC");
+            byte[] der = DER_BUFFER.get();
+            int derLength = convertConcatToDER(decodeSignature(jwt.getSignature()), der);
+
+            Signature signature = VERIFY_SIGNATURE.get();
             signature.initVerify(publicKey);
-            signature.update(contentBytes);
-            
-            if (!signature.verify(signatureBytes)) {
-                throw new SignatureVerificationException(this);
-            }
-            
-        } catch (IllegalArgumentException e) {
-            logger.error("Fehler bei der Signatur-Dekodierung: {}", e.getMessage());
-            throw new SignatureVerificationException(this, e);
-        } catch (Exception e) {
-            logger.error("Fehler bei der Signaturverifikation: {}", e.getMessage());
+            signature.update(jwt.getHeader().getBytes(StandardCharsets.UTF_8));
+            signature.update((byte) '.');
+            signature.update(jwt.getPayload().getBytes(StandardCharsets.UTF_8));
+            valid = signature.verify(der, 0, derLength);
+        } catch (IllegalArgumentException | GeneralSecurityException e) {
+            // Ungültige Signaturen kommen von außen und sind kein Serverfehler
+            logger.debug("Signatur des Tokens ist ungültig: {}", e.getMessage());
             throw new SignatureVerificationException(this, e);
         }
+        if (!valid) {
+            logger.debug("Signatur des Tokens passt nicht zum Schlüssel.");
+            throw new SignatureVerificationException(this);
+        }
     }
-    
+
+    /**
+     * Dekodiert die Base64url-Signatur in einen Puffer des Threads, ohne pro Aufruf Arrays anzulegen.
+     * @return Der Puffer mit r || s
+     */
+    private static byte[] decodeSignature(String encoded) {
+        if (encoded == null || encoded.length() != ENCODED_SIGNATURE_LENGTH) {
+            throw new IllegalArgumentException("Ungültige Länge der kodierten Signatur");
+        }
+        byte[] ascii = ENCODED_BUFFER.get();
+        for (int i = 0; i < ENCODED_SIGNATURE_LENGTH; i++) {
+            char c = encoded.charAt(i);
+            if (c > 0x7F) {
+                throw new IllegalArgumentException("Ungültiges Zeichen in der Signatur");
+            }
+            ascii[i] = (byte) c;
+        }
+        byte[] concat = CONCAT_BUFFER.get();
+        Base64.getUrlDecoder().decode(ascii, concat);
+        return concat;
+    }
+
     @Override
     public byte[] sign(byte[] contentBytes) throws SignatureGenerationException {
         if (privateKey == null) {
@@ -0,0 +1,408 @@
+package ca.uhn.fhir.jpa.starter.custom.interceptor.auth;
+
+import ca.uhn.fhir.jpa.model.sched.HapiJob;
+import ca.uhn.fhir.jpa.model.sched.IHasScheduledJobs;
+import ca.uhn.fhir.jpa.model.sched.ISchedulerService;
+import ca.uhn.fhir.jpa.model.sched.ScheduledJobDefinition;
+import org.bouncycastle.asn1.ASN1IA5String;
+import org.bouncycastle.asn1.x509.AccessDescription;
+import org.bouncycastle.asn1.x509.AuthorityInformationAccess;
+import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPReq;
+import org.bouncycastle.cert.ocsp.OCSPReqBuilder;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.RevokedStatus;
+import org.bouncycastle.cert.ocsp.SingleResp;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.DigestCalculator;
+import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.quartz.JobExecutionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Hält OCSP-Antworten für die eigenen Zertifikate des Fachdienstes (VAU) und die geprüften IdP-Zertifikate vor.
+ * Eine Antwort wird bis kurz vor ihrem nextUpdate aus dem Speicher geliefert und von einem lokalen Job des
+ * HAPI-Schedulers im Hintergrund erneuert; schlägt die Erneuerung fehl, bleibt die bisherige Antwort bis zu
+ * ihrem Ablauf gültig. Die unveränderten DER-Bytes werden für das Stapling ausgeliefert, sodass Clients
+ * keinen eigenen OCSP-Abruf benötigen.
+ */
+@Component
+public class OcspResponseCache implements IHasScheduledJobs {
+
+    private static final Logger logger = LoggerFactory.getLogger(OcspResponseCache.class);
+
+    private static final String BC_PROVIDER = BouncyCastleProvider.PROVIDER_NAME;
+    private static final int TIMEOUT_MILLIS = 5000;
+    /** Erlaubte Abweichung der Uhr des Responders bei thisUpdate */
+    private static final long CLOCK_SKEW_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    public enum RevocationStatus {
+        GOOD,
+        REVOKED,
+        UNKNOWN,
+        /** Keine gültige OCSP-Antwort vorhanden (Responder nicht erreichbar oder nicht ermittelbar) */
+        UNAVAILABLE
+    }
+
+    private final TslManager tslManager;
+    private final String defaultResponderUrl;
+    private final long checkIntervalSeconds;
+    private final long refreshMarginMillis;
+    private final long defaultValidityMillis;
+    /** Überwachte Zertifikate nach SHA-256-Fingerprint */
+    private final Map<String, TrackedCertificate> trackedCertificates = new ConcurrentHashMap<>();
+
+    @Autowired
+    public OcspResponseCache(
+            TslManager tslManager,
+            @Value("${hapi.fhir.auth.ocsp.responder_url:}") String defaultResponderUrl,
+            @Value("${hapi.fhir.auth.ocsp.check_interval_seconds:60}") long checkIntervalSeconds,
+            @Value("${hapi.fhir.auth.ocsp.refresh_margin_seconds:300}") long refreshMarginSeconds,
+            @Value("${hapi.fhir.auth.ocsp.default_validity_seconds:3600}") long defaultValiditySeconds) {
+        this.tslManager = tslManager;
+        this.defaultResponderUrl = defaultResponderUrl == null ? "" : defaultResponderUrl.trim();
+        this.checkIntervalSeconds = Math.max(1, checkIntervalSeconds);
+        this.refreshMarginMillis = TimeUnit.SECONDS.toMillis(Math.max(0, refreshMarginSeconds));
+        this.defaultValidityMillis = TimeUnit.SECONDS.toMillis(Math.max(1, defaultValiditySeconds));
+    }
+
+    @Override
+    public void scheduleJobs(ISchedulerService theSchedulerService) {
+        // Lokaler Job: jeder Knoten liefert die Antworten aus seinem eigenen Speicher aus
+        ScheduledJobDefinition jobDefinition = new ScheduledJobDefinition();
+        jobDefinition.setId(getClass().getName());
+        jobDefinition.setJobClass(RefreshJob.class);
+        theSchedulerService.scheduleLocalJob(TimeUnit.SECONDS.toMillis(checkIntervalSeconds), jobDefinition);
+        logger.info("Aktualisierung der OCSP-Antworten eingeplant (Prüfintervall: {} s).", checkIntervalSeconds);
+    }
+
+    /**
+     * Nimmt ein Zertifikat in die Überwachung auf. Der Aussteller ist bei selbstsignierten Zertifikaten das
+     * Zertifikat selbst, sonst der Vertrauensanker aus der TSL. Der Responder wird aus der Authority Information
+     * Access Extension, den ServiceSupplyPoints des Ausstellers in der TSL oder der Konfiguration ermittelt.
+     *
+     * @return true, wenn Aussteller und Responder ermittelt werden konnten
+     */
+    public boolean track(X509Certificate cert) {
+        if (trackedCertificates.containsKey(fingerprint(cert))) {
+            return true;
+        }
+        X509Certificate issuer;
+        List<String> responderUrls = new ArrayList<>(ocspUrlsFromCertificate(cert));
+        if (isSelfSigned(cert)) {
+            issuer = cert;
+        } else {
+            TslCertificateItem issuerItem = tslManager.findIssuer(cert);
+            if (issuerItem == null) {
+                logger.warn("Kein Aussteller in der TSL für OCSP-Abfrage gefunden: {}", cert.getSubjectX500Principal().getName());
+                return false;
+            }
+            issuer = issuerItem.getCertificate();
+            responderUrls.addAll(issuerItem.getSupplyPoints());
+        }
+        if (!defaultResponderUrl.isEmpty()) {
+            responderUrls.add(defaultResponderUrl);
+        }
+        if (responderUrls.isEmpty()) {
+            logger.info("Kein OCSP-Responder für Zertifikat bekannt: {}", cert.getSubjectX500Principal().getName());
+            return false;
+        }
+        track(cert, issuer, responderUrls);
+        return true;
+    }
+
+    TrackedCertificate track(X509Certificate cert, X509Certificate issuer, List<String> responderUrls) {
+        return trackedCertificates.computeIfAbsent(fingerprint(cert),
+            k -> new TrackedCertificate(cert, issuer, responderUrls.stream().distinct().toList()));
+    }
+
+    /**
+     * Liefert die zwischengespeicherte OCSP-Antwort (DER) für das Stapling. Nur solange noch keine Antwort vorliegt,
+     * wird sie synchron abgerufen (höchstens einmal je Prüfintervall); danach erneuert ausschließlich der Hintergrund-Job.
+     *
+     * @return Die DER-kodierte OCSPResponse oder null, wenn keine gültige Antwort vorliegt
+     */
+    public byte[] getStapledResponse(X509Certificate cert) {
+        CachedResponse response = currentResponse(cert);
+        return response != null ? response.encoded.clone() : null;
+    }
+
+    /**
+     * @return Der Sperrstatus laut der zwischengespeicherten OCSP-Antwort
+     */
+    public RevocationStatus getStatus(X509Certificate cert) {
+        CachedResponse response = currentResponse(cert);
+        return response != null ? response.status : RevocationStatus.UNAVAILABLE;
+    }
+
+    /**
+     * @return Sekunden, die die aktuelle Antwort noch gültig ist (0, wenn keine vorliegt)
+     */
+    public long getRemainingValiditySeconds(X509Certificate cert) {
+        TrackedCertificate tracked = trackedCertificates.get(fingerprint(cert));
+        CachedResponse response = tracked != null ? tracked.response : null;
+        if (response == null) {
+            return 0;
+        }
+        return Math.max(0, TimeUnit.MILLISECONDS.toSeconds(response.validUntilMillis - System.currentTimeMillis()));
+    }
+
+    /**
+     * Erneuert alle Antworten, deren Aktualisierungszeitpunkt erreicht ist.
+     */
+    public void refreshDue() {
+        long now = System.currentTimeMillis();
+        for (TrackedCertificate tracked : trackedCertificates.values()) {
+            if (now >= tracked.nextRefreshMillis) {
+                refresh(tracked);
+            }
+        }
+    }
+
+    private CachedResponse currentResponse(X509Certificate cert) {
+        TrackedCertificate tracked = trackedCertificates.get(fingerprint(cert));
+        if (tracked == null) {
+            if (!track(cert)) {
+                return null;
+            }
+            tracked = trackedCertificates.get(fingerprint(cert));
+        }
+        if (tracked.response == null && System.currentTimeMillis() >= tracked.nextRefreshMillis) {
+            refresh(tracked);
+        }
+        CachedResponse response = tracked.response;
+        return response != null && response.validUntilMillis > System.currentTimeMillis() ? response : null;
+    }
+
+    private void refresh(TrackedCertificate tracked) {
+        if (!tracked.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        try {
+            for (String responderUrl : tracked.responderUrls) {
+                try {
+                    CachedResponse response = fetch(tracked, responderUrl, now);
+                    tracked.response = response;
+                    tracked.nextRefreshMillis = nextRefresh(response, now);
+                    logger.debug("OCSP-Antwort für {} aktualisiert (Status {}, gültig bis {})",
+                        tracked.subject(), response.status, new Date(response.validUntilMillis));
+                    return;
+                } catch (Exception e) {
+                    logger.warn("OCSP-Abfrage bei {} für {} fehlgeschlagen: {}", responderUrl, tracked.subject(), e.getMessage());
+                }
+            }
+            // Die bisherige Antwort bleibt bis zu ihrem Ablauf in Verwendung
+            tracked.nextRefreshMillis = now + TimeUnit.SECONDS.toMillis(checkIntervalSeconds);
+        } finally {
+            tracked.refreshing.set(false);
+        }
+    }
+
+    private long nextRefresh(CachedResponse response, long now) {
+        long refreshAt = response.validUntilMillis - refreshMarginMillis;
+        if (refreshAt <= now) {
+            // Kurze Gültigkeit: nach der Hälfte der verbleibenden Zeit erneuern
+            refreshAt = now + (response.validUntilMillis - now) / 2;
+        }
+        return refreshAt;
+    }
+
+    private CachedResponse fetch(TrackedCertificate tracked, String responderUrl, long now) throws Exception {
+        DigestCalculator sha1 = new JcaDigestCalculatorProviderBuilder().setProvider(BC_PROVIDER).build()
+            .get(CertificateID.HASH_SHA1);
+        CertificateID certificateId = new CertificateID(sha1, new JcaX509CertificateHolder(tracked.issuer),
+            tracked.certificate.getSerialNumber());
+        // Ohne Nonce, da die Antwort zwischengespeichert und an Clients weitergegeben wird
+        OCSPReq request = new OCSPReqBuilder().addRequest(certificateId).build();
+
+        byte[] encoded = post(responderUrl, request.getEncoded());
+        OCSPResp ocspResponse = new OCSPResp(encoded);
+        if (ocspResponse.getStatus() != OCSPResp.SUCCESSFUL) {
+            throw new IllegalStateException("OCSP-Responder meldet Status " + ocspResponse.getStatus());
+        }
+        BasicOCSPResp basicResponse = (BasicOCSPResp) ocspResponse.getResponseObject();
+        verifyResponder(basicResponse, tracked.issuer);
+
+        for (SingleResp single : basicResponse.getResponses()) {
+            if (!certificateId.equals(single.getCertID())) {
+                continue;
+            }
+            if (single.getThisUpdate().getTime() > now + CLOCK_SKEW_MILLIS) {
+                throw new IllegalStateException("thisUpdate liegt in der Zukunft: " + single.getThisUpdate());
+            }
+            long validUntil = single.getNextUpdate() != null
+                ? single.getNextUpdate().getTime()
+                : now + defaultValidityMillis;
+            if (validUntil <= now) {
+                throw new IllegalStateException("OCSP-Antwort ist bereits abgelaufen: " + new Date(validUntil));
+            }
+            return new CachedResponse(encoded, toStatus(single.getCertStatus()), validUntil);
+        }
+        throw new IllegalStateException("OCSP-Antwort enthält keinen Status für das angefragte Zertifikat");
+    }
+
+    /**
+     * Die Antwort muss vom Aussteller selbst oder von einem durch ihn für OCSP delegierten Responder signiert sein.
+     */
+    private void verifyResponder(BasicOCSPResp response, X509Certificate issuer) throws Exception {
+        JcaContentVerifierProviderBuilder verifierBuilder = new JcaContentVerifierProviderBuilder().setProvider(BC_PROVIDER);
+        if (response.isSignatureValid(verifierBuilder.build(issuer.getPublicKey()))) {
+            return;
+        }
+        for (X509CertificateHolder responderCert : response.getCerts()) {
+            boolean delegated = responderCert.isSignatureValid(verifierBuilder.build(issuer.getPublicKey()))
+                && isOcspSigner(responderCert);
+            if (delegated && responderCert.isValidOn(new Date())
+                    && response.isSignatureValid(verifierBuilder.build(responderCert))) {
+                return;
+            }
+        }
+        throw new IllegalStateException("Signatur der OCSP-Antwort konnte nicht geprüft werden");
+    }
+
+    private static boolean isOcspSigner(X509CertificateHolder cert) {
+        Extension extension = cert.getExtension(Extension.extendedKeyUsage);
+        return extension != null && ExtendedKeyUsage.getInstance(extension.getParsedValue())
+            .hasKeyPurposeId(KeyPurposeId.id_kp_OCSPSigning);
+    }
+
+    private static RevocationStatus toStatus(CertificateStatus status) {
+        if (status == CertificateStatus.GOOD) {
+            return RevocationStatus.GOOD;
+        }
+        return status instanceof RevokedStatus ? RevocationStatus.REVOKED : RevocationStatus.UNKNOWN;
+    }
+
+    private static byte[] post(String responderUrl, byte[] body) throws Exception {
+        HttpURLConnection conn = (HttpURLConnection) new URL(responderUrl).openConnection();
+        conn.setRequestMethod("POST");
+        conn.setConnectTimeout(TIMEOUT_MILLIS);
+        conn.setReadTimeout(TIMEOUT_MILLIS);
+        conn.setRequestProperty("Content-Type", "application/ocsp-request");
+        conn.setRequestProperty("Accept", "application/ocsp-response");
+        conn.setDoOutput(true);
+        conn.setUseCaches(false);
+        try (OutputStream os = conn.getOutputStream()) {
+            os.write(body);
+        }
+        if (conn.getResponseCode() != HttpURLConnection.HTTP_OK) {
+            throw new IllegalStateException("HTTP-Status " + conn.getResponseCode());
+        }
+        try (InputStream is = conn.getInputStream()) {
+            return is.readAllBytes();
+        }
+    }
+
+    private static List<String> ocspUrlsFromCertificate(X509Certificate cert) {
+        List<String> urls = new ArrayList<>();
+        try {
+            byte[] extension = cert.getExtensionValue(Extension.authorityInfoAccess.getId());
+            if (extension == null) {
+                return urls;
+            }
+            AuthorityInformationAccess aia = AuthorityInformationAccess.getInstance(JcaX509ExtensionUtils.parseExtensionValue(extension));
+            for (AccessDescription description : aia.getAccessDescriptions()) {
+                GeneralName location = description.getAccessLocation();
+                if (AccessDescription.id_ad_ocsp.equals(description.getAccessMethod())
+                        && location.getTagNo() == GeneralName.uniformResourceIdentifier) {
+                    urls.add(ASN1IA5String.getInstance(location.getName()).getString());
+                }
+            }
+        } catch (Exception e) {
+            logger.debug("Authority Information Access nicht lesbar: {}", e.getMessage());
+        }
+        return urls;
+    }
+
+    private static boolean isSelfSigned(X509Certificate cert) {
+        if (!cert.getSubjectX500Principal().equals(cert.getIssuerX500Principal())) {
+            return false;
+        }
+        try {
+            cert.verify(cert.getPublicKey(), BC_PROVIDER);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static String fingerprint(X509Certificate cert) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(cert.getEncoded()));
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Fingerprint des Zertifikats konnte nicht berechnet werden", e);
+        }
+    }
+
+    static final class TrackedCertificate {
+        private final X509Certificate certificate;
+        private final X509Certificate issuer;
+        private final List<String> responderUrls;
+        private final AtomicBoolean refreshing = new AtomicBoolean(false);
+        private volatile CachedResponse response;
+        private volatile long nextRefreshMillis;
+
+        private TrackedCertificate(X509Certificate certificate, X509Certificate issuer, List<String> responderUrls) {
+            this.certificate = certificate;
+            this.issuer = issuer;
+            this.responderUrls = responderUrls;
+        }
+
+        private String subject() {
+            return certificate.getSubjectX500Principal().getName();
+        }
+    }
+
+    private static final class CachedResponse {
+        private final byte[] encoded;
+        private final RevocationStatus status;
+        private final long validUntilMillis;
+
+        private CachedResponse(byte[] encoded, RevocationStatus status, long validUntilMillis) {
+            this.encoded = encoded;
+            this.status = status;
+            this.validUntilMillis = validUntilMillis;
+        }
+    }
+
+    public static class RefreshJob implements HapiJob {
+
+        @Autowired
+        private OcspResponseCache ocspResponseCache;
+
+        @Override
+        public void execute(JobExecutionContext theContext) {
+            ocspResponseCache.refreshDue();
+        }
+    }
+}
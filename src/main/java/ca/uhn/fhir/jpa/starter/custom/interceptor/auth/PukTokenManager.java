@@ -1,8 +1,13 @@
 package ca.uhn.fhir.jpa.starter.custom.interceptor.auth;
 
 
+import ca.uhn.fhir.jpa.model.sched.HapiJob;
+import ca.uhn.fhir.jpa.model.sched.IHasScheduledJobs;
+import ca.uhn.fhir.jpa.model.sched.ISchedulerService;
+import ca.uhn.fhir.jpa.model.sched.ScheduledJobDefinition;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.quartz.JobExecutionContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -20,41 +25,115 @@ import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.time.ZonedDateTime;
 import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.security.interfaces.ECPublicKey;
 import jakarta.annotation.PostConstruct;
 
+/**
+ * Hält die Signaturschlüssel des IdP (puk_idp_sig) aktuell.
+ * Die Schlüssel liegen in einer unveränderlichen Map nach 'kid', die bei jeder Aktualisierung als Ganzes
+ * ausgetauscht wird; Request-Threads lesen nur die aktuelle Map und warten nie auf eine Aktualisierung.
+ * Die Aktualisierung läuft als lokaler Job des HAPI-Schedulers im Abstand von update_interval_seconds,
+ * nach einem Fehler bereits nach retry_interval_seconds.
+ */
 @Component
-public class PukTokenManager {
-    
+public class PukTokenManager implements IHasScheduledJobs {
+
     private static final Logger logger = LoggerFactory.getLogger(PukTokenManager.class);
-    
+
+    static final String DEFAULT_KID = "puk_idp_sig";
+
     private final String discoveryUrl;
     private final long updateIntervalSeconds;
-    private PublicKey currentPublicKey;
-    
+    private final long retryIntervalSeconds;
+    private final TslManager tslManager;
+    private final OcspResponseCache ocspResponseCache;
+    private final AtomicReference<Map<String, PublicKey>> keysByKid = new AtomicReference<>(Map.of());
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
+    private volatile long nextRefreshMillis;
+    private volatile long lastAttemptMillis;
+
+    public PukTokenManager(String discoveryUrl, long updateIntervalSeconds, long retryIntervalSeconds, TslManager tslManager) {
+        this(discoveryUrl, updateIntervalSeconds, retryIntervalSeconds, tslManager, null);
+    }
+
     @Autowired
-    private TslManager tslManager;
-    
     public PukTokenManager(
             @Value("${hapi.fhir.auth.discovery_url}") String discoveryUrl,
-            @Value("${hapi.fhir.auth.update_interval_seconds}") long updateIntervalSeconds) {
+            @Value("${hapi.fhir.auth.update_interval_seconds}") long updateIntervalSeconds,
+            @Value("${hapi.fhir.auth.retry_interval_seconds:60}") long retryIntervalSeconds,
+            TslManager tslManager,
+            OcspResponseCache ocspResponseCache) {
         this.discoveryUrl = discoveryUrl;
-        this.updateIntervalSeconds = updateIntervalSeconds;
+        this.updateIntervalSeconds = Math.max(1, updateIntervalSeconds);
+        this.retryIntervalSeconds = Math.max(1, Math.min(retryIntervalSeconds, this.updateIntervalSeconds));
+        this.tslManager = tslManager;
+        this.ocspResponseCache = ocspResponseCache;
     }
-    
+
     @PostConstruct
     public void init() {
-        try {
-            updatePublicKey();
+        configureSslContext();
+        if (refreshIfDue()) {
             logger.info("PukTokenManager wurde automatisch initialisiert und Public Key erfolgreich geladen.");
+        } else {
+            // Kein Abbruch der Bean-Erstellung: der Scheduler versucht es nach retry_interval_seconds erneut.
+            // Bis dahin ist kein Public Key vorhanden, was an anderer Stelle behandelt werden muss.
+            logger.warn("Initialisierung des PukTokenManager fehlgeschlagen (z.B. Discovery URL nicht erreichbar). Fortfahren ohne Public Key.");
+        }
+    }
+
+    @Override
+    public void scheduleJobs(ISchedulerService theSchedulerService) {
+        // Lokaler Job: jeder Knoten braucht die Schlüssel selbst. Der Job läuft im Retry-Takt und
+        // entscheidet anhand von nextRefreshMillis, ob eine Aktualisierung fällig ist.
+        ScheduledJobDefinition jobDefinition = new ScheduledJobDefinition();
+        jobDefinition.setId(getClass().getName());
+        jobDefinition.setJobClass(RefreshJob.class);
+        theSchedulerService.scheduleLocalJob(TimeUnit.SECONDS.toMillis(retryIntervalSeconds), jobDefinition);
+        logger.info("Aktualisierung der IdP-Schlüssel eingeplant (Intervall: {} s, nach Fehlern: {} s).", updateIntervalSeconds, retryIntervalSeconds);
+    }
+
+    /**
+     * Aktualisiert die Schlüssel, wenn das Intervall abgelaufen ist. Läuft bereits eine Aktualisierung,
+     * kehrt der Aufruf sofort zurück.
+     *
+     * @return true, wenn nach dem Aufruf Schlüssel vorhanden sind
+     */
+    public boolean refreshIfDue() {
+        long now = System.currentTimeMillis();
+        if (now < nextRefreshMillis || !refreshing.compareAndSet(false, true)) {
+            return !keysByKid.get().isEmpty();
+        }
+        try {
+            lastAttemptMillis = now;
+            refreshKeys();
+            nextRefreshMillis = now + TimeUnit.SECONDS.toMillis(updateIntervalSeconds);
         } catch (Exception e) {
-            logger.warn("Initialisierung des PukTokenManager fehlgeschlagen (z.B. Discovery URL nicht erreichbar). Public Key konnte nicht geladen werden: {}. Fortfahren ohne Public Key.", e.getMessage());
-            // Die Exception wird hier abgefangen, damit die Bean-Erstellung nicht fehlschlägt.
-            // Der currentPublicKey bleibt null, was an anderer Stelle behandelt werden muss, 
-            // wenn der Key tatsächlich benötigt wird.
+            logger.error("Fehler beim Aktualisieren der IdP-Schlüssel, neuer Versuch in {} s: {}", retryIntervalSeconds, e.getMessage());
+            nextRefreshMillis = now + TimeUnit.SECONDS.toMillis(retryIntervalSeconds);
+        } finally {
+            refreshing.set(false);
         }
+        return !keysByKid.get().isEmpty();
     }
-    
+
+    /**
+     * Zieht die nächste Aktualisierung vor, z.B. wenn ein Token mit unbekannter 'kid' eintrifft.
+     * Der Aufruf blockiert nicht; die Aktualisierung erfolgt im nächsten Scheduler-Lauf und höchstens
+     * einmal pro retry_interval_seconds.
+     */
+    public void requestRefresh() {
+        long earliest = lastAttemptMillis + TimeUnit.SECONDS.toMillis(retryIntervalSeconds);
+        if (earliest < nextRefreshMillis) {
+            nextRefreshMillis = earliest;
+        }
+    }
+
     private void configureSslContext() {
         try {
             SSLContext sc = SSLContext.getInstance("SSL");
@@ -70,10 +149,16 @@ public class PukTokenManager {
             throw new RuntimeException("SSL-Konfigurationsfehler", e);
         }
     }
-    
-    private String fetchData(String urlString) {
+
+    /**
+     * Lädt Discovery-Dokument bzw. JWKS. Nur HTTPS ist zulässig; Tests können die Methode überschreiben.
+     */
+    String fetchData(String urlString) {
         try {
             URL url = new URL(urlString);
+            if (!"https".equalsIgnoreCase(url.getProtocol())) {
+                throw new IllegalArgumentException("Nur HTTPS ist für Discovery-Dokument und JWKS zulässig: " + urlString);
+            }
             HttpsURLConnection conn = (HttpsURLConnection) url.openConnection();
             conn.setRequestMethod("GET");
             conn.setRequestProperty("Accept", "application/json, */*;q=0.8");
@@ -81,7 +166,7 @@ public class PukTokenManager {
             conn.setRequestProperty("Accept-Charset", "UTF-8");
             conn.setDoInput(true);
             conn.setUseCaches(false);
-            
+
             try (InputStream is = conn.getInputStream();
                 ByteArrayOutputStream result = new ByteArrayOutputStream()) {
                 byte[] buffer = new byte[1024];
@@ -96,7 +181,7 @@ public class PukTokenManager {
             throw new RuntimeException("Fehler beim Datenabruf", e);
         }
     }
-    
+
     private X509Certificate createCertificate(byte[] certBytes) {
         try {
             CertificateFactory certFactory = CertificateFactory.getInstance("X.509");
@@ -106,49 +191,81 @@ public class PukTokenManager {
             throw new RuntimeException("Zertifikatserstellungsfehler", e);
         }
     }
-    
-    private void updatePublicKey() {
+
+    /**
+     * Lädt Discovery-Dokument und JWKS und tauscht die Schlüssel-Map aus, sofern sich die Schlüssel geändert haben.
+     * Unveränderte Schlüssel behalten die bisherige Map-Instanz, damit abhängige Caches gültig bleiben.
+     */
+    void refreshKeys() {
         try {
-            configureSslContext();
-            
             // Discovery-Dokument laden und validieren
             String jwt = fetchData(discoveryUrl);
-            X509Certificate discoveryDocCert = extractAndValidateCertFromJwt(jwt);
+            extractAndValidateCertFromJwt(jwt);
             logger.info("Discovery-Dokument Zertifikat validiert");
-            
-            // JWKS URL und Daten abrufen
+
+            // JWKS URL und Daten abrufen; akzeptiert wird ein einzelner JWK oder ein JWK-Set ("keys")
             String jwksUrl = extractUriPukIdpSig(jwt);
-            String jwksResponse = fetchData(jwksUrl);
-            JSONObject jwks = new JSONObject(jwksResponse);
-            
-            // Zertifikat aus JWKS extrahieren und validieren
-            JSONArray x5cArray = jwks.getJSONArray("x5c");
-            if (x5cArray.length() == 0) {
-                throw new RuntimeException("Keine Zertifikate im x5c-Array gefunden");
+            JSONObject jwks = new JSONObject(fetchData(jwksUrl));
+            Map<String, PublicKey> keys = new LinkedHashMap<>();
+            if (jwks.has("keys")) {
+                JSONArray keyArray = jwks.getJSONArray("keys");
+                for (int i = 0; i < keyArray.length(); i++) {
+                    addKey(keyArray.getJSONObject(i), keys);
+                }
+            } else {
+                addKey(jwks, keys);
             }
-            
-            byte[] certBytes = Base64.getDecoder().decode(x5cArray.getString(0));
-            X509Certificate cert = createCertificate(certBytes);
-            
-            if (!tslManager.verifyCertificate(cert, ZonedDateTime.now())) {
-                throw new RuntimeException("JWKS-Zertifikat konnte nicht gegen TSL validiert werden");
+            if (keys.isEmpty()) {
+                throw new RuntimeException("Keine gültigen Signaturschlüssel im JWKS gefunden");
             }
-            
-            // Public Key extrahieren und speichern
-            PublicKey pubKey = cert.getPublicKey();
-            if (pubKey instanceof ECPublicKey) {
-                this.currentPublicKey = pubKey;
-                logger.info("Public Key erfolgreich aktualisiert");
+
+            Map<String, PublicKey> current = keysByKid.get();
+            if (!current.equals(keys)) {
+                keysByKid.set(Map.copyOf(keys));
+                logger.info("Public Keys erfolgreich aktualisiert (kid: {})", keys.keySet());
             } else {
-                throw new RuntimeException("Extrahierter Public Key ist kein EC Public Key");
+                logger.debug("Public Keys unverändert (kid: {})", keys.keySet());
             }
-            
+
         } catch (Exception e) {
             logger.error("Fehler beim Aktualisieren des Public Keys: {}", e.getMessage());
             throw new RuntimeException("Public Key Aktualisierungsfehler", e);
         }
     }
-    
+
+    private void addKey(JSONObject jwk, Map<String, PublicKey> keys) {
+        if ("enc".equals(jwk.optString("use", "sig"))) {
+            return;
+        }
+        String kid = jwk.optString("kid", DEFAULT_KID);
+        // Zertifikat aus JWK extrahieren und validieren
+        JSONArray x5cArray = jwk.optJSONArray("x5c");
+        if (x5cArray == null || x5cArray.length() == 0) {
+            logger.warn("Keine Zertifikate im x5c-Array für kid {} gefunden", kid);
+            return;
+        }
+
+        byte[] certBytes = Base64.getDecoder().decode(x5cArray.getString(0));
+        X509Certificate cert = createCertificate(certBytes);
+
+        if (!tslManager.verifyCertificate(cert, ZonedDateTime.now())) {
+            logger.warn("JWKS-Zertifikat für kid {} konnte nicht gegen TSL validiert werden", kid);
+            return;
+        }
+        if (isRevoked(cert)) {
+            logger.warn("JWKS-Zertifikat für kid {} ist laut OCSP gesperrt", kid);
+            return;
+        }
+
+        // Public Key extrahieren
+        PublicKey pubKey = cert.getPublicKey();
+        if (pubKey instanceof ECPublicKey) {
+            keys.put(kid, pubKey);
+        } else {
+            logger.warn("Extrahierter Public Key für kid {} ist kein EC Public Key", kid);
+        }
+    }
+
     private String extractUriPukIdpSig(String jwt) {
         try {
             String[] jwtParts = jwt.split("\\.");
@@ -158,27 +275,73 @@ public class PukTokenManager {
             throw new RuntimeException("Fehler beim Extrahieren der JWKS-URL", e);
         }
     }
-    
+
     private X509Certificate extractAndValidateCertFromJwt(String jwt) {
         try {
             String[] jwtParts = jwt.split("\\.");
             String headerJson = new String(Base64.getUrlDecoder().decode(jwtParts[0]));
             String x5cCert = new JSONObject(headerJson).getJSONArray("x5c").getString(0);
-            
+
             byte[] certBytes = Base64.getDecoder().decode(x5cCert);
             X509Certificate cert = createCertificate(certBytes);
-            
+
             if (!tslManager.verifyCertificate(cert, ZonedDateTime.now())) {
                 throw new RuntimeException("Zertifikatsvalidierung fehlgeschlagen");
             }
-            
+            if (isRevoked(cert)) {
+                throw new RuntimeException("Zertifikat des Discovery-Dokuments ist laut OCSP gesperrt");
+            }
+
             return cert;
         } catch (Exception e) {
             throw new RuntimeException("Fehler bei der Zertifikatsextraktion", e);
         }
     }
-    
+
+    /**
+     * Nur eine gesicherte Sperrung führt zur Ablehnung. Ist kein Responder erreichbar, wird mit dem
+     * TSL-Ergebnis weitergearbeitet, damit ein OCSP-Ausfall nicht die Anmeldung aller Nutzer verhindert.
+     */
+    private boolean isRevoked(X509Certificate cert) {
+        if (ocspResponseCache == null) {
+            return false;
+        }
+        OcspResponseCache.RevocationStatus status = ocspResponseCache.getStatus(cert);
+        if (status == OcspResponseCache.RevocationStatus.UNAVAILABLE) {
+            logger.debug("Kein OCSP-Status verfügbar für {}", cert.getSubjectX500Principal().getName());
+        }
+        return status == OcspResponseCache.RevocationStatus.REVOKED;
+    }
+
+    /**
+     * @return Alle aktuell gültigen Signaturschlüssel nach 'kid' (unveränderlich; neue Instanz nur bei Änderungen)
+     */
+    public Map<String, PublicKey> getKeys() {
+        return keysByKid.get();
+    }
+
+    /**
+     * @param kid Die 'kid' aus dem JWT-Header; ohne 'kid' wird der Standardschlüssel geliefert
+     * @return Der Schlüssel oder null, wenn er (noch) nicht bekannt ist
+     */
+    public PublicKey getPublicKey(String kid) {
+        return kid == null ? getCurrentPublicKey() : keysByKid.get().get(kid);
+    }
+
     public PublicKey getCurrentPublicKey() {
-        return currentPublicKey;
+        Map<String, PublicKey> keys = keysByKid.get();
+        PublicKey key = keys.get(DEFAULT_KID);
+        return key != null || keys.isEmpty() ? key : keys.values().iterator().next();
+    }
+
+    public static class RefreshJob implements HapiJob {
+
+        @Autowired
+        private PukTokenManager pukTokenManager;
+
+        @Override
+        public void execute(JobExecutionContext theContext) {
+            pukTokenManager.refreshIfDue();
+        }
     }
-} 
\ No newline at end of file
+}
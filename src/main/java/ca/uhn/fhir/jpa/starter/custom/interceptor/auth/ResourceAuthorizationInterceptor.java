@@ -8,18 +8,25 @@ import ca.uhn.fhir.rest.api.server.RequestDetails;
 import ca.uhn.fhir.rest.server.exceptions.ForbiddenOperationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 /**
  * Dieser Interceptor prüft die Autorisierung für den Zugriff auf bestimmte Ressourcen
- * basierend auf den Scopes im Access Token.
+ * basierend auf den Scopes im Access Token. Die Entscheidung trifft die kompilierte {@link AuthorizationPolicy}.
  */
 @Component
 @Interceptor(order = 1) // Ausführung nach dem AuthenticationInterceptor
 public class ResourceAuthorizationInterceptor {
     
     private static final Logger LOGGER = LoggerFactory.getLogger(ResourceAuthorizationInterceptor.class);
-    private static final String WILDCARD_SCOPE = "openid e-rezept";
+    
+    private final AuthorizationPolicy authorizationPolicy;
+    
+    @Autowired
+    public ResourceAuthorizationInterceptor(AuthorizationPolicy authorizationPolicy) {
+        this.authorizationPolicy = authorizationPolicy;
+    }
     
     /**
      * Prüft die Autorisierung für den Zugriff auf Ressourcen.
@@ -47,87 +54,49 @@ public class ResourceAuthorizationInterceptor {
         
         LOGGER.debug("Prüfe Autorisierung für Ressource: {}, Operation: {}", resourceName, operationType);
         
-        // Prüfe Autorisierung für verschiedene Ressourcen
-        if ("Patient".equals(resourceName)) {
-            validatePatientAccess(accessToken, operationType);
-        } else if ("DocumentReference".equals(resourceName)) {
-            validateDocumentReferenceAccess(accessToken, operationType);
-        } else if ("AuditEvent".equals(resourceName)) {
-            validateAuditEventAccess(accessToken, operationType);
-        }
-        
-        // Hier können weitere Ressourcen-spezifische Autorisierungsprüfungen hinzugefügt werden
-    }
-    
-    /**
-     * Prüft die Autorisierung für den Zugriff auf die Patient-Ressource.
-     * 
-     * @param accessToken Das Access Token
-     * @param operationType Der Typ der Operation
-     */
-    private void validatePatientAccess(AccessToken accessToken, RestOperationTypeEnum operationType) {
-        // Gemäß A_26028: Für den Zugriff auf Patient-Ressourcen wird der Scope "insurantAccount.rs" oder "openid e-rezept" benötigt
-        String scope = accessToken.getScope();
-        
-        if (scope == null || (!scope.equals("insurantAccount.rs") && !scope.equals(WILDCARD_SCOPE))) {
-            LOGGER.error("Fehlender Scope für Patient-Ressource. Erforderlich: insurantAccount.rs, Vorhanden: {}", scope);
-            throw new ForbiddenOperationException("Fehlender Scope: insurantAccount.rs");
+        // Weitere Ressourcen-spezifische Autorisierungsprüfungen werden in AuthorizationPolicy ergänzt
+        AuthorizationPolicy.Action action = actionFor(resourceName, operationType);
+        if (action == null) {
+            return;
         }
         
-        LOGGER.debug("Autorisierung für Patient-Ressource erfolgreich mit Scope: {}", scope);
-    }
-    
-    /**
-     * Prüft die Autorisierung für den Zugriff auf die DocumentReference-Ressource.
-     * 
-     * @param accessToken Das Access Token
-     * @param operationType Der Typ der Operation
-     */
-    private void validateDocumentReferenceAccess(AccessToken accessToken, RestOperationTypeEnum operationType) {
-        // Gemäß A_26033, A_26034: Für den Zugriff auf DocumentReference-Ressourcen werden verschiedene Scopes benötigt
-        String scope = accessToken.getScope();
-        boolean hasWildcard = scope != null && scope.equals(WILDCARD_SCOPE);
-        
-        // Prüfe, ob es sich um eine Suchanfrage handelt
-        boolean isSearchOperation = RestOperationTypeEnum.SEARCH_TYPE.equals(operationType);
-        
-        if (scope == null) {
+        if (accessToken.getScope() == null) {
             LOGGER.error("Kein Scope im Access Token gefunden");
             throw new ForbiddenOperationException("Kein Scope im Access Token gefunden");
         }
         
-        if (isSearchOperation) {
-            // Für Suchanfragen wird der Scope "invoiceDoc.s" oder der Wildcard-Scope benötigt
-            if (!scope.equals("invoiceDoc.s") && !hasWildcard) {
-                LOGGER.error("Fehlender Scope für DocumentReference-Suche. Erforderlich: invoiceDoc.s, Vorhanden: {}", scope);
-                throw new ForbiddenOperationException("Fehlender Scope: invoiceDoc.s");
-            }
-            LOGGER.debug("Autorisierung für DocumentReference-Suche erfolgreich mit Scope: {}", scope);
-        } else {
-            // Für Abruf wird der Scope "invoiceDoc.r" oder der Wildcard-Scope benötigt
-            if (!scope.equals("invoiceDoc.r") && !hasWildcard) {
-                LOGGER.error("Fehlender Scope für DocumentReference-Abruf. Erforderlich: invoiceDoc.r, Vorhanden: {}", scope);
-                throw new ForbiddenOperationException("Fehlender Scope: invoiceDoc.r");
-            }
-            LOGGER.debug("Autorisierung für DocumentReference-Abruf erfolgreich mit Scope: {}", scope);
+        if (!authorizationPolicy.hasRequiredScope(action, accessToken)) {
+            LOGGER.error("Fehlender Scope für {} auf {}. Erforderlich: {}, Vorhanden: {}", 
+                operationType, resourceName, action.describeScopes(), accessToken.getScope());
+            throw new ForbiddenOperationException("Fehlender Scope: " + action.getScopes().get(0).getValue());
         }
+        
+        LOGGER.debug("Autorisierung für {} erfolgreich mit Scope: {}", action, accessToken.getScope());
     }
     
     /**
-     * Prüft die Autorisierung für den Zugriff auf die AuditEvent-Ressource.
+     * Ordnet die Anfrage einer Aktion der Berechtigungsmatrix zu.
      * 
-     * @param accessToken Das Access Token
-     * @param operationType Der Typ der Operation
+     * @return Die Aktion oder null, wenn für die Ressource keine Scope-Prüfung vorgesehen ist
      */
-    private void validateAuditEventAccess(AccessToken accessToken, RestOperationTypeEnum operationType) {
-        // Gemäß A_26041: Für den Zugriff auf AuditEvent-Ressourcen wird der Scope "auditEvent.rs" oder "openid e-rezept" benötigt
-        String scope = accessToken.getScope();
-        
-        if (scope == null || (!scope.equals("auditEvent.rs") && !scope.equals(WILDCARD_SCOPE))) {
-            LOGGER.error("Fehlender Scope für AuditEvent-Ressource. Erforderlich: auditEvent.rs, Vorhanden: {}", scope);
-            throw new ForbiddenOperationException("Fehlender Scope: auditEvent.rs");
+    static AuthorizationPolicy.Action actionFor(String resourceName, RestOperationTypeEnum operationType) {
+        if (resourceName == null) {
+            return null;
+        }
+        switch (resourceName) {
+            case "Patient":
+                // Gemäß A_26028
+                return AuthorizationPolicy.Action.PATIENT_RESOURCE;
+            case "DocumentReference":
+                // Gemäß A_26033, A_26034: Suche und Abruf benötigen verschiedene Scopes
+                return RestOperationTypeEnum.SEARCH_TYPE.equals(operationType)
+                    ? AuthorizationPolicy.Action.DOCUMENT_SEARCH
+                    : AuthorizationPolicy.Action.DOCUMENT_READ;
+            case "AuditEvent":
+                // Gemäß A_26041
+                return AuthorizationPolicy.Action.AUDIT_EVENT_RESOURCE;
+            default:
+                return null;
         }
-        
-        LOGGER.debug("Autorisierung für AuditEvent-Ressource erfolgreich mit Scope: {}", scope);
     }
-} 
\ No newline at end of file
+}
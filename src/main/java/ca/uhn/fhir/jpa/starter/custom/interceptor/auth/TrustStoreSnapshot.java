@@ -0,0 +1,229 @@
+package ca.uhn.fhir.jpa.starter.custom.interceptor.auth;
+
+import org.bouncycastle.asn1.x509.AuthorityKeyIdentifier;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Unveränderlicher Stand der Vertrauensanker aus einer TSL, identifiziert über den SHA-256-Hash der TSL.
+ * Der Stand lässt sich kompakt (DER-Zertifikate und ServiceSupplyPoints) serialisieren. Bei unveränderter TSL
+ * entfällt damit nur das XML-Parsing; die TSL selbst wird weiterhin gelesen und gehasht, um den Snapshot zu finden.
+ */
+final class TrustStoreSnapshot {
+
+    private static final int MAGIC = 0x45524754; // "ERGT"
+    private static final int FORMAT_VERSION = 2;
+
+    static final TrustStoreSnapshot EMPTY = new TrustStoreSnapshot(null, List.of(), Map.of());
+
+    private final String tslHash;
+    private final List<TslStreamParser.Entry> entries;
+    private final Map<String, List<TslCertificateItem>> certificatesByIssuer;
+    /** Zweitindex über den Subject Key Identifier der Anker, passend zum Authority Key Identifier geprüfter Zertifikate. */
+    private final Map<String, List<TslCertificateItem>> certificatesByKeyId;
+
+    private TrustStoreSnapshot(String tslHash, List<TslStreamParser.Entry> entries,
+                               Map<String, List<TslCertificateItem>> certificatesByIssuer) {
+        this.tslHash = tslHash;
+        this.entries = entries;
+        this.certificatesByIssuer = certificatesByIssuer;
+        Map<String, List<TslCertificateItem>> byKeyId = new LinkedHashMap<>();
+        certificatesByIssuer.values().forEach(items -> items.forEach(item -> {
+            if (item.getSubjectKeyIdentifier() != null) {
+                byKeyId.computeIfAbsent(item.getSubjectKeyIdentifier(), k -> new ArrayList<>()).add(item);
+            }
+        }));
+        this.certificatesByKeyId = byKeyId;
+    }
+
+    static TrustStoreSnapshot of(String tslHash, List<TslStreamParser.Entry> entries) throws GeneralSecurityException {
+        CertificateFactory factory = CertificateFactory.getInstance("X.509", BouncyCastleProvider.PROVIDER_NAME);
+        Map<String, List<TslCertificateItem>> byIssuer = new LinkedHashMap<>();
+        for (TslStreamParser.Entry entry : entries) {
+            X509Certificate cert = (X509Certificate) factory.generateCertificate(new ByteArrayInputStream(entry.certificate()));
+            byIssuer.computeIfAbsent(cert.getSubjectX500Principal().getName(), k -> new ArrayList<>())
+                .add(new TslCertificateItem(cert, entry.supplyPoints()));
+        }
+        Map<String, List<TslCertificateItem>> immutable = new LinkedHashMap<>();
+        byIssuer.forEach((issuer, items) -> immutable.put(issuer, List.copyOf(items)));
+        return new TrustStoreSnapshot(tslHash, List.copyOf(entries), Collections.unmodifiableMap(immutable));
+    }
+
+    String getTslHash() {
+        return tslHash;
+    }
+
+    Map<String, List<TslCertificateItem>> getCertificatesByIssuer() {
+        return certificatesByIssuer;
+    }
+
+    /**
+     * Grenzt die Anker mit passendem Aussteller-DN über den Authority Key Identifier des Zertifikats ein.
+     * Ohne AKI oder ohne Treffer im Index bleiben alle Anker mit diesem DN Kandidaten.
+     */
+    List<TslCertificateItem> candidatesFor(X509Certificate cert, List<TslCertificateItem> issuersByDn) {
+        String authorityKeyId = authorityKeyIdentifier(cert);
+        if (authorityKeyId == null) {
+            return issuersByDn;
+        }
+        List<TslCertificateItem> byKeyId = certificatesByKeyId.get(authorityKeyId);
+        if (byKeyId == null) {
+            return issuersByDn;
+        }
+        List<TslCertificateItem> candidates = byKeyId.stream().filter(issuersByDn::contains).toList();
+        return candidates.isEmpty() ? issuersByDn : candidates;
+    }
+
+    private static String authorityKeyIdentifier(X509Certificate cert) {
+        try {
+            byte[] extension = cert.getExtensionValue(Extension.authorityKeyIdentifier.getId());
+            if (extension == null) {
+                return null;
+            }
+            byte[] keyId = AuthorityKeyIdentifier.getInstance(JcaX509ExtensionUtils.parseExtensionValue(extension)).getKeyIdentifier();
+            return keyId != null ? HexFormat.of().formatHex(keyId) : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    static Path snapshotFile(Path directory, String tslHash) {
+        return directory.resolve("tsl-" + tslHash + ".snapshot");
+    }
+
+    /**
+     * Schreibt den Stand atomar (temporäre Datei, danach Umbenennen), damit parallel startende Knoten
+     * nie eine halb geschriebene Datei lesen. Hinter den Einträgen steht ihr SHA-256-Digest.
+     * Die Datei wird vor dem Umbenennen gegen die Einträge geprüft, die aus der TSL mit diesem Hash geparst wurden;
+     * nur so geprüfte Snapshots tragen den Hash im Namen. Das Verzeichnis muss bereits existieren und nur für den
+     * Eigentümer zugänglich sein.
+     */
+    void write(Path directory) throws IOException {
+        byte[] body = encodeEntries();
+        Path tmp = Files.createTempFile(directory, "tsl-", ".tmp");
+        try (OutputStream os = Files.newOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(tslHash);
+            out.writeInt(body.length);
+            out.write(body);
+            out.write(sha256(body));
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        if (!MessageDigest.isEqual(body, readEntries(tmp, tslHash))) {
+            Files.deleteIfExists(tmp);
+            throw new IOException("Geschriebener TSL-Snapshot stimmt nicht mit der TSL überein");
+        }
+        Files.move(tmp, snapshotFile(directory, tslHash), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private byte[] encodeEntries() throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(body)) {
+            out.writeInt(entries.size());
+            for (TslStreamParser.Entry entry : entries) {
+                out.writeInt(entry.certificate().length);
+                out.write(entry.certificate());
+                out.writeInt(entry.supplyPoints().size());
+                for (String point : entry.supplyPoints()) {
+                    out.writeUTF(point);
+                }
+            }
+        }
+        return body.toByteArray();
+    }
+
+    /**
+     * Liest einen gespeicherten Stand. Der Snapshot ist über den TSL-Hash im Dateinamen und im Kopf eindeutig der
+     * TSL zugeordnet, aus der er beim Schreiben erzeugt und geprüft wurde; der Digest erkennt Beschädigungen.
+     *
+     * @return Der gespeicherte Stand oder null, wenn für diesen Hash keiner vorliegt
+     */
+    static TrustStoreSnapshot read(Path directory, String tslHash) throws IOException, GeneralSecurityException {
+        Path file = snapshotFile(directory, tslHash);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        byte[] body = readEntries(file, tslHash);
+        if (body == null) {
+            return null;
+        }
+
+        List<TslStreamParser.Entry> entries = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(body))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                byte[] certificate = new byte[in.readInt()];
+                in.readFully(certificate);
+                int pointCount = in.readInt();
+                List<String> points = new ArrayList<>(pointCount);
+                for (int j = 0; j < pointCount; j++) {
+                    points.add(in.readUTF());
+                }
+                entries.add(new TslStreamParser.Entry(certificate, List.copyOf(points)));
+            }
+        }
+        return of(tslHash, entries);
+    }
+
+    /**
+     * @return Die kodierten Einträge einer Snapshot-Datei oder null, wenn Format oder Hash nicht passen
+     * @throws IOException wenn die Datei beschädigt ist oder der Digest nicht stimmt
+     */
+    private static byte[] readEntries(Path file, String tslHash) throws IOException {
+        try (InputStream is = Files.newInputStream(file);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(is))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || !tslHash.equals(in.readUTF())) {
+                return null;
+            }
+            int length = in.readInt();
+            if (length < 0 || length > Files.size(file)) {
+                throw new IOException("Ungültige Länge der Einträge im TSL-Snapshot: " + length);
+            }
+            byte[] body = new byte[length];
+            in.readFully(body);
+            byte[] digest = new byte[32];
+            in.readFully(digest);
+            if (!MessageDigest.isEqual(digest, sha256(body))) {
+                throw new IOException("Digest des TSL-Snapshots stimmt nicht");
+            }
+            return body;
+        }
+    }
+
+    private static byte[] sha256(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 nicht verfügbar", e);
+        }
+    }
+}
@@ -1,24 +1,87 @@
 package ca.uhn.fhir.jpa.starter.custom.interceptor.auth;
 
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.SubjectKeyIdentifier;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.ContentVerifierProvider;
+import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HexFormat;
 import java.util.List;
 
 public class TslCertificateItem {
+    private static final Logger logger = LoggerFactory.getLogger(TslCertificateItem.class);
+
     private final X509Certificate certificate;
     private final List<String> supplyPoints;
-    
+    /** Einmalig aufgebauter Verifier für Zertifikate, die von diesem Vertrauensanker ausgestellt wurden. */
+    private final ContentVerifierProvider verifierProvider;
+    private final boolean certificateAuthority;
+    private final String subjectKeyIdentifier;
+
     public TslCertificateItem(X509Certificate certificate, List<String> supplyPoints) {
         this.certificate = certificate;
         this.supplyPoints = Collections.unmodifiableList(new ArrayList<>(supplyPoints));
+        this.verifierProvider = buildVerifierProvider(certificate);
+        this.certificateAuthority = certificate.getBasicConstraints() != -1;
+        this.subjectKeyIdentifier = extractSubjectKeyIdentifier(certificate);
     }
-    
+
     public X509Certificate getCertificate() {
         return certificate;
     }
-    
+
     public List<String> getSupplyPoints() {
         return supplyPoints;
     }
-} 
\ No newline at end of file
+
+    /**
+     * @return Der vorbereitete Verifier oder null, wenn er für diesen Anker nicht aufgebaut werden konnte
+     */
+    ContentVerifierProvider getVerifierProvider() {
+        return verifierProvider;
+    }
+
+    boolean isCertificateAuthority() {
+        return certificateAuthority;
+    }
+
+    /**
+     * @return Subject Key Identifier (hex) oder null, wenn das Zertifikat keinen enthält
+     */
+    String getSubjectKeyIdentifier() {
+        return subjectKeyIdentifier;
+    }
+
+    private static ContentVerifierProvider buildVerifierProvider(X509Certificate certificate) {
+        try {
+            return new JcaContentVerifierProviderBuilder()
+                .setProvider(BouncyCastleProvider.PROVIDER_NAME)
+                .build(new JcaX509CertificateHolder(certificate));
+        } catch (Exception e) {
+            logger.warn("Verifier für Vertrauensanker {} konnte nicht aufgebaut werden: {}",
+                certificate.getSubjectX500Principal().getName(), e.getMessage());
+            return null;
+        }
+    }
+
+    private static String extractSubjectKeyIdentifier(X509Certificate certificate) {
+        try {
+            byte[] extension = certificate.getExtensionValue(Extension.subjectKeyIdentifier.getId());
+            if (extension == null) {
+                return null;
+            }
+            return HexFormat.of().formatHex(
+                SubjectKeyIdentifier.getInstance(JcaX509ExtensionUtils.parseExtensionValue(extension)).getKeyIdentifier());
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
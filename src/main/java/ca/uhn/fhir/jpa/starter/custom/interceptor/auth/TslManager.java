@@ -1,36 +1,51 @@
 package ca.uhn.fhir.jpa.starter.custom.interceptor.auth;
 
-import org.bouncycastle.cert.X509CertificateHolder;
-import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
 import java.security.Security;
 import java.security.cert.X509Certificate;
 import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Hält die Vertrauensanker aus der TSL. Die TSL wird per StAX gelesen ({@link TslStreamParser}). Ist ein
+ * Snapshot-Verzeichnis konfiguriert, wird der Stand dort kompakt nach TSL-Hash abgelegt; bei unveränderter TSL
+ * entfällt nach einem Neustart das XML-Parsing, gelesen und gehasht wird die TSL weiterhin. Das Verzeichnis wird nur
+ * für den Eigentümer zugänglich angelegt, ohne Konfiguration wird kein Snapshot verwendet. Eine neue TSL kann zur Laufzeit geladen werden: der Stand wird vollständig aufgebaut
+ * und dann als Ganzes ausgetauscht, {@link #verifyCertificate} wird dabei nie blockiert.
+ */
 @Component
 public class TslManager {
     
     private static final Logger logger = LoggerFactory.getLogger(TslManager.class);
-    private static final String TSL_NAMESPACE = "http://uri.etsi.org/02231/v2#";
-    private static final String PKC_SERVICE_TYPE = "http://uri.etsi.org/TrstSvc/Svctype/CA/PKC";
-    private static final String SERVICE_STATUS_ACTIVE = "http://uri.etsi.org/TrstSvc/Svcstatus/inaccord";
-    private static final String EXTENSION_OID = "1.2.276.0.76.4.203";
-    private static final String EXTENSION_VALUE = "oid_fd_sig";
     private static final String BC_PROVIDER = BouncyCastleProvider.PROVIDER_NAME;
     private static final String DEFAULT_TSL_RESOURCE = "/TSL_final.xml";
     
-    private final Map<String, List<TslCertificateItem>> certificatesByIssuer;
+    private static final int MAX_VERIFICATION_CACHE_ENTRIES = 1000;
+    
+    private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rwx------");
+    
+    /** Verzeichnis für Snapshots oder null, wenn keine verwendet werden */
+    private final Path snapshotDirectory;
+    private final long verificationCacheTtlMillis;
+    private volatile TrustStoreSnapshot trustStore = TrustStoreSnapshot.EMPTY;
+    /** Ergebnis der Signaturprüfung je TSL-Hash und Zertifikats-Fingerprint; zeitabhängige Prüfungen erfolgen bei jedem Aufruf. */
+    private final Map<String, VerifiedSigners> verificationCache = new ConcurrentHashMap<>();
     
     static {
         if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
@@ -39,10 +54,52 @@ public class TslManager {
     }
     
     public TslManager() {
-        this.certificatesByIssuer = new HashMap<>();
+        this("");
+    }
+    
+    public TslManager(String snapshotDirectory) {
+        this(snapshotDirectory, 3600);
+    }
+    
+    @Autowired
+    public TslManager(@Value("${hapi.fhir.auth.tsl_snapshot_dir:}") String snapshotDirectory,
+                      @Value("${hapi.fhir.auth.cert_verification_cache_ttl_seconds:3600}") long verificationCacheTtlSeconds) {
+        this.snapshotDirectory = prepareSnapshotDirectory(snapshotDirectory);
+        this.verificationCacheTtlMillis = TimeUnit.SECONDS.toMillis(Math.max(0, verificationCacheTtlSeconds));
         loadDefaultTsl();
     }
     
+    /**
+     * Legt das Snapshot-Verzeichnis nur für den Eigentümer zugänglich an bzw. schränkt ein bestehendes
+     * Verzeichnis darauf ein. Gelingt das nicht, wird ohne Snapshot gearbeitet.
+     *
+     * @return Das Verzeichnis oder null, wenn keines konfiguriert oder es nicht abzusichern ist
+     */
+    private static Path prepareSnapshotDirectory(String configured) {
+        if (configured == null || configured.isBlank()) {
+            return null;
+        }
+        Path directory = Paths.get(configured).toAbsolutePath();
+        try {
+            boolean posix = directory.getFileSystem().supportedFileAttributeViews().contains("posix");
+            if (!Files.isDirectory(directory)) {
+                Files.createDirectories(directory.getParent());
+                if (posix) {
+                    Files.createDirectory(directory, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+                } else {
+                    Files.createDirectory(directory);
+                }
+            } else if (posix) {
+                // Schlägt fehl, wenn das Verzeichnis einem anderen Benutzer gehört
+                Files.setPosixFilePermissions(directory, OWNER_ONLY);
+            }
+            return directory;
+        } catch (Exception e) {
+            logger.warn("TSL-Snapshot-Verzeichnis {} kann nicht abgesichert werden, Snapshots sind deaktiviert: {}", directory, e.getMessage());
+            return null;
+        }
+    }
+    
     private void loadDefaultTsl() {
         try {
             loadTslFromResource(DEFAULT_TSL_RESOURCE);
@@ -59,138 +116,90 @@ public class TslManager {
                 logger.error("TSL-Datei konnte nicht gefunden werden: {}", resourcePath);
                 throw new IllegalArgumentException("TSL-Datei nicht gefunden: " + resourcePath);
             }
-            
-            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-            dbf.setNamespaceAware(true);
-            // Deaktiviere externe Entitäten für Sicherheit
-            dbf.setFeature("http://xml.org/sax/features/external-general-entities", false);
-            dbf.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
-            
-            DocumentBuilder db = dbf.newDocumentBuilder();
-            Document doc = db.parse(is);
-            
-            processTslXml(doc);
-            logger.info("TSL erfolgreich geladen. {} Zertifikatsaussteller gefunden.", certificatesByIssuer.size());
+            loadTsl(is);
+        } catch (IllegalArgumentException e) {
+            throw e;
         } catch (Exception e) {
             logger.error("Fehler beim Laden der TSL: {}", e.getMessage(), e);
             throw new RuntimeException("Fehler beim Laden der TSL", e);
         }
     }
     
-    private void processTslXml(Document doc) throws Exception {
-        NodeList tspList = doc.getElementsByTagNameNS(TSL_NAMESPACE, "TrustServiceProvider");
-        
-        for (int i = 0; i < tspList.getLength(); i++) {
-            Element tsp = (Element) tspList.item(i);
-            processServiceProvider(tsp);
-        }
-    }
-    
-    private void processServiceProvider(Element tsp) throws Exception {
-        NodeList services = tsp.getElementsByTagNameNS(TSL_NAMESPACE, "TSPService");
-        
-        for (int i = 0; i < services.getLength(); i++) {
-            Element service = (Element) services.item(i);
-            processService(service);
+    /**
+     * Lädt eine TSL und ersetzt den bisherigen Stand vollständig. Ist die TSL unverändert, passiert nichts;
+     * liegt für ihren Hash bereits ein Snapshot vor, wird dieser statt des XML verwendet.
+     *
+     * @param tslStream Die TSL als XML
+     */
+    public void loadTsl(InputStream tslStream) {
+        try {
+            byte[] tslBytes = tslStream.readAllBytes();
+            String tslHash = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(tslBytes));
+            if (tslHash.equals(trustStore.getTslHash())) {
+                logger.debug("TSL unverändert (Hash {}), Stand wird beibehalten", tslHash);
+                return;
+            }
+            
+            TrustStoreSnapshot snapshot = readSnapshot(tslHash);
+            if (snapshot == null) {
+                snapshot = TrustStoreSnapshot.of(tslHash, TslStreamParser.parse(new ByteArrayInputStream(tslBytes)));
+                writeSnapshot(snapshot);
+            }
+            
+            trustStore = snapshot;
+            // Ergebnisse zur alten TSL sind über den Hash im Schlüssel ohnehin nicht mehr erreichbar
+            verificationCache.clear();
+            logger.info("TSL erfolgreich geladen. {} Zertifikatsaussteller gefunden.", snapshot.getCertificatesByIssuer().size());
+        } catch (Exception e) {
+            logger.error("Fehler beim Laden der TSL: {}", e.getMessage(), e);
+            throw new RuntimeException("Fehler beim Laden der TSL", e);
         }
     }
     
-    private void processService(Element service) throws Exception {
-        Element serviceInfo = (Element) service.getElementsByTagNameNS(TSL_NAMESPACE, "ServiceInformation").item(0);
-        
-        String type = getElementText(serviceInfo, "ServiceTypeIdentifier");
-        String status = getElementText(serviceInfo, "ServiceStatus");
-        
-        if (!PKC_SERVICE_TYPE.equals(type) || !SERVICE_STATUS_ACTIVE.equals(status)) {
-            return;
-        }
-        
-        if (!checkServiceExtensions(serviceInfo)) {
-            return;
+    private TrustStoreSnapshot readSnapshot(String tslHash) {
+        if (snapshotDirectory == null) {
+            return null;
         }
-        
-        NodeList digitalIds = serviceInfo.getElementsByTagNameNS(TSL_NAMESPACE, "DigitalId");
-        for (int i = 0; i < digitalIds.getLength(); i++) {
-            Element digitalId = (Element) digitalIds.item(i);
-            processCertificate(digitalId, serviceInfo);
-        }
-    }
-    
-    private boolean checkServiceExtensions(Element serviceInfo) {
-        NodeList extensions = serviceInfo.getElementsByTagNameNS(TSL_NAMESPACE, "Extension");
-        boolean hasExtension = false;
-        for (int i = 0; i < extensions.getLength(); i++) {
-            Element extension = (Element) extensions.item(i);
-            String oid = getElementText(extension, "ExtensionOID");
-            String value = getElementText(extension, "ExtensionValue");
-            
-            if (EXTENSION_OID.equals(oid) && EXTENSION_VALUE.equals(value)) {
-                hasExtension = true;
-                break;
+        try {
+            TrustStoreSnapshot snapshot = TrustStoreSnapshot.read(snapshotDirectory, tslHash);
+            if (snapshot != null) {
+                logger.info("TSL-Stand aus Snapshot geladen ({})", TrustStoreSnapshot.snapshotFile(snapshotDirectory, tslHash));
             }
+            return snapshot;
+        } catch (Exception e) {
+            // Ein defekter Snapshot ist kein Fehler: die TSL wird dann neu gelesen und der Snapshot überschrieben
+            logger.warn("TSL-Snapshot konnte nicht gelesen werden, TSL wird neu eingelesen: {}", e.getMessage());
+            return null;
         }
-        return hasExtension;
     }
     
-    private void processCertificate(Element digitalId, Element serviceInfo) throws Exception {
-        String certB64 = getElementText(digitalId, "X509Certificate");
-        if (certB64 == null || certB64.isEmpty()) {
+    private void writeSnapshot(TrustStoreSnapshot snapshot) {
+        if (snapshotDirectory == null) {
             return;
         }
-        
-        byte[] certBytes = Base64.getDecoder().decode(certB64);
-        X509CertificateHolder certHolder = new X509CertificateHolder(certBytes);
-        X509Certificate cert = new JcaX509CertificateConverter()
-                .setProvider(BouncyCastleProvider.PROVIDER_NAME)
-                .getCertificate(certHolder);
-        
-        List<String> supplyPoints = extractSupplyPoints(serviceInfo);
-        String subjectDN = cert.getSubjectX500Principal().getName();
-        TslCertificateItem item = new TslCertificateItem(cert, supplyPoints);
-        
-        certificatesByIssuer
-            .computeIfAbsent(subjectDN, k -> new ArrayList<>())
-            .add(item);
-            
-        logger.info("Zertifikat zur TSL hinzugefügt: {}", subjectDN);
-    }
-    
-    private List<String> extractSupplyPoints(Element serviceInfo) {
-        List<String> points = new ArrayList<>();
         try {
-            NodeList supplyPoints = serviceInfo.getElementsByTagNameNS(TSL_NAMESPACE, "ServiceSupplyPoint");
-            logger.debug("Gefundene ServiceSupplyPoints: {}", supplyPoints.getLength());
-            
-            for (int i = 0; i < supplyPoints.getLength(); i++) {
-                String point = supplyPoints.item(i).getTextContent();
-                if (point != null && !point.trim().isEmpty()) {
-                    logger.debug("ServiceSupplyPoint gefunden: {}", point);
-                    points.add(point.trim());
-                }
-            }
+            snapshot.write(snapshotDirectory);
         } catch (Exception e) {
-            logger.error("Fehler beim Extrahieren der ServiceSupplyPoints: {}", e.getMessage());
-        }
-        
-        if (points.isEmpty()) {
-            logger.warn("Keine ServiceSupplyPoints gefunden");
+            logger.warn("TSL-Snapshot konnte nicht geschrieben werden: {}", e.getMessage());
         }
-        
-        return points;
     }
     
-    private String getElementText(Element parent, String elementName) {
-        NodeList elements = parent.getElementsByTagNameNS(TSL_NAMESPACE, elementName);
-        if (elements.getLength() > 0) {
-            return elements.item(0).getTextContent();
-        }
-        return null;
+    /**
+     * @return SHA-256-Hash der aktuell geladenen TSL
+     */
+    public String getTslHash() {
+        return trustStore.getTslHash();
+    }
+    
+    int getVerificationCacheSize() {
+        return verificationCache.size();
     }
     
     public boolean verifyCertificate(X509Certificate cert, ZonedDateTime validationTime) {
         try {
+            TrustStoreSnapshot store = trustStore;
             String issuerDN = cert.getIssuerX500Principal().getName();
-            List<TslCertificateItem> issuers = certificatesByIssuer.get(issuerDN);
+            List<TslCertificateItem> issuers = store.getCertificatesByIssuer().get(issuerDN);
             
             if (issuers == null || issuers.isEmpty()) {
                 logger.error("Kein passender Aussteller in TSL gefunden für: {}", issuerDN);
@@ -204,42 +213,13 @@ public class TslManager {
                 return false;
             }
             
-            // Konvertiere das zu validierende Zertifikat zu BC
-            org.bouncycastle.cert.X509CertificateHolder certHolder = 
-                new org.bouncycastle.cert.jcajce.JcaX509CertificateHolder(cert);
-            
-            for (TslCertificateItem issuer : issuers) {
-                X509Certificate issuerCert = issuer.getCertificate();
-                
+            for (TslCertificateItem issuer : findSigners(store, cert, issuers)) {
                 // Prüfe auch die Gültigkeit des Aussteller-Zertifikats
-                ValidationResult issuerTimeValidation = validateTime(issuerCert, validationTime);
-                if (!issuerTimeValidation.isValid()) {
-                    logger.info("Aussteller-Zertifikat nicht gültig: {}", issuerTimeValidation.getMessage());
-                    continue;
-                }
-                
-                // Prüfe Basic Constraints
-                if (!validateBasicConstraints(issuerCert)) {
-                    logger.info("Basic Constraints Validierung fehlgeschlagen für Aussteller: {}", 
-                        issuerCert.getSubjectX500Principal().getName());
-                    continue;
-                }
-                
-                try {
-                    // Erste Validierungsmethode: Bouncy Castle
-                    if (validateWithBouncyCastle(cert, certHolder, issuerCert)) {
-                        return true;
-                    }
-                    
-                    // Zweite Validierungsmethode: Standard Java
-                    if (validateWithJava(cert, issuerCert)) {
-                        return true;
-                    }
-                    
-                } catch (Exception e) {
-                    logger.error("Validierung gegen Aussteller fehlgeschlagen: {} - {}", 
-                        issuerDN, e.getMessage());
+                ValidationResult issuerTimeValidation = validateTime(issuer.getCertificate(), validationTime);
+                if (issuerTimeValidation.isValid()) {
+                    return true;
                 }
+                logger.info("Aussteller-Zertifikat nicht gültig: {}", issuerTimeValidation.getMessage());
             }
             
             logger.error("Keine erfolgreiche Validierung gegen einen der Aussteller für: {}", 
@@ -252,6 +232,76 @@ public class TslManager {
         return false;
     }
     
+    /**
+     * @return Der Vertrauensanker, dessen Signatur auf dem Zertifikat gültig ist, oder null, wenn es keinen gibt
+     */
+    public TslCertificateItem findIssuer(X509Certificate cert) {
+        try {
+            TrustStoreSnapshot store = trustStore;
+            List<TslCertificateItem> issuers = store.getCertificatesByIssuer().get(cert.getIssuerX500Principal().getName());
+            if (issuers == null || issuers.isEmpty()) {
+                return null;
+            }
+            List<TslCertificateItem> signers = findSigners(store, cert, issuers);
+            return signers.isEmpty() ? null : signers.get(0);
+        } catch (Exception e) {
+            logger.error("Fehler bei der Suche des Ausstellers: {}", e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Liefert die Vertrauensanker, deren Signatur auf dem Zertifikat gültig ist. Das Ergebnis hängt nur von
+     * Zertifikat und TSL ab und wird je Fingerprint bis zum Ablauf der TTL zwischengespeichert.
+     */
+    private List<TslCertificateItem> findSigners(TrustStoreSnapshot store, X509Certificate cert,
+                                                 List<TslCertificateItem> issuers) throws Exception {
+        String cacheKey = store.getTslHash() + ":" + fingerprint(cert);
+        long now = System.currentTimeMillis();
+        VerifiedSigners cached = verificationCache.get(cacheKey);
+        if (cached != null && cached.expiresAt > now) {
+            return cached.signers;
+        }
+        
+        // Konvertiere das zu validierende Zertifikat zu BC
+        org.bouncycastle.cert.X509CertificateHolder certHolder = 
+            new org.bouncycastle.cert.jcajce.JcaX509CertificateHolder(cert);
+        
+        List<TslCertificateItem> signers = new ArrayList<>();
+        for (TslCertificateItem issuer : store.candidatesFor(cert, issuers)) {
+            // Prüfe Basic Constraints
+            if (!issuer.isCertificateAuthority()) {
+                logger.info("Basic Constraints Validierung fehlgeschlagen für Aussteller: {}", 
+                    issuer.getCertificate().getSubjectX500Principal().getName());
+                continue;
+            }
+            try {
+                // Erste Validierungsmethode: Bouncy Castle mit dem vorbereiteten Verifier des Ankers,
+                // zweite Validierungsmethode: Standard Java
+                if (validateWithBouncyCastle(certHolder, issuer) || validateWithJava(cert, issuer.getCertificate())) {
+                    signers.add(issuer);
+                }
+            } catch (Exception e) {
+                logger.error("Validierung gegen Aussteller fehlgeschlagen: {} - {}", 
+                    issuer.getCertificate().getSubjectX500Principal().getName(), e.getMessage());
+            }
+        }
+        
+        if (verificationCacheTtlMillis > 0) {
+            if (verificationCache.size() >= MAX_VERIFICATION_CACHE_ENTRIES) {
+                verificationCache.values().removeIf(entry -> entry.expiresAt <= now);
+            }
+            if (verificationCache.size() < MAX_VERIFICATION_CACHE_ENTRIES) {
+                verificationCache.put(cacheKey, new VerifiedSigners(List.copyOf(signers), now + verificationCacheTtlMillis));
+            }
+        }
+        return signers;
+    }
+    
+    private static String fingerprint(X509Certificate cert) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(cert.getEncoded()));
+    }
+    
     private ValidationResult validateTime(X509Certificate cert, ZonedDateTime validationTime) {
         if (validationTime != null) {
             Date validationDate = Date.from(validationTime.toInstant());
@@ -269,28 +319,9 @@ public class TslManager {
         return new ValidationResult(true, "Zeitvalidierung erfolgreich");
     }
     
-    private boolean validateBasicConstraints(X509Certificate cert) {
-        try {
-            return cert.getBasicConstraints() != -1;
-        } catch (Exception e) {
-            logger.error("Fehler bei der Basic Constraints Prüfung: {}", e.getMessage());
-            return false;
-        }
-    }
-    
-    private boolean validateWithBouncyCastle(X509Certificate cert, 
-            org.bouncycastle.cert.X509CertificateHolder certHolder, 
-            X509Certificate issuerCert) throws Exception {
-        
-        org.bouncycastle.cert.X509CertificateHolder issuerHolder = 
-            new org.bouncycastle.cert.jcajce.JcaX509CertificateHolder(issuerCert);
-        
-        org.bouncycastle.operator.ContentVerifierProvider verifier = 
-            new org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder()
-                .setProvider(BC_PROVIDER)
-                .build(issuerHolder);
-        
-        return certHolder.isSignatureValid(verifier);
+    private boolean validateWithBouncyCastle(org.bouncycastle.cert.X509CertificateHolder certHolder, 
+            TslCertificateItem issuer) throws Exception {
+        return issuer.getVerifierProvider() != null && certHolder.isSignatureValid(issuer.getVerifierProvider());
     }
     
     private boolean validateWithJava(X509Certificate cert, X509Certificate issuerCert) {
@@ -302,6 +333,16 @@ public class TslManager {
         }
     }
     
+    private static final class VerifiedSigners {
+        private final List<TslCertificateItem> signers;
+        private final long expiresAt;
+        
+        private VerifiedSigners(List<TslCertificateItem> signers, long expiresAt) {
+            this.signers = signers;
+            this.expiresAt = expiresAt;
+        }
+    }
+    
     private static class ValidationResult {
         private final boolean valid;
         private final String message;
@@ -321,6 +362,6 @@ public class TslManager {
     }
     
     public Map<String, List<TslCertificateItem>> getCertificatesByIssuer() {
-        return Collections.unmodifiableMap(certificatesByIssuer);
+        return trustStore.getCertificatesByIssuer();
     }
 } 
\ No newline at end of file
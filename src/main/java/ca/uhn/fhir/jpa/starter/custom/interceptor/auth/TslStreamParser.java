@@ -0,0 +1,124 @@
+package ca.uhn.fhir.jpa.starter.custom.interceptor.auth;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Liest die TSL per StAX in einem Durchlauf und liefert nur die Zertifikate der Dienste, die für die
+ * Signaturprüfung relevant sind (aktive CA/PKC-Dienste mit Extension oid_fd_sig). Es wird kein DOM aufgebaut.
+ */
+class TslStreamParser {
+
+    static final String TSL_NAMESPACE = "http://uri.etsi.org/02231/v2#";
+    static final String PKC_SERVICE_TYPE = "http://uri.etsi.org/TrstSvc/Svctype/CA/PKC";
+    static final String SERVICE_STATUS_ACTIVE = "http://uri.etsi.org/TrstSvc/Svcstatus/inaccord";
+    static final String EXTENSION_OID = "1.2.276.0.76.4.203";
+    static final String EXTENSION_VALUE = "oid_fd_sig";
+
+    /** Ein Zertifikat eines relevanten Dienstes mit dessen ServiceSupplyPoints. */
+    record Entry(byte[] certificate, List<String> supplyPoints) {
+    }
+
+    private TslStreamParser() {
+    }
+
+    static List<Entry> parse(InputStream in) throws XMLStreamException {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        // Deaktiviere DTDs und externe Entitäten für Sicherheit
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+
+        List<Entry> entries = new ArrayList<>();
+        XMLStreamReader reader = factory.createXMLStreamReader(in);
+        try {
+            ServiceState service = null;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT && TSL_NAMESPACE.equals(reader.getNamespaceURI())) {
+                    String name = reader.getLocalName();
+                    if ("ServiceInformation".equals(name)) {
+                        service = new ServiceState();
+                    } else if (service != null) {
+                        service.onStart(name, reader);
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && service != null
+                        && TSL_NAMESPACE.equals(reader.getNamespaceURI())) {
+                    String name = reader.getLocalName();
+                    if ("ServiceInformation".equals(name)) {
+                        service.collect(entries);
+                        service = null;
+                    } else if ("Extension".equals(name)) {
+                        service.onExtensionEnd();
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return entries;
+    }
+
+    private static final class ServiceState {
+        private String type;
+        private String status;
+        private boolean signatureExtension;
+        private String extensionOid;
+        private String extensionValue;
+        private final List<String> certificates = new ArrayList<>();
+        private final List<String> supplyPoints = new ArrayList<>();
+
+        void onStart(String name, XMLStreamReader reader) throws XMLStreamException {
+            switch (name) {
+                case "ServiceTypeIdentifier" -> type = firstValue(type, reader);
+                case "ServiceStatus" -> status = firstValue(status, reader);
+                case "Extension" -> {
+                    extensionOid = null;
+                    extensionValue = null;
+                }
+                case "ExtensionOID" -> extensionOid = firstValue(extensionOid, reader);
+                case "ExtensionValue" -> extensionValue = firstValue(extensionValue, reader);
+                case "X509Certificate" -> certificates.add(reader.getElementText());
+                case "ServiceSupplyPoint" -> {
+                    String point = reader.getElementText();
+                    if (point != null && !point.trim().isEmpty()) {
+                        supplyPoints.add(point.trim());
+                    }
+                }
+                default -> {
+                    // für die Signaturprüfung nicht benötigt
+                }
+            }
+        }
+
+        void onExtensionEnd() {
+            if (EXTENSION_OID.equals(extensionOid) && EXTENSION_VALUE.equals(extensionValue)) {
+                signatureExtension = true;
+            }
+        }
+
+        void collect(List<Entry> entries) {
+            if (!PKC_SERVICE_TYPE.equals(type) || !SERVICE_STATUS_ACTIVE.equals(status) || !signatureExtension) {
+                return;
+            }
+            List<String> points = List.copyOf(supplyPoints);
+            for (String certB64 : certificates) {
+                String compact = certB64.replaceAll("\\s", "");
+                if (!compact.isEmpty()) {
+                    entries.add(new Entry(Base64.getDecoder().decode(compact), points));
+                }
+            }
+        }
+
+        private static String firstValue(String current, XMLStreamReader reader) throws XMLStreamException {
+            String text = reader.getElementText();
+            return current != null ? current : text;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package ca.uhn.fhir.jpa.starter.custom.interceptor.auth;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache bereits signaturgeprüfter Access Tokens.
+ * Schlüssel ist der SHA-256-Hash des rohen Tokens, damit keine Tokens im Klartext im Speicher gehalten werden.
+ * Einträge verfallen mit dem 'exp' des Tokens; wechselt der Public Key des IdP, wird der Cache vollständig geleert.
+ * Da {@link AccessToken} veränderlich ist, hält der Cache eigene Kopien und gibt jedem Aufrufer eine neue Kopie heraus.
+ */
+class VerifiedTokenCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(VerifiedTokenCache.class);
+
+    private final int maxEntries;
+    private final Map<String, AccessToken> entries = new ConcurrentHashMap<>();
+    private volatile Map<String, PublicKey> boundKeys;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    VerifiedTokenCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Bindet den Cache an die aktuellen Schlüssel des IdP. Der {@link PukTokenManager} liefert nur bei
+     * geänderten Schlüsseln eine neue Map; nach einer Schlüsselrotation sind alle Einträge ungültig.
+     */
+    void bindToKeys(Map<String, PublicKey> keys) {
+        if (keys != boundKeys) {
+            synchronized (this) {
+                if (keys != boundKeys) {
+                    if (boundKeys != null) {
+                        logger.info("Schlüssel des IdP haben gewechselt, Token-Cache mit {} Einträgen wird geleert", entries.size());
+                    }
+                    entries.clear();
+                    boundKeys = keys;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Eine Kopie des zuvor geprüften Tokens oder null, wenn er nicht (mehr) im Cache liegt
+     */
+    AccessToken get(String tokenHash) {
+        AccessToken accessToken = entries.get(tokenHash);
+        if (accessToken == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        if (!accessToken.getExp().isAfter(Instant.now())) {
+            entries.remove(tokenHash, accessToken);
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return accessToken.copy();
+    }
+
+    void put(String tokenHash, AccessToken accessToken) {
+        if (maxEntries <= 0 || accessToken.getExp() == null || !accessToken.getExp().isAfter(Instant.now())) {
+            return;
+        }
+        if (entries.size() >= maxEntries) {
+            evictExpired();
+            if (entries.size() >= maxEntries) {
+                // Obergrenze erreicht: lieber neu prüfen als unbegrenzt wachsen
+                return;
+            }
+        }
+        entries.put(tokenHash, accessToken.copy());
+    }
+
+    private void evictExpired() {
+        Instant now = Instant.now();
+        entries.values().removeIf(accessToken -> !accessToken.getExp().isAfter(now));
+    }
+
+    void clear() {
+        entries.clear();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    static String hash(String token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(token.getBytes(StandardCharsets.US_ASCII)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 nicht verfügbar", e);
+        }
+    }
+}
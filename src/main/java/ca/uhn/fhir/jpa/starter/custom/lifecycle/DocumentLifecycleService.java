@@ -0,0 +1,265 @@
+package ca.uhn.fhir.jpa.starter.custom.lifecycle;
+
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.jpa.model.sched.HapiJob;
+import ca.uhn.fhir.jpa.model.sched.IHasScheduledJobs;
+import ca.uhn.fhir.jpa.model.sched.ISchedulerService;
+import ca.uhn.fhir.jpa.model.sched.ScheduledJobDefinition;
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.jpa.starter.custom.operation.AuditService;
+import ca.uhn.fhir.jpa.starter.custom.operation.changeStatus.ChangeStatusService;
+import ca.uhn.fhir.jpa.starter.custom.operation.erase.EraseService;
+import ca.uhn.fhir.jpa.starter.custom.search.ErgSearchParameterRegistrar;
+import ca.uhn.fhir.rest.api.SortOrderEnum;
+import ca.uhn.fhir.rest.api.SortSpec;
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
+import ca.uhn.fhir.rest.param.DateParam;
+import ca.uhn.fhir.rest.param.DateRangeParam;
+import ca.uhn.fhir.rest.param.ParamPrefixEnum;
+import com.google.common.util.concurrent.RateLimiter;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.*;
+import org.quartz.JobExecutionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Setzt die Fristen aus der Extension nextStatusChangeDate um: Rechnungen im Status 'offen' bzw. 'erledigt'
+ * werden nach Fristablauf in den Papierkorb verschoben, Rechnungen im Papierkorb endgültig gelöscht.
+ * Der Lauf wird als geclusterter Job über den HAPI-Scheduler ausgeführt (höchstens ein Knoten gleichzeitig),
+ * blättert per Keyset-Paginierung über das Fälligkeitsdatum und ist über eine Rate begrenzt,
+ * damit die Hintergrundverarbeitung nicht mit interaktiven Zugriffen konkurriert.
+ */
+@Service
+public class DocumentLifecycleService implements IHasScheduledJobs {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DocumentLifecycleService.class);
+
+    private static final String NEXT_STATUS_CHANGE_DATE_URL = "https://gematik.de/fhir/erg/StructureDefinition/nextStatusChangeDate";
+    private static final String STATUS_PAPIERKORB = "papierkorb";
+
+    private final DaoRegistry daoRegistry;
+    private final ChangeStatusService changeStatusService;
+    private final EraseService eraseService;
+    private final AuditService auditService;
+    private final boolean enabled;
+    private final long intervalMinutes;
+    private final int batchSize;
+    private final int maxDocumentsPerRun;
+    private final RateLimiter rateLimiter;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    @Autowired
+    public DocumentLifecycleService(
+            DaoRegistry daoRegistry,
+            ChangeStatusService changeStatusService,
+            EraseService eraseService,
+            AuditService auditService,
+            @Value("${hapi.fhir.lifecycle.enabled:false}") boolean enabled,
+            @Value("${hapi.fhir.lifecycle.interval_minutes:60}") long intervalMinutes,
+            @Value("${hapi.fhir.lifecycle.batch_size:50}") int batchSize,
+            @Value("${hapi.fhir.lifecycle.max_documents_per_run:1000}") int maxDocumentsPerRun,
+            @Value("${hapi.fhir.lifecycle.max_documents_per_second:5}") double maxDocumentsPerSecond) {
+        this.daoRegistry = daoRegistry;
+        this.changeStatusService = changeStatusService;
+        this.eraseService = eraseService;
+        this.auditService = auditService;
+        this.enabled = enabled;
+        this.intervalMinutes = Math.max(1, intervalMinutes);
+        this.batchSize = Math.max(1, batchSize);
+        this.maxDocumentsPerRun = Math.max(1, maxDocumentsPerRun);
+        this.rateLimiter = RateLimiter.create(maxDocumentsPerSecond > 0 ? maxDocumentsPerSecond : Double.MAX_VALUE);
+    }
+
+    @Override
+    public void scheduleJobs(ISchedulerService theSchedulerService) {
+        if (!enabled) {
+            LOGGER.info("Lebenszyklus-Scheduler ist deaktiviert (hapi.fhir.lifecycle.enabled=false).");
+            return;
+        }
+        ScheduledJobDefinition jobDefinition = new ScheduledJobDefinition();
+        jobDefinition.setId(getClass().getName());
+        jobDefinition.setJobClass(Job.class);
+        theSchedulerService.scheduleClusteredJob(TimeUnit.MINUTES.toMillis(intervalMinutes), jobDefinition);
+        LOGGER.info("Lebenszyklus-Scheduler eingeplant (Intervall: {} Minuten).", intervalMinutes);
+    }
+
+    /**
+     * Verarbeitet alle zum Zeitpunkt {@code now} fälligen Dokumente, höchstens jedoch max_documents_per_run.
+     * Dokumente, deren Verarbeitung fehlschlägt, bleiben fällig und werden im nächsten Lauf erneut versucht.
+     *
+     * @param now Stichtag für die Fälligkeit
+     * @return Zusammenfassung des Laufs
+     */
+    public Ergebnis processDueDocuments(Date now) {
+        Ergebnis ergebnis = new Ergebnis();
+        if (!running.compareAndSet(false, true)) {
+            LOGGER.info("Lebenszyklus-Lauf übersprungen, da bereits ein Lauf aktiv ist.");
+            return ergebnis;
+        }
+        try {
+            LOGGER.info("Lebenszyklus-Lauf gestartet (Stichtag: {}).", now);
+
+            // Keyset über das Fälligkeitsdatum: erfolgreich verarbeitete Dokumente fallen aus der Treffermenge,
+            // verbleibende (fehlgeschlagene) Dokumente am aktuellen Cursor-Datum werden gezielt übersprungen.
+            Date cursor = null;
+            Set<String> remainingAtCursor = new HashSet<>();
+
+            while (ergebnis.verarbeitet() < maxDocumentsPerRun) {
+                int requested = batchSize + remainingAtCursor.size();
+                List<DocumentReference> page = loadDuePage(now, cursor, requested);
+                List<DocumentReference> candidates = new ArrayList<>();
+                for (DocumentReference document : page) {
+                    if (!remainingAtCursor.contains(document.getIdElement().getIdPart())) {
+                        candidates.add(document);
+                    }
+                }
+                if (candidates.isEmpty()) {
+                    break;
+                }
+
+                for (DocumentReference document : candidates) {
+                    if (ergebnis.verarbeitet() >= maxDocumentsPerRun) {
+                        break;
+                    }
+                    rateLimiter.acquire();
+
+                    Date dueDate = getNextStatusChangeDate(document);
+                    if (cursor == null || (dueDate != null && dueDate.after(cursor))) {
+                        cursor = dueDate;
+                        remainingAtCursor.clear();
+                    }
+                    if (!processDocument(document, ergebnis)) {
+                        remainingAtCursor.add(document.getIdElement().getIdPart());
+                    }
+                }
+
+                if (page.size() < requested) {
+                    break;
+                }
+            }
+
+            LOGGER.info("Lebenszyklus-Lauf beendet: {} in den Papierkorb verschoben, {} gelöscht, {} fehlgeschlagen.",
+                ergebnis.inPapierkorb, ergebnis.geloescht, ergebnis.fehlgeschlagen);
+            return ergebnis;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private List<DocumentReference> loadDuePage(Date now, Date cursor, int count) {
+        SearchParameterMap paramMap = SearchParameterMap.newSynchronous();
+        DateRangeParam range = new DateRangeParam();
+        if (cursor != null) {
+            range.setLowerBound(new DateParam(ParamPrefixEnum.GREATERTHAN_OR_EQUALS, cursor));
+        }
+        range.setUpperBound(new DateParam(ParamPrefixEnum.LESSTHAN_OR_EQUALS, now));
+        paramMap.add(ErgSearchParameterRegistrar.SP_NEXT_STATUS_CHANGE_DATE, range);
+        paramMap.setSort(new SortSpec(ErgSearchParameterRegistrar.SP_NEXT_STATUS_CHANGE_DATE, SortOrderEnum.ASC));
+        paramMap.setCount(count);
+
+        IBundleProvider results = daoRegistry.getResourceDao(DocumentReference.class).search(paramMap, new SystemRequestDetails());
+        List<DocumentReference> documents = new ArrayList<>();
+        for (IBaseResource resource : results.getResources(0, count)) {
+            documents.add((DocumentReference) resource);
+        }
+        return documents;
+    }
+
+    /**
+     * @return true, wenn das Dokument verarbeitet wurde und damit nicht mehr fällig ist
+     */
+    private boolean processDocument(DocumentReference document, Ergebnis ergebnis) {
+        String documentId = document.getIdElement().getIdPart();
+        Reference patientReference = document.getSubject() != null && "Patient".equals(document.getSubject().getReferenceElement().getResourceType())
+            ? document.getSubject().copy() : null;
+        String currentStatus = changeStatusService.getCurrentStatus(document);
+        try {
+            if (STATUS_PAPIERKORB.equals(currentStatus)) {
+                String erasedId = document.getIdElement().toUnqualifiedVersionless().getValue();
+                EraseService.EraseErgebnis eraseErgebnis = eraseService.eraseExpiredDocumentReference(document);
+                ergebnis.geloescht++;
+
+                Reference what = new Reference().setIdentifier(new Identifier().setSystem("urn:ietf:rfc:3986").setValue(erasedId));
+                what.setDisplay("Gelöschte Ressource: " + erasedId);
+                auditService.createSystemAuditEvent(AuditEvent.AuditEventAction.D, "erase", AuditEvent.AuditEventOutcome._0,
+                    what, "DocumentReference Erase", erasedId,
+                    "DocumentReference mit ID '" + documentId + "' nach Ablauf der Frist im Papierkorb automatisch gelöscht ("
+                        + eraseErgebnis.getRessourcen() + " Ressourcen, Bereinigung in Job-Instanz " + eraseErgebnis.getBereinigungsJobId() + ").",
+                    patientReference);
+            } else {
+                DocumentReference updated = changeStatusService.processStatusChange(document, STATUS_PAPIERKORB);
+                ergebnis.inPapierkorb++;
+
+                auditService.createSystemAuditEvent(AuditEvent.AuditEventAction.U, "change-status", AuditEvent.AuditEventOutcome._0,
+                    new Reference(updated.getIdElement().toVersionless()), "DocumentReference", updated.getIdElement().toVersionless().getValue(),
+                    "Status von DocumentReference mit ID '" + documentId + "' nach Fristablauf automatisch von '" + currentStatus + "' zu '" + STATUS_PAPIERKORB + "' geändert.",
+                    patientReference);
+            }
+            return true;
+        } catch (Exception e) {
+            LOGGER.error("Lebenszyklus-Verarbeitung für Dokument {} (Status '{}') fehlgeschlagen: {}", documentId, currentStatus, e.getMessage(), e);
+            ergebnis.fehlgeschlagen++;
+            return false;
+        }
+    }
+
+    private Date getNextStatusChangeDate(DocumentReference document) {
+        Extension extension = document.getExtensionByUrl(NEXT_STATUS_CHANGE_DATE_URL);
+        if (extension != null && extension.getValue() instanceof DateTimeType) {
+            return ((DateTimeType) extension.getValue()).getValue();
+        }
+        return null;
+    }
+
+    /**
+     * Zusammenfassung eines Lebenszyklus-Laufs.
+     */
+    public static final class Ergebnis {
+        private int inPapierkorb;
+        private int geloescht;
+        private int fehlgeschlagen;
+
+        int verarbeitet() {
+            return inPapierkorb + geloescht + fehlgeschlagen;
+        }
+
+        public int getInPapierkorb() {
+            return inPapierkorb;
+        }
+
+        public int getGeloescht() {
+            return geloescht;
+        }
+
+        public int getFehlgeschlagen() {
+            return fehlgeschlagen;
+        }
+    }
+
+    /**
+     * Quartz-Job, der vom HAPI-Scheduler im Cluster auf genau einem Knoten ausgeführt wird.
+     */
+    public static class Job implements HapiJob {
+
+        @Autowired
+        private DocumentLifecycleService documentLifecycleService;
+
+        @Override
+        public void execute(JobExecutionContext theContext) {
+            documentLifecycleService.processDueDocuments(new Date());
+        }
+    }
+}
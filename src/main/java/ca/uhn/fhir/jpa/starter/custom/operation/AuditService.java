@@ -8,6 +8,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.util.Date;
+import java.util.Map;
 
 /**
  * Service zur Erstellung und Speicherung von Audit-Events gemäß den Gematik-Spezifikationen
@@ -60,6 +61,29 @@ public class AuditService {
             String actorName,
             String actorId,
             Reference patientReference) {
+        return createRestAuditEvent(action, subtypeCode, outcome, resourceReference, resourceName, entityWhatDisplay,
+            description, actorName, actorId, patientReference, null);
+    }
+
+    /**
+     * Wie {@link #createRestAuditEvent(AuditEvent.AuditEventAction, String, AuditEvent.AuditEventOutcome, Reference, String, String, String, String, String, Reference)},
+     * jedoch werden die Entity-Details bereits vor dem Speichern gesetzt. Im Gegensatz zu
+     * {@link #addEntityDetail(AuditEvent, String, String)} entsteht so genau ein Schreibzugriff pro AuditEvent.
+     *
+     * @param entityDetails Details für die erste Entität (Typ auf Wert, Reihenfolge bleibt erhalten; optional)
+     */
+    public AuditEvent createRestAuditEvent(
+            AuditEvent.AuditEventAction action,
+            String subtypeCode,
+            AuditEvent.AuditEventOutcome outcome,
+            Reference resourceReference,
+            String resourceName,
+            String entityWhatDisplay,
+            String description,
+            String actorName,
+            String actorId,
+            Reference patientReference,
+            Map<String, String> entityDetails) {
 
         LOGGER.debug("Erstelle REST-AuditEvent für Operation {} auf Ressource {}", subtypeCode, resourceReference != null ? resourceReference.getReference() : "N/A");
 
@@ -123,6 +147,13 @@ public class AuditService {
             }
             mainEntity.setName(resourceName);
             mainEntity.setDescription(description);
+            if (entityDetails != null) {
+                entityDetails.forEach((detailType, detailValue) -> {
+                    if (detailValue != null) {
+                        mainEntity.addDetail().setType(detailType).setValue(new StringType(detailValue));
+                    }
+                });
+            }
         }
 
 
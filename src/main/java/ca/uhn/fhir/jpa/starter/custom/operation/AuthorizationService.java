@@ -1,6 +1,7 @@
 package ca.uhn.fhir.jpa.starter.custom.operation;
 
 import ca.uhn.fhir.jpa.starter.custom.interceptor.auth.AccessToken;
+import ca.uhn.fhir.jpa.starter.custom.interceptor.auth.AuthorizationPolicy;
 import ca.uhn.fhir.jpa.starter.custom.interceptor.auth.Profession;
 import ca.uhn.fhir.rest.api.server.RequestDetails;
 import ca.uhn.fhir.rest.server.exceptions.AuthenticationException;
@@ -23,10 +24,12 @@ public class AuthorizationService {
     private static final Logger LOGGER = LoggerFactory.getLogger(AuthorizationService.class);
 
     private final DocumentRetrievalService documentRetrievalService;
+    private final AuthorizationPolicy authorizationPolicy;
 
     @Autowired
-    public AuthorizationService(DocumentRetrievalService documentRetrievalService) {
+    public AuthorizationService(DocumentRetrievalService documentRetrievalService, AuthorizationPolicy authorizationPolicy) {
         this.documentRetrievalService = documentRetrievalService;
+        this.authorizationPolicy = authorizationPolicy;
     }
 
     /**
@@ -58,13 +61,12 @@ public class AuthorizationService {
         }
         LOGGER.debug("Prüfe Berechtigung für Profession: {}", profession);
 
-        // Prüfe, ob der Nutzer den erforderlichen Scope hat (Beispiel: invoiceDoc.r)
+        // Prüfe, ob der Nutzer den erforderlichen Scope hat (invoiceDoc.r oder openid e-rezept)
         String scope = accessToken.getScope();
-        // TODO: Scope-Prüfung spezifischer für den Kontext gestalten, ggf. erwarteten Scope übergeben?
-        // Aktuelle Prüfung lässt 'invoiceDoc.r' oder 'openid e-rezept' zu.
-        if (scope == null || (!scope.contains("invoiceDoc.r") && !scope.contains("openid e-rezept"))) {
+        if (!authorizationPolicy.hasRequiredScope(AuthorizationPolicy.Action.DOCUMENT_ACCESS, accessToken)) {
              LOGGER.warn("Fehlender oder ungültiger Scope '{}' für User ID: {}", scope, accessToken.getIdNumber());
-            throw new ForbiddenOperationException("Fehlender oder ungültiger Scope: Erforderlich ist z.B. 'invoiceDoc.r' oder 'openid e-rezept'");
+            throw new ForbiddenOperationException("Fehlender oder ungültiger Scope: Erforderlich ist z.B. "
+                + AuthorizationPolicy.Action.DOCUMENT_ACCESS.describeScopes());
         }
         LOGGER.debug("Scope '{}' ist vorhanden.", scope);
 
@@ -75,7 +77,12 @@ public class AuthorizationService {
             throw new ForbiddenOperationException("Keine ID-Nummer im Access Token gefunden");
         }
 
-        // Beispielhafte Prüfung basierend auf Profession (kann je nach Operation variieren)
+        if (!authorizationPolicy.isProfessionAllowed(AuthorizationPolicy.Action.DOCUMENT_ACCESS, profession)) {
+            LOGGER.warn("Nicht autorisierte Profession '{}' für diesen Kontext (ID: {}).", profession, accessToken.getIdNumber());
+            throw new ForbiddenOperationException("Für diese Operation sind nur Versicherte und Kostenträger zugelassen. Aktuelle Profession: " + profession);
+        }
+
+        // Identitätsmerkmale der zugelassenen Professionen
         switch (profession) {
             case VERSICHERTER:
                 if (accessToken.getKvnr().isEmpty()) {
@@ -91,10 +98,8 @@ public class AuthorizationService {
                 }
                  LOGGER.debug("Kostenträger mit Telematik-ID validiert.");
                 break;
-            // Füge hier ggf. weitere erlaubte Professionen für diesen Kontext hinzu
             default:
-                LOGGER.warn("Nicht autorisierte Profession '{}' für diesen Kontext (ID: {}).", profession, accessToken.getIdNumber());
-                throw new ForbiddenOperationException("Für diese Operation sind nur Versicherte und Kostenträger zugelassen. Aktuelle Profession: " + profession);
+                break;
         }
     }
 
@@ -108,12 +113,23 @@ public class AuthorizationService {
             LOGGER.warn("Dokument {} hat keinen gültigen Patienten-Bezug (Subject).", document.getIdElement().getIdPart());
             throw new UnprocessableEntityException("Dokument hat keinen oder keinen gültigen Patienten-Bezug (Reference)");
         }
+
+        // Lade die Patientenressource
+        validateDocumentAccess(document, accessToken, documentRetrievalService.loadPatientResource(document));
+    }
+
+    /**
+     * Wie {@link #validateDocumentAccess(DocumentReference, AccessToken)}, jedoch mit bereits geladener Patientenressource
+     * (z.B. aus einem Sammelabruf für Batch-Operationen).
+     */
+    public void validateDocumentAccess(DocumentReference document, AccessToken accessToken, Patient patientResource) {
+        if (document.getSubject() == null || !document.getSubject().hasReference()) {
+            LOGGER.warn("Dokument {} hat keinen gültigen Patienten-Bezug (Subject).", document.getIdElement().getIdPart());
+            throw new UnprocessableEntityException("Dokument hat keinen oder keinen gültigen Patienten-Bezug (Reference)");
+        }
         String patientReference = document.getSubject().getReference();
         LOGGER.debug("Prüfe Zugriff auf Dokument {} für Patient {}", document.getIdElement().getIdPart(), patientReference);
 
-
-        // Lade die Patientenressource
-        Patient patientResource = documentRetrievalService.loadPatientResource(document);
         if (patientResource == null) {
             LOGGER.warn("Zugehörige Patientenressource für Referenz {} nicht gefunden.", patientReference);
             throw new UnprocessableEntityException("Zugehörige Patientenressource nicht gefunden oder nicht auflösbar");
@@ -154,6 +170,36 @@ public class AuthorizationService {
         }
     }
 
+    /**
+     * Prüft, ob der Nutzer auf patientenbezogene Operationen (z.B. das Leeren des Papierkorbs) zugreifen darf.
+     * Zugelassen sind nur Versicherte für sich selbst. Kostenträger sind ausgeschlossen, da ihre Zuständigkeit für
+     * einen Versicherten nicht geprüft werden kann und sie sonst den Papierkorb jedes Versicherten leeren könnten.
+     */
+    public void validatePatientAccess(Patient patientResource, AccessToken accessToken) {
+        String patientKvnr = documentRetrievalService.extractKvnrFromPatient(patientResource);
+        if (patientKvnr == null) {
+            LOGGER.warn("Keine gültige KVNR im Patientenprofil {} gefunden.", patientResource.getIdElement().getIdPart());
+            throw new UnprocessableEntityException("Patient hat keine gültige KVNR (System: http://fhir.de/sid/gkv/kvid-10)");
+        }
+
+        Profession profession = accessToken.getProfession();
+        switch (profession) {
+            case VERSICHERTER:
+                String userKvnr = accessToken.getKvnr().orElse("");
+                if (!patientKvnr.equals(userKvnr)) {
+                    LOGGER.warn("Zugriffsverletzung: Versicherter (KVNR: {}) versucht auf Patient (KVNR: {}) zuzugreifen.", userKvnr, patientKvnr);
+                    throw new ForbiddenOperationException("Versicherte dürfen nur auf ihre eigenen Daten zugreifen");
+                }
+                break;
+            case KOSTENTRAEGER:
+                LOGGER.warn("Zugriffsverletzung: Kostenträger (ID: {}) versucht patientenbezogene Operation für Patient (KVNR: {}).", accessToken.getIdNumber(), patientKvnr);
+                throw new ForbiddenOperationException("Nur Versicherte dürfen diese Operation für ihre eigenen Daten ausführen");
+            default:
+                LOGGER.warn("Unbehandelte Profession '{}' beim Zugriff auf Patient.", profession);
+                throw new ForbiddenOperationException("Ungültige Profession für Zugriff auf Patientendaten: " + profession);
+        }
+    }
+
      /**
      * Authorisiert eine Anfrage für die Submit-Operation ($erechnung-submit).
      * Prüft, ob die Profession Leistungserbringer oder Arzt/Krankenhaus ist und der Scope 'invoiceDoc.c' oder 'openid e-rezept' vorhanden ist.
@@ -168,7 +214,7 @@ public class AuthorizationService {
 
          LOGGER.debug("Prüfe Berechtigung für Submit-Operation für Profession: {}", profession);
 
-        if (profession == null || (profession != Profession.LEISTUNGSERBRINGER && profession != Profession.ARZT_KRANKENHAUS)) {
+        if (profession == null || !authorizationPolicy.isProfessionAllowed(AuthorizationPolicy.Action.SUBMIT, profession)) {
              LOGGER.warn("Unzureichende Berechtigung für Submit-Operation. Profession: {}", profession);
             throw new AuthenticationException("Keine ausreichende Berechtigung für die Submit-Operation. Nur Leistungserbringer und Ärzte im Krankenhaus dürfen Rechnungen einreichen.");
         }
@@ -176,7 +222,7 @@ public class AuthorizationService {
         // Scope-Prüfung gemäß A_26029
         String scope = accessToken.getScope();
          LOGGER.debug("Prüfe Scope '{}' für Submit-Operation.", scope);
-        if (scope == null || (!scope.contains("invoiceDoc.c") && !scope.contains("openid e-rezept"))) {
+        if (!authorizationPolicy.hasRequiredScope(AuthorizationPolicy.Action.SUBMIT, accessToken)) {
              LOGGER.warn("Fehlender Scope für Submit-Operation: '{}'", scope);
             throw new ForbiddenOperationException("Fehlender Scope: Erforderlich ist 'invoiceDoc.c' oder 'openid e-rezept'");
         }
@@ -203,13 +249,13 @@ public class AuthorizationService {
         // Scope-Prüfung für Change-Status
         String scope = accessToken.getScope();
         LOGGER.debug("Prüfe Scope '{}' für Change-Status-Operation.", scope);
-        if (scope == null || (!scope.contains("invoiceDoc.u") && !scope.contains("openid e-rezept"))) {
+        if (!authorizationPolicy.hasRequiredScope(AuthorizationPolicy.Action.CHANGE_STATUS, accessToken)) {
             LOGGER.warn("Fehlender oder ungültiger Scope '{}' für Change-Status (ID: {}). Erforderlich: 'invoiceDoc.u' oder 'openid e-rezept'", scope, accessToken.getIdNumber());
             throw new ForbiddenOperationException("Fehlender oder ungültiger Scope: Erforderlich ist 'invoiceDoc.u' oder 'openid e-rezept'");
         }
 
         // Zusätzliche Prüfung auf Profession (nur Versicherter darf Status ändern)
-        if (profession != Profession.VERSICHERTER) {
+        if (!authorizationPolicy.isProfessionAllowed(AuthorizationPolicy.Action.CHANGE_STATUS, profession)) {
             LOGGER.warn("Unautorisierte Profession '{}' für Change-Status (ID: {}).", profession, accessToken.getIdNumber());
             throw new ForbiddenOperationException("Nur Versicherte dürfen den Dokumentenstatus ändern.");
         }
@@ -0,0 +1,221 @@
+package ca.uhn.fhir.jpa.starter.custom.operation;
+
+import ca.uhn.fhir.jpa.starter.custom.interceptor.auth.AccessToken;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import org.hl7.fhir.r4.model.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+/**
+ * Gemeinsame Logik der typbezogenen Batch-Varianten von $change-status und $process-flag.
+ * Dokumente und Patienten werden gesammelt geladen, jedes Dokument einzeln geprüft und vorbereitet,
+ * und die vorbereiteten Versionen anschließend blockweise in je einer Transaktion geschrieben.
+ * Das Ergebnis wird pro Token zurückgegeben, ein fehlerhaftes Dokument bricht den Aufruf nicht ab.
+ */
+@Service
+public class BatchDocumentUpdateService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchDocumentUpdateService.class);
+
+    public static final String PARAM_TOKEN = "token";
+    public static final String PARAM_ERGEBNIS = "ergebnis";
+
+    private final VersionedDocumentUpdater versionedDocumentUpdater;
+    private final DocumentRetrievalService documentRetrievalService;
+    private final AuthorizationService authorizationService;
+    private final TransactionTemplate transactionTemplate;
+    private final int maxTokens;
+    private final int chunkSize;
+
+    @Autowired
+    public BatchDocumentUpdateService(
+            VersionedDocumentUpdater versionedDocumentUpdater,
+            DocumentRetrievalService documentRetrievalService,
+            AuthorizationService authorizationService,
+            PlatformTransactionManager transactionManager,
+            @Value("${hapi.fhir.batch.max_tokens:200}") int maxTokens,
+            @Value("${hapi.fhir.batch.chunk_size:50}") int chunkSize) {
+        this.versionedDocumentUpdater = versionedDocumentUpdater;
+        this.documentRetrievalService = documentRetrievalService;
+        this.authorizationService = authorizationService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.maxTokens = maxTokens;
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    /**
+     * Führt eine Änderung für alle übergebenen Tokens durch.
+     *
+     * @param tokens      Die Dokumenttokens (Duplikate werden ignoriert, die Reihenfolge bleibt erhalten)
+     * @param accessToken Der bereits autorisierte AccessToken des Aufrufers
+     * @param preparer    Prüft ein geladenes Dokument und liefert die ungespeicherte neue Version;
+     *                    wirft eine {@link BaseServerResponseException}, wenn die Änderung nicht zulässig ist
+     * @return Ein Ergebnis pro Token in Aufrufreihenfolge
+     */
+    public List<Ergebnis> updateDocuments(List<String> tokens, AccessToken accessToken,
+                                          UnaryOperator<DocumentReference> preparer) {
+        Set<String> uniqueTokens = validateTokens(tokens);
+        LOGGER.info("Batch-Aktualisierung für {} Dokumente gestartet.", uniqueTokens.size());
+
+        // 1. Dokumente und Patienten gesammelt laden
+        Map<String, DocumentReference> documents = documentRetrievalService.findDocuments(uniqueTokens);
+        Map<String, Patient> patients = documentRetrievalService.loadPatientResources(documents.values());
+
+        // 2. Jedes Dokument prüfen und die neue Version vorbereiten
+        Map<String, Ergebnis> ergebnisse = new LinkedHashMap<>();
+        List<Ergebnis> pending = new ArrayList<>();
+        for (String token : uniqueTokens) {
+            Ergebnis ergebnis = new Ergebnis(token);
+            ergebnisse.put(token, ergebnis);
+
+            DocumentReference document = documents.get(token);
+            if (document == null) {
+                ergebnis.fehler(404, "Kein Dokument mit Token " + token + " gefunden");
+                continue;
+            }
+            ergebnis.originalDocument = document;
+            try {
+                Patient patient = patients.get(new IdType(document.getSubject().getReference()).toUnqualifiedVersionless().getValue());
+                authorizationService.validateDocumentAccess(document, accessToken, patient);
+                ergebnis.preparedDocument = preparer.apply(document);
+                pending.add(ergebnis);
+            } catch (BaseServerResponseException e) {
+                LOGGER.warn("Dokument {} wird im Batch übersprungen: {}", token, e.getMessage());
+                ergebnis.fehler(e.getStatusCode(), e.getMessage());
+            }
+        }
+
+        // 3. Vorbereitete Versionen blockweise schreiben
+        for (int i = 0; i < pending.size(); i += chunkSize) {
+            writeChunk(pending.subList(i, Math.min(i + chunkSize, pending.size())), preparer);
+        }
+
+        long erfolgreich = ergebnisse.values().stream().filter(Ergebnis::isErfolg).count();
+        LOGGER.info("Batch-Aktualisierung beendet: {} von {} Dokumenten erfolgreich.", erfolgreich, ergebnisse.size());
+        return new ArrayList<>(ergebnisse.values());
+    }
+
+    /**
+     * Baut die Antwort der Batch-Operation mit einem 'ergebnis'-Parameter pro Token.
+     */
+    public Parameters toParameters(List<Ergebnis> ergebnisse) {
+        Parameters result = new Parameters();
+        for (Ergebnis ergebnis : ergebnisse) {
+            Parameters.ParametersParameterComponent part = result.addParameter().setName(PARAM_ERGEBNIS);
+            part.addPart().setName(PARAM_TOKEN).setValue(new StringType(ergebnis.token));
+            part.addPart().setName("status").setValue(new CodeType(ergebnis.isErfolg() ? "erfolg" : "fehler"));
+            if (ergebnis.isErfolg()) {
+                part.addPart().setName("meta").setValue(ergebnis.savedDocument.getMeta());
+            } else {
+                part.addPart().setName("httpStatus").setValue(new IntegerType(ergebnis.httpStatus));
+                part.addPart().setName("fehler").setValue(new StringType(ergebnis.fehlermeldung));
+            }
+        }
+        return result;
+    }
+
+    private Set<String> validateTokens(List<String> tokens) {
+        if (tokens == null || tokens.isEmpty()) {
+            throw new InvalidRequestException("Mindestens ein Parameter 'token' ist erforderlich");
+        }
+        Set<String> uniqueTokens = new LinkedHashSet<>();
+        for (String token : tokens) {
+            if (token == null || token.isBlank()) {
+                throw new InvalidRequestException("Parameter 'token' darf nicht leer sein");
+            }
+            uniqueTokens.add(token.trim());
+        }
+        if (uniqueTokens.size() > maxTokens) {
+            throw new InvalidRequestException("Es dürfen höchstens " + maxTokens + " Tokens pro Aufruf übergeben werden");
+        }
+        return uniqueTokens;
+    }
+
+    /**
+     * Schreibt einen Block in einer gemeinsamen Transaktion. Schlägt der Block fehl (z.B. durch eine parallele
+     * Änderung an einem Dokument), werden seine Dokumente einzeln mit Konfliktauflösung erneut geschrieben,
+     * damit nur ein tatsächlich nicht schreibbares Dokument als Fehler gemeldet wird.
+     */
+    private void writeChunk(List<Ergebnis> chunk, UnaryOperator<DocumentReference> preparer) {
+        try {
+            List<DocumentReference> saved = transactionTemplate.execute(status -> {
+                List<DocumentReference> results = new ArrayList<>(chunk.size());
+                for (Ergebnis ergebnis : chunk) {
+                    results.add(versionedDocumentUpdater.write(ergebnis.preparedDocument));
+                }
+                return results;
+            });
+            for (int i = 0; i < chunk.size(); i++) {
+                chunk.get(i).savedDocument = saved.get(i);
+            }
+        } catch (RuntimeException e) {
+            LOGGER.warn("Schreiben eines Blocks von {} Dokumenten fehlgeschlagen ({}), schreibe Dokumente einzeln.", chunk.size(), e.getMessage());
+            for (Ergebnis ergebnis : chunk) {
+                try {
+                    // Außerhalb einer Transaktion, damit Versionskonflikte mit neu gelesener Version wiederholt werden können
+                    ergebnis.savedDocument = versionedDocumentUpdater.update(ergebnis.originalDocument, preparer);
+                } catch (BaseServerResponseException single) {
+                    LOGGER.warn("Dokument {} konnte nicht geschrieben werden: {}", ergebnis.token, single.getMessage());
+                    ergebnis.fehler(single.getStatusCode(), single.getMessage());
+                } catch (RuntimeException single) {
+                    LOGGER.error("Dokument {} konnte nicht geschrieben werden: {}", ergebnis.token, single.getMessage(), single);
+                    ergebnis.fehler(500, "Fehler beim Speichern des Dokuments: " + single.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Ergebnis der Batch-Verarbeitung für ein einzelnes Token.
+     */
+    public static final class Ergebnis {
+
+        private final String token;
+        private DocumentReference originalDocument;
+        private DocumentReference preparedDocument;
+        private DocumentReference savedDocument;
+        private int httpStatus;
+        private String fehlermeldung;
+
+        Ergebnis(String token) {
+            this.token = token;
+        }
+
+        private void fehler(int httpStatus, String fehlermeldung) {
+            this.httpStatus = httpStatus;
+            this.fehlermeldung = fehlermeldung;
+            this.savedDocument = null;
+        }
+
+        public boolean isErfolg() {
+            return savedDocument != null && fehlermeldung == null;
+        }
+
+        public String getToken() {
+            return token;
+        }
+
+        /** Das Dokument im Zustand vor der Änderung (null, wenn es nicht gefunden wurde). */
+        public DocumentReference getOriginalDocument() {
+            return originalDocument;
+        }
+
+        public DocumentReference getSavedDocument() {
+            return savedDocument;
+        }
+    }
+}
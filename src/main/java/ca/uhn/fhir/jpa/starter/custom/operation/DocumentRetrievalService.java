@@ -4,6 +4,8 @@ import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
 import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
 import ca.uhn.fhir.rest.api.server.IBundleProvider;
 import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
+import ca.uhn.fhir.rest.param.TokenOrListParam;
 import ca.uhn.fhir.rest.param.TokenParam;
 import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
@@ -17,7 +19,12 @@ import org.springframework.stereotype.Service;
 
 import ca.uhn.fhir.context.FhirContext;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Service für die Suche und den Abruf von Dokumenten
@@ -67,6 +74,82 @@ public class DocumentRetrievalService {
         }
     }
 
+    /**
+     * Lädt eine Patientenressource anhand ihrer logischen ID.
+     * Wirft ResourceNotFoundException, wenn der Patient nicht existiert.
+     */
+    public Patient findPatient(String patientId) {
+        try {
+            return daoRegistry.getResourceDao(Patient.class).read(new IdType("Patient", patientId), new SystemRequestDetails());
+        } catch (ResourceNotFoundException e) {
+            LOGGER.warn("Patient mit ID {} nicht gefunden.", patientId);
+            throw e;
+        }
+    }
+
+    /**
+     * Lädt mehrere Dokumente anhand ihrer Tokens (logische IDs) mit einer einzigen _id-Suche.
+     * Nicht gefundene Tokens fehlen in der Ergebnis-Map.
+     *
+     * @param tokens Die Dokumenttokens
+     * @return Map von Token auf DocumentReference
+     */
+    public Map<String, DocumentReference> findDocuments(Collection<String> tokens) {
+        Map<String, DocumentReference> documents = new HashMap<>();
+        if (tokens == null || tokens.isEmpty()) {
+            return documents;
+        }
+        LOGGER.info("Suche {} Dokumente via _id (Tokens).", tokens.size());
+
+        TokenOrListParam idParam = new TokenOrListParam();
+        tokens.forEach(token -> idParam.addOr(new TokenParam(token)));
+        SearchParameterMap paramMap = SearchParameterMap.newSynchronous();
+        paramMap.add("_id", idParam);
+
+        IBundleProvider results = daoRegistry.getResourceDao(DocumentReference.class).search(paramMap, new SystemRequestDetails());
+        for (IBaseResource resource : results.getAllResources()) {
+            DocumentReference document = (DocumentReference) resource;
+            documents.put(document.getIdElement().getIdPart(), document);
+        }
+        LOGGER.info("{} von {} Dokumenten gefunden.", documents.size(), tokens.size());
+        return documents;
+    }
+
+    /**
+     * Lädt die Patientenressourcen mehrerer Dokumente mit einer einzigen _id-Suche.
+     *
+     * @param documents Die Dokumente, deren subject-Referenzen aufgelöst werden sollen
+     * @return Map von versionsloser Patientenreferenz (z.B. "Patient/123") auf Patient
+     */
+    public Map<String, Patient> loadPatientResources(Collection<DocumentReference> documents) {
+        Map<String, Patient> patients = new HashMap<>();
+        Set<String> patientIds = new HashSet<>();
+        for (DocumentReference document : documents) {
+            if (document.hasSubject() && document.getSubject().hasReference()) {
+                IdType patientId = new IdType(document.getSubject().getReference());
+                if ("Patient".equals(patientId.getResourceType()) && patientId.hasIdPart()) {
+                    patientIds.add(patientId.getIdPart());
+                }
+            }
+        }
+        if (patientIds.isEmpty()) {
+            return patients;
+        }
+
+        TokenOrListParam idParam = new TokenOrListParam();
+        patientIds.forEach(id -> idParam.addOr(new TokenParam(id)));
+        SearchParameterMap paramMap = SearchParameterMap.newSynchronous();
+        paramMap.add("_id", idParam);
+
+        IBundleProvider results = daoRegistry.getResourceDao(Patient.class).search(paramMap, new SystemRequestDetails());
+        for (IBaseResource resource : results.getAllResources()) {
+            Patient patient = (Patient) resource;
+            patients.put(patient.getIdElement().toUnqualifiedVersionless().getValue(), patient);
+        }
+        LOGGER.info("{} von {} Patientenressourcen geladen.", patients.size(), patientIds.size());
+        return patients;
+    }
+
     /**
      * Lädt eine Binary-Ressource von einer URL
      */
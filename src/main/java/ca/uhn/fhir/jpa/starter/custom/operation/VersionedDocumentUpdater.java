@@ -0,0 +1,114 @@
+package ca.uhn.fhir.jpa.starter.custom.operation;
+
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.jpa.api.model.DaoMethodOutcome;
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceVersionConflictException;
+import org.hl7.fhir.r4.model.DocumentReference;
+import org.hl7.fhir.r4.model.IdType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.UnaryOperator;
+
+/**
+ * Schreibt geänderte DocumentReferences mit Versionsvorbedingung (optimistische Nebenläufigkeit).
+ * Ist das Dokument inzwischen von einem anderen Gerät geändert worden, wird die aktuelle Version neu gelesen
+ * und nur die Änderung (Status bzw. Markierung) erneut darauf angewendet. Die Anzahl der Versuche ist begrenzt,
+ * zwischen den Versuchen wird mit zufällig gestreutem, exponentiell wachsendem Abstand gewartet.
+ */
+@Service
+public class VersionedDocumentUpdater {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VersionedDocumentUpdater.class);
+
+    private final DaoRegistry daoRegistry;
+    private final int maxAttempts;
+    private final long backoffBaseMillis;
+    private final long backoffMaxMillis;
+
+    @Autowired
+    public VersionedDocumentUpdater(
+            DaoRegistry daoRegistry,
+            @Value("${hapi.fhir.optimistic_update.max_attempts:5}") int maxAttempts,
+            @Value("${hapi.fhir.optimistic_update.backoff_base_ms:20}") long backoffBaseMillis,
+            @Value("${hapi.fhir.optimistic_update.backoff_max_ms:500}") long backoffMaxMillis) {
+        this.daoRegistry = daoRegistry;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffBaseMillis = Math.max(1, backoffBaseMillis);
+        this.backoffMaxMillis = Math.max(this.backoffBaseMillis, backoffMaxMillis);
+    }
+
+    /**
+     * Wendet die Änderung auf das Dokument an und schreibt es mit Versionsvorbedingung. Bei einem Versionskonflikt
+     * wird die aktuelle Version gelesen und die Änderung erneut angewendet. Darf nicht innerhalb einer
+     * umschließenden Transaktion aufgerufen werden, da ein Konflikt diese als rollback-only markieren würde.
+     *
+     * @param document Das zuletzt gelesene Dokument
+     * @param change   Liefert zu einem Dokument die ungespeicherte geänderte Kopie; darf fachliche Prüfungen enthalten,
+     *                 die auf der neu gelesenen Version erneut ausgeführt werden
+     * @return Das gespeicherte Dokument
+     * @throws ResourceVersionConflictException Wenn auch nach dem letzten Versuch ein Konflikt besteht
+     */
+    public DocumentReference update(DocumentReference document, UnaryOperator<DocumentReference> change) {
+        DocumentReference current = document;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return write(change.apply(current));
+            } catch (ResourceVersionConflictException e) {
+                String documentId = current.getIdElement().getIdPart();
+                if (attempt >= maxAttempts) {
+                    LOGGER.warn("Versionskonflikt für Dokument {} nach {} Versuchen nicht aufgelöst.", documentId, attempt);
+                    throw e;
+                }
+                LOGGER.info("Versionskonflikt für Dokument {} (Version {}), Versuch {} von {}. Lese aktuelle Version neu.",
+                    documentId, current.getIdElement().getVersionIdPart(), attempt, maxAttempts);
+                sleepBeforeRetry(attempt);
+                current = daoRegistry.getResourceDao(DocumentReference.class)
+                    .read(current.getIdElement().toUnqualifiedVersionless(), new SystemRequestDetails());
+            }
+        }
+    }
+
+    /**
+     * Schreibt eine vorbereitete Kopie genau einmal. Die Kopie muss die Version tragen, auf der sie beruht;
+     * weicht die gespeicherte Version ab, wirft der DAO eine {@link ResourceVersionConflictException}.
+     */
+    public DocumentReference write(DocumentReference documentToUpdate) {
+        IdType id = documentToUpdate.getIdElement();
+        if (!id.hasVersionIdPart() && documentToUpdate.getMeta().hasVersionId()) {
+            documentToUpdate.setId(id.withVersion(documentToUpdate.getMeta().getVersionId()));
+        }
+        if (!documentToUpdate.getIdElement().hasVersionIdPart()) {
+            throw new InternalErrorException("Dokument " + id.getIdPart() + " kann ohne Versionsangabe nicht bedingt aktualisiert werden.");
+        }
+
+        // Snapshot-Modus, damit ersetzte Tags (z.B. das Status-Tag) nicht mit der Vorversion zusammengeführt werden
+        SystemRequestDetails requestDetails = new SystemRequestDetails();
+        requestDetails.addHeader(Constants.HEADER_META_SNAPSHOT_MODE, "TAG");
+
+        DaoMethodOutcome outcome = daoRegistry.getResourceDao(DocumentReference.class).update(documentToUpdate, requestDetails);
+        DocumentReference savedDocument = (DocumentReference) outcome.getResource();
+        if (savedDocument == null) {
+            throw new InternalErrorException("DAO lieferte beim Speichern von Dokument " + id.getIdPart() + " keine Ressource zurück.");
+        }
+        return savedDocument;
+    }
+
+    private void sleepBeforeRetry(int attempt) {
+        long ceiling = Math.min(backoffMaxMillis, backoffBaseMillis << Math.min(attempt, 20));
+        long delay = ThreadLocalRandom.current().nextLong(backoffBaseMillis, ceiling + 1);
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InternalErrorException("Wiederholung der Aktualisierung wurde unterbrochen", e);
+        }
+    }
+}
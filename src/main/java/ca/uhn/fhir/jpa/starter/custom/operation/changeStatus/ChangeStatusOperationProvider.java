@@ -5,8 +5,8 @@ import ca.uhn.fhir.jpa.api.model.DaoMethodOutcome;
 import ca.uhn.fhir.jpa.starter.custom.interceptor.auth.AccessToken;
 import ca.uhn.fhir.jpa.starter.custom.interceptor.auth.Profession;
 import ca.uhn.fhir.jpa.starter.custom.operation.AuditService;
-import ca.uhn.fhir.jpa.starter.custom.interceptor.CustomValidator;
 import ca.uhn.fhir.jpa.starter.custom.operation.AuthorizationService;
+import ca.uhn.fhir.jpa.starter.custom.operation.BatchDocumentUpdateService;
 import ca.uhn.fhir.jpa.starter.custom.operation.DocumentRetrievalService;
 import ca.uhn.fhir.jpa.starter.custom.operation.changeStatus.ChangeStatusService;
 import ca.uhn.fhir.rest.annotation.IdParam;
@@ -31,7 +31,10 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 /**
  * Provider für die Change-Status-Operation, die die Änderung des Status eines Rechnungsdokuments ermöglicht.
@@ -44,30 +47,21 @@ public class ChangeStatusOperationProvider implements IResourceProvider {
     private static final Logger LOGGER = LoggerFactory.getLogger(ChangeStatusOperationProvider.class);
     private static final List<String> VALID_STATUS_CODES = Arrays.asList("offen", "erledigt", "papierkorb");
 
-    @Autowired
-    private CustomValidator validator;
-
-    @Autowired
-    private AuthorizationService authorizationService;
-
     private final FhirContext ctx;
+    private final AuthorizationService authorizationService;
+    private final DocumentRetrievalService documentRetrievalService;
+    private final ChangeStatusService changeStatusService;
+    private final AuditService auditService;
+    private final BatchDocumentUpdateService batchDocumentUpdateService;
 
     @Autowired
-    private DocumentRetrievalService documentRetrievalService;
-
-    @Autowired
-    private ChangeStatusService changeStatusService;
-
-    @Autowired
-    private AuditService auditService;
-
-    @Autowired
-    public ChangeStatusOperationProvider(FhirContext ctx, AuthorizationService authorizationService, DocumentRetrievalService documentRetrievalService, ChangeStatusService changeStatusService, AuditService auditService) {
+    public ChangeStatusOperationProvider(FhirContext ctx, AuthorizationService authorizationService, DocumentRetrievalService documentRetrievalService, ChangeStatusService changeStatusService, AuditService auditService, BatchDocumentUpdateService batchDocumentUpdateService) {
         this.ctx = ctx;
         this.authorizationService = authorizationService;
         this.documentRetrievalService = documentRetrievalService;
         this.changeStatusService = changeStatusService;
         this.auditService = auditService;
+        this.batchDocumentUpdateService = batchDocumentUpdateService;
     }
 
     @Override
@@ -104,62 +98,108 @@ public class ChangeStatusOperationProvider implements IResourceProvider {
         DocumentReference document = documentRetrievalService.findDocument(id.getIdPart());
         
         // Ermittle den alten Status für das Audit-Log, BEVOR er geändert wird.
-        String alterStatusValue = "UNBEKANNT"; // Fallback
-        if (document.getMeta() != null && document.getMeta().getTag() != null) {
-            // Suchen Sie hier nach dem spezifischen Tag, das Ihren Status repräsentiert.
-            for (Coding metaTag : document.getMeta().getTag()) {
-                // Beispiel: if ("https://IhrSystem.de/CodeSystem/status".equals(metaTag.getSystem())) {
-                if (VALID_STATUS_CODES.contains(metaTag.getCode())) { // Prüfen, ob der Code ein valider Status ist
-                    alterStatusValue = metaTag.getCode();
-                    break;
-                }
-            }
-        }
+        String alterStatusValue = extractAlterStatus(document);
         LOGGER.info("Alter Status für Audit-Log ermittelt: {}", alterStatusValue);
 
         // 3. Prüfe Zugriff auf DIESES Dokument über den zentralen Service
         authorizationService.validateDocumentAccess(document, accessToken);
 
-        // 4. Delegiere die Statusänderungslogik an den ChangeStatusService
-        DocumentReference updatedDocument = changeStatusService.processStatusChange(id, tag, accessToken);
+        // 4. Delegiere die Statusänderungslogik an den ChangeStatusService (bereits geladenes Dokument, ein einziger Schreibzugriff)
+        DocumentReference updatedDocument = changeStatusService.processStatusChange(document, tag);
             
         // 5. Erstelle die Antwort gemäß der Spezifikation
         Parameters result = new Parameters();
         result.addParameter().setName("meta").setValue(updatedDocument.getMeta());
 
         // 6. Audit-Log Eintrag erstellen
+        createAuditEvent(updatedDocument, accessToken, id.getIdPart(), alterStatusValue, tag);
+            
+        LOGGER.info("Change-Status-Operation erfolgreich beendet für Dokument mit ID {}", id.getIdPart());
+        return result;
+    }
+
+    /**
+     * Typbezogene Batch-Variante der $change-status Operation (/DocumentReference/$change-status).
+     * Setzt den Status für mehrere Dokumente mit einer einzigen Autorisierung und liefert ein Ergebnis pro Token.
+     *
+     * @param tokens            Die Tokens der Dokumente
+     * @param tag               Der neue Status-Code
+     * @param theRequestDetails Request-Details für die Autorisierung
+     * @return Parameters mit einem 'ergebnis'-Parameter pro Token
+     */
+    @Operation(name = "$change-status", idempotent = false)
+    public Parameters changeStatusBatchOperation(
+            @OperationParam(name = BatchDocumentUpdateService.PARAM_TOKEN, min = 1, max = OperationParam.MAX_UNLIMITED) List<StringType> tokens,
+            @OperationParam(name = "tag") String tag,
+            RequestDetails theRequestDetails
+    ) {
+        LOGGER.info("Batch-Change-Status-Operation für {} Dokumente aufgerufen, neuer Status: {}", tokens != null ? tokens.size() : 0, tag);
+
+        if (tag == null || !VALID_STATUS_CODES.contains(tag)) {
+            throw new InvalidRequestException("Der angegebene Status-Code ist ungültig. Gültige Werte sind: offen, erledigt, papierkorb.");
+        }
+
+        // Einmalige Authentifizierung und Autorisierung für alle Dokumente
+        AccessToken accessToken = authorizationService.authorizeChangeStatusOperation(theRequestDetails);
+
+        List<String> tokenValues = tokens == null ? List.of() : tokens.stream().map(StringType::getValue).collect(Collectors.toList());
+        List<BatchDocumentUpdateService.Ergebnis> ergebnisse = batchDocumentUpdateService.updateDocuments(
+            tokenValues, accessToken, document -> changeStatusService.prepareStatusChange(document, tag));
+
+        for (BatchDocumentUpdateService.Ergebnis ergebnis : ergebnisse) {
+            if (ergebnis.isErfolg()) {
+                createAuditEvent(ergebnis.getSavedDocument(), accessToken, ergebnis.getToken(), extractAlterStatus(ergebnis.getOriginalDocument()), tag);
+            }
+        }
+
+        LOGGER.info("Batch-Change-Status-Operation beendet für {} Dokumente", ergebnisse.size());
+        return batchDocumentUpdateService.toParameters(ergebnisse);
+    }
+
+    /**
+     * Ermittelt den Status eines Dokuments vor der Änderung für das Audit-Log.
+     */
+    private String extractAlterStatus(DocumentReference document) {
+        if (document.getMeta() != null && document.getMeta().getTag() != null) {
+            // Suchen Sie hier nach dem spezifischen Tag, das Ihren Status repräsentiert.
+            for (Coding metaTag : document.getMeta().getTag()) {
+                if (VALID_STATUS_CODES.contains(metaTag.getCode())) { // Prüfen, ob der Code ein valider Status ist
+                    return metaTag.getCode();
+                }
+            }
+        }
+        return "UNBEKANNT"; // Fallback
+    }
+
+    private void createAuditEvent(DocumentReference updatedDocument, AccessToken accessToken, String token, String alterStatusValue, String tag) {
         try {
             Reference patientReference = null;
-            if (updatedDocument.getSubject() != null && updatedDocument.getSubject().getReferenceElement().getResourceType().equals("Patient")) {
+            if (updatedDocument.getSubject() != null && "Patient".equals(updatedDocument.getSubject().getReferenceElement().getResourceType())) {
                 patientReference = updatedDocument.getSubject();
             }
             String kvnr = accessToken.getKvnr().orElse(accessToken.getIdNumber()); // Fallback auf IDNumber, falls KVNR nicht da
 
-            AuditEvent auditEvent = auditService.createRestAuditEvent(
+            // Details für alten und neuen Status werden direkt mitgeschrieben (ein Schreibzugriff pro AuditEvent)
+            Map<String, String> details = new LinkedHashMap<>();
+            details.put("alter-status", alterStatusValue);
+            details.put("neuer-status", tag);
+
+            auditService.createRestAuditEvent(
                 AuditEvent.AuditEventAction.U, // U für Update
                 "change-status", // Korrekter Subtype-Code
                 AuditEvent.AuditEventOutcome._0, // Erfolg
                 new Reference(updatedDocument.getIdElement().toVersionless()),
                 "DocumentReference", // Konsistenter Resource Name
                 updatedDocument.getIdElement().toVersionless().getValue(), // entityWhatDisplay
-                "Status von DocumentReference mit ID '" + id.getIdPart() + "' geändert von '" + alterStatusValue + "' zu '" + tag + "' durch Versicherten.",
-                accessToken.getIdNumber(), // actorName - Korrektur: getIdNumber() als Fallback
+                "Status von DocumentReference mit ID '" + token + "' geändert von '" + alterStatusValue + "' zu '" + tag + "' durch Versicherten.",
+                accessToken.getIdNumber(), // actorName
                 kvnr, // actorId (KVNR des Versicherten)
-                patientReference // patientReference für Versicherter-Slice
+                patientReference, // patientReference für Versicherter-Slice
+                details
             );
-
-            // Füge spezifische Details für alten und neuen Status hinzu
-            if (auditEvent != null && auditEvent.hasId()) {
-                auditService.addEntityDetail(auditEvent, "alter-status", alterStatusValue);
-                auditService.addEntityDetail(auditEvent, "neuer-status", tag);
-            }
-
         } catch (Exception e) {
             LOGGER.error("Fehler beim Erstellen des AuditEvents für ChangeStatusOperation: {}", e.getMessage(), e);
             // Die Hauptoperation sollte hierdurch nicht fehlschlagen
         }
-            
-        LOGGER.info("Change-Status-Operation erfolgreich beendet für Dokument mit ID {}", id.getIdPart());
-        return result;
     }
-} 
\ No newline at end of file
+}
@@ -1,11 +1,12 @@
 package ca.uhn.fhir.jpa.starter.custom.operation.changeStatus;
 
 import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
-import ca.uhn.fhir.jpa.api.model.DaoMethodOutcome;
 import ca.uhn.fhir.jpa.starter.custom.interceptor.auth.AccessToken;
 import ca.uhn.fhir.jpa.starter.custom.operation.AuditService;
 import ca.uhn.fhir.jpa.starter.custom.operation.AuthorizationService;
 import ca.uhn.fhir.jpa.starter.custom.operation.DocumentRetrievalService;
+import ca.uhn.fhir.jpa.starter.custom.operation.VersionedDocumentUpdater;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
 import ca.uhn.fhir.rest.server.exceptions.UnprocessableEntityException;
 import org.hl7.fhir.r4.model.*;
@@ -44,6 +45,9 @@ public class ChangeStatusService {
     @Autowired
     private DocumentRetrievalService documentRetrievalService;
 
+    @Autowired
+    private VersionedDocumentUpdater versionedDocumentUpdater;
+
 
     /**
      * Führt die Statusänderung für ein gegebenes Dokument durch.
@@ -54,40 +58,68 @@ public class ChangeStatusService {
      * @return Das aktualisierte DocumentReference-Objekt.
      */
     public DocumentReference processStatusChange(IdType documentId, String newStatus, AccessToken accessToken) {
-        LOGGER.info("Beginne Verarbeitung der Statusänderung für Dokument-ID {} auf Status {}", documentId.getIdPart(), newStatus);
-
-        // 1. Lade das Dokument über den DocumentRetrievalService, wobei documentId.getIdPart() der Token ist.
-        // Beachte: documentId enthält bereits den Typ "DocumentReference", findDocumentByToken erwartet aber nur die ID.
+        // Lade das Dokument über den DocumentRetrievalService, wobei documentId.getIdPart() der Token ist.
         DocumentReference document = documentRetrievalService.findDocument(documentId.getIdPart());
 
-        // 2. Prüfe Zugriff auf das Dokument
+        // Prüfe Zugriff auf das Dokument
         authorizationService.validateDocumentAccess(document, accessToken);
 
-        // 3. Prüfe, ob der Statuswechsel zulässig ist
-        String currentStatus = getCurrentStatus(document);
-        validateStatusChange(currentStatus, newStatus);
+        return processStatusChange(document, newStatus);
+    }
+
+    /**
+     * Führt die Statusänderung für ein bereits geladenes und auf Zugriff geprüftes Dokument durch.
+     * Das Update ist an die gelesene Version gebunden; wurde das Dokument zwischenzeitlich geändert,
+     * wird der Statuswechsel auf der aktuellen Version erneut geprüft und angewendet.
+     * Bewusst ohne umschließende Transaktion, damit jeder Versuch in einer eigenen Transaktion läuft.
+     *
+     * @param document  Das Dokument in der zuletzt gelesenen Version.
+     * @param newStatus Der neue Status-Code.
+     * @return Das aktualisierte DocumentReference-Objekt, wie es vom Schreibzugriff zurückgegeben wurde.
+     */
+    public DocumentReference processStatusChange(DocumentReference document, String newStatus) {
+        String documentId = document.getIdElement().getIdPart();
+        LOGGER.info("Beginne Verarbeitung der Statusänderung für Dokument-ID {} auf Status {}", documentId, newStatus);
+
+        // 1. Prüfe den Statuswechsel vorab, damit unzulässige Wechsel nicht als interner Fehler gemeldet werden
+        validateStatusChange(getCurrentStatus(document), newStatus);
 
         try {
-            // 4. Aktualisiere den Status des Dokuments
+            // 2. Aktualisiere den Status des Dokuments
             DocumentReference updatedDocument = updateDocumentStatus(document, newStatus);
 
-            // 5. Protokolliere die Statusänderung
-            //logChangeStatusOperation(updatedDocument, accessToken, currentStatus, newStatus);
-
-            LOGGER.info("Statusänderung für Dokument {} erfolgreich verarbeitet.", documentId.getIdPart());
+            LOGGER.info("Statusänderung für Dokument {} erfolgreich verarbeitet.", documentId);
             return updatedDocument;
 
+        } catch (BaseServerResponseException e) {
+            // Fachliche Fehler und nicht auflösbare Versionskonflikte unverändert weitergeben
+            throw e;
         } catch (Exception e) {
-            LOGGER.error("Fehler bei der Verarbeitung der Statusänderung für Dokument {}: {}", documentId.getIdPart(), e.getMessage(), e);
+            LOGGER.error("Fehler bei der Verarbeitung der Statusänderung für Dokument {}: {}", documentId, e.getMessage(), e);
             // Hier könnte eine spezifischere Exception geworfen werden, falls nötig.
             throw new InternalErrorException("Fehler bei der Verarbeitung der Statusänderung: " + e.getMessage(), e);
         }
     }
 
+    /**
+     * Prüft, ob der Statuswechsel zulässig ist, und liefert eine ungespeicherte Kopie des Dokuments mit dem neuen Status.
+     * Wird auch von der Batch-Variante der Operation genutzt, die die Kopien gesammelt schreibt.
+     *
+     * @throws UnprocessableEntityException Wenn der Statuswechsel nicht zulässig ist.
+     */
+    public DocumentReference prepareStatusChange(DocumentReference document, String newStatus) {
+        String currentStatus = getCurrentStatus(document);
+        validateStatusChange(currentStatus, newStatus);
+
+        DocumentReference documentToUpdate = document.copy();
+        applyStatus(documentToUpdate, newStatus);
+        return documentToUpdate;
+    }
+
     /**
      * Ermittelt den aktuellen Status des Dokuments aus den Meta-Tags.
      */
-    private String getCurrentStatus(DocumentReference document) {
+    public String getCurrentStatus(DocumentReference document) {
         Optional<Coding> statusTag = document.getMeta().getTag().stream()
                 .filter(tag -> STATUS_SYSTEM.equals(tag.getSystem()))
                 .findFirst();
@@ -125,14 +157,28 @@ public class ChangeStatusService {
     }
 
     /**
-     * Aktualisiert den Status eines Dokuments, inklusive Meta-Tags und Extensions.
+     * Schreibt Status, Datums-Extensions und Status-Tag in einem einzigen, versionsgebundenen Update,
+     * sodass pro Statuswechsel genau eine neue Version entsteht.
      */
     private DocumentReference updateDocumentStatus(DocumentReference document, String newStatus) {
         LOGGER.info("Aktualisiere Status des Dokuments mit ID {} auf {}",
                 document.getIdElement().getIdPart(), newStatus);
 
-        DocumentReference documentToUpdate = document.copy();
+        DocumentReference savedDocument = versionedDocumentUpdater.update(document, current -> prepareStatusChange(current, newStatus));
+
+        LOGGER.info("Dokument {} erfolgreich aktualisiert: Status={}, Version={}, Tags={}",
+                savedDocument.getIdElement().getIdPart(),
+                savedDocument.getStatus(),
+                savedDocument.getIdElement().getVersionIdPart(),
+                savedDocument.getMeta().getTag().size());
 
+        return savedDocument;
+    }
+
+    /**
+     * Setzt DocumentReference.status, die Datums-Extensions und das Status-Tag auf der übergebenen (ungespeicherten) Kopie.
+     */
+    private void applyStatus(DocumentReference documentToUpdate, String newStatus) {
         // 1. Setze den DocumentReference.status
         if ("papierkorb".equals(newStatus)) {
             documentToUpdate.setStatus(Enumerations.DocumentReferenceStatus.ENTEREDINERROR);
@@ -144,35 +190,12 @@ public class ChangeStatusService {
         // 2. Aktualisiere die Datums-Extensions
         updateStatusChangeDates(documentToUpdate, newStatus);
 
-        // 3. Speichere das Dokument mit dem aktualisierten Status und den Extensions
-        // Die Meta-Tags werden in separaten Schritten aktualisiert
-        DaoMethodOutcome outcome = daoRegistry.getResourceDao(DocumentReference.class).update(documentToUpdate);
-        DocumentReference savedDocument = (DocumentReference) outcome.getResource();
-
-        // Stelle sicher, dass wir die aktuellste Version für die Meta-Operationen haben
-        // Hier brauchen wir wieder die ID, da findDocumentByToken nur den ID-String nimmt.
-        DocumentReference currentSavedDoc = documentRetrievalService.findDocument(savedDocument.getIdElement().getIdPart());
-
-        // 4. Entferne alte Status-Tags via $meta-delete
-        removeAllStatusTags(currentSavedDoc);
-
-        // 5. Füge neues Status-Tag via $meta-add hinzu
-        addStatusTag(currentSavedDoc, newStatus);
-
-        // 6. Lese das finale Dokument mit allen Änderungen (Status, Extensions, Meta-Tags)
-        // Erneutes Laden über die ID.
-        DocumentReference finalDocument = documentRetrievalService.findDocument(currentSavedDoc.getIdElement().getIdPart());
-
-        LOGGER.info("Dokument {} erfolgreich aktualisiert: Status={}, Version={}, Tags={}",
-                finalDocument.getIdElement().getIdPart(),
-                finalDocument.getStatus(),
-                finalDocument.getMeta().getVersionId(),
-                finalDocument.getMeta().getTag().size());
-
-        return finalDocument;
+        // 3. Ersetze das Status-Tag
+        Meta meta = documentToUpdate.getMeta();
+        meta.getTag().removeIf(tag -> STATUS_SYSTEM.equals(tag.getSystem()));
+        meta.addTag(STATUS_SYSTEM, newStatus, getDisplayForStatus(newStatus));
     }
 
-
     /**
      * Aktualisiert die statusChangedDate und nextStatusChangeDate Extensions.
      */
@@ -222,71 +245,6 @@ public class ChangeStatusService {
         LOGGER.debug("Extension '{}' gesetzt.", url);
     }
 
-    /**
-     * Entfernt alle Status-Tags (aus dem definierten STATUS_SYSTEM) via $meta-delete.
-     */
-    private void removeAllStatusTags(DocumentReference document) {
-        IdType targetId = document.getIdElement().toVersionless(); // Operation auf der neuesten Version
-        LOGGER.debug("Beginne Entfernen aller Status-Tags für Dokument {}", targetId.getValue());
-
-        Meta metaSnapshot = document.getMeta(); // Aktueller Meta-Stand
-        Meta metaToRemove = new Meta();
-        boolean tagsFound = false;
-
-        for (Coding tag : metaSnapshot.getTag()) {
-            if (STATUS_SYSTEM.equals(tag.getSystem())) {
-                metaToRemove.addTag(tag.getSystem(), tag.getCode(), tag.getDisplay());
-                tagsFound = true;
-                LOGGER.debug("  Tag zum Entfernen vorgemerkt: system={}, code={}", tag.getSystem(), tag.getCode());
-            }
-        }
-
-        if (!tagsFound) {
-            LOGGER.info("Keine Status-Tags zum Entfernen für Dokument {} gefunden.", targetId.getValue());
-            return;
-        }
-
-        try {
-            LOGGER.info("Führe $meta-delete für Dokument {} aus...", targetId.getValue());
-            Meta updatedMeta = daoRegistry.getResourceDao(DocumentReference.class)
-                    .metaDeleteOperation(targetId, metaToRemove, null); // RequestDetails sind null, da Operation intern
-            LOGGER.info("Meta-Delete Operation erfolgreich ausgeführt für {}. Tags danach: {}", targetId.getValue(), updatedMeta.getTag().size());
-        } catch (Exception e) {
-            LOGGER.error("Fehler beim Ausführen von $meta-delete für Dokument {}: {}", targetId.getValue(), e.getMessage(), e);
-            // Fehler weiterleiten, damit die Transaktion ggf. zurückgerollt wird
-            throw new InternalErrorException("Fehler beim Entfernen der Status-Tags via $meta-delete", e);
-        }
-    }
-
-    /**
-     * Fügt das neue Status-Tag via $meta-add hinzu.
-     */
-    private void addStatusTag(DocumentReference document, String statusCode) {
-         IdType targetId = document.getIdElement().toVersionless(); // Operation auf der neuesten Version
-         LOGGER.debug("Beginne Hinzufügen des Status-Tags '{}' für Dokument {}", statusCode, targetId.getValue());
-
-        Meta metaToAdd = new Meta();
-        metaToAdd.addTag(STATUS_SYSTEM, statusCode, getDisplayForStatus(statusCode));
-
-        try {
-            LOGGER.info("Führe $meta-add für Dokument {} aus (Tag: {})...", targetId.getValue(), statusCode);
-            Meta updatedMeta = daoRegistry.getResourceDao(DocumentReference.class)
-                    .metaAddOperation(targetId, metaToAdd, null); // RequestDetails sind null
-            LOGGER.info("Meta-Add Operation erfolgreich ausgeführt für {}. Tags danach: {}", targetId.getValue(), updatedMeta.getTag().size());
-             // Zusätzlicher Log zur Überprüfung
-            boolean tagFound = updatedMeta.getTag().stream()
-                                  .anyMatch(t -> STATUS_SYSTEM.equals(t.getSystem()) && statusCode.equals(t.getCode()));
-            if (tagFound) {
-                 LOGGER.debug("Neues Tag {} erfolgreich im Meta-Objekt gefunden.", statusCode);
-            } else {
-                 LOGGER.warn("Neues Tag {} NICHT im Meta-Objekt nach $meta-add gefunden!", statusCode);
-            }
-        } catch (Exception e) {
-            LOGGER.error("Fehler beim Ausführen von $meta-add für Dokument {}: {}", targetId.getValue(), e.getMessage(), e);
-            throw new InternalErrorException("Fehler beim Hinzufügen des Status-Tags via $meta-add", e);
-        }
-    }
-
      /**
      * Liefert den Display-Text für einen Status-Code.
      */
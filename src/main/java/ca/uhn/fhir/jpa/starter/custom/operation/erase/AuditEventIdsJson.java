@@ -0,0 +1,44 @@
+package ca.uhn.fhir.jpa.starter.custom.operation.erase;
+
+import ca.uhn.fhir.model.api.IModelJson;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Arbeitspaket des Bereinigungs-Jobs: ein Block von AuditEvent-IDs, deren Referenzen umgeschrieben werden.
+ * Der letzte Block gibt nach dem Umschreiben das endgültige Entfernen der gelöschten Ressourcen frei.
+ */
+public class AuditEventIdsJson implements IModelJson {
+
+    @JsonProperty("auditEventIds")
+    private List<String> auditEventIds = new ArrayList<>();
+
+    @JsonProperty("blockNummer")
+    private int blockNummer;
+
+    @JsonProperty("letzterBlock")
+    private boolean letzterBlock;
+
+    public AuditEventIdsJson() {
+    }
+
+    public AuditEventIdsJson(List<String> auditEventIds, int blockNummer, boolean letzterBlock) {
+        this.auditEventIds = auditEventIds;
+        this.blockNummer = blockNummer;
+        this.letzterBlock = letzterBlock;
+    }
+
+    public List<String> getAuditEventIds() {
+        return auditEventIds;
+    }
+
+    public int getBlockNummer() {
+        return blockNummer;
+    }
+
+    public boolean isLetzterBlock() {
+        return letzterBlock;
+    }
+}
@@ -0,0 +1,82 @@
+package ca.uhn.fhir.jpa.starter.custom.operation.erase;
+
+import ca.uhn.fhir.batch2.api.IFirstJobStepWorker;
+import ca.uhn.fhir.batch2.api.IJobDataSink;
+import ca.uhn.fhir.batch2.api.JobExecutionFailedException;
+import ca.uhn.fhir.batch2.api.RunOutcome;
+import ca.uhn.fhir.batch2.api.StepExecutionDetails;
+import ca.uhn.fhir.batch2.api.VoidModel;
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
+import ca.uhn.fhir.rest.param.ReferenceParam;
+import jakarta.annotation.Nonnull;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.AuditEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Erster Schritt des Bereinigungs-Jobs: sucht seitenweise alle AuditEvents, die noch per Referenz auf eine
+ * der gelöschten Ressourcen verweisen, und teilt deren IDs in Blöcke für das Umschreiben auf.
+ * Wird der Job wiederholt, findet die Suche nur noch nicht umgeschriebene AuditEvents.
+ */
+public class CollectAuditEventsStep implements IFirstJobStepWorker<EraseCleanupJobParameters, AuditEventIdsJson> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CollectAuditEventsStep.class);
+
+    private final DaoRegistry daoRegistry;
+    private final int chunkSize;
+
+    public CollectAuditEventsStep(DaoRegistry daoRegistry, int chunkSize) {
+        this.daoRegistry = daoRegistry;
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    @Nonnull
+    @Override
+    public RunOutcome run(@Nonnull StepExecutionDetails<EraseCleanupJobParameters, VoidModel> details,
+                          @Nonnull IJobDataSink<AuditEventIdsJson> dataSink) throws JobExecutionFailedException {
+        EraseCleanupJobParameters parameters = details.getParameters();
+
+        Set<String> auditEventIds = new LinkedHashSet<>();
+        for (String erasedId : parameters.getAllResourceIds()) {
+            collectReferencingAuditEvents(erasedId, auditEventIds);
+        }
+
+        List<String> ids = new ArrayList<>(auditEventIds);
+        int bloecke = Math.max(1, (ids.size() + chunkSize - 1) / chunkSize);
+        for (int block = 0; block < bloecke; block++) {
+            List<String> blockIds = new ArrayList<>(ids.subList(Math.min(block * chunkSize, ids.size()),
+                Math.min((block + 1) * chunkSize, ids.size())));
+            // Auch ohne Treffer wird ein (leerer) letzter Block erzeugt, damit der Expunge-Schritt ausgeführt wird
+            dataSink.accept(new AuditEventIdsJson(blockIds, block, block == bloecke - 1));
+        }
+
+        LOGGER.info("Bereinigung nach Löschung von {} Dokumenten: {} AuditEvents in {} Blöcken zum Umschreiben eingeplant.",
+            parameters.getDocuments().size(), ids.size(), bloecke);
+        return new RunOutcome(ids.size());
+    }
+
+    private void collectReferencingAuditEvents(String erasedId, Set<String> collector) {
+        SearchParameterMap map = new SearchParameterMap();
+        map.add(AuditEvent.SP_ENTITY, new ReferenceParam(erasedId));
+        IBundleProvider result = daoRegistry.getResourceDao(AuditEvent.class).search(map, new SystemRequestDetails());
+
+        for (int from = 0; ; from += chunkSize) {
+            List<IBaseResource> page = result.getResources(from, from + chunkSize);
+            for (IBaseResource resource : page) {
+                collector.add(resource.getIdElement().toUnqualifiedVersionless().getValue());
+            }
+            if (page.size() < chunkSize) {
+                break;
+            }
+        }
+    }
+}
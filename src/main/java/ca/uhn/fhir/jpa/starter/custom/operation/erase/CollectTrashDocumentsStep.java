@@ -0,0 +1,71 @@
+package ca.uhn.fhir.jpa.starter.custom.operation.erase;
+
+import ca.uhn.fhir.batch2.api.IFirstJobStepWorker;
+import ca.uhn.fhir.batch2.api.IJobDataSink;
+import ca.uhn.fhir.batch2.api.JobExecutionFailedException;
+import ca.uhn.fhir.batch2.api.RunOutcome;
+import ca.uhn.fhir.batch2.api.StepExecutionDetails;
+import ca.uhn.fhir.batch2.api.VoidModel;
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.jpa.starter.custom.search.ErgSearchParameterRegistrar;
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
+import ca.uhn.fhir.rest.param.ReferenceParam;
+import ca.uhn.fhir.rest.param.TokenParam;
+import jakarta.annotation.Nonnull;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.DocumentReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Erster Schritt beim Leeren des Papierkorbs: sucht seitenweise alle Rechnungsdokumente des Patienten mit
+ * Status 'papierkorb' und gibt sie blockweise zum Löschen weiter. Gesucht wird über den SearchParameter
+ * {@value ErgSearchParameterRegistrar#SP_RECHNUNGSSTATUS}, nicht über {@code _tag}.
+ */
+public class CollectTrashDocumentsStep implements IFirstJobStepWorker<EmptyTrashJobParameters, TrashDocumentIdsJson> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CollectTrashDocumentsStep.class);
+
+    private final DaoRegistry daoRegistry;
+    private final int chunkSize;
+
+    public CollectTrashDocumentsStep(DaoRegistry daoRegistry, int chunkSize) {
+        this.daoRegistry = daoRegistry;
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    @Nonnull
+    @Override
+    public RunOutcome run(@Nonnull StepExecutionDetails<EmptyTrashJobParameters, VoidModel> details,
+                          @Nonnull IJobDataSink<TrashDocumentIdsJson> dataSink) throws JobExecutionFailedException {
+        String patientReference = details.getParameters().getPatientReference();
+
+        SearchParameterMap map = new SearchParameterMap();
+        map.add(DocumentReference.SP_PATIENT, new ReferenceParam(patientReference));
+        map.add(ErgSearchParameterRegistrar.SP_RECHNUNGSSTATUS, new TokenParam(EraseService.RECHNUNGSSTATUS_SYSTEM, EraseService.RECHNUNGSSTATUS_CODE_PAPIERKORB));
+        IBundleProvider result = daoRegistry.getResourceDao(DocumentReference.class).search(map, new SystemRequestDetails());
+
+        int dokumente = 0;
+        for (int from = 0; ; from += chunkSize) {
+            List<IBaseResource> page = result.getResources(from, from + chunkSize);
+            if (!page.isEmpty()) {
+                List<String> ids = new ArrayList<>(page.size());
+                page.forEach(resource -> ids.add(resource.getIdElement().getIdPart()));
+                dataSink.accept(new TrashDocumentIdsJson(ids));
+                dokumente += ids.size();
+            }
+            if (page.size() < chunkSize) {
+                break;
+            }
+        }
+
+        LOGGER.info("Papierkorb von {}: {} Dokumente in Blöcken zu {} zum Löschen eingeplant.", patientReference, dokumente, chunkSize);
+        // Gezählt werden nur die tatsächlich gelöschten Dokumente im zweiten Schritt
+        return new RunOutcome(0);
+    }
+}
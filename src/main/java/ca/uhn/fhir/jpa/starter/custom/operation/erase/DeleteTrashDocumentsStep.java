@@ -0,0 +1,59 @@
+package ca.uhn.fhir.jpa.starter.custom.operation.erase;
+
+import ca.uhn.fhir.batch2.api.IJobDataSink;
+import ca.uhn.fhir.batch2.api.ILastJobStepWorker;
+import ca.uhn.fhir.batch2.api.JobExecutionFailedException;
+import ca.uhn.fhir.batch2.api.RunOutcome;
+import ca.uhn.fhir.batch2.api.StepExecutionDetails;
+import ca.uhn.fhir.batch2.api.VoidModel;
+import ca.uhn.fhir.jpa.starter.custom.operation.DocumentRetrievalService;
+import jakarta.annotation.Nonnull;
+import org.hl7.fhir.r4.model.DocumentReference;
+import org.hl7.fhir.r4.model.IdType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Zweiter Schritt beim Leeren des Papierkorbs: lädt einen Block Rechnungsdokumente mit einer _id-Suche,
+ * prüft erneut Status und Patientenbezug, sammelt die zugehörigen Ressourcen gebündelt und löscht den
+ * Block in einer Transaktion. Die weitere Bereinigung übernimmt der Bereinigungs-Job wie bei $erase.
+ * Ein wiederholter Block findet bereits gelöschte Dokumente nicht mehr und überspringt sie.
+ */
+public class DeleteTrashDocumentsStep implements ILastJobStepWorker<EmptyTrashJobParameters, TrashDocumentIdsJson> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeleteTrashDocumentsStep.class);
+
+    private final DocumentRetrievalService documentRetrievalService;
+    private final EraseService eraseService;
+
+    public DeleteTrashDocumentsStep(DocumentRetrievalService documentRetrievalService, EraseService eraseService) {
+        this.documentRetrievalService = documentRetrievalService;
+        this.eraseService = eraseService;
+    }
+
+    @Nonnull
+    @Override
+    public RunOutcome run(@Nonnull StepExecutionDetails<EmptyTrashJobParameters, TrashDocumentIdsJson> details,
+                          @Nonnull IJobDataSink<VoidModel> dataSink) throws JobExecutionFailedException {
+        String patientReference = details.getParameters().getPatientReference();
+
+        // Zwischen Sammeln und Löschen kann ein Dokument wiederhergestellt oder bereits gelöscht worden sein
+        List<DocumentReference> documents = documentRetrievalService.findDocuments(details.getData().getDocumentIds()).values().stream()
+            .filter(eraseService::isInPapierkorb)
+            .filter(document -> document.hasSubject() && patientReference.equals(
+                new IdType(document.getSubject().getReference()).toUnqualifiedVersionless().getValue()))
+            .toList();
+        if (documents.isEmpty()) {
+            LOGGER.info("Papierkorb von {}: keine löschbaren Dokumente im Block.", patientReference);
+            return new RunOutcome(0);
+        }
+
+        List<EraseCleanupJobParameters.ErasedDocument> graphs = eraseService.collectResourceGraphs(documents);
+        String jobId = eraseService.deleteResourceGraphs(graphs, patientReference);
+
+        LOGGER.info("Papierkorb von {}: {} Dokumente gelöscht, Bereinigung läuft in Job-Instanz {}.", patientReference, documents.size(), jobId);
+        return new RunOutcome(documents.size());
+    }
+}
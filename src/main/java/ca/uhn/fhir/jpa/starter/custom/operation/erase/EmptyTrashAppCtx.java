@@ -0,0 +1,50 @@
+package ca.uhn.fhir.jpa.starter.custom.operation.erase;
+
+import ca.uhn.fhir.batch2.model.JobDefinition;
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.jpa.starter.custom.operation.DocumentRetrievalService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Batch2-Jobdefinition für das Leeren des Papierkorbs eines Patienten ($empty-trash).
+ * Die Dokumente werden seitenweise gesammelt und blockweise gelöscht; jeder Block startet seinen eigenen
+ * Bereinigungs-Job ({@link EraseCleanupAppCtx#JOB_ERASE_CLEANUP}).
+ */
+@Configuration
+public class EmptyTrashAppCtx {
+
+    public static final String JOB_EMPTY_TRASH = "ERG_EMPTY_TRASH";
+
+    @Bean
+    public JobDefinition<EmptyTrashJobParameters> emptyTrashJobDefinition(
+            CollectTrashDocumentsStep collectTrashDocumentsStep,
+            DeleteTrashDocumentsStep deleteTrashDocumentsStep) {
+        return JobDefinition.newBuilder()
+            .setJobDefinitionId(JOB_EMPTY_TRASH)
+            .setJobDescription("Papierkorb eines Patienten leeren")
+            .setJobDefinitionVersion(1)
+            .setParametersType(EmptyTrashJobParameters.class)
+            .gatedExecution()
+            .addFirstStep("collect-trash-documents",
+                "Rechnungsdokumente mit Status 'papierkorb' seitenweise sammeln",
+                TrashDocumentIdsJson.class, collectTrashDocumentsStep)
+            .addLastStep("delete-trash-documents",
+                "Einen Block Rechnungsdokumente samt zugehöriger Ressourcen löschen",
+                deleteTrashDocumentsStep)
+            .build();
+    }
+
+    @Bean
+    public CollectTrashDocumentsStep collectTrashDocumentsStep(DaoRegistry daoRegistry,
+                                                               @Value("${hapi.fhir.empty_trash.chunk_size:20}") int chunkSize) {
+        return new CollectTrashDocumentsStep(daoRegistry, chunkSize);
+    }
+
+    @Bean
+    public DeleteTrashDocumentsStep deleteTrashDocumentsStep(DocumentRetrievalService documentRetrievalService,
+                                                             EraseService eraseService) {
+        return new DeleteTrashDocumentsStep(documentRetrievalService, eraseService);
+    }
+}
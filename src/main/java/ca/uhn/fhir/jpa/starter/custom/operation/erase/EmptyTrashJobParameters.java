@@ -0,0 +1,23 @@
+package ca.uhn.fhir.jpa.starter.custom.operation.erase;
+
+import ca.uhn.fhir.model.api.IModelJson;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Parameter des Jobs zum Leeren des Papierkorbs eines Patienten.
+ */
+public class EmptyTrashJobParameters implements IModelJson {
+
+    /** Referenz auf den Patienten, dessen Papierkorb geleert wird (z.B. "Patient/123"). */
+    @JsonProperty("patientReference")
+    private String patientReference;
+
+    public String getPatientReference() {
+        return patientReference;
+    }
+
+    public EmptyTrashJobParameters setPatientReference(String patientReference) {
+        this.patientReference = patientReference;
+        return this;
+    }
+}
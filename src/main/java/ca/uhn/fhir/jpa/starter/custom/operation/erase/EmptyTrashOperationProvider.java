@@ -0,0 +1,172 @@
+package ca.uhn.fhir.jpa.starter.custom.operation.erase;
+
+import ca.uhn.fhir.batch2.api.IJobCoordinator;
+import ca.uhn.fhir.batch2.model.JobInstance;
+import ca.uhn.fhir.batch2.model.JobInstanceStartRequest;
+import ca.uhn.fhir.jpa.starter.custom.interceptor.auth.AccessToken;
+import ca.uhn.fhir.jpa.starter.custom.operation.AuditService;
+import ca.uhn.fhir.jpa.starter.custom.operation.AuthorizationService;
+import ca.uhn.fhir.jpa.starter.custom.operation.DocumentRetrievalService;
+import ca.uhn.fhir.rest.annotation.IdParam;
+import ca.uhn.fhir.rest.annotation.Operation;
+import ca.uhn.fhir.rest.annotation.OperationParam;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
+import ca.uhn.fhir.rest.server.IResourceProvider;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import org.hl7.fhir.r4.model.AuditEvent;
+import org.hl7.fhir.r4.model.DateTimeType;
+import org.hl7.fhir.r4.model.DecimalType;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.IntegerType;
+import org.hl7.fhir.r4.model.Parameters;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.StringType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Leert den Papierkorb eines Patienten asynchron ($empty-trash) und liefert den Fortschritt des
+ * zugehörigen Jobs ($empty-trash-status).
+ */
+@Component
+public class EmptyTrashOperationProvider implements IResourceProvider {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EmptyTrashOperationProvider.class);
+
+    private final AuthorizationService authorizationService;
+    private final DocumentRetrievalService documentRetrievalService;
+    private final AuditService auditService;
+    private final IJobCoordinator jobCoordinator;
+
+    @Autowired
+    public EmptyTrashOperationProvider(AuthorizationService authorizationService,
+                                       DocumentRetrievalService documentRetrievalService,
+                                       AuditService auditService,
+                                       IJobCoordinator jobCoordinator) {
+        this.authorizationService = authorizationService;
+        this.documentRetrievalService = documentRetrievalService;
+        this.auditService = auditService;
+        this.jobCoordinator = jobCoordinator;
+    }
+
+    @Override
+    public Class<Patient> getResourceType() {
+        return Patient.class;
+    }
+
+    /**
+     * Startet das Leeren des Papierkorbs. Die Dokumente werden im Hintergrund gelöscht.
+     * Nur der Versicherte selbst darf seinen Papierkorb leeren, siehe {@link AuthorizationService#validatePatientAccess}.
+     *
+     * @param theId             Die ID des Patienten
+     * @param theRequestDetails Request-Details für die Autorisierung
+     * @return Parameters mit der Job-ID ('job') und dem Status ('status')
+     */
+    @Operation(name = "$empty-trash", idempotent = false)
+    public Parameters emptyTrashOperation(
+            @IdParam IdType theId,
+            RequestDetails theRequestDetails
+    ) {
+        LOGGER.info("Empty-Trash-Operation für Patient mit ID {} aufgerufen", theId != null ? theId.getIdPart() : "null");
+        AccessToken accessToken = authorizePatient(theId, theRequestDetails);
+        String patientReference = "Patient/" + theId.getIdPart();
+
+        JobInstanceStartRequest request = new JobInstanceStartRequest();
+        request.setJobDefinitionId(EmptyTrashAppCtx.JOB_EMPTY_TRASH);
+        request.setParameters(new EmptyTrashJobParameters().setPatientReference(patientReference));
+        String jobId = jobCoordinator.startInstance(new SystemRequestDetails(), request).getInstanceId();
+        LOGGER.info("Papierkorb von {} wird in Job-Instanz {} geleert.", patientReference, jobId);
+
+        createAuditEvent(accessToken, patientReference, jobId);
+
+        Parameters result = new Parameters();
+        result.addParameter().setName("job").setValue(new StringType(jobId));
+        result.addParameter().setName("status").setValue(new StringType(jobCoordinator.getInstance(jobId).getStatus().name()));
+        return result;
+    }
+
+    /**
+     * Liefert den Fortschritt eines mit $empty-trash gestarteten Jobs.
+     *
+     * @param theId             Die ID des Patienten
+     * @param job               Die von $empty-trash gelieferte Job-ID
+     * @param theRequestDetails Request-Details für die Autorisierung
+     * @return Parameters mit Status, Fortschritt und Anzahl gelöschter Dokumente
+     */
+    @Operation(name = "$empty-trash-status", idempotent = true)
+    public Parameters emptyTrashStatusOperation(
+            @IdParam IdType theId,
+            @OperationParam(name = "job", min = 1, max = 1) StringType job,
+            RequestDetails theRequestDetails
+    ) {
+        authorizePatient(theId, theRequestDetails);
+        if (job == null || job.isEmpty()) {
+            throw new InvalidRequestException("Der Parameter 'job' darf nicht fehlen.");
+        }
+        String patientReference = "Patient/" + theId.getIdPart();
+
+        JobInstance instance;
+        try {
+            instance = jobCoordinator.getInstance(job.getValue());
+        } catch (ResourceNotFoundException e) {
+            instance = null;
+        }
+        // Jobs anderer Patienten oder anderer Art werden wie unbekannte Jobs behandelt
+        if (instance == null
+            || !EmptyTrashAppCtx.JOB_EMPTY_TRASH.equals(instance.getJobDefinitionId())
+            || !patientReference.equals(instance.getParameters(EmptyTrashJobParameters.class).getPatientReference())) {
+            throw new ResourceNotFoundException("Job '" + job.getValue() + "' wurde für " + patientReference + " nicht gefunden.");
+        }
+
+        Parameters result = new Parameters();
+        result.addParameter().setName("job").setValue(new StringType(instance.getInstanceId()));
+        result.addParameter().setName("status").setValue(new StringType(instance.getStatus().name()));
+        result.addParameter().setName("fortschritt").setValue(new DecimalType(instance.getProgress()));
+        result.addParameter().setName("geloeschteDokumente").setValue(new IntegerType(instance.getCombinedRecordsProcessed() != null ? instance.getCombinedRecordsProcessed() : 0));
+        if (instance.getErrorMessage() != null) {
+            result.addParameter().setName("fehler").setValue(new StringType(instance.getErrorMessage()));
+        }
+        if (instance.getEndTime() != null) {
+            result.addParameter().setName("beendet").setValue(new DateTimeType(instance.getEndTime()));
+        }
+        return result;
+    }
+
+    private AccessToken authorizePatient(IdType theId, RequestDetails theRequestDetails) {
+        if (theId == null || !theId.hasIdPart()) {
+            throw new InvalidRequestException("Die ID des Patienten darf nicht fehlen.");
+        }
+        AccessToken accessToken = authorizationService.validateAndExtractAccessToken(theRequestDetails);
+        authorizationService.authorizeAccessBasedOnContext(accessToken, theRequestDetails);
+        Patient patient = documentRetrievalService.findPatient(theId.getIdPart());
+        authorizationService.validatePatientAccess(patient, accessToken);
+        return accessToken;
+    }
+
+    private void createAuditEvent(AccessToken accessToken, String patientReference, String jobId) {
+        try {
+            String kvnr = accessToken.getKvnr().orElse(accessToken.getIdNumber());
+            auditService.createRestAuditEvent(
+                AuditEvent.AuditEventAction.D,
+                "erase",
+                AuditEvent.AuditEventOutcome._0,
+                new Reference(patientReference),
+                "Papierkorb leeren",
+                patientReference,
+                "Leeren des Papierkorbs von " + patientReference + " gestartet.",
+                accessToken.getIdNumber(),
+                kvnr,
+                new Reference(patientReference),
+                Map.of("papierkorb-job", jobId));
+        } catch (Exception e) {
+            LOGGER.error("Fehler beim Erstellen des AuditEvents für EmptyTrashOperation: {}", e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package ca.uhn.fhir.jpa.starter.custom.operation.erase;
+
+import ca.uhn.fhir.batch2.model.JobDefinition;
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.jpa.starter.custom.operation.AuditService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Batch2-Jobdefinition für die Bereinigung nach $erase: schreibt die AuditEvent-Referenzen auf die bereits
+ * gelöschten Ressourcen blockweise um und entfernt danach alle Versionen der Ressourcen endgültig, je
+ * Rechnungsdokument in einem eigenen Arbeitsblock. Die Schritte laufen gesteuert nacheinander, damit kein
+ * Expunge beginnt, solange noch ein AuditEvent auf die Ressourcen verweist.
+ * Fortschritt und Status der Job-Instanzen sind über den {@code JobController} abrufbar.
+ */
+@Configuration
+public class EraseCleanupAppCtx {
+
+    public static final String JOB_ERASE_CLEANUP = "ERG_ERASE_CLEANUP";
+
+    @Bean
+    public JobDefinition<EraseCleanupJobParameters> eraseCleanupJobDefinition(
+            CollectAuditEventsStep collectAuditEventsStep,
+            RewriteAuditEventReferencesStep rewriteAuditEventReferencesStep,
+            ExpungeErasedResourcesStep expungeErasedResourcesStep) {
+        return JobDefinition.newBuilder()
+            .setJobDefinitionId(JOB_ERASE_CLEANUP)
+            .setJobDescription("Gelöschte Rechnungsdokumente samt zugehöriger Ressourcen endgültig entfernen")
+            .setJobDefinitionVersion(2)
+            .setParametersType(EraseCleanupJobParameters.class)
+            .gatedExecution()
+            .addFirstStep("collect-audit-events",
+                "AuditEvents mit Referenzen auf die gelöschten Ressourcen in Blöcke aufteilen",
+                AuditEventIdsJson.class, collectAuditEventsStep)
+            .addIntermediateStep("rewrite-audit-event-references",
+                "Referenzen eines Blocks als ein Transaktions-Bundle umschreiben",
+                EraseCleanupJobParameters.ErasedDocument.class, rewriteAuditEventReferencesStep)
+            .addLastStep("expunge-erased-resources",
+                "Alle Versionen der gelöschten Ressourcen eines Dokuments endgültig entfernen",
+                expungeErasedResourcesStep)
+            .build();
+    }
+
+    @Bean
+    public CollectAuditEventsStep collectAuditEventsStep(DaoRegistry daoRegistry,
+                                                         @Value("${hapi.fhir.erase_cleanup.chunk_size:100}") int chunkSize) {
+        return new CollectAuditEventsStep(daoRegistry, chunkSize);
+    }
+
+    @Bean
+    public RewriteAuditEventReferencesStep rewriteAuditEventReferencesStep(DaoRegistry daoRegistry) {
+        return new RewriteAuditEventReferencesStep(daoRegistry);
+    }
+
+    @Bean
+    public ExpungeErasedResourcesStep expungeErasedResourcesStep(DaoRegistry daoRegistry, AuditService auditService) {
+        return new ExpungeErasedResourcesStep(daoRegistry, auditService);
+    }
+}
@@ -0,0 +1,81 @@
+package ca.uhn.fhir.jpa.starter.custom.operation.erase;
+
+import ca.uhn.fhir.model.api.IModelJson;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parameter des Bereinigungs-Jobs nach einer Löschung: die bereits gelöschten Ressourcen je Rechnungsdokument,
+ * die endgültig entfernt werden.
+ */
+public class EraseCleanupJobParameters implements IModelJson {
+
+    /** Referenz auf den Patienten für die abschließenden AuditEvents. */
+    @JsonProperty("patientReference")
+    private String patientReference;
+
+    /** Die gelöschten Rechnungsdokumente mit allen zugehörigen Ressourcen. */
+    @JsonProperty("documents")
+    private List<ErasedDocument> documents = new ArrayList<>();
+
+    public String getPatientReference() {
+        return patientReference;
+    }
+
+    public EraseCleanupJobParameters setPatientReference(String patientReference) {
+        this.patientReference = patientReference;
+        return this;
+    }
+
+    public List<ErasedDocument> getDocuments() {
+        return documents;
+    }
+
+    public EraseCleanupJobParameters setDocuments(List<ErasedDocument> documents) {
+        this.documents = documents;
+        return this;
+    }
+
+    /**
+     * Alle gelöschten Ressourcen über alle Dokumente hinweg.
+     */
+    @JsonIgnore
+    public List<String> getAllResourceIds() {
+        List<String> ids = new ArrayList<>();
+        documents.forEach(document -> ids.addAll(document.getResourceIds()));
+        return ids;
+    }
+
+    /**
+     * Ein gelöschtes Rechnungsdokument und seine Ressourcen in Löschreihenfolge: zuerst die DocumentReference
+     * selbst, danach Binaries, Invoices und verknüpfte DocumentReferences (Original, Anhänge), jeweils versionslos.
+     */
+    public static class ErasedDocument implements IModelJson {
+
+        @JsonProperty("documentId")
+        private String documentId;
+
+        @JsonProperty("resourceIds")
+        private List<String> resourceIds = new ArrayList<>();
+
+        public ErasedDocument() {
+        }
+
+        public ErasedDocument(String documentId, List<String> resourceIds) {
+            this.documentId = documentId;
+            this.resourceIds = resourceIds;
+        }
+
+        /** ID der gelöschten DocumentReference (z.B. "DocumentReference/xyz"). */
+        public String getDocumentId() {
+            return documentId;
+        }
+
+        public List<String> getResourceIds() {
+            return resourceIds;
+        }
+    }
+}
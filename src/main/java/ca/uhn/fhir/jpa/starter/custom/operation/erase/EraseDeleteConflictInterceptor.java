@@ -0,0 +1,40 @@
+package ca.uhn.fhir.jpa.starter.custom.operation.erase;
+
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.jpa.api.model.DeleteConflictList;
+import ca.uhn.fhir.jpa.api.model.DeleteConflictOutcome;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
+import org.springframework.stereotype.Component;
+
+/**
+ * Lässt beim Löschen durch {@link EraseService} Referenzen aus {@code AuditEvent.entity.what} auf die gelöschten
+ * Ressourcen zu. Diese Referenzen schreibt anschließend der Bereinigungs-Job um; alle anderen Löschungen prüfen die
+ * referenzielle Integrität unverändert.
+ */
+@Component
+@Interceptor
+public class EraseDeleteConflictInterceptor {
+
+    static final String AUDIT_EVENT_ENTITY_PATH = "AuditEvent.entity.what";
+    private static final String ERASE_REQUEST = EraseDeleteConflictInterceptor.class.getName() + ".eraseRequest";
+
+    /**
+     * @return Request-Kontext für die Löschungen von {@link EraseService}
+     */
+    static SystemRequestDetails newEraseRequest() {
+        SystemRequestDetails requestDetails = new SystemRequestDetails();
+        requestDetails.getUserData().put(ERASE_REQUEST, Boolean.TRUE);
+        return requestDetails;
+    }
+
+    @Hook(Pointcut.STORAGE_PRESTORAGE_DELETE_CONFLICTS)
+    public DeleteConflictOutcome ignoreAuditEventReferences(DeleteConflictList deleteConflicts, RequestDetails requestDetails) {
+        if (requestDetails != null && Boolean.TRUE.equals(requestDetails.getUserData().get(ERASE_REQUEST))) {
+            deleteConflicts.removeIf(conflict -> AUDIT_EVENT_ENTITY_PATH.equals(conflict.getSourcePath()));
+        }
+        return null;
+    }
+}
@@ -20,6 +20,8 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.Map;
+
 @Component
 public class EraseOperationProvider implements IResourceProvider {
 
@@ -77,7 +79,7 @@ public class EraseOperationProvider implements IResourceProvider {
         }
 
         // 4. Führe die eigentliche Löschlogik im EraseService aus
-        eraseService.eraseDocumentReferenceAndAssociations(documentReference, accessToken);
+        EraseService.EraseErgebnis eraseErgebnis = eraseService.eraseDocumentReferenceAndAssociations(documentReference, accessToken);
 
         // 5. Audit-Log Eintrag erstellen
         AuditEvent createdAuditEvent = null;
@@ -105,7 +107,10 @@ public class EraseOperationProvider implements IResourceProvider {
                 "Ressource vom Typ '" + parsedErasedId.getResourceType() + "' mit ID '" + parsedErasedId.getIdPart() + "' gelöscht durch Versicherten.", // AuditEvent.entity.description
                 accessToken.getIdNumber(), // actorName
                 kvnr, // actorId (KVNR des Versicherten)
-                patientRefForAudit // patientReference für Versicherter-Slice
+                patientRefForAudit, // patientReference für Versicherter-Slice
+                Map.of(
+                    "geloeschte-ressourcen", String.valueOf(eraseErgebnis.getRessourcen()),
+                    "bereinigungs-job", eraseErgebnis.getBereinigungsJobId())
             );
 
             if (createdAuditEvent != null && createdAuditEvent.hasId()) {
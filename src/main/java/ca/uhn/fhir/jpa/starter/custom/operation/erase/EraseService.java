@@ -1,11 +1,14 @@
 package ca.uhn.fhir.jpa.starter.custom.operation.erase;
 
+import ca.uhn.fhir.batch2.api.IJobCoordinator;
+import ca.uhn.fhir.batch2.model.JobInstanceStartRequest;
 import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
 import ca.uhn.fhir.jpa.starter.custom.interceptor.auth.AccessToken;
+import ca.uhn.fhir.jpa.starter.custom.operation.DocumentRetrievalService;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
-import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.r4.model.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,99 +17,226 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 @Service
 public class EraseService {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(EraseService.class);
-    private static final String RECHNUNGSSTATUS_SYSTEM = "https://gematik.de/fhir/erg/CodeSystem/erg-rechnungsstatus-cs";
-    private static final String RECHNUNGSSTATUS_CODE_PAPIERKORB = "papierkorb";
+    static final String RECHNUNGSSTATUS_SYSTEM = "https://gematik.de/fhir/erg/CodeSystem/erg-rechnungsstatus-cs";
+    static final String RECHNUNGSSTATUS_CODE_PAPIERKORB = "papierkorb";
     private static final String RELATES_TO_CODE_TRANSFORMS = "transforms";
 
     private final DaoRegistry daoRegistry;
+    private final DocumentRetrievalService documentRetrievalService;
+    private final IJobCoordinator jobCoordinator;
 
     @Autowired
-    public EraseService(DaoRegistry daoRegistry) {
+    public EraseService(DaoRegistry daoRegistry, DocumentRetrievalService documentRetrievalService, IJobCoordinator jobCoordinator) {
         this.daoRegistry = daoRegistry;
+        this.documentRetrievalService = documentRetrievalService;
+        this.jobCoordinator = jobCoordinator;
     }
 
-    private static class ResourcesToDelete {
-        Set<IdType> documentReferenceIds = new HashSet<>();
-        Set<IdType> binaryIds = new HashSet<>();
-        Set<IdType> invoiceIds = new HashSet<>();
+    /**
+     * Ergebnis einer Löschung: Anzahl der gelöschten Ressourcen und die Job-Instanz, die die Ressourcen
+     * anschließend endgültig entfernt.
+     */
+    public static class EraseErgebnis {
+        private final int ressourcen;
+        private final String bereinigungsJobId;
+
+        EraseErgebnis(int ressourcen, String bereinigungsJobId) {
+            this.ressourcen = ressourcen;
+            this.bereinigungsJobId = bereinigungsJobId;
+        }
+
+        public int getRessourcen() {
+            return ressourcen;
+        }
+
+        public String getBereinigungsJobId() {
+            return bereinigungsJobId;
+        }
+    }
 
-        void add(IdType id) {
-            if (id == null || !id.hasResourceType() || !id.hasIdPart()) return;
+    private static class ResourcesToDelete {
+        Set<IdType> documentReferenceIds = new LinkedHashSet<>();
+        Set<IdType> binaryIds = new LinkedHashSet<>();
+        Set<IdType> invoiceIds = new LinkedHashSet<>();
+
+        /**
+         * @return true, wenn es sich um eine bisher nicht gesammelte DocumentReference handelt
+         */
+        boolean add(IdType id) {
+            if (id == null || !id.hasResourceType() || !id.hasIdPart()) return false;
             switch (id.getResourceType()) {
-                case "DocumentReference": documentReferenceIds.add(id.toUnqualifiedVersionless()); break;
+                case "DocumentReference": return documentReferenceIds.add(id.toUnqualifiedVersionless());
                 case "Binary": binaryIds.add(id.toUnqualifiedVersionless()); break;
                 case "Invoice": invoiceIds.add(id.toUnqualifiedVersionless()); break;
                 default: LOGGER.warn("Sammeln zum Löschen: Unbehandelter Ressourcentyp {} für ID {}", id.getResourceType(), id.getValue()); break;
             }
+            return false;
         }
     }
 
     /**
      * Führt die Löschung der DocumentReference und aller assoziierten Daten durch.
-     * Diese Methode sollte transaktional aufgerufen werden.
+     * Das Umschreiben der AuditEvent-Referenzen und das endgültige Entfernen aller Versionen übernimmt ein
+     * Bereinigungs-Job.
      *
      * @param documentReferenceToExpunge Die zu löschende DocumentReference-Ressource.
      * @param accessToken               Der AccessToken des aufrufenden Benutzers (für Audit-Zwecke oder feinere Logik).
+     * @return Umfang der Löschung für das AuditEvent
      */
     @Transactional
-    public void eraseDocumentReferenceAndAssociations(DocumentReference documentReferenceToExpunge, AccessToken accessToken) {
+    public EraseErgebnis eraseDocumentReferenceAndAssociations(DocumentReference documentReferenceToExpunge, AccessToken accessToken) {
         IdType docRefIdToExpunge = documentReferenceToExpunge.getIdElement().toUnqualifiedVersionless();
-        LOGGER.info("EraseService: Beginn der Löschoperation für DocumentReference ID: {} durch Nutzer mit KVNR (aus Token): {}",
-                docRefIdToExpunge.getValue(), accessToken.getKvnr().orElse("nicht vorhanden"));
+        LOGGER.info("EraseService: Beginn der Löschoperation für DocumentReference ID: {} durch {}",
+                docRefIdToExpunge.getValue(),
+                accessToken != null ? "Nutzer mit KVNR (aus Token): " + accessToken.getKvnr().orElse("nicht vorhanden") : "den Fachdienst (Fristablauf)");
 
         // 1. Statusprüfung (muss "PAPIERKORB" sein)
         checkDocumentStatus(documentReferenceToExpunge);
 
-        // 1.5. Eingehende Referenzen von AuditEvents auf die primäre (Papierkorb) DocumentReference aktualisieren
-        updateReferencesToResource(docRefIdToExpunge, AuditEvent.class, "AuditEvent", accessToken);
-
         // 2. Sammle alle zu löschenden Ressourcen-IDs (inkl. Original-DR, Anhänge etc.)
-        ResourcesToDelete allResourcesToDelete = new ResourcesToDelete();
-        collectAllAssociatedResourceIds(documentReferenceToExpunge, allResourcesToDelete, true);
+        List<EraseCleanupJobParameters.ErasedDocument> graphs = collectResourceGraphs(List.of(documentReferenceToExpunge));
 
-        // 3. Lösche die Papierkorb-DocumentReference zuerst, um Referenzkonflikte aufzulösen
-        LOGGER.debug("Lösche Haupt-DocumentReference (Papierkorb-Version) ID: {}", docRefIdToExpunge.getValue());
-        try {
-            daoRegistry.getResourceDao(DocumentReference.class).delete(docRefIdToExpunge);
-            LOGGER.info("Haupt-DocumentReference (Papierkorb-Version) ID: {} erfolgreich gelöscht.", docRefIdToExpunge.getValue());
-        } catch (Exception e) {
-            LOGGER.error("Fehler beim Löschen der Haupt-DocumentReference (Papierkorb-Version) ID {}: {}", docRefIdToExpunge.getValue(), e.getMessage(), e);
-            throw new InternalErrorException("Konnte Haupt-DocumentReference (Papierkorb-Version) " + docRefIdToExpunge.getValue() + " nicht löschen: " + e.getMessage(), e);
+        // 3. Löschen und Bereinigungs-Job einplanen
+        String patientReference = documentReferenceToExpunge.hasSubject() ? documentReferenceToExpunge.getSubject().getReference() : null;
+        String jobId = deleteResourceGraphs(graphs, patientReference);
+
+        int ressourcen = graphs.get(0).getResourceIds().size();
+        LOGGER.info("Erase-Operation für ursprüngliche DocumentReference ID: {} und {} assoziierte Ressourcen erfolgreich abgeschlossen, Bereinigung läuft in Job-Instanz {}.",
+            docRefIdToExpunge.getValue(), ressourcen - 1, jobId);
+        return new EraseErgebnis(ressourcen, jobId);
+    }
+
+    /**
+     * Löscht eine DocumentReference, deren Aufbewahrungsfrist im Papierkorb abgelaufen ist, ohne Nutzerkontext.
+     * Wird vom Lebenszyklus-Scheduler aufgerufen; Statusprüfung und Umfang entsprechen der $erase-Operation.
+     *
+     * @param documentReferenceToExpunge Die zu löschende DocumentReference-Ressource.
+     */
+    @Transactional
+    public EraseErgebnis eraseExpiredDocumentReference(DocumentReference documentReferenceToExpunge) {
+        return eraseDocumentReferenceAndAssociations(documentReferenceToExpunge, null);
+    }
+
+    /**
+     * Ermittelt für mehrere Rechnungsdokumente alle zugehörigen Ressourcen: Binaries und Invoices aus content,
+     * Anhänge aus context.related (rekursiv) sowie die per relatesTo (transforms) verknüpfte Original-DocumentReference.
+     * Verknüpfte DocumentReferences werden ebenenweise mit je einer _id-Suche für alle Dokumente geladen.
+     *
+     * @param documents Die Rechnungsdokumente (im Papierkorb)
+     * @return Pro Dokument die Ressourcen in Löschreihenfolge
+     */
+    public List<EraseCleanupJobParameters.ErasedDocument> collectResourceGraphs(Collection<DocumentReference> documents) {
+        Map<IdType, ResourcesToDelete> collectors = new LinkedHashMap<>();
+        Map<IdType, ResourcesToDelete> frontier = new LinkedHashMap<>();
+
+        for (DocumentReference document : documents) {
+            IdType documentId = document.getIdElement().toUnqualifiedVersionless();
+            ResourcesToDelete collector = new ResourcesToDelete();
+            collector.documentReferenceIds.add(documentId); // Verhindert, dass Rückverweise die Haupt-DR erneut laden
+            collectors.put(documentId, collector);
+            collectDirectReferences(document, collector, true)
+                .forEach(id -> frontier.put(id, collector));
         }
-        // Entferne die soeben gelöschte Haupt-DR aus der Liste, falls sie gesammelt wurde
-        allResourcesToDelete.documentReferenceIds.remove(docRefIdToExpunge);
 
-        // 3. Eingehende Referenzen von AuditEvents auf alle *anderen* gesammelten DocumentReferences aktualisieren,
-        //    bevor diese gelöscht werden.
-        for (IdType collectedDocRefId : new HashSet<>(allResourcesToDelete.documentReferenceIds)) {
-            updateReferencesToResource(collectedDocRefId, AuditEvent.class, "AuditEvent", accessToken);
+        while (!frontier.isEmpty()) {
+            Map<String, DocumentReference> loaded = documentRetrievalService.findDocuments(
+                frontier.keySet().stream().map(IdType::getIdPart).toList());
+            Map<IdType, ResourcesToDelete> next = new LinkedHashMap<>();
+            frontier.forEach((id, collector) -> {
+                DocumentReference linked = loaded.get(id.getIdPart());
+                if (linked == null) {
+                    LOGGER.warn("Verknüpfte DocumentReference {} beim Sammeln nicht gefunden.", id.getValue());
+                    return;
+                }
+                collectDirectReferences(linked, collector, false)
+                    .forEach(nextId -> next.put(nextId, collector));
+            });
+            frontier.clear();
+            frontier.putAll(next);
         }
-        // Optional: Selbiges für Binary und Invoice, falls diese von AuditEvents direkt referenziert werden könnten.
-        // for (IdType collectedBinaryId : new HashSet<>(allResourcesToDelete.binaryIds)) {
-        //    updateReferencesToResource(collectedBinaryId, AuditEvent.class, "AuditEvent", accessToken);
-        // }
-        // for (IdType collectedInvoiceId : new HashSet<>(allResourcesToDelete.invoiceIds)) {
-        //    updateReferencesToResource(collectedInvoiceId, AuditEvent.class, "AuditEvent", accessToken);
-        // }
-
-        // 4. Lösche alle gesammelten assoziierten Ressourcen
-        deleteCollectedResources(allResourcesToDelete);
-
-        LOGGER.info("Erase-Operation für ursprüngliche DocumentReference ID: {} und alle assoziierten Ressourcen erfolgreich abgeschlossen.", docRefIdToExpunge.getValue());
+
+        List<EraseCleanupJobParameters.ErasedDocument> graphs = new ArrayList<>();
+        collectors.forEach((documentId, collector) -> {
+            List<String> resourceIds = new ArrayList<>();
+            resourceIds.add(documentId.getValue());
+            collector.binaryIds.forEach(id -> resourceIds.add(id.getValue()));
+            collector.invoiceIds.forEach(id -> resourceIds.add(id.getValue()));
+            collector.documentReferenceIds.stream()
+                .filter(id -> !id.equals(documentId))
+                .forEach(id -> resourceIds.add(id.getValue()));
+            graphs.add(new EraseCleanupJobParameters.ErasedDocument(documentId.getValue(), resourceIds));
+        });
+        return graphs;
     }
 
-    private void collectAllAssociatedResourceIds(DocumentReference currentDocRef, ResourcesToDelete collector, boolean isPapierkorbIteration) {
-        if (currentDocRef == null) return;
-        IdType currentDocRefId = currentDocRef.getIdElement().toUnqualifiedVersionless();
-        LOGGER.debug("Sammle Ressourcen für DocumentReference ID: {}", currentDocRefId.getValue());
+    /**
+     * Löscht die gesammelten Ressourcen mehrerer Rechnungsdokumente und plant einen gemeinsamen Bereinigungs-Job ein,
+     * der danach die AuditEvent-Referenzen auf die Ressourcen umschreibt und alle Versionen endgültig entfernt.
+     * Referenzen aus AuditEvents verhindern das Löschen dabei nicht (siehe {@link EraseDeleteConflictInterceptor}).
+     * Die Job-Instanz wird in derselben Transaktion angelegt und entfällt bei einem Rollback der Löschung.
+     *
+     * @param graphs           Die Dokumente mit ihren Ressourcen (aus {@link #collectResourceGraphs(Collection)})
+     * @param patientReference Referenz auf den Patienten für die AuditEvents des Bereinigungs-Jobs
+     * @return ID der Job-Instanz
+     */
+    @Transactional
+    public String deleteResourceGraphs(List<EraseCleanupJobParameters.ErasedDocument> graphs, String patientReference) {
+        SystemRequestDetails eraseRequest = EraseDeleteConflictInterceptor.newEraseRequest();
+
+        // Lösche die Papierkorb-DocumentReferences zuerst, um Referenzkonflikte aufzulösen.
+        for (EraseCleanupJobParameters.ErasedDocument graph : graphs) {
+            IdType docRefIdToExpunge = new IdType(graph.getDocumentId());
+            LOGGER.debug("Lösche Haupt-DocumentReference (Papierkorb-Version) ID: {}", docRefIdToExpunge.getValue());
+            try {
+                daoRegistry.getResourceDao(DocumentReference.class).delete(docRefIdToExpunge, eraseRequest);
+                LOGGER.info("Haupt-DocumentReference (Papierkorb-Version) ID: {} erfolgreich gelöscht.", docRefIdToExpunge.getValue());
+            } catch (Exception e) {
+                LOGGER.error("Fehler beim Löschen der Haupt-DocumentReference (Papierkorb-Version) ID {}: {}", docRefIdToExpunge.getValue(), e.getMessage(), e);
+                throw new InternalErrorException("Konnte Haupt-DocumentReference (Papierkorb-Version) " + docRefIdToExpunge.getValue() + " nicht löschen: " + e.getMessage(), e);
+            }
+        }
+
+        // Lösche danach Binaries und Invoices, dann die übrigen DocumentReferences, um Abhängigkeiten aufzulösen
+        ResourcesToDelete associated = new ResourcesToDelete();
+        for (EraseCleanupJobParameters.ErasedDocument graph : graphs) {
+            graph.getResourceIds().stream().skip(1).map(IdType::new).forEach(associated::add);
+        }
+        deleteCollectedResources(associated, eraseRequest);
+
+        EraseCleanupJobParameters parameters = new EraseCleanupJobParameters()
+            .setPatientReference(patientReference)
+            .setDocuments(graphs);
+        JobInstanceStartRequest request = new JobInstanceStartRequest();
+        request.setJobDefinitionId(EraseCleanupAppCtx.JOB_ERASE_CLEANUP);
+        request.setParameters(parameters);
+        try {
+            return jobCoordinator.startInstance(new SystemRequestDetails(), request).getInstanceId();
+        } catch (Exception e) {
+            LOGGER.error("Bereinigungs-Job für {} gelöschte Dokumente konnte nicht gestartet werden: {}", graphs.size(), e.getMessage(), e);
+            throw new InternalErrorException("Bereinigung der gelöschten Dokumente konnte nicht eingeplant werden: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Sammelt die direkt referenzierten Ressourcen einer DocumentReference.
+     *
+     * @param isPapierkorbIteration true für das Rechnungsdokument selbst; nur dort wird relatesTo (transforms) verfolgt
+     * @return Neu entdeckte DocumentReferences, die als Nächstes geladen werden müssen
+     */
+    private List<IdType> collectDirectReferences(DocumentReference currentDocRef, ResourcesToDelete collector, boolean isPapierkorbIteration) {
+        List<IdType> newDocumentReferences = new ArrayList<>();
+        LOGGER.debug("Sammle Ressourcen für DocumentReference ID: {}", currentDocRef.getIdElement().toUnqualifiedVersionless().getValue());
 
         // Assoziierte Binaries und Invoices aus currentDocRef.content
         if (currentDocRef.hasContent()) {
@@ -117,55 +247,40 @@ public class EraseService {
             }
         }
 
-        // Verlinkte Anhang-DocumentReferences aus currentDocRef.context.related (rekursiv)
+        // Verlinkte Anhang-DocumentReferences aus currentDocRef.context.related
         if (currentDocRef.hasContext() && currentDocRef.getContext().hasRelated()) {
             for (Reference relatedRef : currentDocRef.getContext().getRelated()) {
                 if ("DocumentReference".equals(relatedRef.getReferenceElement().getResourceType()) && relatedRef.getReferenceElement().hasIdPart()) {
-                    IdType anhangDocRefId = new IdType(relatedRef.getReferenceElement().getValue());
-                    if (!collector.documentReferenceIds.contains(anhangDocRefId)) { // Verhindere Endlosschleifen und doppeltes Sammeln
-                        collector.add(anhangDocRefId);
-                        try {
-                            DocumentReference anhangDocRef = daoRegistry.getResourceDao(DocumentReference.class).read(anhangDocRefId);
-                            if (anhangDocRef != null) {
-                                collectAllAssociatedResourceIds(anhangDocRef, collector, false); // Nicht mehr die Papierkorb-Iteration
-                            }
-                        } catch (ResourceNotFoundException e) {
-                            LOGGER.warn("Anhang DocumentReference {} beim Sammeln nicht gefunden.", anhangDocRefId.getValue());
-                        }
+                    IdType anhangDocRefId = new IdType(relatedRef.getReferenceElement().getValue()).toUnqualifiedVersionless();
+                    if (collector.add(anhangDocRefId)) { // Verhindere Endlosschleifen und doppeltes Sammeln
+                        newDocumentReferences.add(anhangDocRefId);
                     }
                 }
             }
         }
 
-        // Originale DocumentReference aus currentDocRef.relatesTo (rekursiv, aber nur einmal für die initiale Papierkorb-DR)
+        // Originale DocumentReference aus currentDocRef.relatesTo (nur für die initiale Papierkorb-DR)
         if (isPapierkorbIteration && currentDocRef.hasRelatesTo()) {
             for (DocumentReference.DocumentReferenceRelatesToComponent relatesTo : currentDocRef.getRelatesTo()) {
                 if (RELATES_TO_CODE_TRANSFORMS.equals(relatesTo.getCode().toCode()) && relatesTo.hasTarget()) {
                     Reference targetRef = relatesTo.getTarget();
                     if ("DocumentReference".equals(targetRef.getReferenceElement().getResourceType()) && targetRef.getReferenceElement().hasIdPart()) {
-                        IdType originalDocRefId = new IdType(targetRef.getReferenceElement().getValue());
-                        if (!collector.documentReferenceIds.contains(originalDocRefId)) { // Verhindere Endlosschleifen
-                            collector.add(originalDocRefId);
-                            try {
-                                DocumentReference originalDocRef = daoRegistry.getResourceDao(DocumentReference.class).read(originalDocRefId);
-                                if (originalDocRef != null) {
-                                    collectAllAssociatedResourceIds(originalDocRef, collector, false); // Nicht mehr die Papierkorb-Iteration
-                                }
-                            } catch (ResourceNotFoundException e) {
-                                LOGGER.warn("Original DocumentReference {} (via relatesTo) beim Sammeln nicht gefunden.", originalDocRefId.getValue());
-                            }
+                        IdType originalDocRefId = new IdType(targetRef.getReferenceElement().getValue()).toUnqualifiedVersionless();
+                        if (collector.add(originalDocRefId)) {
+                            newDocumentReferences.add(originalDocRefId);
                         }
                     }
                 }
             }
         }
+        return newDocumentReferences;
     }
 
-    private void deleteCollectedResources(ResourcesToDelete collector) {
+    private void deleteCollectedResources(ResourcesToDelete collector, SystemRequestDetails eraseRequest) {
         // Lösche zuerst Binaries und Invoices, dann DocumentReferences, um Abhängigkeiten aufzulösen
         for (IdType binaryId : collector.binaryIds) {
             try {
-                daoRegistry.getResourceDao(Binary.class).delete(binaryId);
+                daoRegistry.getResourceDao(Binary.class).delete(binaryId, eraseRequest);
                 LOGGER.info("Gesammelte Binary {} erfolgreich gelöscht.", binaryId.getValue());
             } catch (ResourceNotFoundException e) {
                 LOGGER.warn("Gesammelte Binary {} beim Löschen nicht gefunden.", binaryId.getValue());
@@ -176,7 +291,7 @@ public class EraseService {
         }
         for (IdType invoiceId : collector.invoiceIds) {
             try {
-                daoRegistry.getResourceDao(Invoice.class).delete(invoiceId);
+                daoRegistry.getResourceDao(Invoice.class).delete(invoiceId, eraseRequest);
                 LOGGER.info("Gesammelte Invoice {} erfolgreich gelöscht.", invoiceId.getValue());
             } catch (ResourceNotFoundException e) {
                 LOGGER.warn("Gesammelte Invoice {} beim Löschen nicht gefunden.", invoiceId.getValue());
@@ -187,7 +302,7 @@ public class EraseService {
         }
         for (IdType docRefId : collector.documentReferenceIds) {
             try {
-                daoRegistry.getResourceDao(DocumentReference.class).delete(docRefId);
+                daoRegistry.getResourceDao(DocumentReference.class).delete(docRefId, eraseRequest);
                 LOGGER.info("Gesammelte DocumentReference {} erfolgreich gelöscht.", docRefId.getValue());
             } catch (ResourceNotFoundException e) {
                 LOGGER.warn("Gesammelte DocumentReference {} beim Löschen nicht gefunden.", docRefId.getValue());
@@ -199,18 +314,22 @@ public class EraseService {
         }
     }
 
-    private void checkDocumentStatus(DocumentReference documentReference) {
-        boolean isInPapierkorb = false;
+    /**
+     * Prüft, ob das Dokument das Status-Tag 'papierkorb' trägt.
+     */
+    public boolean isInPapierkorb(DocumentReference documentReference) {
         if (documentReference.hasMeta() && documentReference.getMeta().hasTag()) {
             for (Coding tag : documentReference.getMeta().getTag()) {
                 if (RECHNUNGSSTATUS_SYSTEM.equals(tag.getSystem()) && RECHNUNGSSTATUS_CODE_PAPIERKORB.equals(tag.getCode())) {
-                    isInPapierkorb = true;
-                    break;
+                    return true;
                 }
             }
         }
+        return false;
+    }
 
-        if (!isInPapierkorb) {
+    private void checkDocumentStatus(DocumentReference documentReference) {
+        if (!isInPapierkorb(documentReference)) {
             String message = "DocumentReference mit ID " + documentReference.getIdElement().getIdPart() +
                              " befindet sich nicht im Status 'PAPIERKORB' (erwarteter Code: '" + RECHNUNGSSTATUS_CODE_PAPIERKORB +
                              "' im System '" + RECHNUNGSSTATUS_SYSTEM + "') und kann daher nicht über $erase gelöscht werden.";
@@ -219,80 +338,4 @@ public class EraseService {
         }
         LOGGER.info("Statusprüfung für DocumentReference ID {} erfolgreich (Status ist 'PAPIERKORB').", documentReference.getIdElement().getIdPart());
     }
-
-    /**
-     * Sucht nach Ressourcen eines bestimmten Typs (z.B. AuditEvent), die auf die angegebene {@code resourceIdToUpdate} verweisen,
-     * und modifiziert diese Referenzen. Die direkte Referenz wird entfernt und stattdessen ein Identifier gesetzt.
-     *
-     * @param resourceIdToUpdate Die ID der Ressource, auf die verwiesen wird und die bald gelöscht wird.
-     * @param referencingResourceType Das Klassentyp der referenzierenden Ressource (z.B. AuditEvent.class).
-     * @param referencingResourceName Der FHIR-Name des Ressourcentyps (z.B. "AuditEvent").
-     * @param accessToken Der AccessToken für Logging-Zwecke.
-     */
-    private <T extends Resource> void updateReferencesToResource(IdType resourceIdToUpdate, Class<T> referencingResourceType, String referencingResourceName, AccessToken accessToken) {
-        if (resourceIdToUpdate == null || !resourceIdToUpdate.hasResourceType() || !resourceIdToUpdate.hasIdPart()) {
-            LOGGER.warn("updateReferencesToResource: Ungültige resourceIdToUpdate: {}", resourceIdToUpdate != null ? resourceIdToUpdate.getValue() : "null");
-            return;
-        }
-
-        String searchUrl = referencingResourceName + "?entity=" + resourceIdToUpdate.getValue();
-        LOGGER.info("Suche nach {}s, die auf {} verweisen, mit Such-URL: {}", referencingResourceName, resourceIdToUpdate.getValue(), searchUrl);
-
-        var referencingResourceDao = daoRegistry.getResourceDao(referencingResourceType);
-        var searchParams = new ca.uhn.fhir.jpa.searchparam.SearchParameterMap();
-        searchParams.add("entity", new ca.uhn.fhir.rest.param.ReferenceParam(resourceIdToUpdate.getValue()));
-
-        var searchResultBundle = referencingResourceDao.search(searchParams);
-
-        List<T> resourcesToUpdate = new ArrayList<>();
-        if (searchResultBundle != null && searchResultBundle.getResources(0, searchResultBundle.size()) != null) {
-            for (IBaseResource resource : searchResultBundle.getResources(0, searchResultBundle.size())) {
-                if (referencingResourceType.isInstance(resource)) {
-                    resourcesToUpdate.add(referencingResourceType.cast(resource));
-                }
-            }
-        }
-
-        if (resourcesToUpdate.isEmpty()) {
-            LOGGER.info("Keine {}s gefunden, die auf {} verweisen und aktualisiert werden müssen.", referencingResourceName, resourceIdToUpdate.getValue());
-            return;
-        }
-
-        LOGGER.info("{} {}s gefunden, die auf {} verweisen und deren Referenzen aktualisiert werden.", resourcesToUpdate.size(), referencingResourceName, resourceIdToUpdate.getValue());
-
-        for (T resource : resourcesToUpdate) {
-            boolean modified = false;
-            if (resource instanceof AuditEvent) {
-                AuditEvent auditEvent = (AuditEvent) resource;
-                for (AuditEvent.AuditEventEntityComponent entity : auditEvent.getEntity()) {
-                    if (entity.hasWhat() && entity.getWhat().hasReference()) {
-                        IdType whatRefId = new IdType(entity.getWhat().getReference());
-                        if (whatRefId.toUnqualifiedVersionless().getValue().equals(resourceIdToUpdate.getValue())) {
-                            LOGGER.debug("Aktualisiere Referenz in AuditEvent ID {} für Entity auf gelöschte Ressource {}", auditEvent.getIdElement().toUnqualifiedVersionless().getValue(), resourceIdToUpdate.getValue());
-                            entity.getWhat().setReference(null); // Entferne direkte Referenz
-                            entity.getWhat().setIdentifier(new Identifier()
-                                .setSystem("urn:ietf:rfc:3986") // Allgemeiner URN Namespace
-                                .setValue(resourceIdToUpdate.getValue())); // Speichere die ID der gelöschten Ressource
-                            entity.getWhat().setDisplay("Referenz auf gelöschte Ressource: " + resourceIdToUpdate.getValue());
-                            modified = true;
-                        }
-                    }
-                }
-            }
-            // Hier könnten weitere Ressourcentypen behandelt werden, falls nötig
-            // else if (resource instanceof AnotherResourceType) { ... }
-
-            if (modified) {
-                try {
-                    referencingResourceDao.update(resource);
-                    LOGGER.info("{} ID {} erfolgreich aktualisiert, um Referenz auf {} zu entfernen/ersetzen.",
-                        referencingResourceName, resource.getIdElement().toUnqualifiedVersionless().getValue(), resourceIdToUpdate.getValue());
-                } catch (Exception e) {
-                    LOGGER.error("Fehler beim Aktualisieren von {} ID {} (Referenz auf {}): {}",
-                        referencingResourceName, resource.getIdElement().toUnqualifiedVersionless().getValue(), resourceIdToUpdate.getValue(), e.getMessage(), e);
-                    throw new InternalErrorException("Konnte referenzierendes " + referencingResourceName + " ID " + resource.getIdElement().toUnqualifiedVersionless().getValue() + " nicht aktualisieren: " + e.getMessage(), e);
-                }
-            }
-        }
-    }
 }
@@ -0,0 +1,91 @@
+package ca.uhn.fhir.jpa.starter.custom.operation.erase;
+
+import ca.uhn.fhir.batch2.api.IJobDataSink;
+import ca.uhn.fhir.batch2.api.ILastJobStepWorker;
+import ca.uhn.fhir.batch2.api.JobExecutionFailedException;
+import ca.uhn.fhir.batch2.api.RunOutcome;
+import ca.uhn.fhir.batch2.api.StepExecutionDetails;
+import ca.uhn.fhir.batch2.api.VoidModel;
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.jpa.api.dao.IFhirResourceDao;
+import ca.uhn.fhir.jpa.api.model.ExpungeOptions;
+import ca.uhn.fhir.jpa.api.model.ExpungeOutcome;
+import ca.uhn.fhir.jpa.starter.custom.operation.AuditService;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import jakarta.annotation.Nonnull;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.AuditEvent;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Letzter Schritt des Bereinigungs-Jobs: entfernt alle Versionen der gelöschten Ressourcen eines Rechnungsdokuments
+ * einschließlich der gespeicherten Binary-Inhalte endgültig und protokolliert die Anzahl der Ressourcen und Versionen in
+ * einem AuditEvent. AuditEvent-Referenzen auf diese Ressourcen hat der vorherige Schritt bereits umgeschrieben.
+ */
+public class ExpungeErasedResourcesStep implements ILastJobStepWorker<EraseCleanupJobParameters, EraseCleanupJobParameters.ErasedDocument> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExpungeErasedResourcesStep.class);
+
+    private final DaoRegistry daoRegistry;
+    private final AuditService auditService;
+
+    public ExpungeErasedResourcesStep(DaoRegistry daoRegistry, AuditService auditService) {
+        this.daoRegistry = daoRegistry;
+        this.auditService = auditService;
+    }
+
+    @Nonnull
+    @Override
+    public RunOutcome run(@Nonnull StepExecutionDetails<EraseCleanupJobParameters, EraseCleanupJobParameters.ErasedDocument> details,
+                          @Nonnull IJobDataSink<VoidModel> dataSink) throws JobExecutionFailedException {
+        EraseCleanupJobParameters parameters = details.getParameters();
+        EraseCleanupJobParameters.ErasedDocument document = details.getData();
+        Reference patientReference = parameters.getPatientReference() != null ? new Reference(parameters.getPatientReference()) : null;
+
+        long versionen = 0;
+        for (String erasedId : document.getResourceIds()) {
+            IdType id = new IdType(erasedId);
+            IFhirResourceDao<IBaseResource> dao = daoRegistry.getResourceDao(id.getResourceType());
+            versionen += expunge(dao, id);
+        }
+
+        LOGGER.info("Bereinigung nach Löschung von {} abgeschlossen: {} Ressourcen mit {} Versionen endgültig entfernt.",
+            document.getDocumentId(), document.getResourceIds().size(), versionen);
+
+        Reference what = new Reference().setIdentifier(new Identifier().setSystem("urn:ietf:rfc:3986").setValue(document.getDocumentId()));
+        what.setDisplay("Gelöschte Ressource: " + document.getDocumentId());
+        auditService.createSystemAuditEvent(AuditEvent.AuditEventAction.D, "erase", AuditEvent.AuditEventOutcome._0,
+            what, "DocumentReference Expunge", document.getDocumentId(),
+            "Gelöschte Daten zu '" + document.getDocumentId() + "' endgültig entfernt ("
+                + document.getResourceIds().size() + " Ressourcen, " + versionen + " Versionen).",
+            patientReference);
+
+        return new RunOutcome((int) versionen);
+    }
+
+    /**
+     * Entfernt alle Versionen einer gelöschten Ressource. Eine bereits entfernte Ressource wird übersprungen,
+     * damit ein wiederholter Schritt nicht fehlschlägt.
+     *
+     * @return Anzahl der entfernten Versionen
+     */
+    private long expunge(IFhirResourceDao<IBaseResource> dao, IdType id) {
+        ExpungeOptions options = new ExpungeOptions()
+            .setExpungeDeletedResources(true)
+            .setExpungeOldVersions(true);
+        try {
+            ExpungeOutcome outcome = dao.expunge(id, options, new SystemRequestDetails());
+            int deleted = outcome != null ? outcome.getDeletedCount() : 0;
+            LOGGER.debug("{} endgültig entfernt ({} Versionen).", id.getValue(), deleted);
+            return deleted;
+        } catch (ResourceNotFoundException e) {
+            LOGGER.debug("{} war bereits endgültig entfernt.", id.getValue());
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package ca.uhn.fhir.jpa.starter.custom.operation.erase;
+
+import ca.uhn.fhir.batch2.api.IJobDataSink;
+import ca.uhn.fhir.batch2.api.IJobStepWorker;
+import ca.uhn.fhir.batch2.api.JobExecutionFailedException;
+import ca.uhn.fhir.batch2.api.RunOutcome;
+import ca.uhn.fhir.batch2.api.StepExecutionDetails;
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.jpa.api.dao.IFhirSystemDao;
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
+import ca.uhn.fhir.rest.param.TokenOrListParam;
+import ca.uhn.fhir.rest.param.TokenParam;
+import jakarta.annotation.Nonnull;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.AuditEvent;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.Meta;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Zweiter Schritt des Bereinigungs-Jobs: lädt einen Block AuditEvents mit einer einzigen Suche, ersetzt
+ * Referenzen auf gelöschte Ressourcen durch einen Identifier und schreibt alle geänderten AuditEvents des Blocks
+ * als ein Transaktions-Bundle. Jede Änderung ist an die gelesene Version gebunden; ändert sich ein AuditEvent
+ * zwischenzeitlich, schlägt der Block fehl und wird mit dem neuen Stand wiederholt.
+ * Nach dem letzten Block wird pro gelöschtem Rechnungsdokument ein Arbeitsblock für den Expunge erzeugt.
+ */
+public class RewriteAuditEventReferencesStep implements IJobStepWorker<EraseCleanupJobParameters, AuditEventIdsJson, EraseCleanupJobParameters.ErasedDocument> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RewriteAuditEventReferencesStep.class);
+
+    private final DaoRegistry daoRegistry;
+
+    public RewriteAuditEventReferencesStep(DaoRegistry daoRegistry) {
+        this.daoRegistry = daoRegistry;
+    }
+
+    @Nonnull
+    @Override
+    public RunOutcome run(@Nonnull StepExecutionDetails<EraseCleanupJobParameters, AuditEventIdsJson> details,
+                          @Nonnull IJobDataSink<EraseCleanupJobParameters.ErasedDocument> dataSink) throws JobExecutionFailedException {
+        EraseCleanupJobParameters parameters = details.getParameters();
+        AuditEventIdsJson block = details.getData();
+        Set<String> erasedIds = new HashSet<>(parameters.getAllResourceIds());
+
+        Bundle transaction = new Bundle().setType(Bundle.BundleType.TRANSACTION);
+        if (!block.getAuditEventIds().isEmpty()) {
+            TokenOrListParam idParam = new TokenOrListParam();
+            block.getAuditEventIds().forEach(id -> idParam.addOr(new TokenParam(new IdType(id).getIdPart())));
+            SearchParameterMap map = SearchParameterMap.newSynchronous();
+            map.add("_id", idParam);
+
+            for (IBaseResource resource : daoRegistry.getResourceDao(AuditEvent.class).search(map, new SystemRequestDetails()).getAllResources()) {
+                AuditEvent auditEvent = (AuditEvent) resource;
+                if (rewriteReferences(auditEvent, erasedIds)) {
+                    IdType id = auditEvent.getIdElement();
+                    transaction.addEntry()
+                        .setFullUrl(id.toUnqualifiedVersionless().getValue())
+                        .setResource(auditEvent)
+                        .getRequest()
+                        .setMethod(Bundle.HTTPVerb.PUT)
+                        .setUrl(id.toUnqualifiedVersionless().getValue())
+                        .setIfMatch("W/\"" + id.getVersionIdPart() + "\"");
+                }
+            }
+
+            if (transaction.hasEntry()) {
+                IFhirSystemDao<Bundle, Meta> systemDao = daoRegistry.getSystemDao();
+                systemDao.transaction(new SystemRequestDetails(), transaction);
+            }
+        }
+
+        LOGGER.info("Bereinigung nach Löschung: Block {} mit {} AuditEvents verarbeitet, {} umgeschrieben.",
+            block.getBlockNummer(), block.getAuditEventIds().size(), transaction.getEntry().size());
+
+        if (block.isLetzterBlock()) {
+            // Durch die gesteuerte Ausführung beginnt der Expunge erst, wenn alle Blöcke umgeschrieben sind
+            parameters.getDocuments().forEach(dataSink::accept);
+        }
+        return new RunOutcome(transaction.getEntry().size());
+    }
+
+    /**
+     * Ersetzt Referenzen auf gelöschte Ressourcen in den Entities eines AuditEvents durch einen Identifier.
+     *
+     * @return true, wenn mindestens eine Referenz ersetzt wurde
+     */
+    private boolean rewriteReferences(AuditEvent auditEvent, Set<String> erasedIds) {
+        boolean modified = false;
+        for (AuditEvent.AuditEventEntityComponent entity : auditEvent.getEntity()) {
+            if (!entity.hasWhat() || !entity.getWhat().hasReference()) {
+                continue;
+            }
+            String target = new IdType(entity.getWhat().getReference()).toUnqualifiedVersionless().getValue();
+            if (erasedIds.contains(target)) {
+                entity.getWhat().setReference(null);
+                entity.getWhat().setIdentifier(new Identifier()
+                    .setSystem("urn:ietf:rfc:3986")
+                    .setValue(target));
+                entity.getWhat().setDisplay("Referenz auf gelöschte Ressource: " + target);
+                modified = true;
+            }
+        }
+        return modified;
+    }
+}
@@ -0,0 +1,28 @@
+package ca.uhn.fhir.jpa.starter.custom.operation.erase;
+
+import ca.uhn.fhir.model.api.IModelJson;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Arbeitspaket beim Leeren des Papierkorbs: ein Block von Rechnungsdokumenten, die gemeinsam gelöscht werden.
+ */
+public class TrashDocumentIdsJson implements IModelJson {
+
+    /** Logische IDs der DocumentReferences. */
+    @JsonProperty("documentIds")
+    private List<String> documentIds = new ArrayList<>();
+
+    public TrashDocumentIdsJson() {
+    }
+
+    public TrashDocumentIdsJson(List<String> documentIds) {
+        this.documentIds = documentIds;
+    }
+
+    public List<String> getDocumentIds() {
+        return documentIds;
+    }
+}
@@ -6,6 +6,7 @@ import ca.uhn.fhir.jpa.starter.custom.interceptor.auth.AccessTokenService;
 //import ca.uhn.fhir.jpa.starter.custom.interceptor.audit.AuditService;
 // Importiere die neuen Services
 import ca.uhn.fhir.jpa.starter.custom.operation.AuthorizationService;
+import ca.uhn.fhir.jpa.starter.custom.operation.BatchDocumentUpdateService;
 import ca.uhn.fhir.jpa.starter.custom.operation.DocumentRetrievalService;
 import ca.uhn.fhir.jpa.starter.custom.operation.AuditService;
 import ca.uhn.fhir.rest.annotation.IdParam;
@@ -23,6 +24,11 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
 /**
  * Provider für die Process-Flag-Operation, die das Markieren von Rechnungsdokumenten ermöglicht.
  * Diese Operation ist als FHIR-Operation $process-flag auf dem Endpunkt /DocumentReference/{id}/ implementiert.
@@ -53,18 +59,21 @@ public class ProcessFlagOperationProvider implements IResourceProvider {
     private final ProcessFlagService processFlagService;
     private final FhirContext ctx;
     private final AuditService auditService;
+    private final BatchDocumentUpdateService batchDocumentUpdateService;
 
     @Autowired
     public ProcessFlagOperationProvider(FhirContext ctx,
                                       AuthorizationService authorizationService,
                                       ProcessFlagService processFlagService,
                                       DocumentRetrievalService documentRetrievalService,
-                                      AuditService auditService) {
+                                      AuditService auditService,
+                                      BatchDocumentUpdateService batchDocumentUpdateService) {
         this.ctx = ctx;
         this.authorizationService = authorizationService;
         this.processFlagService = processFlagService;
         this.documentRetrievalService = documentRetrievalService;
         this.auditService = auditService;
+        this.batchDocumentUpdateService = batchDocumentUpdateService;
     }
 
     @Override
@@ -120,75 +129,115 @@ public class ProcessFlagOperationProvider implements IResourceProvider {
                 document, markierung, zeitpunkt, details, gelesen, artDerArchivierung
         );
 
-        // 6. Protokolliere die Markierung (falls AuditService aktiviert wird)
+        // 6. Protokolliere die Markierung
+        createAuditEvent(savedDocument, accessToken, documentToken, markierung, gelesen, artDerArchivierung);
+
+        // 7. Erstelle die Antwort
+        Parameters result = new Parameters();
+        if (savedDocument != null && savedDocument.hasMeta()) {
+             result.addParameter().setName("meta").setValue(savedDocument.getMeta());
+        } else {
+            LOGGER.warn("Das gespeicherte Dokument hat keine Meta-Informationen. Antwort-Parameter 'meta' wird leer sein.");
+            // Evtl. leeres Meta hinzufügen oder Fehler werfen?
+             result.addParameter().setName("meta").setValue(new Meta());
+        }
+
+        LOGGER.info("Process-Flag-Operation erfolgreich beendet für Dokument mit Token (ID) {}", documentToken);
+        return result;
+    }
+
+    /**
+     * Typbezogene Batch-Variante der $process-flag Operation (/DocumentReference/$process-flag),
+     * z.B. für "alle als gelesen markieren". Die Markierung wird mit einer einzigen Autorisierung
+     * auf alle übergebenen Dokumente angewendet, das Ergebnis wird pro Token zurückgegeben.
+     *
+     * @param tokens              Die Tokens der zu markierenden Dokumente.
+     * @param markierung          Die Art der Markierung als Coding.
+     * @param zeitpunkt           Der Zeitpunkt der Markierung.
+     * @param details             Optionale Details als Freitext zur Markierung.
+     * @param gelesen             Gelesen-Status falls Markierung vom Typ 'gelesen' ist.
+     * @param artDerArchivierung  Details zur Art der Archivierung falls Markierung vom Typ 'archiviert' ist.
+     * @param theRequestDetails   Request-Details für die Autorisierung.
+     * @return Parameters mit einem 'ergebnis'-Parameter pro Token.
+     */
+    @Operation(name = "$process-flag", idempotent = false)
+    public Parameters processFlagBatchOperation(
+            @OperationParam(name = BatchDocumentUpdateService.PARAM_TOKEN, min = 1, max = OperationParam.MAX_UNLIMITED) List<StringType> tokens,
+            @OperationParam(name = "markierung") Coding markierung,
+            @OperationParam(name = "zeitpunkt") DateTimeType zeitpunkt,
+            @OperationParam(name = "details") StringType details,
+            @OperationParam(name = "gelesen") BooleanType gelesen,
+            @OperationParam(name = "artDerArchivierung") Coding artDerArchivierung,
+            RequestDetails theRequestDetails
+    ) {
+        LOGGER.info("Batch-Process-Flag-Operation für {} Dokumente aufgerufen", tokens != null ? tokens.size() : 0);
+
+        validateInputParameters(markierung, zeitpunkt, details, gelesen, artDerArchivierung);
+
+        // Einmalige Berechtigungsprüfung für alle Dokumente
+        AccessToken accessToken = authorizationService.validateAndExtractAccessToken(theRequestDetails);
+        authorizationService.authorizeAccessBasedOnContext(accessToken, theRequestDetails);
+
+        List<String> tokenValues = tokens == null ? List.of() : tokens.stream().map(StringType::getValue).collect(Collectors.toList());
+        List<BatchDocumentUpdateService.Ergebnis> ergebnisse = batchDocumentUpdateService.updateDocuments(
+            tokenValues, accessToken,
+            document -> processFlagService.prepareFlaggedDocument(document, markierung, zeitpunkt, details, gelesen, artDerArchivierung));
+
+        for (BatchDocumentUpdateService.Ergebnis ergebnis : ergebnisse) {
+            if (ergebnis.isErfolg()) {
+                createAuditEvent(ergebnis.getSavedDocument(), accessToken, ergebnis.getToken(), markierung, gelesen, artDerArchivierung);
+            }
+        }
+
+        LOGGER.info("Batch-Process-Flag-Operation beendet für {} Dokumente", ergebnisse.size());
+        return batchDocumentUpdateService.toParameters(ergebnisse);
+    }
+
+    /**
+     * Schreibt das AuditEvent zu einer Markierung. Die Details zur Markierung werden direkt mitgespeichert,
+     * statt das AuditEvent pro Detail erneut zu aktualisieren.
+     */
+    private void createAuditEvent(DocumentReference savedDocument, AccessToken accessToken, String documentToken,
+                                  Coding markierung, BooleanType gelesen, Coding artDerArchivierung) {
         try {
             Reference patientReference = null;
-            if (savedDocument.getSubject() != null && savedDocument.getSubject().getReferenceElement().getResourceType().equals("Patient")) {
+            if (savedDocument.getSubject() != null && "Patient".equals(savedDocument.getSubject().getReferenceElement().getResourceType())) {
                 patientReference = savedDocument.getSubject();
             }
             String kvnr = accessToken.getKvnr().orElse(accessToken.getIdNumber());
             String markierungsCodeFürBeschreibung = markierung.getCode() != null ? markierung.getCode() : "unbekannt";
 
-            AuditEvent auditEvent = auditService.createRestAuditEvent(
+            // Spezifische Details zur Markierung (null-Werte werden vom AuditService übersprungen)
+            Map<String, String> auditDetails = new LinkedHashMap<>();
+            auditDetails.put("markierung-system", markierung.getSystem());
+            auditDetails.put("markierung-code", markierung.getCode());
+            auditDetails.put("markierung-display", markierung.getDisplay());
+            if (gelesen != null && gelesen.hasValue()) {
+                auditDetails.put("markierung-gelesen-status", gelesen.getValueAsString());
+            }
+            if (artDerArchivierung != null) { // artDerArchivierung ist vom Typ Coding
+                auditDetails.put("archivierung-system", artDerArchivierung.getSystem());
+                auditDetails.put("archivierung-code", artDerArchivierung.getCode());
+                auditDetails.put("archivierung-display", artDerArchivierung.getDisplay());
+            }
+
+            auditService.createRestAuditEvent(
                 AuditEvent.AuditEventAction.U, // U für Update (da eine Markierung hinzugefügt/geändert wird)
                 "process-flag", // Korrekter Subtype-Code für die Operation
                 AuditEvent.AuditEventOutcome._0, // Erfolg
                 new Reference(savedDocument.getIdElement().toVersionless()),
-                "DocumentReference", // Konsistenter Resource Name, war "DocumentReference Flag Processing"
+                "DocumentReference",
                 savedDocument.getIdElement().toVersionless().getValue(), // entityWhatDisplay
                 "Markierung '" + markierungsCodeFürBeschreibung + "' für DocumentReference ID '" + documentToken + "' durch Versicherten verarbeitet.",
                 accessToken.getIdNumber(), // actorName
                 kvnr, // actorId (KVNR des Versicherten)
-                patientReference // patientReference für Versicherter-Slice
+                patientReference, // patientReference für Versicherter-Slice
+                auditDetails
             );
-
-            // Füge spezifische Details zur Markierung hinzu
-            if (auditEvent != null && auditEvent.hasId()) {
-                if (markierung.getSystem() != null) {
-                    auditService.addEntityDetail(auditEvent, "markierung-system", markierung.getSystem());
-                }
-                if (markierung.getCode() != null) {
-                    auditService.addEntityDetail(auditEvent, "markierung-code", markierung.getCode());
-                }
-                if (markierung.getDisplay() != null) {
-                    auditService.addEntityDetail(auditEvent, "markierung-display", markierung.getDisplay());
-                }
-                
-                // Ggf. weitere Details wie 'gelesen' oder 'artDerArchivierung' hinzufügen, falls relevant und im Audit benötigt
-                if (gelesen != null && gelesen.hasValue()) { 
-                    auditService.addEntityDetail(auditEvent, "markierung-gelesen-status", gelesen.getValueAsString());
-                }
-                if (artDerArchivierung != null) { // artDerArchivierung ist vom Typ Coding
-                    // Logge System, Code und Display der Archivierungsart, falls vorhanden
-                    if (artDerArchivierung.hasSystem()) {
-                        auditService.addEntityDetail(auditEvent, "archivierung-system", artDerArchivierung.getSystem());
-                    }
-                    if (artDerArchivierung.hasCode()) {
-                        auditService.addEntityDetail(auditEvent, "archivierung-code", artDerArchivierung.getCode());
-                    }
-                    if (artDerArchivierung.hasDisplay()) {
-                        auditService.addEntityDetail(auditEvent, "archivierung-display", artDerArchivierung.getDisplay());
-                    }
-                }
-            }
-
         } catch (Exception e) {
             LOGGER.error("Fehler beim Erstellen des AuditEvents für ProcessFlagOperation: {}", e.getMessage(), e);
             // Die Hauptoperation sollte hierdurch nicht fehlschlagen
         }
-
-        // 7. Erstelle die Antwort
-        Parameters result = new Parameters();
-        if (savedDocument != null && savedDocument.hasMeta()) {
-             result.addParameter().setName("meta").setValue(savedDocument.getMeta());
-        } else {
-            LOGGER.warn("Das gespeicherte Dokument hat keine Meta-Informationen. Antwort-Parameter 'meta' wird leer sein.");
-            // Evtl. leeres Meta hinzufügen oder Fehler werfen?
-             result.addParameter().setName("meta").setValue(new Meta());
-        }
-
-        LOGGER.info("Process-Flag-Operation erfolgreich beendet für Dokument mit Token (ID) {}", documentToken);
-        return result;
     }
 
     /**
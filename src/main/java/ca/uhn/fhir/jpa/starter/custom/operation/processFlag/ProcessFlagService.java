@@ -1,7 +1,6 @@
 package ca.uhn.fhir.jpa.starter.custom.operation.processFlag;
 
-import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
-import ca.uhn.fhir.jpa.api.model.DaoMethodOutcome;
+import ca.uhn.fhir.jpa.starter.custom.operation.VersionedDocumentUpdater;
 import org.hl7.fhir.r4.model.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -15,11 +14,11 @@ public class ProcessFlagService {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ProcessFlagService.class);
 
-    private final DaoRegistry daoRegistry;
+    private final VersionedDocumentUpdater versionedDocumentUpdater;
 
     @Autowired
-    public ProcessFlagService(DaoRegistry daoRegistry) {
-        this.daoRegistry = daoRegistry;
+    public ProcessFlagService(VersionedDocumentUpdater versionedDocumentUpdater) {
+        this.versionedDocumentUpdater = versionedDocumentUpdater;
     }
 
     /**
@@ -43,6 +42,36 @@ public class ProcessFlagService {
 
         LOGGER.info("Applying flag '{}' to DocumentReference with ID: {}", markierung.getCode(), document.getIdElement().getIdPart());
 
+        // Speichere das aktualisierte Dokument versionsgebunden; bei parallelen Änderungen wird nur die
+        // Markierung erneut auf die aktuelle Version angewendet, statt diese zu überschreiben
+        LOGGER.debug("Updating DocumentReference in DAO...");
+        DocumentReference savedDocument = versionedDocumentUpdater.update(document,
+                current -> prepareFlaggedDocument(current, markierung, zeitpunkt, details, gelesen, artDerArchivierung));
+
+        if (savedDocument != null) {
+            LOGGER.info("DocumentReference ID: {} successfully updated and saved with new flag.", savedDocument.getIdElement().getIdPart());
+        } else {
+            LOGGER.error("Failed to save the updated DocumentReference. DAO update returned null.");
+            // Hier könnte eine spezifischere Exception geworfen werden
+            throw new RuntimeException("Fehler beim Speichern des aktualisierten DocumentReference");
+        }
+        return savedDocument;
+    }
+
+    /**
+     * Erzeugt eine ungespeicherte Kopie des Dokuments mit der zusätzlichen Markierungs-Extension im Meta-Element.
+     * Die Batch-Variante von $process-flag schreibt diese Kopien gesammelt.
+     *
+     * @return Die markierte Kopie des Dokuments.
+     */
+    public DocumentReference prepareFlaggedDocument(
+            DocumentReference document,
+            Coding markierung,
+            DateTimeType zeitpunkt,
+            StringType details,
+            BooleanType gelesen,
+            Coding artDerArchivierung) {
+
         // Erstelle eine Kopie des Dokuments, um das Original nicht zu verändern (falls es von woanders referenziert wird)
         DocumentReference documentToUpdate = document.copy();
 
@@ -79,19 +108,6 @@ public class ProcessFlagService {
         // Füge die neue Markierungs-Extension zum Meta-Element hinzu
         meta.addExtension(markierungExtension);
         LOGGER.debug("Marking extension added to DocumentReference Meta: {}", meta.getExtension().size());
-
-        // Speichere das aktualisierte Dokument
-        LOGGER.debug("Updating DocumentReference in DAO...");
-        DaoMethodOutcome outcome = daoRegistry.getResourceDao(DocumentReference.class).update(documentToUpdate);
-        DocumentReference savedDocument = (DocumentReference) outcome.getResource();
-
-        if (savedDocument != null) {
-            LOGGER.info("DocumentReference ID: {} successfully updated and saved with new flag.", savedDocument.getIdElement().getIdPart());
-        } else {
-            LOGGER.error("Failed to save the updated DocumentReference. DAO update returned null.");
-            // Hier könnte eine spezifischere Exception geworfen werden
-            throw new RuntimeException("Fehler beim Speichern des aktualisierten DocumentReference");
-        }
-        return savedDocument;
+        return documentToUpdate;
     }
 } 
\ No newline at end of file
@@ -203,20 +203,31 @@ public class DocumentProcessorService {
      * Fügt das angereicherte PDF zur Parameters-Antwort hinzu
      */
     private void addAngereichertesPDF(DocumentReference originalDocRef, Parameters responseParameters, RequestDetails requestDetails) {
-        originalDocRef.getContent().stream()
+        Binary pdfBinary = resolveAngereichertesPDF(originalDocRef, requestDetails);
+        if (pdfBinary != null) {
+            responseParameters.addParameter().setName("angereichertesPDF").setResource(pdfBinary);
+            LOGGER.info("Angereichertes PDF (erechnung) als Binary-Ressource zum Parameter 'angereichertesPDF' hinzugefügt.");
+        }
+    }
+
+    /**
+     * Lädt das angereicherte PDF (Format 'erechnung') des Dokuments.
+     *
+     * @return Die Binary mit dem angereicherten PDF oder null, wenn keines vorhanden bzw. ladbar ist.
+     */
+    public Binary resolveAngereichertesPDF(DocumentReference originalDocRef, RequestDetails requestDetails) {
+        return originalDocRef.getContent().stream()
             .filter(this::isAngereichertesPDF)
             .findFirst()
-            .ifPresent(content -> {
+            .map(content -> {
                 try {
-                    Binary pdfBinary = documentRetrievalService.loadBinaryFromUrl(content.getAttachment().getUrl(), requestDetails);
-                    if (pdfBinary != null) {
-                        responseParameters.addParameter().setName("angereichertesPDF").setResource(pdfBinary);
-                        LOGGER.info("Angereichertes PDF (erechnung) als Binary-Ressource zum Parameter 'angereichertesPDF' hinzugefügt. URL: {}", content.getAttachment().getUrl());
-                    }
+                    return documentRetrievalService.loadBinaryFromUrl(content.getAttachment().getUrl(), requestDetails);
                 } catch (Exception e) {
                     LOGGER.warn("Konnte angereichertes PDF (erechnung) nicht laden von URL {}: {}", content.getAttachment().getUrl(), e.getMessage());
+                    return null;
                 }
-            });
+            })
+            .orElse(null);
     }
 
     /**
@@ -252,64 +263,82 @@ public class DocumentProcessorService {
      * Fügt das Original-PDF zur Parameters-Antwort hinzu
      */
     private void addOriginalPDF(DocumentReference originalDocRef, Parameters responseParameters, RequestDetails requestDetails) {
+        Binary originalPdfBinary = resolveOriginalPDF(originalDocRef, requestDetails);
+        if (originalPdfBinary != null) {
+            responseParameters.addParameter().setName("originalPDF").setResource(originalPdfBinary);
+            LOGGER.info("OriginalPDF: Original PDF als Binary-Ressource zum Parameter 'originalPDF' hinzugefügt.");
+        }
+    }
+
+    /**
+     * Lädt das Original-PDF über die relatesTo-Referenz (transforms) auf die eingereichte DocumentReference.
+     *
+     * @return Die Binary mit dem Original-PDF oder null, wenn keines vorhanden bzw. ladbar ist.
+     */
+    public Binary resolveOriginalPDF(DocumentReference originalDocRef, RequestDetails requestDetails) {
         // Debug-Ausgaben zu relatesTo
         logRelatesTo(originalDocRef);
 
-        originalDocRef.getRelatesTo().stream()
+        DocumentReference.DocumentReferenceRelatesToComponent relatesToEntry = originalDocRef.getRelatesTo().stream()
             .filter(rel -> rel.hasCode() && "transforms".equals(rel.getCode().toCode()) && rel.hasTarget() && rel.getTarget().hasReference())
             .findFirst()
-            .ifPresent(relatesToEntry -> {
-                String sourceDocRefUrl = relatesToEntry.getTarget().getReference();
-                LOGGER.info("OriginalPDF: Versuche Original-DocumentReference über relatesTo-Referenz zu laden. URL: {}", sourceDocRefUrl);
-                try {
-                    IdType originalDocRefId = new IdType(sourceDocRefUrl);
-                    if (!"DocumentReference".equals(originalDocRefId.getResourceType()) || !originalDocRefId.hasIdPart()){
-                        LOGGER.warn("OriginalPDF: Referenz in relatesTo ({}) ist keine gültige DocumentReference ID.", sourceDocRefUrl);
-                        return;
-                    }
-                    DocumentReference sourceDocRef = daoRegistry.getResourceDao(DocumentReference.class).read(originalDocRefId, requestDetails);
-                    if (sourceDocRef != null) {
-                        processOriginalDocumentReference(sourceDocRef, responseParameters, requestDetails);
-                    } else {
-                        LOGGER.warn("OriginalPDF: Original-DocumentReference via relatesTo ({}) nicht gefunden (null zurückgegeben).", sourceDocRefUrl);
-                    }
-                } catch (ResourceNotFoundException e) {
-                    LOGGER.warn("OriginalPDF: Original-DocumentReference Ressource nicht gefunden unter URL {}: {}", sourceDocRefUrl, e.getMessage());
-                } catch (Exception e) {
-                    LOGGER.warn("OriginalPDF: Konnte referenziertes Original-DocumentReference nicht laden von {}: {}", sourceDocRefUrl, e.getMessage(), e);
-                }
-            });
+            .orElse(null);
+        if (relatesToEntry == null) {
+            return null;
+        }
+
+        String sourceDocRefUrl = relatesToEntry.getTarget().getReference();
+        LOGGER.info("OriginalPDF: Versuche Original-DocumentReference über relatesTo-Referenz zu laden. URL: {}", sourceDocRefUrl);
+        try {
+            IdType originalDocRefId = new IdType(sourceDocRefUrl);
+            if (!"DocumentReference".equals(originalDocRefId.getResourceType()) || !originalDocRefId.hasIdPart()){
+                LOGGER.warn("OriginalPDF: Referenz in relatesTo ({}) ist keine gültige DocumentReference ID.", sourceDocRefUrl);
+                return null;
+            }
+            DocumentReference sourceDocRef = daoRegistry.getResourceDao(DocumentReference.class).read(originalDocRefId, requestDetails);
+            if (sourceDocRef != null) {
+                return extractOriginalPdf(sourceDocRef, requestDetails);
+            }
+            LOGGER.warn("OriginalPDF: Original-DocumentReference via relatesTo ({}) nicht gefunden (null zurückgegeben).", sourceDocRefUrl);
+        } catch (ResourceNotFoundException e) {
+            LOGGER.warn("OriginalPDF: Original-DocumentReference Ressource nicht gefunden unter URL {}: {}", sourceDocRefUrl, e.getMessage());
+        } catch (Exception e) {
+            LOGGER.warn("OriginalPDF: Konnte referenziertes Original-DocumentReference nicht laden von {}: {}", sourceDocRefUrl, e.getMessage(), e);
+        }
+        return null;
     }
 
     /**
-     * Verarbeitet die Original-DocumentReference, um das Original-PDF zu extrahieren
+     * Extrahiert das Original-PDF aus der eingereichten DocumentReference (Attachment.data oder Binary-URL)
      */
-    private void processOriginalDocumentReference(DocumentReference sourceDocRef, Parameters responseParameters, RequestDetails requestDetails) {
-        sourceDocRef.getContent().stream()
+    private Binary extractOriginalPdf(DocumentReference sourceDocRef, RequestDetails requestDetails) {
+        DocumentReferenceContentComponent pdfContent = sourceDocRef.getContent().stream()
             .filter(c -> c.hasAttachment() && "application/pdf".equals(c.getAttachment().getContentType()))
             .findFirst()
-            .ifPresent(pdfContent -> {
-                try {
-                    Binary originalPdfBinary = null;
-                    if (pdfContent.getAttachment().hasData()) {
-                        originalPdfBinary = new Binary();
-                        originalPdfBinary.setContentType(pdfContent.getAttachment().getContentType());
-                        originalPdfBinary.setData(pdfContent.getAttachment().getData());
-                        LOGGER.info("OriginalPDF: Original PDF direkt aus Attachment.data der sourceDocRef erstellt.");
-                    } else if (pdfContent.getAttachment().hasUrl()) {
-                        originalPdfBinary = documentRetrievalService.loadBinaryFromUrl(pdfContent.getAttachment().getUrl(), requestDetails);
-                    }
+            .orElse(null);
+        if (pdfContent == null) {
+            return null;
+        }
 
-                    if (originalPdfBinary != null) {
-                        responseParameters.addParameter().setName("originalPDF").setResource(originalPdfBinary);
-                        LOGGER.info("OriginalPDF: Original PDF als Binary-Ressource zum Parameter 'originalPDF' hinzugefügt.");
-                    } else {
-                        LOGGER.warn("OriginalPDF: Konnte keine Daten oder URL für das Original PDF im sourceDocRef.content finden.");
-                    }
-                } catch (Exception e) {
-                    LOGGER.warn("OriginalPDF: Fehler beim Verarbeiten/Extrahieren des Original PDF Inhalts: {}", e.getMessage(), e);
-                }
-            });
+        try {
+            Binary originalPdfBinary = null;
+            if (pdfContent.getAttachment().hasData()) {
+                originalPdfBinary = new Binary();
+                originalPdfBinary.setContentType(pdfContent.getAttachment().getContentType());
+                originalPdfBinary.setData(pdfContent.getAttachment().getData());
+                LOGGER.info("OriginalPDF: Original PDF direkt aus Attachment.data der sourceDocRef erstellt.");
+            } else if (pdfContent.getAttachment().hasUrl()) {
+                originalPdfBinary = documentRetrievalService.loadBinaryFromUrl(pdfContent.getAttachment().getUrl(), requestDetails);
+            }
+
+            if (originalPdfBinary == null) {
+                LOGGER.warn("OriginalPDF: Konnte keine Daten oder URL für das Original PDF im sourceDocRef.content finden.");
+            }
+            return originalPdfBinary;
+        } catch (Exception e) {
+            LOGGER.warn("OriginalPDF: Fehler beim Verarbeiten/Extrahieren des Original PDF Inhalts: {}", e.getMessage(), e);
+            return null;
+        }
     }
 
     /**
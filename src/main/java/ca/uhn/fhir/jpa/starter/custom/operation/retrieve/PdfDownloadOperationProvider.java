@@ -0,0 +1,266 @@
+package ca.uhn.fhir.jpa.starter.custom.operation.retrieve;
+
+import ca.uhn.fhir.jpa.starter.custom.interceptor.auth.AccessToken;
+import ca.uhn.fhir.jpa.starter.custom.operation.AuditService;
+import ca.uhn.fhir.jpa.starter.custom.operation.AuthorizationService;
+import ca.uhn.fhir.jpa.starter.custom.operation.DocumentRetrievalService;
+import ca.uhn.fhir.rest.annotation.IdParam;
+import ca.uhn.fhir.rest.annotation.Operation;
+import ca.uhn.fhir.rest.annotation.OperationParam;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.server.IResourceProvider;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import ca.uhn.fhir.rest.server.exceptions.UnprocessableEntityException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.hl7.fhir.r4.model.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Provider für die $download-pdf Operation.
+ * Liefert das angereicherte bzw. originale PDF einer Rechnung als rohe Bytes (application/pdf)
+ * statt Base64-kodiert in einer Parameters-Ressource. Unterstützt HTTP Range-Requests
+ * (eine einzelne Byte-Range), damit Downloads auf instabilen Verbindungen fortgesetzt werden können.
+ * <p>
+ * Einschränkung: Die Binary wird über den DAO gelesen und liegt dabei vollständig im Heap, auch wenn nur
+ * eine kleine Range angefordert wird. Eingespart wird lediglich die Base64-Kodierung und die
+ * Parameters-Serialisierung der Antwort; ein Streaming direkt aus dem Binary-Storage findet nicht statt.
+ */
+@Component
+public class PdfDownloadOperationProvider implements IResourceProvider {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PdfDownloadOperationProvider.class);
+
+    static final String ART_ANGEREICHERT = "angereichert";
+    static final String ART_ORIGINAL = "original";
+
+    private static final String CONTENT_TYPE_PDF = "application/pdf";
+
+    private final DocumentRetrievalService documentRetrievalService;
+    private final AuthorizationService authorizationService;
+    private final DocumentProcessorService documentProcessorService;
+    private final AuditService auditService;
+
+    @Autowired
+    public PdfDownloadOperationProvider(
+            DocumentRetrievalService documentRetrievalService,
+            AuthorizationService authorizationService,
+            DocumentProcessorService documentProcessorService,
+            AuditService auditService) {
+        this.documentRetrievalService = documentRetrievalService;
+        this.authorizationService = authorizationService;
+        this.documentProcessorService = documentProcessorService;
+        this.auditService = auditService;
+    }
+
+    @Override
+    public Class<DocumentReference> getResourceType() {
+        return DocumentReference.class;
+    }
+
+    /**
+     * Implementierung der $download-pdf Operation
+     *
+     * @param id Das Dokumenttoken zur Identifikation des Dokuments
+     * @param art 'angereichert' (Standard) oder 'original'
+     * @param theServletRequest Servlet-Request (für Range/If-Range Header)
+     * @param theServletResponse Servlet-Response, in die die angeforderten Bytes des (vollständig geladenen) PDFs geschrieben werden
+     * @param theRequestDetails Request-Details mit Zugriff auf den AccessToken
+     */
+    @Operation(name = "$download-pdf", idempotent = true, manualResponse = true)
+    public void downloadPdfOperation(
+            @IdParam IdType id,
+            @OperationParam(name = "art") CodeType art,
+            HttpServletRequest theServletRequest,
+            HttpServletResponse theServletResponse,
+            RequestDetails theRequestDetails
+    ) throws IOException {
+        String artValue = art != null && art.hasValue() ? art.getValue() : ART_ANGEREICHERT;
+        LOGGER.info("Download-PDF Operation gestartet für Token {} (Art: {})", id != null ? id.getIdPart() : "null", artValue);
+
+        if (id == null || !id.hasIdPart() || id.getIdPart().isEmpty()) {
+            throw new UnprocessableEntityException("Token darf nicht leer sein");
+        }
+        if (!ART_ANGEREICHERT.equals(artValue) && !ART_ORIGINAL.equals(artValue)) {
+            throw new InvalidRequestException("Ungültiger Wert für Parameter 'art': " + artValue + ". Erlaubt sind 'angereichert' und 'original'.");
+        }
+
+        // Gleiche Berechtigungsprüfung wie bei $retrieve
+        AccessToken accessToken = authorizationService.validateAndExtractAccessToken(theRequestDetails);
+        authorizationService.authorizeAccessBasedOnContext(accessToken, theRequestDetails);
+
+        DocumentReference document = documentRetrievalService.findDocument(id.getIdPart());
+        authorizationService.validateDocumentAccess(document, accessToken);
+
+        Binary pdfBinary = ART_ORIGINAL.equals(artValue)
+            ? documentProcessorService.resolveOriginalPDF(document, theRequestDetails)
+            : documentProcessorService.resolveAngereichertesPDF(document, theRequestDetails);
+        if (pdfBinary == null || !pdfBinary.hasData()) {
+            throw new ResourceNotFoundException("Kein " + artValue + "es PDF für Dokument mit Token " + id.getIdPart() + " vorhanden");
+        }
+
+        // Die Binary ist hier bereits vollständig geladen (siehe Klassen-Javadoc), es wird nur der Ausschnitt geschrieben
+        byte[] pdfData = pdfBinary.getData();
+        String etag = buildEtag(pdfBinary, artValue);
+        ByteRange range = resolveRange(theServletRequest, etag, pdfData.length);
+
+        theServletResponse.setHeader("Accept-Ranges", "bytes");
+        theServletResponse.setHeader("Cache-Control", "private, no-store");
+        theServletResponse.setHeader("Content-Disposition", "attachment; filename=\"" + id.getIdPart() + "-" + artValue + ".pdf\"");
+        if (etag != null) {
+            theServletResponse.setHeader("ETag", etag);
+        }
+
+        if (range == ByteRange.UNSATISFIABLE) {
+            LOGGER.warn("Range-Header '{}' für Dokument {} nicht erfüllbar (Größe: {} Bytes).", theServletRequest.getHeader("Range"), id.getIdPart(), pdfData.length);
+            theServletResponse.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            theServletResponse.setHeader("Content-Range", "bytes */" + pdfData.length);
+            theServletResponse.setContentLength(0);
+            return;
+        }
+
+        theServletResponse.setContentType(CONTENT_TYPE_PDF);
+        if (range != null) {
+            theServletResponse.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            theServletResponse.setHeader("Content-Range", "bytes " + range.start + "-" + range.end + "/" + pdfData.length);
+        } else {
+            theServletResponse.setStatus(HttpServletResponse.SC_OK);
+            range = new ByteRange(0, pdfData.length - 1);
+        }
+        theServletResponse.setContentLength(range.length());
+
+        try (OutputStream out = theServletResponse.getOutputStream()) {
+            out.write(pdfData, (int) range.start, range.length());
+        }
+
+        createAuditEvent(document, accessToken, id, artValue);
+        LOGGER.info("Download-PDF Operation erfolgreich beendet für Token {} ({} von {} Bytes übertragen)", id.getIdPart(), range.length(), pdfData.length);
+    }
+
+    /**
+     * Ermittelt die angeforderte Byte-Range. Gibt null zurück, wenn das gesamte Dokument ausgeliefert werden soll
+     * (kein oder nicht auswertbarer Range-Header, mehrere Ranges oder abweichender If-Range Validator).
+     */
+    private ByteRange resolveRange(HttpServletRequest request, String etag, long totalLength) {
+        String rangeHeader = request.getHeader("Range");
+        if (rangeHeader == null) {
+            return null;
+        }
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange != null && !ifRange.equals(etag)) {
+            LOGGER.debug("If-Range '{}' passt nicht zum aktuellen ETag '{}', liefere vollständiges Dokument.", ifRange, etag);
+            return null;
+        }
+        return ByteRange.parse(rangeHeader, totalLength);
+    }
+
+    /**
+     * Bildet einen starken ETag aus Binary-ID und Version. Original-PDFs aus Attachment.data haben keine ID,
+     * dann wird kein ETag gesetzt und If-Range führt immer zur vollständigen Auslieferung.
+     */
+    private String buildEtag(Binary pdfBinary, String artValue) {
+        IdType binaryId = pdfBinary.getIdElement();
+        if (binaryId == null || !binaryId.hasIdPart()) {
+            return null;
+        }
+        String version = binaryId.hasVersionIdPart() ? binaryId.getVersionIdPart() : pdfBinary.getMeta().getVersionId();
+        return "\"" + artValue + "-" + binaryId.getIdPart() + (version != null ? "-" + version : "") + "\"";
+    }
+
+    private void createAuditEvent(DocumentReference document, AccessToken accessToken, IdType id, String artValue) {
+        try {
+            Reference patientReference = null;
+            if (document.getSubject() != null && "Patient".equals(document.getSubject().getReferenceElement().getResourceType())) {
+                patientReference = document.getSubject();
+            }
+            String kvnr = accessToken.getKvnr().orElse(accessToken.getIdNumber());
+
+            auditService.createRestAuditEvent(
+                AuditEvent.AuditEventAction.R,
+                "retrieve",
+                AuditEvent.AuditEventOutcome._0,
+                new Reference(document.getIdElement().toVersionless()),
+                "DocumentReference",
+                document.getIdElement().toVersionless().getValue(),
+                "PDF (" + artValue + ") zu DocumentReference mit Token '" + id.getIdPart() + "' heruntergeladen.",
+                accessToken.getIdNumber(),
+                kvnr,
+                patientReference
+            );
+        } catch (Exception e) {
+            LOGGER.error("Fehler beim Erstellen des AuditEvents für Download-PDF Operation: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Eine einzelne, bereits gegen die Dokumentlänge aufgelöste Byte-Range (Grenzen inklusive).
+     */
+    static final class ByteRange {
+
+        static final ByteRange UNSATISFIABLE = new ByteRange(-1, -1);
+
+        final long start;
+        final long end;
+
+        ByteRange(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        int length() {
+            return (int) (end - start + 1);
+        }
+
+        /**
+         * Parst einen Range-Header der Form "bytes=a-b", "bytes=a-" oder "bytes=-n".
+         * Mehrere Ranges und syntaktisch ungültige Header werden ignoriert (null = vollständige Auslieferung),
+         * nicht erfüllbare Ranges ergeben {@link #UNSATISFIABLE}.
+         */
+        static ByteRange parse(String header, long totalLength) {
+            if (header == null || !header.startsWith("bytes=")) {
+                return null;
+            }
+            String spec = header.substring("bytes=".length()).trim();
+            if (spec.isEmpty() || spec.contains(",")) {
+                return null;
+            }
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            String startPart = spec.substring(0, dash).trim();
+            String endPart = spec.substring(dash + 1).trim();
+            try {
+                if (startPart.isEmpty()) {
+                    // Suffix-Range: die letzten n Bytes
+                    if (endPart.isEmpty()) {
+                        return null;
+                    }
+                    long suffixLength = Long.parseLong(endPart);
+                    if (suffixLength <= 0 || totalLength == 0) {
+                        return UNSATISFIABLE;
+                    }
+                    return new ByteRange(Math.max(0, totalLength - suffixLength), totalLength - 1);
+                }
+                long start = Long.parseLong(startPart);
+                long end = endPart.isEmpty() ? totalLength - 1 : Long.parseLong(endPart);
+                if (start < 0 || end < start) {
+                    return null;
+                }
+                if (start >= totalLength) {
+                    return UNSATISFIABLE;
+                }
+                return new ByteRange(start, Math.min(end, totalLength - 1));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
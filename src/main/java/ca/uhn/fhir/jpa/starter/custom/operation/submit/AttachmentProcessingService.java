@@ -67,6 +67,10 @@ public class AttachmentProcessingService {
             DocumentReference savedAnhangDocRef = null;
 
             try {
+                // Ausgelagerte Inhalte erst nach der Größenprüfung und nur für diesen Anhang in den Heap laden
+                rejectOversizedSpooledContents(anhangDocRef, anhangIdLog);
+                SpooledContent.materialize(anhangDocRef);
+
                 // 1. Anhang validieren
                 ValidationResult anhangValidationResult = customValidator.validateAndReturnResult(anhangDocRef);
                 handleAttachmentValidationResult(anhangValidationResult, currentAttachmentMessages, "Anhang " + anhangIdLog, anhangDocRef.fhirType() + (anhangDocRef.hasId() ? "/" + anhangDocRef.getIdPart() : ""));
@@ -108,6 +112,8 @@ public class AttachmentProcessingService {
                 errorMsg.setMessage("Unerwarteter Fehler bei Verarbeitung von Anhang " + anhangIdLog + ": " + e.getMessage());
                 errorMsg.setLocationString(anhangDocRef.fhirType() + (anhangDocRef.hasId() ? "/" + anhangDocRef.getIdPart() : ""));
                 currentAttachmentMessages.add(errorMsg);
+            } finally {
+                SpooledContent.release(anhangDocRef);
             }
             
             allMessagesFromAttachments.addAll(currentAttachmentMessages);
@@ -123,6 +129,16 @@ public class AttachmentProcessingService {
         return new AttachmentProcessingOverallResult(successfulResults, allMessagesFromAttachments);
     }
 
+    private void rejectOversizedSpooledContents(DocumentReference anhangDocRef, String anhangIdLog) {
+        for (DocumentReference.DocumentReferenceContentComponent content : anhangDocRef.getContent()) {
+            SpooledContent spooled = content.hasAttachment() ? SpooledContent.of(content.getAttachment()) : null;
+            if (spooled != null && spooled.getSize() > MAX_ATTACHMENT_SIZE_BYTES) {
+                LOGGER.error("Anhang {} Attachment-Daten überschreiten die maximale Größe von {} Bytes.", anhangIdLog, MAX_ATTACHMENT_SIZE_BYTES);
+                throw new UnprocessableEntityException("Anhang " + anhangIdLog + " Attachment überschreitet die maximale Größe von 10MB.");
+            }
+        }
+    }
+
     private void processIndividualAttachmentContents(DocumentReference anhangToProcess, String anhangIdLog) {
         if (anhangToProcess.hasContent()) {
             for (DocumentReference.DocumentReferenceContentComponent content : anhangToProcess.getContent()) {
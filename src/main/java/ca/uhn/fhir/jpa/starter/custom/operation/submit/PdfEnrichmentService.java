@@ -1,5 +1,6 @@
 package ca.uhn.fhir.jpa.starter.custom.operation.submit;
 
+import ca.uhn.fhir.rest.server.exceptions.UnclassifiedServerFailureException;
 import ca.uhn.fhir.rest.server.exceptions.UnprocessableEntityException;
 import com.google.zxing.BarcodeFormat;
 import com.google.zxing.EncodeHintType;
@@ -10,6 +11,7 @@ import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
 import org.apache.pdfbox.cos.COSArray;
 import org.apache.pdfbox.cos.COSDictionary;
 import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.*;
 import org.apache.pdfbox.pdmodel.common.PDMetadata;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
@@ -23,6 +25,7 @@ import org.hl7.fhir.r4.model.Binary;
 import org.hl7.fhir.r4.model.DocumentReference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.awt.*;
@@ -39,24 +42,39 @@ public class PdfEnrichmentService {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(PdfEnrichmentService.class);
 
+    // Eine Seite wird jeweils als A4-Bild mit 300 DPI (RGB, 4 Bytes/Pixel) gerendert und beim Einbetten kopiert
+    private static final long RENDER_HEAP_BYTES = 2L * 2480 * 3508 * 4;
+
+    private final PdfMemoryBudget pdfMemoryBudget;
+
+    @Autowired
+    public PdfEnrichmentService(PdfMemoryBudget pdfMemoryBudget) {
+        this.pdfMemoryBudget = pdfMemoryBudget;
+    }
+
     public Binary enrichPdfWithBarcodeAndAttachment(byte[] pdfData, String token, DocumentReference document) {
-        try {
-            byte[] enrichedPdfData = addBarcodeToFirstPage(pdfData, token);
+        // Original, neu aufgebautes und PDF/A-3-Dokument liegen nacheinander bzw. paarweise im Speicher
+        try (PdfMemoryBudget.Lease lease = pdfMemoryBudget.acquire(3L * pdfData.length + RENDER_HEAP_BYTES)) {
+            byte[] enrichedPdfData = addBarcodeToFirstPage(pdfData, token, lease.getMemoryUsageSetting());
             byte[] structuredData = extractStructuredData(document);
-            byte[] finalPdf = createPdfA3WithAttachment(enrichedPdfData, structuredData);
+            byte[] finalPdf = createPdfA3WithAttachment(enrichedPdfData, structuredData, lease.getMemoryUsageSetting());
 
             return new Binary()
                     .setContentType("application/pdf")
                     .setData(finalPdf);
 
+        } catch (UnclassifiedServerFailureException e) {
+            // Budget erschöpft: als 503 weiterreichen, damit der Client es erneut versuchen kann
+            throw e;
         } catch (Exception e) {
             LOGGER.error("Fehler beim Anreichern der PDF: {}", e.getMessage(), e);
             throw new UnprocessableEntityException("Fehler beim Anreichern der PDF: " + e.getMessage());
         }
     }
 
-    private byte[] addBarcodeToFirstPage(byte[] pdfData, String token) throws IOException {
-        try (PDDocument originalDoc = PDDocument.load(pdfData); PDDocument newDoc = new PDDocument()) {
+    private byte[] addBarcodeToFirstPage(byte[] pdfData, String token, MemoryUsageSetting memoryUsageSetting) throws IOException {
+        try (PDDocument originalDoc = PDDocument.load(pdfData, "", null, null, memoryUsageSetting.getPartitionedCopy(2));
+             PDDocument newDoc = new PDDocument(memoryUsageSetting.getPartitionedCopy(2))) {
             // QR-Code generieren mit hoher Fehlerkorrektur und minimalem Rand
             int qrSize = 200; // Größe des QR-Codes in Pixeln
             BitMatrix bitMatrix = new MultiFormatWriter().encode(
@@ -162,8 +180,8 @@ public class PdfEnrichmentService {
          return invoiceData; 
     }
 
-    private byte[] createPdfA3WithAttachment(byte[] pdfData, byte[] structuredData) throws IOException {
-        try (PDDocument document = PDDocument.load(pdfData)) {
+    private byte[] createPdfA3WithAttachment(byte[] pdfData, byte[] structuredData, MemoryUsageSetting memoryUsageSetting) throws IOException {
+        try (PDDocument document = PDDocument.load(pdfData, "", null, null, memoryUsageSetting)) {
             // PDF/A-3b Konformität setzen
             PDDocumentCatalog catalog = document.getDocumentCatalog();
             PDMetadata metadata = new PDMetadata(document);
@@ -0,0 +1,222 @@
+package ca.uhn.fhir.jpa.starter.custom.operation.submit;
+
+import ca.uhn.fhir.rest.server.exceptions.UnclassifiedServerFailureException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+/**
+ * Gemeinsames Speicherbudget für alle PDFBox-Verarbeitungen. Jede Verarbeitung reserviert vorab die geschätzte
+ * Heap-Belegung; ein Semaphor begrenzt die Summe der gleichzeitig reservierten Bytes. Die {@link MemoryUsageSetting}
+ * einer Reservierung hält die Puffer von PDFBox bis zu {@code max_main_memory_per_document_bytes} im Heap, alles
+ * darüber wird in ein eigenes Verzeichnis unterhalb von {@code scratch_dir} ausgelagert, das beim Schließen der
+ * Reservierung gelöscht wird.
+ * <p>
+ * Mehrere Instanzen auf einem Host können sich {@code scratch_dir} teilen: Jede Instanz legt darin ein eigenes
+ * Verzeichnis an und hält eine Sperre auf dessen Lock-Datei. Beim Start werden nur Verzeichnisse entfernt, deren
+ * Sperre frei ist, deren Instanz also nicht mehr läuft.
+ */
+@Component
+public class PdfMemoryBudget {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PdfMemoryBudget.class);
+
+	private static final String INSTANCE_DIRECTORY_PREFIX = "instance-";
+	private static final String LOCK_FILE = ".lock";
+	private static final String LEASE_DIRECTORY_PREFIX = "pdf-";
+	// Der Semaphor zählt KiB, damit auch Budgets über 2 GB abgebildet werden können
+	private static final int BYTES_PER_PERMIT = 1024;
+
+	private final Semaphore permits;
+	private final int totalPermits;
+	private final long maxMainMemoryPerDocumentBytes;
+	private final Path scratchRoot;
+	private final long acquireTimeoutMillis;
+	private Path scratchDirectory;
+	private FileChannel lockChannel;
+
+	@Autowired
+	public PdfMemoryBudget(@Value("${hapi.fhir.pdf.memory_budget_bytes:536870912}") long memoryBudgetBytes,
+							@Value("${hapi.fhir.pdf.max_main_memory_per_document_bytes:33554432}") long maxMainMemoryPerDocumentBytes,
+							@Value("${hapi.fhir.pdf.scratch_dir:${java.io.tmpdir}/erg-pdf-scratch}") String scratchDirectory,
+							@Value("${hapi.fhir.pdf.acquire_timeout_seconds:30}") long acquireTimeoutSeconds) {
+		this.totalPermits = (int) Math.min(Integer.MAX_VALUE, Math.max(1, memoryBudgetBytes / BYTES_PER_PERMIT));
+		this.permits = new Semaphore(totalPermits, true);
+		this.maxMainMemoryPerDocumentBytes = maxMainMemoryPerDocumentBytes;
+		this.scratchRoot = Path.of(scratchDirectory);
+		this.acquireTimeoutMillis = TimeUnit.SECONDS.toMillis(acquireTimeoutSeconds);
+	}
+
+	/**
+	 * Legt das Scratch-Verzeichnis dieser Instanz an und entfernt die Verzeichnisse nicht mehr laufender Instanzen,
+	 * z.B. nach einem Absturz.
+	 */
+	@PostConstruct
+	void prepareScratchDirectory() throws IOException {
+		Files.createDirectories(scratchRoot);
+		try (Stream<Path> instances = Files.list(scratchRoot)) {
+			instances.filter(path -> path.getFileName().toString().startsWith(INSTANCE_DIRECTORY_PREFIX))
+				.forEach(PdfMemoryBudget::deleteIfAbandoned);
+		}
+		scratchDirectory = Files.createTempDirectory(scratchRoot, INSTANCE_DIRECTORY_PREFIX);
+		lockChannel = FileChannel.open(scratchDirectory.resolve(LOCK_FILE), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		lockChannel.lock();
+		// Erst eine beschriebene Lock-Datei gilt als angelegt, siehe deleteIfAbandoned
+		lockChannel.write(ByteBuffer.wrap(String.valueOf(ProcessHandle.current().pid()).getBytes(StandardCharsets.US_ASCII)));
+		LOGGER.info("PDF-Speicherbudget: {} KiB, davon höchstens {} Bytes pro Dokument im Heap, Scratch-Verzeichnis {}",
+			totalPermits, maxMainMemoryPerDocumentBytes, scratchDirectory);
+	}
+
+	/**
+	 * Reserviert Speicher für eine PDFBox-Verarbeitung und wartet dafür höchstens {@code acquire_timeout_seconds}.
+	 * Reservierungen über dem Gesamtbudget werden auf das Budget begrenzt und laufen damit allein.
+	 *
+	 * @param estimatedBytes Geschätzte Heap-Belegung der Verarbeitung inkl. der PDF-Daten selbst
+	 * @return Die Reservierung; muss nach dem Schließen aller damit geöffneten Dokumente geschlossen werden
+	 * @throws UnclassifiedServerFailureException (503), wenn das Budget in der Wartezeit nicht frei wird
+	 */
+	public Lease acquire(long estimatedBytes) {
+		int requested = (int) Math.min(totalPermits, Math.max(1, (estimatedBytes + BYTES_PER_PERMIT - 1) / BYTES_PER_PERMIT));
+		try {
+			if (!permits.tryAcquire(requested, acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+				LOGGER.warn("PDF-Speicherbudget erschöpft: {} KiB angefordert, {} KiB frei", requested, permits.availablePermits());
+				throw new UnclassifiedServerFailureException(503, "Der Server ist ausgelastet, bitte später erneut versuchen.");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new UnclassifiedServerFailureException(503, "Warten auf PDF-Speicherbudget unterbrochen.");
+		}
+
+		try {
+			Path directory = Files.createTempDirectory(scratchDirectory, LEASE_DIRECTORY_PREFIX);
+			long mainMemory = Math.min(maxMainMemoryPerDocumentBytes, (long) requested * BYTES_PER_PERMIT);
+			MemoryUsageSetting setting = MemoryUsageSetting.setupMixed(mainMemory).setTempDir(directory.toFile());
+			LOGGER.debug("PDF-Speicherbudget: {} KiB reserviert, {} KiB frei", requested, permits.availablePermits());
+			return new Lease(requested, directory, setting);
+		} catch (IOException e) {
+			permits.release(requested);
+			throw new UncheckedIOException("Scratch-Verzeichnis für PDFBox konnte nicht angelegt werden", e);
+		}
+	}
+
+	/**
+	 * Entfernt das Scratch-Verzeichnis dieser Instanz samt Sperre.
+	 */
+	@PreDestroy
+	void removeScratchDirectory() {
+		if (lockChannel == null) {
+			return;
+		}
+		try {
+			lockChannel.close();
+		} catch (IOException e) {
+			LOGGER.warn("Sperre auf {} konnte nicht freigegeben werden: {}", scratchDirectory, e.getMessage());
+		}
+		deleteRecursively(scratchDirectory);
+	}
+
+	/**
+	 * Löscht das Verzeichnis einer anderen Instanz, wenn deren Sperre frei ist. Verzeichnisse ohne oder mit leerer
+	 * Lock-Datei bleiben stehen, da ihre Instanz die Sperre gerade erst anlegen könnte.
+	 */
+	private static void deleteIfAbandoned(Path instanceDirectory) {
+		Path lockFile = instanceDirectory.resolve(LOCK_FILE);
+		try {
+			if (!Files.isRegularFile(lockFile) || Files.size(lockFile) == 0) {
+				return;
+			}
+		} catch (IOException e) {
+			return;
+		}
+		boolean abandoned;
+		try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.WRITE);
+			 FileLock lock = channel.tryLock()) {
+			abandoned = lock != null;
+		} catch (OverlappingFileLockException e) {
+			// Von einer anderen Instanz in dieser JVM gesperrt
+			abandoned = false;
+		} catch (IOException e) {
+			LOGGER.warn("Sperre auf {} konnte nicht geprüft werden: {}", instanceDirectory, e.getMessage());
+			abandoned = false;
+		}
+		if (abandoned) {
+			LOGGER.info("Scratch-Verzeichnis {} einer beendeten Instanz wird entfernt", instanceDirectory);
+			deleteRecursively(instanceDirectory);
+		}
+	}
+
+	long availableBytes() {
+		return (long) permits.availablePermits() * BYTES_PER_PERMIT;
+	}
+
+	private static void deleteRecursively(Path path) {
+		try (Stream<Path> files = Files.walk(path)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> {
+				try {
+					Files.deleteIfExists(file);
+				} catch (IOException e) {
+					LOGGER.warn("Scratch-Datei {} konnte nicht gelöscht werden: {}", file, e.getMessage());
+				}
+			});
+		} catch (IOException e) {
+			LOGGER.warn("Scratch-Verzeichnis {} konnte nicht gelesen werden: {}", path, e.getMessage());
+		}
+	}
+
+	/**
+	 * Eine Reservierung aus dem Budget samt eigenem Scratch-Verzeichnis.
+	 */
+	public final class Lease implements AutoCloseable {
+		private final int reservedPermits;
+		private final Path directory;
+		private final MemoryUsageSetting memoryUsageSetting;
+		private final AtomicBoolean closed = new AtomicBoolean();
+
+		private Lease(int reservedPermits, Path directory, MemoryUsageSetting memoryUsageSetting) {
+			this.reservedPermits = reservedPermits;
+			this.directory = directory;
+			this.memoryUsageSetting = memoryUsageSetting;
+		}
+
+		/**
+		 * @return Einstellung für ein einzelnes Dokument; für mehrere gleichzeitig geöffnete Dokumente
+		 * {@link MemoryUsageSetting#getPartitionedCopy(int)} verwenden
+		 */
+		public MemoryUsageSetting getMemoryUsageSetting() {
+			return memoryUsageSetting;
+		}
+
+		Path getDirectory() {
+			return directory;
+		}
+
+		@Override
+		public void close() {
+			if (closed.compareAndSet(false, true)) {
+				deleteRecursively(directory);
+				permits.release(reservedPermits);
+			}
+		}
+	}
+}
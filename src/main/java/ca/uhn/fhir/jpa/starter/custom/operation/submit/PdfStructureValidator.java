@@ -0,0 +1,72 @@
+package ca.uhn.fhir.jpa.starter.custom.operation.submit;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Vorprüfung eines PDFs, bevor es von PDFBox vollständig geladen wird. Verworfen wird nur, was PDFBox auch mit
+ * Reparatur nicht laden kann:
+ * <ul>
+ *   <li>leere oder zu große Eingaben</li>
+ *   <li>Eingaben ohne {@code %PDF-}: PDFBox bricht ohne Header ab</li>
+ *   <li>Eingaben ohne ein einziges {@code obj}: ohne indirekte Objekte gibt es keinen Katalog</li>
+ *   <li>Eingaben ohne {@code trailer} und {@code startxref}, in denen auch kein Katalog ({@code /Catalog}) oder
+ *   Objekt-Stream ({@code /ObjStm}) steht: PDFBox findet dann weder über die Querverweise noch über die Suche nach
+ *   Objekten ein Wurzelobjekt</li>
+ * </ul>
+ * Fehlerhafte Querverweistabellen, Offsets oder ein fehlendes {@code %%EOF} werden bewusst nicht geprüft: solche
+ * Dokumente repariert PDFBox beim Laden in vielen Fällen. Über diese Eingaben entscheidet das vollständige Laden.
+ */
+final class PdfStructureValidator {
+
+	private static final byte[] HEADER = ascii("%PDF-");
+	private static final byte[] OBJ = ascii("obj");
+	private static final byte[] TRAILER = ascii("trailer");
+	private static final byte[] STARTXREF = ascii("startxref");
+	private static final byte[] CATALOG = ascii("/Catalog");
+	private static final byte[] OBJECT_STREAM = ascii("/ObjStm");
+
+	private PdfStructureValidator() {
+	}
+
+	/**
+	 * @param pdf      Das PDF
+	 * @param maxBytes Maximale Größe des PDFs
+	 * @throws IOException mit einer Beschreibung des Fehlers, wenn PDFBox das PDF nicht laden kann
+	 */
+	static void validate(byte[] pdf, long maxBytes) throws IOException {
+		if (pdf == null || pdf.length == 0) {
+			throw new IOException("PDF ist leer");
+		}
+		if (pdf.length > maxBytes) {
+			throw new IOException("PDF überschreitet die maximale Größe von " + maxBytes + " Bytes");
+		}
+		if (!contains(pdf, HEADER)) {
+			throw new IOException("Kein PDF-Header (%PDF-)");
+		}
+		if (!contains(pdf, OBJ)) {
+			throw new IOException("Keine indirekten Objekte");
+		}
+		if (!contains(pdf, TRAILER) && !contains(pdf, STARTXREF)
+				&& !contains(pdf, CATALOG) && !contains(pdf, OBJECT_STREAM)) {
+			throw new IOException("Weder Trailer noch startxref noch ein Katalog vorhanden");
+		}
+	}
+
+	private static boolean contains(byte[] pdf, byte[] pattern) {
+		for (int i = 0; i + pattern.length <= pdf.length; i++) {
+			int matched = 0;
+			while (matched < pattern.length && pdf[i + matched] == pattern[matched]) {
+				matched++;
+			}
+			if (matched == pattern.length) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static byte[] ascii(String value) {
+		return value.getBytes(StandardCharsets.US_ASCII);
+	}
+}
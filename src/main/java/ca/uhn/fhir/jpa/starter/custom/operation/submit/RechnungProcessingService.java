@@ -10,6 +10,7 @@ import ca.uhn.fhir.jpa.starter.custom.signature.KeyLoader;
 import ca.uhn.fhir.jpa.starter.custom.signature.SignatureService;
 import ca.uhn.fhir.parser.IParser;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.rest.server.exceptions.UnclassifiedServerFailureException;
 import ca.uhn.fhir.rest.server.exceptions.UnprocessableEntityException;
 import ca.uhn.fhir.validation.ResultSeverityEnum;
 import ca.uhn.fhir.validation.SingleValidationMessage;
@@ -62,6 +63,7 @@ public class RechnungProcessingService {
     private final FhirSignatureService fhirSignatureService;
     private final TransformedRechnungMetadataHandler metadataHandler; // Injizieren
     private final AttachmentProcessingService attachmentProcessingService; // Injizieren
+    private final PdfMemoryBudget pdfMemoryBudget;
 
     /**
      * Container-Klasse für das Ergebnis der Verarbeitung des DocumentReference-Inhalts.
@@ -88,7 +90,8 @@ public class RechnungProcessingService {
                                 SignatureService signatureService, 
                                 FhirSignatureService fhirSignatureService,
                                 TransformedRechnungMetadataHandler metadataHandler,
-                                AttachmentProcessingService attachmentProcessingService) { // Injizieren
+                                AttachmentProcessingService attachmentProcessingService, // Injizieren
+                                PdfMemoryBudget pdfMemoryBudget) {
         this.customValidator = customValidator;
         this.daoRegistry = daoRegistry;
         this.tokenGenerationService = tokenGenerationService;
@@ -98,6 +101,7 @@ public class RechnungProcessingService {
         this.fhirSignatureService = fhirSignatureService;
         this.metadataHandler = metadataHandler; // Zuweisen
         this.attachmentProcessingService = attachmentProcessingService; // Zuweisen
+        this.pdfMemoryBudget = pdfMemoryBudget;
     }
 
     public ValidationAndTransformResult validate(DocumentReference rechnung, CodeType modus, AccessToken accessToken, List<DocumentReference> anhaenge) {
@@ -110,6 +114,11 @@ public class RechnungProcessingService {
             return new ValidationAndTransformResult(null, null, processedAttachmentResults);
         }
 
+        // Ausgelagerte Inhalte der Rechnung werden für Validierung, Signatur und Speicherung vollständig benötigt,
+        // zu große Inhalte werden vorher verworfen, ohne sie zu lesen
+        rejectOversizedSpooledContents(rechnung);
+        SpooledContent.materialize(rechnung);
+
         String modusValue = (modus != null) ? modus.getValueAsString() : MODE_NORMAL;
 
         LOGGER.debug("Starte Validierung/Verarbeitung für DocumentReference (Rechnung) mit ID: {}. Modus: {}",
@@ -169,6 +178,17 @@ public class RechnungProcessingService {
     }
 
 
+    private void rejectOversizedSpooledContents(DocumentReference rechnung) {
+        for (int i = 0; i < rechnung.getContent().size(); i++) {
+            Attachment attachment = rechnung.getContent().get(i).getAttachment();
+            SpooledContent spooled = attachment != null ? SpooledContent.of(attachment) : null;
+            if (spooled != null && spooled.getSize() > MAX_ATTACHMENT_SIZE_BYTES) {
+                LOGGER.error("Attachment-Daten bei Index {} überschreiten die maximale Größe von {} Bytes.", i, MAX_ATTACHMENT_SIZE_BYTES);
+                throw new UnprocessableEntityException("Attachment bei Index " + i + " überschreitet die maximale Größe von 10MB.");
+            }
+        }
+    }
+
     private void validateInitialDocumentReference(DocumentReference rechnung, List<SingleValidationMessage> allWarningsAndInfos) {
         ValidationResult docRefValidationResult = customValidator.validateAndReturnResult(rechnung);
         handleValidationResult(docRefValidationResult, allWarningsAndInfos, "DocumentReference (Hauptdokument)");
@@ -251,7 +271,16 @@ public class RechnungProcessingService {
                             LOGGER.error("PDF-Attachment-Daten bei Index {} überschreiten die maximale Größe von {} Bytes.", i, MAX_ATTACHMENT_SIZE_BYTES);
                             throw new UnprocessableEntityException("PDF-Attachment bei Index " + i + " überschreitet die maximale Größe von 10MB.");
                         }
-                        try (PDDocument ignored = PDDocument.load(pdfData)) {
+                        try {
+                            // Nur verwerfen, was PDFBox nicht laden kann; über strukturelle Fehler entscheidet das Laden
+                            PdfStructureValidator.validate(pdfData, MAX_ATTACHMENT_SIZE_BYTES);
+                        } catch (IOException eStructure) {
+                            LOGGER.warn("PDF aus Content-Index {} hat keine gültige Struktur: {}", i, eStructure.getMessage());
+                            throw new UnprocessableEntityException("Anhang bei Index " + i + " ist keine valide PDF: " + eStructure.getMessage());
+                        }
+                        // Eingabe plus Puffer von PDFBox; was darüber hinausgeht, lagert PDFBox ins Scratch-Verzeichnis aus
+                        try (PdfMemoryBudget.Lease lease = pdfMemoryBudget.acquire(2L * pdfData.length);
+                             PDDocument ignored = PDDocument.load(pdfData, "", null, null, lease.getMemoryUsageSetting())) {
                             LOGGER.debug("PDF in content index {} scheint valide zu sein.", i);
                             if (result.pdfDataForSigning == null) {
                                 result.pdfDataForSigning = pdfData; 
@@ -387,6 +416,9 @@ public class RechnungProcessingService {
                         LOGGER.error("Speichern der angereicherten PDF (aus Index {}) als Binary schlug fehl.", pdfContentIndex);
                         throw new InternalErrorException("Konnte angereicherte PDF nicht als Binary speichern (Index " + pdfContentIndex + ").");
                     }
+                } catch (UnclassifiedServerFailureException eBudget) {
+                    // PDF-Speicherbudget erschöpft (503)
+                    throw eBudget;
                 } catch (Exception eEnrichOrSave) {
                     LOGGER.error("Fehler bei PDF-Anreicherung/Speicherung für Index {}.", pdfContentIndex, eEnrichOrSave);
                     throw new InternalErrorException("Fehler bei PDF-Verarbeitung (Index " + pdfContentIndex + "): " + eEnrichOrSave.getMessage(), eEnrichOrSave);
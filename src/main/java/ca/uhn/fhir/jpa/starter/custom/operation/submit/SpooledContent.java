@@ -0,0 +1,104 @@
+package ca.uhn.fhir.jpa.starter.custom.operation.submit;
+
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import jakarta.servlet.http.Part;
+import org.hl7.fhir.r4.model.Attachment;
+import org.hl7.fhir.r4.model.DocumentReference;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Inhalt eines Attachments, der nicht im Heap, sondern in einer temporären Datei liegt. Der Inhalt wird über die
+ * User-Data des Attachments weitergereicht und ist damit nicht über den Request selbst setzbar; die Datei gehört
+ * dem Erzeuger ({@link SubmitRequestSpoolingInterceptor} bzw. dem Servlet-Container für die Teile eines
+ * multipart Requests), der sie nach der Verarbeitung löscht.
+ */
+final class SpooledContent {
+
+	private static final String USER_DATA_KEY = SpooledContent.class.getName();
+
+	@FunctionalInterface
+	private interface StreamSource {
+		InputStream open() throws IOException;
+	}
+
+	private final StreamSource source;
+	private final long size;
+
+	SpooledContent(Path file, long size) {
+		this(() -> Files.newInputStream(file), size);
+	}
+
+	/**
+	 * Inhalt eines Teils eines multipart Requests; der Container hält ihn bis zum Ende des Requests vor.
+	 */
+	SpooledContent(Part part) {
+		this(part::getInputStream, part.getSize());
+	}
+
+	private SpooledContent(StreamSource source, long size) {
+		this.source = source;
+		this.size = size;
+	}
+
+	long getSize() {
+		return size;
+	}
+
+	InputStream openStream() throws IOException {
+		return source.open();
+	}
+
+	byte[] readAllBytes() throws IOException {
+		try (InputStream in = source.open()) {
+			return in.readAllBytes();
+		}
+	}
+
+	/**
+	 * Ersetzt die Daten des Attachments durch diesen Inhalt.
+	 */
+	void attachTo(Attachment attachment) {
+		attachment.setDataElement(null);
+		attachment.setUserData(USER_DATA_KEY, this);
+	}
+
+	/**
+	 * @return Der ausgelagerte Inhalt des Attachments oder null
+	 */
+	static SpooledContent of(Attachment attachment) {
+		return attachment.getUserData(USER_DATA_KEY) instanceof SpooledContent content ? content : null;
+	}
+
+	/**
+	 * Lädt alle ausgelagerten Inhalte der DocumentReference in die Attachments, für Verarbeitungsschritte, die die
+	 * Daten im Heap benötigen (Validierung, Speicherung). Der Verweis auf die Datei bleibt erhalten, sodass
+	 * {@link #release(DocumentReference)} die Daten wieder freigeben kann.
+	 */
+	static void materialize(DocumentReference documentReference) {
+		for (DocumentReference.DocumentReferenceContentComponent content : documentReference.getContent()) {
+			SpooledContent spooled = content.hasAttachment() ? of(content.getAttachment()) : null;
+			if (spooled != null) {
+				try {
+					content.getAttachment().setData(spooled.readAllBytes());
+				} catch (IOException e) {
+					throw new InternalErrorException("Ausgelagerter Attachment-Inhalt konnte nicht gelesen werden: " + e.getMessage(), e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Entfernt die per {@link #materialize(DocumentReference)} geladenen Daten wieder aus den Attachments.
+	 */
+	static void release(DocumentReference documentReference) {
+		for (DocumentReference.DocumentReferenceContentComponent content : documentReference.getContent()) {
+			if (content.hasAttachment() && of(content.getAttachment()) != null) {
+				content.getAttachment().setDataElement(null);
+			}
+		}
+	}
+}
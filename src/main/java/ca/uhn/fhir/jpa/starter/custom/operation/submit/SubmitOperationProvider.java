@@ -1,6 +1,6 @@
 package ca.uhn.fhir.jpa.starter.custom.operation.submit;
 
-
+import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
 import ca.uhn.fhir.jpa.starter.custom.interceptor.auth.AccessToken;
 import ca.uhn.fhir.jpa.starter.custom.operation.AuthorizationService;
@@ -10,37 +10,64 @@ import ca.uhn.fhir.rest.annotation.Operation;
 import ca.uhn.fhir.rest.annotation.OperationParam;
 import ca.uhn.fhir.rest.annotation.IdParam;
 import ca.uhn.fhir.rest.server.IResourceProvider;
+import ca.uhn.fhir.rest.api.Constants;
 import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.rest.server.exceptions.PayloadTooLargeException;
 import ca.uhn.fhir.rest.server.exceptions.UnprocessableEntityException;
+import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
+import ca.uhn.fhir.parser.DataFormatException;
+import ca.uhn.fhir.parser.IParser;
+import jakarta.servlet.MultipartConfigElement;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.Part;
 import org.hl7.fhir.r4.model.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
 import java.util.List;
+import java.util.Locale;
 
 @Component
 public class SubmitOperationProvider implements IResourceProvider {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(SubmitOperationProvider.class);
 
+	// Entspricht der Grenze für Attachments in RechnungProcessingService/AttachmentProcessingService
+	private static final long MAX_PART_SIZE_BYTES = 10 * 1024 * 1024;
+	// Rechnung und bis zu vier Anhänge in voller Größe, zuzüglich der Ressourcen und Textfelder
+	private static final long MAX_REQUEST_SIZE_BYTES = 5 * MAX_PART_SIZE_BYTES + 1024 * 1024;
+	private static final int MAX_PARTS = 20;
+	private static final String CID_PREFIX = "cid:";
+
 	private final AuthorizationService authorizationService;
 	private final RechnungProcessingService rechnungProcessingService;
 	private final DaoRegistry daoRegistry;
 	private final AuditService auditService;
 	private final NotificationService notificationService;
+	private final FhirContext ctx;
 
 	@Autowired
 	public SubmitOperationProvider(AuthorizationService authorizationService,
 									RechnungProcessingService rechnungProcessingService,
 									DaoRegistry daoRegistry,
 									AuditService auditService,
-									NotificationService notificationService) {
+									NotificationService notificationService,
+									FhirContext ctx) {
 		this.authorizationService = authorizationService;
 		this.rechnungProcessingService = rechnungProcessingService;
 		this.daoRegistry = daoRegistry;
 		this.auditService = auditService;
 		this.notificationService = notificationService;
+		this.ctx = ctx;
 	}
 
 	@Override
@@ -64,6 +91,14 @@ public class SubmitOperationProvider implements IResourceProvider {
 			throw new ca.uhn.fhir.rest.server.exceptions.InvalidRequestException("Der Parameter 'rechnung' ist erforderlich.");
 		}
 
+		// Vom SubmitRequestSpoolingInterceptor ausgelagerte Attachment-Daten zuordnen
+		SubmitRequestSpoolingInterceptor.attachSpooledContents(theRequestDetails, rechnung);
+		if (anhaenge != null) {
+			for (DocumentReference anhang : anhaenge) {
+				SubmitRequestSpoolingInterceptor.attachSpooledContents(theRequestDetails, anhang);
+			}
+		}
+
   		// Validiere den Modus-Parameter
 		if (modus != null && !("normal".equals(modus.getValue()) || "test".equals(modus.getValue()))) {
 			throw new UnprocessableEntityException("Validierungsfehler: Ungültiger Modus: " + modus.getValue());
@@ -217,4 +252,171 @@ public class SubmitOperationProvider implements IResourceProvider {
 		return retVal;
 	}
 
+	/**
+	 * Variante von $erechnung-submit als multipart/form-data Request. Die DocumentReferences werden als FHIR-Ressourcen
+	 * ohne Attachment-Daten übermittelt, PDFs und Anhänge als eigene binäre Teile ohne Base64-Kodierung:
+	 * <ul>
+	 *   <li>{@code rechnung}: DocumentReference (application/fhir+json oder application/fhir+xml), genau einmal</li>
+	 *   <li>{@code anhang}: DocumentReference eines Anhangs, beliebig oft</li>
+	 *   <li>{@code modus}, {@code angereichertesPDF}: Werte als Text</li>
+	 *   <li>weitere Teile: Inhalte, auf die ein Attachment per {@code url = "cid:<Name des Teils>"} verweist; mit
+	 *   {@code filename} im Content-Disposition, da der Container Teile ohne Dateinamen als Formularfeld vollständig
+	 *   in den Speicher liest</li>
+	 * </ul>
+	 * Den Body zerlegt der Servlet-Container gemäß {@link #multipartConfig(String, int)}; Teile oberhalb der Schwelle
+	 * liegen in temporären Dateien und werden nach der Verarbeitung gelöscht. Binäre Inhalte werden erst bei ihrer
+	 * Verarbeitung gelesen. Anschließend durchläuft der Request dieselbe Validierung und Anreicherung wie
+	 * $erechnung-submit.
+	 * <p>
+	 * Über die VAU steht die Operation nicht zur Verfügung: ein innerer multipart Request wird mit 415 abgewiesen,
+	 * Clients verwenden dort $erechnung-submit.
+	 */
+	@Operation(name = "$erechnung-submit-multipart", idempotent = false, manualRequest = true)
+	public Parameters submitMultipartOperation(
+			@IdParam IdType patientId,
+			RequestDetails theRequestDetails
+	) {
+		// Berechtigung vor dem Lesen des Bodys prüfen, damit Unberechtigte keine Teile auf die Platte schreiben
+		authorizationService.authorizeSubmitOperation(theRequestDetails);
+
+		String contentType = theRequestDetails.getHeader(Constants.HEADER_CONTENT_TYPE);
+		if (contentType == null || !contentType.toLowerCase(Locale.ROOT).startsWith("multipart/form-data")
+				|| !(theRequestDetails instanceof ServletRequestDetails servletRequestDetails)) {
+			throw new InvalidRequestException("Erwartet wird ein Request mit Content-Type multipart/form-data.");
+		}
+
+		Collection<Part> parts = readParts(servletRequestDetails.getServletRequest());
+		try {
+			Part rechnungPart = getPart(parts, "rechnung");
+			if (rechnungPart == null) {
+				throw new InvalidRequestException("Der Parameter 'rechnung' ist erforderlich.");
+			}
+			DocumentReference rechnung = toDocumentReference(parts, rechnungPart);
+			List<DocumentReference> anhaenge = new ArrayList<>();
+			for (Part anhangPart : parts) {
+				if ("anhang".equals(anhangPart.getName())) {
+					anhaenge.add(toDocumentReference(parts, anhangPart));
+				}
+			}
+			Part modusPart = getPart(parts, "modus");
+			CodeType modus = modusPart != null ? new CodeType(readString(modusPart).trim()) : null;
+			Part pdfPart = getPart(parts, "angereichertesPDF");
+			BooleanType angereichertesPDF = pdfPart != null ? new BooleanType(Boolean.parseBoolean(readString(pdfPart).trim())) : null;
+
+			return submitOperation(patientId, rechnung, anhaenge, modus, angereichertesPDF, theRequestDetails);
+		} catch (IOException e) {
+			LOGGER.error("Fehler beim Lesen des multipart Requests: {}", e.getMessage(), e);
+			throw new InvalidRequestException("Der multipart Request konnte nicht gelesen werden: " + e.getMessage());
+		} finally {
+			for (Part part : parts) {
+				try {
+					part.delete();
+				} catch (IOException e) {
+					LOGGER.warn("Temporäre Datei des Teils '{}' konnte nicht gelöscht werden: {}", part.getName(), e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Konfiguration für die Zerlegung multipart Requests durch den Servlet-Container, siehe
+	 * {@link #submitMultipartOperation(IdType, RequestDetails)}.
+	 *
+	 * Die Gesamtgröße begrenzt, was der Container auslagert, bevor die Anzahl der Teile geprüft werden kann.
+	 *
+	 * @param tempDirectory        Verzeichnis für Teile oberhalb der Schwelle
+	 * @param fileSizeThreshold    Teile bis zu dieser Größe bleiben im Speicher
+	 */
+	public static MultipartConfigElement multipartConfig(String tempDirectory, int fileSizeThreshold) {
+		return new MultipartConfigElement(tempDirectory, MAX_PART_SIZE_BYTES, MAX_REQUEST_SIZE_BYTES, fileSizeThreshold);
+	}
+
+	private static Collection<Part> readParts(HttpServletRequest request) {
+		Collection<Part> parts;
+		try {
+			parts = request.getParts();
+		} catch (IllegalStateException e) {
+			// Der Container meldet überschrittene Größen- und Anzahlgrenzen als IllegalStateException
+			throw new PayloadTooLargeException("Der multipart Request überschreitet die zulässige Größe: " + e.getMessage());
+		} catch (IOException | ServletException e) {
+			LOGGER.error("Fehler beim Lesen des multipart Requests: {}", e.getMessage(), e);
+			throw new InvalidRequestException("Der multipart Request konnte nicht gelesen werden: " + e.getMessage());
+		}
+		if (parts.size() > MAX_PARTS) {
+			throw new InvalidRequestException("Der Request enthält mehr als " + MAX_PARTS + " Teile.");
+		}
+		return parts;
+	}
+
+	/**
+	 * @return Der erste Teil mit dem Namen oder null
+	 */
+	private static Part getPart(Collection<Part> parts, String name) {
+		for (Part part : parts) {
+			if (name.equals(part.getName())) {
+				return part;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return Der Content-Type des Teils ohne Parameter (z.B. charset) oder null
+	 */
+	private static String mediaType(Part part) {
+		String contentType = part.getContentType();
+		if (contentType == null) {
+			return null;
+		}
+		int semicolon = contentType.indexOf(';');
+		return (semicolon < 0 ? contentType : contentType.substring(0, semicolon)).trim();
+	}
+
+	private static String readString(Part part) throws IOException {
+		try (InputStream in = part.getInputStream()) {
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * Parst die DocumentReference aus einem Teil und übernimmt die Inhalte der per {@code cid:} referenzierten Teile
+	 * in die Attachments.
+	 */
+	private DocumentReference toDocumentReference(Collection<Part> parts, Part part) throws IOException {
+		IParser parser = "application/fhir+xml".equalsIgnoreCase(mediaType(part)) ? ctx.newXmlParser() : ctx.newJsonParser();
+		DocumentReference documentReference;
+		try {
+			documentReference = parser.parseResource(DocumentReference.class, readString(part));
+		} catch (DataFormatException e) {
+			throw new UnprocessableEntityException("Teil '" + part.getName() + "' enthält keine gültige DocumentReference: " + e.getMessage());
+		}
+
+		for (DocumentReference.DocumentReferenceContentComponent content : documentReference.getContent()) {
+			Attachment attachment = content.getAttachment();
+			if (attachment == null || !attachment.hasUrl() || !attachment.getUrl().startsWith(CID_PREFIX)) {
+				continue;
+			}
+			String partName = attachment.getUrl().substring(CID_PREFIX.length());
+			Part dataPart = getPart(parts, partName);
+			if (dataPart == null) {
+				throw new InvalidRequestException("Der Teil '" + partName + "' aus " + attachment.getUrl() + " fehlt im Request.");
+			}
+			if (!attachment.hasContentType() && mediaType(dataPart) != null) {
+				attachment.setContentType(mediaType(dataPart));
+			}
+			attachment.setUrl(null);
+			String attachmentContentType = attachment.getContentType();
+			if ("application/fhir+json".equalsIgnoreCase(attachmentContentType) || "application/fhir+xml".equalsIgnoreCase(attachmentContentType)) {
+				// RechnungProcessingService erwartet strukturierte Rechnungen Base64-kodiert in attachment.data
+				try (InputStream in = dataPart.getInputStream()) {
+					attachment.setData(Base64.getEncoder().encode(in.readAllBytes()));
+				}
+			} else {
+				// Binäre Inhalte bleiben bis zur Verarbeitung beim Container
+				new SpooledContent(dataPart).attachTo(attachment);
+			}
+		}
+		return documentReference;
+	}
+
 }
\ No newline at end of file
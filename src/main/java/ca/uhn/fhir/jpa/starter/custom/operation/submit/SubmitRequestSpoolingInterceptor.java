@@ -0,0 +1,290 @@
+package ca.uhn.fhir.jpa.starter.custom.operation.submit;
+
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.api.RequestTypeEnum;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import com.fasterxml.jackson.core.Base64Variant;
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import org.hl7.fhir.r4.model.Attachment;
+import org.hl7.fhir.r4.model.DocumentReference;
+import org.hl7.fhir.r4.model.Extension;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Lagert die Attachment-Daten großer $erechnung-submit Requests vor dem Parsen durch HAPI in temporäre Dateien aus.
+ * Der JSON-Body wird dazu als Token-Strom gelesen; Base64-Werte von {@code attachment.data} über
+ * {@code spool_threshold_bytes} werden direkt beim Lesen dekodiert und in eine Datei geschrieben und im Body durch
+ * eine Extension mit dem Verweis auf die Datei ersetzt. HAPI parst danach nur noch den verkleinerten Body;
+ * {@link #attachSpooledContents(RequestDetails, DocumentReference)} ordnet die Dateien den Attachments als
+ * {@link SpooledContent} zu. Nach Abschluss des Requests wird das Verzeichnis gelöscht.
+ * <p>
+ * XML-Bodies und Requests bis zum Schwellwert werden unverändert weitergereicht.
+ */
+@Component
+@Interceptor(order = 2) // Nach der Authentifizierung, damit Unberechtigte nichts auf die Platte schreiben
+public class SubmitRequestSpoolingInterceptor {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SubmitRequestSpoolingInterceptor.class);
+
+	static final String SPOOLED_CONTENT_EXTENSION_URL = "urn:erg:submit:spooled-content";
+
+	private static final String SUBMIT_OPERATION = "$erechnung-submit";
+	private static final String USER_DATA_KEY = SubmitRequestSpoolingInterceptor.class.getName() + ".spool";
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+	// HAPI dekodiert Base64 tolerant, fehlendes Padding wird daher ebenfalls akzeptiert
+	private static final Base64Variant BASE64 = Base64Variants.MIME_NO_LINEFEEDS
+		.withReadPadding(Base64Variant.PaddingReadBehaviour.PADDING_ALLOWED);
+
+	private final Path tempDirectory;
+	private final long thresholdBytes;
+
+	@Autowired
+	public SubmitRequestSpoolingInterceptor(@Value("${hapi.fhir.submit.temp_dir:${java.io.tmpdir}}") String tempDirectory,
+											@Value("${hapi.fhir.submit.spool_threshold_bytes:1048576}") long thresholdBytes) {
+		this.tempDirectory = Path.of(tempDirectory);
+		this.thresholdBytes = thresholdBytes;
+	}
+
+	@Hook(Pointcut.SERVER_INCOMING_REQUEST_POST_PROCESSED)
+	public void spoolRequest(RequestDetails requestDetails) {
+		if (!isSpoolCandidate(requestDetails)) {
+			return;
+		}
+
+		Spool spool;
+		try {
+			spool = new Spool(Files.createTempDirectory(tempDirectory, "erg-spool-"));
+		} catch (IOException e) {
+			throw new InternalErrorException("Temporäres Verzeichnis für den Request konnte nicht angelegt werden: " + e.getMessage(), e);
+		}
+		try {
+			byte[] rewritten = spool.rewrite(requestDetails.getInputStream(), thresholdBytes);
+			requestDetails.setRequestContents(rewritten);
+			requestDetails.getUserData().put(USER_DATA_KEY, spool);
+			LOGGER.debug("{} Attachment-Inhalte nach {} ausgelagert, verbleibender Body {} Bytes",
+				spool.contents.size(), spool.directory, rewritten.length);
+		} catch (JsonProcessingException e) {
+			spool.close();
+			throw new InvalidRequestException("Der Request-Body konnte nicht gelesen werden: " + e.getOriginalMessage());
+		} catch (IOException e) {
+			spool.close();
+			throw new InternalErrorException("Der Request-Body konnte nicht ausgelagert werden: " + e.getMessage(), e);
+		} catch (RuntimeException e) {
+			spool.close();
+			throw e;
+		}
+	}
+
+	@Hook(Pointcut.SERVER_PROCESSING_COMPLETED)
+	public void deleteSpool(RequestDetails requestDetails) {
+		if (requestDetails.getUserData().remove(USER_DATA_KEY) instanceof Spool spool) {
+			spool.close();
+		}
+	}
+
+	/**
+	 * Ersetzt die Verweise auf ausgelagerte Inhalte in den Attachments der DocumentReference durch den jeweiligen
+	 * {@link SpooledContent}.
+	 *
+	 * @throws InvalidRequestException wenn ein Verweis nicht zu einem Inhalt dieses Requests gehört
+	 */
+	static void attachSpooledContents(RequestDetails requestDetails, DocumentReference documentReference) {
+		if (documentReference == null) {
+			return;
+		}
+		Spool spool = requestDetails != null && requestDetails.getUserData().get(USER_DATA_KEY) instanceof Spool s ? s : null;
+		for (DocumentReference.DocumentReferenceContentComponent content : documentReference.getContent()) {
+			Attachment attachment = content.getAttachment();
+			if (attachment == null || !attachment.hasDataElement()) {
+				continue;
+			}
+			Extension reference = attachment.getDataElement().getExtensionByUrl(SPOOLED_CONTENT_EXTENSION_URL);
+			if (reference == null) {
+				continue;
+			}
+			SpooledContent spooled = spool != null && reference.hasValue() ? spool.get(reference.getValue().primitiveValue()) : null;
+			if (spooled == null) {
+				throw new InvalidRequestException("Attachment verweist auf einen unbekannten ausgelagerten Inhalt.");
+			}
+			spooled.attachTo(attachment);
+		}
+	}
+
+	private boolean isSpoolCandidate(RequestDetails requestDetails) {
+		if (requestDetails.getRequestType() != RequestTypeEnum.POST || !SUBMIT_OPERATION.equals(requestDetails.getOperation())) {
+			return false;
+		}
+		String contentType = requestDetails.getHeader(Constants.HEADER_CONTENT_TYPE);
+		if (contentType == null || !contentType.toLowerCase(Locale.ROOT).contains("json")) {
+			return false;
+		}
+		// Ohne Content-Length (chunked) ist die Größe unbekannt, der Body wird dann immer gestreamt
+		String contentLength = requestDetails.getHeader(Constants.HEADER_CONTENT_LENGTH);
+		if (contentLength != null) {
+			try {
+				return Long.parseLong(contentLength.trim()) > thresholdBytes;
+			} catch (NumberFormatException e) {
+				return true;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Die ausgelagerten Inhalte eines Requests, jeweils unter dem Dateinamen als Verweis.
+	 */
+	static final class Spool implements AutoCloseable {
+		private final Path directory;
+		private final Map<String, SpooledContent> contents = new HashMap<>();
+
+		Spool(Path directory) {
+			this.directory = directory;
+		}
+
+		/**
+		 * Liest den JSON-Body und schreibt ihn mit ausgelagerten Attachment-Daten neu.
+		 */
+		byte[] rewrite(InputStream body, long thresholdBytes) throws IOException {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			try (JsonParser parser = JSON_FACTORY.createParser(body);
+				 JsonGenerator generator = JSON_FACTORY.createGenerator(out)) {
+				JsonToken token;
+				while ((token = parser.nextToken()) != null) {
+					if (token == JsonToken.FIELD_NAME && "data".equals(parser.currentName()) && isAttachment(parser.getParsingContext())) {
+						if (parser.nextToken() == JsonToken.VALUE_STRING) {
+							spoolValue(parser, generator, thresholdBytes);
+						} else {
+							generator.writeFieldName("data");
+							generator.copyCurrentStructure(parser);
+						}
+					} else {
+						generator.copyCurrentEvent(parser);
+					}
+				}
+			}
+			return out.toByteArray();
+		}
+
+		private void spoolValue(JsonParser parser, JsonGenerator generator, long thresholdBytes) throws IOException {
+			ThresholdOutputStream value = new ThresholdOutputStream(thresholdBytes);
+			try (value) {
+				parser.readBinaryValue(BASE64, value);
+			} catch (IllegalArgumentException e) {
+				throw new JsonParseException(parser, "Ungültige Base64-Kodierung in attachment.data: " + e.getMessage(), e);
+			}
+			if (value.file == null) {
+				generator.writeFieldName("data");
+				generator.writeBinary(value.buffer.toByteArray());
+				return;
+			}
+			String id = value.file.getFileName().toString();
+			contents.put(id, new SpooledContent(value.file, value.count));
+			generator.writeFieldName("_data");
+			generator.writeStartObject();
+			generator.writeArrayFieldStart("extension");
+			generator.writeStartObject();
+			generator.writeStringField("url", SPOOLED_CONTENT_EXTENSION_URL);
+			generator.writeStringField("valueString", id);
+			generator.writeEndObject();
+			generator.writeEndArray();
+			generator.writeEndObject();
+		}
+
+		private static boolean isAttachment(JsonStreamContext objectContext) {
+			JsonStreamContext parent = objectContext.getParent();
+			return parent != null && "attachment".equals(parent.getCurrentName());
+		}
+
+		SpooledContent get(String id) {
+			return contents.get(id);
+		}
+
+		@Override
+		public void close() {
+			try (var files = Files.list(directory)) {
+				files.forEach(Spool::deleteQuietly);
+			} catch (IOException e) {
+				LOGGER.warn("Temporäres Verzeichnis {} konnte nicht gelesen werden: {}", directory, e.getMessage());
+			}
+			deleteQuietly(directory);
+		}
+
+		private static void deleteQuietly(Path path) {
+			try {
+				Files.deleteIfExists(path);
+			} catch (IOException e) {
+				LOGGER.warn("Temporäre Datei {} konnte nicht gelöscht werden: {}", path, e.getMessage());
+			}
+		}
+
+		/**
+		 * Puffert einen Wert bis zum Schwellwert im Heap und schreibt ihn darüber in eine Datei im Spool-Verzeichnis.
+		 */
+		private final class ThresholdOutputStream extends OutputStream {
+			private final long thresholdBytes;
+			private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			private OutputStream fileOut;
+			private Path file;
+			private long count;
+
+			ThresholdOutputStream(long thresholdBytes) {
+				this.thresholdBytes = thresholdBytes;
+			}
+
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[]{(byte) b}, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				if (file == null && count + len > thresholdBytes) {
+					file = Files.createTempFile(directory, "data-", ".bin");
+					fileOut = new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024);
+					buffer.writeTo(fileOut);
+					buffer.reset();
+				}
+				if (fileOut != null) {
+					fileOut.write(b, off, len);
+				} else {
+					buffer.write(b, off, len);
+				}
+				count += len;
+			}
+
+			@Override
+			public void close() throws IOException {
+				if (fileOut != null) {
+					fileOut.close();
+				}
+			}
+		}
+	}
+}
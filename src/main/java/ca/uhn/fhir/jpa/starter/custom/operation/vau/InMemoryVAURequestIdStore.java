@@ -0,0 +1,112 @@
+package ca.uhn.fhir.jpa.starter.custom.operation.vau;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hält die Request-IDs im Speicher des Knotens. Anzahl der Einträge und Gesamtgröße der zwischengespeicherten
+ * Antworten sind begrenzt; ist eine Grenze auch nach dem Entfernen abgelaufener Einträge erreicht, werden neue
+ * Requests ohne Replay-Schutz verarbeitet bzw. ihre Antworten nicht vorgehalten.
+ */
+@Component
+@ConditionalOnProperty(prefix = "hapi.fhir.vau.request_ids", name = "store", havingValue = "memory", matchIfMissing = true)
+public class InMemoryVAURequestIdStore implements VAURequestIdStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InMemoryVAURequestIdStore.class);
+
+    private final int maxEntries;
+    private final long maxCachedBytes;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong cachedBytes = new AtomicLong();
+
+    @Autowired
+    public InMemoryVAURequestIdStore(@Value("${hapi.fhir.vau.request_ids.max_entries:10000}") int maxEntries,
+                                     @Value("${hapi.fhir.vau.request_ids.max_cached_bytes:67108864}") long maxCachedBytes) {
+        this.maxEntries = maxEntries;
+        this.maxCachedBytes = maxCachedBytes;
+    }
+
+    @Override
+    public Entry reserve(String requestId, byte[] fingerprint, Instant expiresAt) {
+        Instant now = Instant.now();
+        if (entries.size() >= maxEntries) {
+            evictExpired(now);
+            if (entries.size() >= maxEntries) {
+                LOGGER.warn("Maximale Anzahl vorgehaltener VAU-Request-IDs erreicht, Request {} ohne Replay-Schutz", requestId);
+                return null;
+            }
+        }
+        Entry reserved = new Entry(fingerprint, null, expiresAt);
+        while (true) {
+            Entry existing = entries.putIfAbsent(requestId, reserved);
+            if (existing == null) {
+                return null;
+            }
+            if (!existing.isExpired(now)) {
+                return existing;
+            }
+            // Abgelaufene Einträge dürfen neu vergeben werden
+            if (entries.replace(requestId, existing, reserved)) {
+                cachedBytes.addAndGet(-sizeOf(existing));
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public void complete(String requestId, byte[] encryptedResponse) {
+        Entry reserved = entries.get(requestId);
+        if (reserved == null || reserved.isCompleted()) {
+            return;
+        }
+        if (cachedBytes.get() + encryptedResponse.length > maxCachedBytes) {
+            evictExpired(Instant.now());
+        }
+        if (cachedBytes.addAndGet(encryptedResponse.length) > maxCachedBytes) {
+            cachedBytes.addAndGet(-encryptedResponse.length);
+            LOGGER.debug("Antwort zu VAU-Request {} passt nicht in den Zwischenspeicher", requestId);
+            entries.remove(requestId, reserved);
+            return;
+        }
+        if (!entries.replace(requestId, reserved, new Entry(reserved.fingerprint(), encryptedResponse, reserved.expiresAt()))) {
+            cachedBytes.addAndGet(-encryptedResponse.length);
+        }
+    }
+
+    @Override
+    public void release(String requestId) {
+        Entry removed = entries.remove(requestId);
+        if (removed != null) {
+            cachedBytes.addAndGet(-sizeOf(removed));
+        }
+    }
+
+    private void evictExpired(Instant now) {
+        entries.forEach((requestId, entry) -> {
+            if (entry.isExpired(now) && entries.remove(requestId, entry)) {
+                cachedBytes.addAndGet(-sizeOf(entry));
+            }
+        });
+    }
+
+    private static long sizeOf(Entry entry) {
+        return entry.isCompleted() ? entry.encryptedResponse().length : 0;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    long getCachedBytes() {
+        return cachedBytes.get();
+    }
+}
@@ -0,0 +1,176 @@
+package ca.uhn.fhir.jpa.starter.custom.operation.vau;
+
+import ca.uhn.fhir.jpa.migrate.DriverTypeEnum;
+import ca.uhn.fhir.jpa.migrate.HapiMigrator;
+import ca.uhn.fhir.jpa.migrate.taskdef.AddTableRawSqlTask;
+import ca.uhn.fhir.jpa.model.sched.HapiJob;
+import ca.uhn.fhir.jpa.model.sched.IHasScheduledJobs;
+import ca.uhn.fhir.jpa.model.sched.ISchedulerService;
+import ca.uhn.fhir.jpa.model.sched.ScheduledJobDefinition;
+import jakarta.annotation.PostConstruct;
+import org.quartz.JobExecutionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hält die Request-IDs in der Datenbank des Servers, sodass Replays und Wiederholungen auch erkannt werden, wenn
+ * sie einen anderen Knoten erreichen. Die Reservierung erfolgt über den Primärschlüssel der Tabelle; abgelaufene
+ * Einträge entfernt ein geclusterter Job.
+ * <p>
+ * Die Tabelle wird über den {@link HapiMigrator} angelegt und in {@value #MIGRATION_TABLE} versioniert. Als
+ * Schlüssel dient der SHA-256 der Request-ID, sodass Request-IDs beliebiger Länge gespeichert werden können.
+ */
+@Component
+@ConditionalOnProperty(prefix = "hapi.fhir.vau.request_ids", name = "store", havingValue = "jdbc")
+public class JdbcVAURequestIdStore implements VAURequestIdStore, IHasScheduledJobs {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JdbcVAURequestIdStore.class);
+
+    static final String TABLE = "ERG_VAU_REQUEST_ID";
+    static final String MIGRATION_TABLE = "ERG_VAU_MIGRATION";
+    private static final long CLEANUP_INTERVAL_MINUTES = 5;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final DataSource dataSource;
+
+    @Autowired
+    public JdbcVAURequestIdStore(DataSource dataSource) {
+        this.dataSource = dataSource;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    @PostConstruct
+    void migrateSchema() throws MetaDataAccessException {
+        String productName = JdbcUtils.extractDatabaseMetaData(dataSource, metaData -> metaData.getDatabaseProductName());
+        HapiMigrator migrator = new HapiMigrator(MIGRATION_TABLE, dataSource, driverType(productName));
+        migrator.addTask(createTableTask());
+        migrator.createMigrationTableIfRequired();
+        migrator.migrate();
+    }
+
+    private static AddTableRawSqlTask createTableTask() {
+        AddTableRawSqlTask task = new AddTableRawSqlTask("1.0", "20261019.1");
+        task.setTableName(TABLE);
+        String columns = "REQUEST_ID VARCHAR(64) NOT NULL PRIMARY KEY, FINGERPRINT VARCHAR(64) NOT NULL, ";
+        task.addSql(DriverTypeEnum.H2_EMBEDDED,
+            "CREATE TABLE " + TABLE + " (" + columns + "RESPONSE BLOB, EXPIRES_AT BIGINT NOT NULL)");
+        task.addSql(DriverTypeEnum.POSTGRES_9_4,
+            "CREATE TABLE " + TABLE + " (" + columns + "RESPONSE BYTEA, EXPIRES_AT BIGINT NOT NULL)");
+        task.addSql(DriverTypeEnum.MSSQL_2012,
+            "CREATE TABLE " + TABLE + " (" + columns + "RESPONSE VARBINARY(MAX), EXPIRES_AT BIGINT NOT NULL)");
+        return task;
+    }
+
+    private static DriverTypeEnum driverType(String productName) {
+        return switch (productName) {
+            case "H2" -> DriverTypeEnum.H2_EMBEDDED;
+            case "PostgreSQL" -> DriverTypeEnum.POSTGRES_9_4;
+            case "Microsoft SQL Server" -> DriverTypeEnum.MSSQL_2012;
+            default -> throw new IllegalStateException(
+                "Datenbank " + productName + " wird für hapi.fhir.vau.request_ids.store=jdbc nicht unterstützt");
+        };
+    }
+
+    /**
+     * Die Request-ID stammt vom Client und ist in ihrer Länge nicht begrenzt; gespeichert wird ihr SHA-256.
+     */
+    static String key(String requestId) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(requestId.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 nicht verfügbar", e);
+        }
+    }
+
+    @Override
+    public Entry reserve(String requestId, byte[] fingerprint, Instant expiresAt) {
+        String key = key(requestId);
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try {
+                jdbcTemplate.update("INSERT INTO " + TABLE + " (REQUEST_ID, FINGERPRINT, EXPIRES_AT) VALUES (?, ?, ?)",
+                    key, HexFormat.of().formatHex(fingerprint), expiresAt.toEpochMilli());
+                return null;
+            } catch (DuplicateKeyException e) {
+                Entry existing = find(key);
+                if (existing != null && !existing.isExpired(Instant.now())) {
+                    return existing;
+                }
+                // Abgelaufene Einträge dürfen neu vergeben werden, auch vor dem nächsten Aufräumen
+                jdbcTemplate.update("DELETE FROM " + TABLE + " WHERE REQUEST_ID = ? AND EXPIRES_AT <= ?",
+                    key, Instant.now().toEpochMilli());
+            }
+        }
+        // Parallel neu vergeben: wie ein noch laufender Request behandeln
+        Entry existing = find(key);
+        return existing != null ? existing : new Entry(fingerprint, null, expiresAt);
+    }
+
+    private Entry find(String key) {
+        List<Entry> entries = jdbcTemplate.query(
+            "SELECT FINGERPRINT, RESPONSE, EXPIRES_AT FROM " + TABLE + " WHERE REQUEST_ID = ?",
+            (resultSet, rowNum) -> new Entry(
+                HexFormat.of().parseHex(resultSet.getString("FINGERPRINT")),
+                resultSet.getBytes("RESPONSE"),
+                Instant.ofEpochMilli(resultSet.getLong("EXPIRES_AT"))),
+            key);
+        return entries.isEmpty() ? null : entries.get(0);
+    }
+
+    @Override
+    public void complete(String requestId, byte[] encryptedResponse) {
+        jdbcTemplate.update("UPDATE " + TABLE + " SET RESPONSE = ? WHERE REQUEST_ID = ? AND RESPONSE IS NULL",
+            encryptedResponse, key(requestId));
+    }
+
+    @Override
+    public void release(String requestId) {
+        jdbcTemplate.update("DELETE FROM " + TABLE + " WHERE REQUEST_ID = ?", key(requestId));
+    }
+
+    /**
+     * Entfernt alle Einträge, deren Zeitfenster abgelaufen ist.
+     *
+     * @return Anzahl entfernter Einträge
+     */
+    public int deleteExpired() {
+        return jdbcTemplate.update("DELETE FROM " + TABLE + " WHERE EXPIRES_AT <= ?", Instant.now().toEpochMilli());
+    }
+
+    @Override
+    public void scheduleJobs(ISchedulerService theSchedulerService) {
+        ScheduledJobDefinition jobDefinition = new ScheduledJobDefinition();
+        jobDefinition.setId(getClass().getName());
+        jobDefinition.setJobClass(CleanupJob.class);
+        theSchedulerService.scheduleClusteredJob(TimeUnit.MINUTES.toMillis(CLEANUP_INTERVAL_MINUTES), jobDefinition);
+        LOGGER.info("Bereinigung der VAU-Request-IDs eingeplant (Intervall: {} Minuten).", CLEANUP_INTERVAL_MINUTES);
+    }
+
+    public static class CleanupJob implements HapiJob {
+
+        @Autowired
+        private JdbcVAURequestIdStore requestIdStore;
+
+        @Override
+        public void execute(JobExecutionContext theContext) {
+            int deleted = requestIdStore.deleteExpired();
+            LOGGER.debug("{} abgelaufene VAU-Request-IDs entfernt", deleted);
+        }
+    }
+}
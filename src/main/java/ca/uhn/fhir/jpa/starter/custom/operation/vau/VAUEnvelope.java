@@ -0,0 +1,122 @@
+package ca.uhn.fhir.jpa.starter.custom.operation.vau;
+
+import ca.uhn.fhir.rest.server.exceptions.UnprocessableEntityException;
+import org.springframework.http.HttpStatus;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Entschlüsselte VAU-Anfrage im Format "1 ACCESS_TOKEN REQUEST_ID RESPONSE_KEY HTTP_REQUEST" und die zugehörige
+ * Antwort "1 REQUEST_ID HTTP_RESPONSE". Nur die kurzen Kopffelder werden als Zeichenketten gelesen; der innere
+ * HTTP-Request bleibt eine Sicht auf den entschlüsselten Puffer, und die Antwort wird direkt in den Puffer
+ * geschrieben, der anschließend im Ganzen verschlüsselt wird.
+ */
+final class VAUEnvelope {
+
+    private static final String VERSION = "1";
+    private static final int HEADER_FIELDS = 4;
+
+    private final String accessToken;
+    private final String requestId;
+    private final String responseKey;
+    private final ByteBuffer innerRequest;
+
+    private VAUEnvelope(String accessToken, String requestId, String responseKey, ByteBuffer innerRequest) {
+        this.accessToken = accessToken;
+        this.requestId = requestId;
+        this.responseKey = responseKey;
+        this.innerRequest = innerRequest;
+    }
+
+    /**
+     * @param plaintext Die entschlüsselte Anfrage zwischen Position und Limit; wird nicht verändert
+     */
+    static VAUEnvelope parse(ByteBuffer plaintext) {
+        ByteBuffer buffer = plaintext.duplicate();
+        String[] fields = new String[HEADER_FIELDS];
+        for (int i = 0; i < HEADER_FIELDS; i++) {
+            int start = buffer.position();
+            int end = indexOf(buffer, start, (byte) ' ');
+            if (end < 0) {
+                throw new UnprocessableEntityException("Ungültiges Request-Format");
+            }
+            fields[i] = decode(buffer, start, end);
+            buffer.position(end + 1);
+        }
+        if (!VERSION.equals(fields[0])) {
+            throw new UnprocessableEntityException("Ungültiges Request-Format");
+        }
+        return new VAUEnvelope(fields[1], fields[2], fields[3], buffer.slice());
+    }
+
+    /**
+     * @return Index des ersten Vorkommens von value ab from oder -1
+     */
+    static int indexOf(ByteBuffer buffer, int from, byte value) {
+        for (int i = from; i < buffer.limit(); i++) {
+            if (buffer.get(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static String decode(ByteBuffer buffer, int start, int end) {
+        return StandardCharsets.UTF_8.decode(buffer.duplicate().limit(end).position(start)).toString();
+    }
+
+    String getAccessToken() {
+        return accessToken;
+    }
+
+    String getRequestId() {
+        return requestId;
+    }
+
+    String getResponseKey() {
+        return responseKey;
+    }
+
+    /**
+     * @return Der innere HTTP-Request als Sicht auf den entschlüsselten Puffer
+     */
+    ByteBuffer getInnerRequest() {
+        return innerRequest.duplicate();
+    }
+
+    /**
+     * Schreibt die Antwort mit der inneren HTTP-Response in einen Puffer aus
+     * {@link VAUServerCrypto#allocateResponse(int)}.
+     *
+     * @param status      HTTP-Status der inneren Response
+     * @param contentType Content-Type der inneren Response oder null
+     * @param headers     Weitere Header der inneren Response
+     * @param body        Body der inneren Response zwischen Position und Limit
+     * @return Der Klartext der Antwort, bereit zur Verschlüsselung
+     */
+    ByteBuffer createResponse(int status, String contentType, Map<String, List<String>> headers, ByteBuffer body) {
+        StringBuilder head = new StringBuilder();
+        head.append(VERSION).append(' ').append(requestId).append(' ');
+
+        HttpStatus httpStatus = HttpStatus.resolve(status);
+        head.append("HTTP/1.1 ").append(status)
+            .append(" ").append(httpStatus != null ? httpStatus.getReasonPhrase() : "")
+            .append("\r\n");
+        if (contentType != null) {
+            head.append("Content-Type: ").append(contentType).append("\r\n");
+        }
+        headers.forEach((name, values) ->
+            values.forEach(value -> head.append(name).append(": ").append(value).append("\r\n")));
+        head.append("Content-Length: ").append(body.remaining()).append("\r\n");
+        head.append("\r\n");
+
+        byte[] headBytes = head.toString().getBytes(StandardCharsets.UTF_8);
+        return VAUServerCrypto.allocateResponse(headBytes.length + body.remaining())
+            .put(headBytes)
+            .put(body.duplicate())
+            .flip();
+    }
+}
@@ -0,0 +1,129 @@
+package ca.uhn.fhir.jpa.starter.custom.operation.vau;
+
+import ca.uhn.fhir.rest.server.RestfulServer;
+import ca.uhn.fhir.rest.server.exceptions.UnprocessableEntityException;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.util.LinkedCaseInsensitiveMap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Führt den entschlüsselten inneren HTTP-Request einer VAU-Anfrage direkt im {@link RestfulServer} aus, ohne
+ * Umweg über das Netzwerk. Request und Response werden als Servlet-Objekte im Speicher nachgebildet; die
+ * aufgenommene Antwort wird anschließend für den Client verschlüsselt.
+ */
+@Component
+public class VAUInnerRequestDispatcher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VAUInnerRequestDispatcher.class);
+
+    /** Servlet-Pfad des RestfulServers (siehe Application#hapiServletRegistration) */
+    static final String FHIR_SERVLET_PATH = "/fhir";
+
+    private final RestfulServer restfulServer;
+
+    @Autowired
+    public VAUInnerRequestDispatcher(RestfulServer restfulServer) {
+        this.restfulServer = restfulServer;
+    }
+
+    /**
+     * Führt den inneren Request aus.
+     *
+     * @param outerRequest     Der äußere Request an den VAU-Endpoint
+     * @param outerResponse    Die äußere Response; wird nicht beschrieben
+     * @param innerHttpRequest Der entschlüsselte innere HTTP-Request zwischen Position und Limit
+     * @param accessToken      Der Access Token aus der VAU-Anfrage
+     * @return Die im Speicher aufgenommene innere Response
+     */
+    VAUInnerServletResponse dispatch(HttpServletRequest outerRequest, HttpServletResponse outerResponse,
+                                     ByteBuffer innerHttpRequest, String accessToken) throws ServletException, IOException {
+        return dispatch(parse(outerRequest, innerHttpRequest, accessToken), outerResponse);
+    }
+
+    /**
+     * Führt einen bereits geparsten inneren Request aus.
+     *
+     * @param request       Der innere Request, siehe {@link #parse(HttpServletRequest, ByteBuffer, String)}
+     * @param outerResponse Die äußere Response; wird nicht beschrieben
+     * @return Die im Speicher aufgenommene innere Response
+     */
+    VAUInnerServletResponse dispatch(VAUInnerServletRequest request, HttpServletResponse outerResponse)
+            throws ServletException, IOException {
+        VAUInnerServletResponse response = new VAUInnerServletResponse(outerResponse);
+
+        LOGGER.debug("Führe inneren VAU-Request aus: {} {}", request.getMethod(), request.getRequestURI());
+        restfulServer.service(request, response);
+
+        return response;
+    }
+
+    static VAUInnerServletRequest parse(HttpServletRequest outerRequest, ByteBuffer innerHttpRequest, String accessToken) {
+        // Header und Body sind durch eine Leerzeile getrennt; der Body wird nicht kopiert
+        int start = innerHttpRequest.position();
+        int headerEnd = indexOfHeaderEnd(innerHttpRequest);
+        String head = VAUEnvelope.decode(innerHttpRequest, start, headerEnd >= 0 ? headerEnd : innerHttpRequest.limit());
+        ByteBuffer body = headerEnd >= 0
+            ? innerHttpRequest.duplicate().position(headerEnd + 4).slice()
+            : ByteBuffer.allocate(0);
+
+        String[] lines = head.split("\r\n");
+        String[] requestLineParts = lines[0].split(" ");
+        if (requestLineParts.length != 3) {
+            throw new UnprocessableEntityException("Ungültige Request-Line im inneren HTTP-Request");
+        }
+
+        String method = requestLineParts[0];
+        String target = requestLineParts[1];
+        int queryStart = target.indexOf('?');
+        String path = queryStart >= 0 ? target.substring(0, queryStart) : target;
+        String queryString = queryStart >= 0 ? target.substring(queryStart + 1) : null;
+
+        // Der Pfad ist relativ zum Server; ein konfigurierter Context-Pfad darf fehlen
+        String contextPath = outerRequest.getContextPath();
+        String requestURI = path.startsWith(contextPath + FHIR_SERVLET_PATH) ? path : contextPath + path;
+        String fhirPath = requestURI.substring(contextPath.length());
+        if (!fhirPath.equals(FHIR_SERVLET_PATH) && !fhirPath.startsWith(FHIR_SERVLET_PATH + "/")) {
+            throw new UnprocessableEntityException("Der innere HTTP-Request muss an " + FHIR_SERVLET_PATH + " gerichtet sein");
+        }
+
+        Map<String, List<String>> headers = new LinkedCaseInsensitiveMap<>();
+        for (int i = 1; i < lines.length; i++) {
+            int colonIndex = lines[i].indexOf(':');
+            if (colonIndex > 0) {
+                String headerName = lines[i].substring(0, colonIndex).trim();
+                String headerValue = lines[i].substring(colonIndex + 1).trim();
+                headers.computeIfAbsent(headerName, n -> new ArrayList<>()).add(headerValue);
+            }
+        }
+        // Der Access Token wird außerhalb des inneren Requests übertragen
+        headers.put("Authorization", new ArrayList<>(List.of("Bearer " + accessToken)));
+        headers.remove("Content-Length");
+
+        return new VAUInnerServletRequest(outerRequest, method, requestURI, FHIR_SERVLET_PATH, queryString, headers, body);
+    }
+
+    /**
+     * @return Index des CRLF CRLF nach den Headern oder -1
+     */
+    private static int indexOfHeaderEnd(ByteBuffer buffer) {
+        int index = VAUEnvelope.indexOf(buffer, buffer.position(), (byte) '\r');
+        while (index >= 0 && index + 3 < buffer.limit()) {
+            if (buffer.get(index + 1) == '\n' && buffer.get(index + 2) == '\r' && buffer.get(index + 3) == '\n') {
+                return index;
+            }
+            index = VAUEnvelope.indexOf(buffer, index + 1, (byte) '\r');
+        }
+        return -1;
+    }
+}
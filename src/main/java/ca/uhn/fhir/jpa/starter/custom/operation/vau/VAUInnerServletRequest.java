@@ -0,0 +1,336 @@
+package ca.uhn.fhir.jpa.starter.custom.operation.vau;
+
+import ca.uhn.fhir.rest.server.exceptions.UnclassifiedServerFailureException;
+import ca.uhn.fhir.util.UrlUtil;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.Part;
+import org.springframework.util.LinkedCaseInsensitiveMap;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Servlet-Request für einen entschlüsselten inneren VAU-Request. Methode, Pfad, Header und Body stammen aus dem
+ * inneren Request, Verbindungsdaten (Server, Remote-Adresse, Servlet-Context) aus dem äußeren Request.
+ * Request-Attribute werden getrennt vom äußeren Request gehalten.
+ * <p>
+ * Multipart-Bodies werden nicht zerlegt: {@link #getParts()} und {@link #getPart(String)} weisen den Request mit
+ * 415 ab, statt den äußeren (verschlüsselten) Request zu lesen.
+ */
+class VAUInnerServletRequest extends HttpServletRequestWrapper {
+
+    private final String method;
+    private final String requestURI;
+    private final String servletPath;
+    private final String queryString;
+    private final Map<String, List<String>> headers;
+    private final ByteBuffer body;
+    private final Map<String, String[]> parameters;
+    private final Map<String, Object> attributes = new HashMap<>();
+
+    private ServletInputStream inputStream;
+    private BufferedReader reader;
+
+    /**
+     * @param outerRequest Der äußere Request an den VAU-Endpoint
+     * @param method       HTTP-Methode des inneren Requests
+     * @param requestURI   Pfad des inneren Requests inklusive Context-Pfad
+     * @param servletPath  Servlet-Pfad des RestfulServers
+     * @param queryString  Query des inneren Requests oder null
+     * @param headers      Header des inneren Requests
+     * @param body         Body des inneren Requests zwischen Position und Limit; wird nicht kopiert
+     */
+    VAUInnerServletRequest(HttpServletRequest outerRequest, String method, String requestURI, String servletPath,
+                           String queryString, Map<String, List<String>> headers, ByteBuffer body) {
+        super(outerRequest);
+        this.method = method;
+        this.requestURI = requestURI;
+        this.servletPath = servletPath;
+        this.queryString = queryString;
+        this.headers = new LinkedCaseInsensitiveMap<>();
+        this.headers.putAll(headers);
+        this.body = body;
+        this.parameters = parseParameters();
+    }
+
+    private Map<String, String[]> parseParameters() {
+        Map<String, String[]> result = new LinkedHashMap<>();
+        if (queryString != null && !queryString.isEmpty()) {
+            result.putAll(UrlUtil.parseQueryString(queryString));
+        }
+        // Formular-Parameter wie bei POST [base]/[type]/_search
+        String contentType = getContentType();
+        if ("POST".equals(method) && contentType != null
+                && contentType.toLowerCase().startsWith("application/x-www-form-urlencoded") && body.hasRemaining()) {
+            UrlUtil.parseQueryString(StandardCharsets.UTF_8.decode(body.duplicate()).toString()).forEach((name, values) ->
+                result.merge(name, values, (existing, added) -> {
+                    String[] merged = new String[existing.length + added.length];
+                    System.arraycopy(existing, 0, merged, 0, existing.length);
+                    System.arraycopy(added, 0, merged, existing.length, added.length);
+                    return merged;
+                }));
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    @Override
+    public String getMethod() {
+        return method;
+    }
+
+    @Override
+    public String getRequestURI() {
+        return requestURI;
+    }
+
+    @Override
+    public StringBuffer getRequestURL() {
+        StringBuffer url = new StringBuffer();
+        url.append(getScheme()).append("://").append(getServerName());
+        int port = getServerPort();
+        if (port > 0 && !("http".equals(getScheme()) && port == 80) && !("https".equals(getScheme()) && port == 443)) {
+            url.append(':').append(port);
+        }
+        return url.append(requestURI);
+    }
+
+    @Override
+    public String getServletPath() {
+        return servletPath;
+    }
+
+    @Override
+    public String getPathInfo() {
+        String pathInfo = requestURI.substring(getContextPath().length() + servletPath.length());
+        return pathInfo.isEmpty() ? null : pathInfo;
+    }
+
+    @Override
+    public String getPathTranslated() {
+        return null;
+    }
+
+    @Override
+    public String getQueryString() {
+        return queryString;
+    }
+
+    @Override
+    public String getParameter(String name) {
+        String[] values = parameters.get(name);
+        return values != null && values.length > 0 ? values[0] : null;
+    }
+
+    @Override
+    public String[] getParameterValues(String name) {
+        return parameters.get(name);
+    }
+
+    @Override
+    public Enumeration<String> getParameterNames() {
+        return Collections.enumeration(parameters.keySet());
+    }
+
+    @Override
+    public Map<String, String[]> getParameterMap() {
+        return parameters;
+    }
+
+    @Override
+    public String getHeader(String name) {
+        List<String> values = headers.get(name);
+        return values != null && !values.isEmpty() ? values.get(0) : null;
+    }
+
+    @Override
+    public Enumeration<String> getHeaders(String name) {
+        List<String> values = headers.get(name);
+        return Collections.enumeration(values != null ? values : List.of());
+    }
+
+    @Override
+    public Enumeration<String> getHeaderNames() {
+        return Collections.enumeration(headers.keySet());
+    }
+
+    @Override
+    public int getIntHeader(String name) {
+        String value = getHeader(name);
+        return value != null ? Integer.parseInt(value) : -1;
+    }
+
+    @Override
+    public long getDateHeader(String name) {
+        String value = getHeader(name);
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Ungültiger Datums-Header " + name + ": " + value);
+        }
+    }
+
+    @Override
+    public String getContentType() {
+        return getHeader("Content-Type");
+    }
+
+    @Override
+    public int getContentLength() {
+        return body.remaining();
+    }
+
+    @Override
+    public long getContentLengthLong() {
+        return body.remaining();
+    }
+
+    @Override
+    public String getCharacterEncoding() {
+        String contentType = getContentType();
+        if (contentType == null) {
+            return null;
+        }
+        for (String param : contentType.split(";")) {
+            String trimmed = param.trim();
+            if (trimmed.toLowerCase().startsWith("charset=")) {
+                return trimmed.substring("charset=".length()).replace("\"", "");
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void setCharacterEncoding(String encoding) {
+        // Die Kodierung ergibt sich aus dem Content-Type des inneren Requests
+    }
+
+    @Override
+    public ServletInputStream getInputStream() {
+        if (reader != null) {
+            throw new IllegalStateException("getReader() wurde bereits aufgerufen");
+        }
+        if (inputStream == null) {
+            inputStream = new BodyInputStream(body);
+        }
+        return inputStream;
+    }
+
+    @Override
+    public BufferedReader getReader() {
+        if (inputStream != null) {
+            throw new IllegalStateException("getInputStream() wurde bereits aufgerufen");
+        }
+        if (reader == null) {
+            String encoding = getCharacterEncoding();
+            Charset charset = encoding != null ? Charset.forName(encoding) : StandardCharsets.UTF_8;
+            reader = new BufferedReader(new InputStreamReader(new BodyInputStream(body), charset));
+        }
+        return reader;
+    }
+
+    @Override
+    public Collection<Part> getParts() {
+        throw multipartNotSupported();
+    }
+
+    @Override
+    public Part getPart(String name) {
+        throw multipartNotSupported();
+    }
+
+    private static UnclassifiedServerFailureException multipartNotSupported() {
+        return new UnclassifiedServerFailureException(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE,
+            "Multipart Requests werden über die VAU nicht unterstützt; bitte $erechnung-submit verwenden.");
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        return attributes.get(name);
+    }
+
+    @Override
+    public Enumeration<String> getAttributeNames() {
+        return Collections.enumeration(attributes.keySet());
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+        if (value == null) {
+            attributes.remove(name);
+        } else {
+            attributes.put(name, value);
+        }
+    }
+
+    @Override
+    public void removeAttribute(String name) {
+        attributes.remove(name);
+    }
+
+    private static class BodyInputStream extends ServletInputStream {
+
+        private final ByteBuffer buffer;
+
+        BodyInputStream(ByteBuffer body) {
+            this.buffer = body.duplicate();
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] target, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(target, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public boolean isFinished() {
+            return !buffer.hasRemaining();
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener) {
+            throw new UnsupportedOperationException("Asynchrones Lesen wird nicht unterstützt");
+        }
+    }
+}
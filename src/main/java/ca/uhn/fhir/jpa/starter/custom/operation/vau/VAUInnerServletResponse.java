@@ -0,0 +1,347 @@
+package ca.uhn.fhir.jpa.starter.custom.operation.vau;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.springframework.util.LinkedCaseInsensitiveMap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Servlet-Response, die Status, Header und Body der inneren Antwort im Speicher aufnimmt, damit sie anschließend
+ * für den Client verschlüsselt werden kann. Nichts davon wird an die äußere Response weitergereicht.
+ */
+class VAUInnerServletResponse extends HttpServletResponseWrapper {
+
+    private final BodyBuffer body = new BodyBuffer();
+    private final Map<String, List<String>> headers = new LinkedCaseInsensitiveMap<>();
+
+    private int status = SC_OK;
+    private String contentType;
+    private String characterEncoding;
+    private Locale locale = Locale.getDefault();
+    private boolean committed;
+
+    private ServletOutputStream outputStream;
+    private PrintWriter writer;
+
+    VAUInnerServletResponse(HttpServletResponse outerResponse) {
+        super(outerResponse);
+    }
+
+    /**
+     * @return Der bisher geschriebene Body als Sicht auf den internen Puffer
+     */
+    ByteBuffer getBody() {
+        if (writer != null) {
+            writer.flush();
+        }
+        return body.asByteBuffer();
+    }
+
+    /**
+     * @return Alle gesetzten Header außer Content-Type und Content-Length
+     */
+    Map<String, List<String>> getHeaderMap() {
+        return headers;
+    }
+
+    @Override
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    @Override
+    public int getStatus() {
+        return status;
+    }
+
+    @Override
+    public void sendError(int status) {
+        sendError(status, null);
+    }
+
+    @Override
+    public void sendError(int status, String message) {
+        resetBuffer();
+        this.status = status;
+        if (message != null) {
+            setContentType("text/plain");
+            setCharacterEncoding(StandardCharsets.UTF_8.name());
+            body.writeBytes(message.getBytes(StandardCharsets.UTF_8));
+        }
+        committed = true;
+    }
+
+    @Override
+    public void sendRedirect(String location) {
+        resetBuffer();
+        status = SC_FOUND;
+        setHeader("Location", location);
+        committed = true;
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        if (!handleSpecialHeader(name, value)) {
+            List<String> values = new ArrayList<>();
+            values.add(value);
+            headers.put(name, values);
+        }
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        if (!handleSpecialHeader(name, value)) {
+            headers.computeIfAbsent(name, n -> new ArrayList<>()).add(value);
+        }
+    }
+
+    private boolean handleSpecialHeader(String name, String value) {
+        if ("Content-Type".equalsIgnoreCase(name)) {
+            setContentType(value);
+            return true;
+        }
+        // Die Länge ergibt sich aus dem aufgenommenen Body
+        return "Content-Length".equalsIgnoreCase(name);
+    }
+
+    @Override
+    public void setIntHeader(String name, int value) {
+        setHeader(name, String.valueOf(value));
+    }
+
+    @Override
+    public void addIntHeader(String name, int value) {
+        addHeader(name, String.valueOf(value));
+    }
+
+    @Override
+    public void setDateHeader(String name, long date) {
+        setHeader(name, formatDate(date));
+    }
+
+    @Override
+    public void addDateHeader(String name, long date) {
+        addHeader(name, formatDate(date));
+    }
+
+    private static String formatDate(long date) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(date).atZone(ZoneOffset.UTC));
+    }
+
+    @Override
+    public boolean containsHeader(String name) {
+        return headers.containsKey(name)
+            || "Content-Type".equalsIgnoreCase(name) && contentType != null;
+    }
+
+    @Override
+    public String getHeader(String name) {
+        if ("Content-Type".equalsIgnoreCase(name)) {
+            return getContentType();
+        }
+        List<String> values = headers.get(name);
+        return values != null && !values.isEmpty() ? values.get(0) : null;
+    }
+
+    @Override
+    public Collection<String> getHeaders(String name) {
+        if ("Content-Type".equalsIgnoreCase(name)) {
+            return contentType != null ? List.of(getContentType()) : List.of();
+        }
+        List<String> values = headers.get(name);
+        return values != null ? List.copyOf(values) : List.of();
+    }
+
+    @Override
+    public Collection<String> getHeaderNames() {
+        List<String> names = new ArrayList<>(headers.keySet());
+        if (contentType != null) {
+            names.add(0, "Content-Type");
+        }
+        return names;
+    }
+
+    @Override
+    public void addCookie(Cookie cookie) {
+        // Cookies sind im inneren VAU-Request nicht vorgesehen
+    }
+
+    @Override
+    public void setContentType(String type) {
+        if (type == null) {
+            contentType = null;
+            return;
+        }
+        String[] parts = type.split(";");
+        contentType = parts[0].trim();
+        for (int i = 1; i < parts.length; i++) {
+            String param = parts[i].trim();
+            if (param.toLowerCase().startsWith("charset=")) {
+                characterEncoding = param.substring("charset=".length()).replace("\"", "");
+            }
+        }
+    }
+
+    @Override
+    public String getContentType() {
+        if (contentType == null) {
+            return null;
+        }
+        return characterEncoding != null ? contentType + ";charset=" + characterEncoding.toLowerCase() : contentType;
+    }
+
+    @Override
+    public void setCharacterEncoding(String encoding) {
+        if (writer == null) {
+            characterEncoding = encoding;
+        }
+    }
+
+    @Override
+    public String getCharacterEncoding() {
+        return characterEncoding != null ? characterEncoding : StandardCharsets.ISO_8859_1.name();
+    }
+
+    @Override
+    public void setContentLength(int length) {
+        // Die Länge ergibt sich aus dem aufgenommenen Body
+    }
+
+    @Override
+    public void setContentLengthLong(long length) {
+        // Die Länge ergibt sich aus dem aufgenommenen Body
+    }
+
+    @Override
+    public void setLocale(Locale locale) {
+        this.locale = locale;
+    }
+
+    @Override
+    public Locale getLocale() {
+        return locale;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() {
+        if (writer != null) {
+            throw new IllegalStateException("getWriter() wurde bereits aufgerufen");
+        }
+        if (outputStream == null) {
+            outputStream = new BodyOutputStream();
+        }
+        return outputStream;
+    }
+
+    @Override
+    public PrintWriter getWriter() {
+        if (outputStream != null) {
+            throw new IllegalStateException("getOutputStream() wurde bereits aufgerufen");
+        }
+        if (writer == null) {
+            writer = new PrintWriter(new OutputStreamWriter(body, Charset.forName(getCharacterEncoding())));
+        }
+        return writer;
+    }
+
+    @Override
+    public void flushBuffer() {
+        if (writer != null) {
+            writer.flush();
+        }
+        committed = true;
+    }
+
+    @Override
+    public boolean isCommitted() {
+        return committed;
+    }
+
+    @Override
+    public void reset() {
+        if (committed) {
+            throw new IllegalStateException("Die Response wurde bereits übertragen");
+        }
+        resetBuffer();
+        headers.clear();
+        status = SC_OK;
+        contentType = null;
+        characterEncoding = null;
+    }
+
+    @Override
+    public void resetBuffer() {
+        if (writer != null) {
+            writer.flush();
+        }
+        body.reset();
+    }
+
+    @Override
+    public void setBufferSize(int size) {
+        // Der Body wird vollständig im Speicher gehalten
+    }
+
+    @Override
+    public int getBufferSize() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public String encodeURL(String url) {
+        return url;
+    }
+
+    @Override
+    public String encodeRedirectURL(String url) {
+        return url;
+    }
+
+    /** Gibt den Inhalt ohne die Kopie von {@link ByteArrayOutputStream#toByteArray()} heraus */
+    private static class BodyBuffer extends ByteArrayOutputStream {
+
+        ByteBuffer asByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count).asReadOnlyBuffer();
+        }
+    }
+
+    private class BodyOutputStream extends ServletOutputStream {
+
+        @Override
+        public void write(int b) {
+            body.write(b);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) {
+            body.write(buffer, offset, length);
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            throw new UnsupportedOperationException("Asynchrones Schreiben wird nicht unterstützt");
+        }
+    }
+}
@@ -25,23 +25,39 @@ import java.math.BigInteger;
 
 public class VAUKeyUtils {
 
-    static {
-        Security.addProvider(new BouncyCastleProvider());
+    /** Einmalig aufgelöster BouncyCastle-Provider; eine neue Instanz registriert jedes Mal alle Algorithmen. */
+    static final Provider PROVIDER = resolveProvider();
+
+    /** KeyFactory-Instanzen sind nicht threadsicher, werden aber pro Thread wiederverwendet. */
+    private static final ThreadLocal<KeyFactory> EC_KEY_FACTORY = ThreadLocal.withInitial(() -> {
+        try {
+            return KeyFactory.getInstance("EC", PROVIDER);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("EC KeyFactory (BC) nicht verfügbar", e);
+        }
+    });
+
+    private static Provider resolveProvider() {
+        Provider registered = Security.getProvider(BouncyCastleProvider.PROVIDER_NAME);
+        if (registered == null) {
+            registered = new BouncyCastleProvider();
+            Security.addProvider(registered);
+        }
+        return registered;
     }
 
     public static ECPublicKey createECPublicKey(ECNamedCurveParameterSpec params, BigInteger x, BigInteger y) 
             throws NoSuchAlgorithmException, InvalidKeySpecException {
         ECPoint point = params.getCurve().createPoint(x, y);
         ECPublicKeySpec pubKeySpec = new ECPublicKeySpec(point, params);
-        KeyFactory keyFactory = KeyFactory.getInstance("EC", new BouncyCastleProvider());
-        return (ECPublicKey) keyFactory.generatePublic(pubKeySpec);
+        return (ECPublicKey) EC_KEY_FACTORY.get().generatePublic(pubKeySpec);
     }
 
     public static PrivateKey loadPrivateKey(Path keyPath) throws IOException {
         try (PEMParser pemParser = new PEMParser(new FileReader(keyPath.toFile()))) {
             Object obj = pemParser.readObject();
             JcaPEMKeyConverter converter = new JcaPEMKeyConverter()
-                .setProvider(new BouncyCastleProvider());
+                .setProvider(PROVIDER);
 
             if (obj instanceof PEMKeyPair) {
                 return converter.getPrivateKey(((PEMKeyPair) obj).getPrivateKeyInfo());
@@ -61,7 +77,7 @@ public class VAUKeyUtils {
         try (PEMParser pemParser = new PEMParser(new InputStreamReader(keyStream))) {
             Object obj = pemParser.readObject();
             JcaPEMKeyConverter converter = new JcaPEMKeyConverter()
-                .setProvider(new BouncyCastleProvider());
+                .setProvider(PROVIDER);
 
             if (obj instanceof PEMKeyPair) {
                 return converter.getPrivateKey(((PEMKeyPair) obj).getPrivateKeyInfo());
@@ -86,7 +102,7 @@ public class VAUKeyUtils {
             }
             
             JcaPEMKeyConverter converter = new JcaPEMKeyConverter()
-                .setProvider(new BouncyCastleProvider());
+                .setProvider(PROVIDER);
             
             return converter.getPublicKey((SubjectPublicKeyInfo) obj);
         } catch (Exception e) {
@@ -109,7 +125,7 @@ public class VAUKeyUtils {
             }
             
             JcaPEMKeyConverter converter = new JcaPEMKeyConverter()
-                .setProvider(new BouncyCastleProvider());
+                .setProvider(PROVIDER);
             
             return converter.getPublicKey((SubjectPublicKeyInfo) obj);
         } catch (Exception e) {
@@ -4,19 +4,30 @@ package ca.uhn.fhir.jpa.starter.custom.operation.vau;
 import ca.uhn.fhir.rest.server.exceptions.UnprocessableEntityException;
 import ca.uhn.fhir.rest.server.exceptions.NotImplementedOperationException;
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jpa.starter.custom.interceptor.auth.AccessToken;
+import ca.uhn.fhir.jpa.starter.custom.interceptor.auth.AuthenticationInterceptor;
+import ca.uhn.fhir.jpa.starter.custom.interceptor.auth.OcspResponseCache;
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.hl7.fhir.r4.model.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.context.ApplicationContext;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.web.client.RestTemplate;
 
 import javax.crypto.spec.SecretKeySpec;
 import java.io.IOException;
-import java.util.UUID;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.cert.X509Certificate;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 @Controller
 public class VAUOperationProvider {
@@ -27,7 +38,24 @@ public class VAUOperationProvider {
     private VAUServerCrypto vauServerCrypto;
 
     @Autowired
-    private ApplicationContext applicationContext;
+    private VAUInnerRequestDispatcher innerRequestDispatcher;
+
+    @Autowired
+    private VAUSessionCache vauSessionCache;
+
+    @Autowired
+    private VAURequestIdStore requestIdStore;
+
+    @Autowired
+    private OcspResponseCache ocspResponseCache;
+
+    /** Zeitfenster, in dem eine Request-ID gesperrt bleibt und Wiederholungen die gespeicherte Antwort erhalten */
+    @Value("${hapi.fhir.vau.request_ids.window_seconds:300}")
+    private long requestIdWindowSeconds;
+
+    /** Größere Antworten werden nicht vorgehalten; eine Wiederholung wird dann erneut ausgeführt */
+    @Value("${hapi.fhir.vau.request_ids.max_response_bytes:1048576}")
+    private int maxCachedResponseBytes;
 
     private final FhirContext ctx;
 
@@ -36,6 +64,14 @@ public class VAUOperationProvider {
         this.ctx = ctx;
     }
 
+    @PostConstruct
+    void registerVAUCertificateForOcsp() {
+        X509Certificate certificate = vauServerCrypto.getCertificate();
+        if (certificate == null || !ocspResponseCache.track(certificate)) {
+            LOGGER.warn("Für das VAU-Zertifikat kann keine OCSP-Response bereitgestellt werden");
+        }
+    }
+
     /**
      * Endpoint zum Abrufen des VAU-Zertifikats
      */
@@ -59,15 +95,22 @@ public class VAUOperationProvider {
     }
 
     /**
-     * Endpoint zum Abrufen der OCSP-Response für das VAU-Zertifikat
+     * Endpoint zum Abrufen der OCSP-Response für das VAU-Zertifikat.
+     * Die Response wird aus dem Speicher geliefert und im Hintergrund vor Ablauf von nextUpdate erneuert.
      */
     @GetMapping("/VAUCertificateOCSPResponse")
     public ResponseEntity<byte[]> getVAUCertificateOCSPResponse() throws IOException {
-        // TODO: Implementiere das Laden der OCSP-Response
-        byte[] ocspData = new byte[0]; // Placeholder
+        X509Certificate certificate = vauServerCrypto.getCertificate();
+        byte[] ocspData = certificate != null ? ocspResponseCache.getStapledResponse(certificate) : null;
+        if (ocspData == null) {
+            LOGGER.warn("Keine gültige OCSP-Response für das VAU-Zertifikat verfügbar");
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+
         return ResponseEntity
             .ok()
             .contentType(MediaType.parseMediaType("application/ocsp-response"))
+            .cacheControl(CacheControl.maxAge(ocspResponseCache.getRemainingValiditySeconds(certificate), TimeUnit.SECONDS))
             .body(ocspData);
     }
 
@@ -79,49 +122,67 @@ public class VAUOperationProvider {
     public ResponseEntity<byte[]> handleVAURequest(
             @PathVariable("userpseudonym") String userpseudonym,
             @RequestHeader HttpHeaders headers,
-            @RequestBody byte[] encryptedData) throws IOException {
+            @RequestBody byte[] encryptedData,
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
         
         try {
             // Validiere erforderliche Header
             validateHeaders(headers);
 
-            // Entschlüssele die Anfrage
-            String decryptedRequest = vauServerCrypto.decryptRequest(encryptedData);
+            // Sitzung zum Pseudonym; beim ersten Request oder nach Ablauf eine neue
+            VAUSessionCache.Session session = vauSessionCache.take(userpseudonym);
+
+            // Entschlüssele die Anfrage im empfangenen Puffer
+            ByteBuffer decryptedRequest = vauServerCrypto.decryptRequest(ByteBuffer.wrap(encryptedData), session);
             
-            // Parse den entschlüsselten HTTP-Request
+            // Fingerprint über den gesamten Klartext: Token, Request-ID, Response-Key und innerer Request
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(decryptedRequest.duplicate());
+            byte[] fingerprint = digest.digest();
+
+            // Parse den entschlüsselten Request
             // Format: "1 ACCESS_TOKEN REQUEST_ID RESPONSE_KEY HTTP_REQUEST"
-            String[] parts = decryptedRequest.split(" ", 5);
-            if (parts.length != 5 || !parts[0].equals("1")) {
-                throw new UnprocessableEntityException("Ungültiges Request-Format");
+            VAUEnvelope envelope = VAUEnvelope.parse(decryptedRequest);
+
+            // Request-ID reservieren; bereits bekannte IDs sind Wiederholungen oder Replays
+            String requestId = envelope.getRequestId();
+            VAURequestIdStore.Entry previous = requestIdStore.reserve(
+                requestId, fingerprint, Instant.now().plusSeconds(requestIdWindowSeconds));
+            if (previous != null) {
+                if (previous.isCompleted() && MessageDigest.isEqual(previous.fingerprint(), fingerprint)) {
+                    LOGGER.info("Wiederholung des VAU-Requests {}, gespeicherte Antwort wird ausgeliefert", requestId);
+                    return vauResponse(previous.encryptedResponse(), vauSessionCache.store(session));
+                }
+                LOGGER.warn("VAU-Request-ID {} wurde bereits verwendet, Request wird abgewiesen", requestId);
+                return ResponseEntity.status(HttpStatus.CONFLICT).build();
             }
 
-            String accessToken = parts[1];
-            String requestId = parts[2];
-            String responseKeyBase64 = parts[3];
-            String innerHttpRequest = parts[4];
+            byte[] encryptedResponse;
+            try {
+                // Verarbeite den inneren HTTP-Request und erhalte die Antwort "1 REQUEST_ID HTTP_RESPONSE"
+                InnerResponse innerResponse = processInnerRequest(request, response, envelope, session);
 
-            // Verarbeite den inneren HTTP-Request und erhalte die Antwort
-            String innerResponse = processInnerRequest(innerHttpRequest, accessToken);
+                // Base64-dekodiere den Response-Key
+                byte[] responseKeyBytes = java.util.Base64.getDecoder().decode(envelope.getResponseKey());
+                SecretKeySpec responseKeySpec = new SecretKeySpec(responseKeyBytes, "AES");
 
-            // Erstelle die innere HTTP-Response
-            String vauResponse = String.format("1 %s %s", requestId, innerResponse);
+                // Verschlüssele die Antwort mit dem Response-Key
+                encryptedResponse = vauServerCrypto.encryptResponse(innerResponse.vauResponse(), responseKeySpec);
 
-            // Base64-dekodiere den Response-Key
-            byte[] responseKeyBytes = java.util.Base64.getDecoder().decode(responseKeyBase64);
-            SecretKeySpec responseKeySpec = new SecretKeySpec(responseKeyBytes, "AES");
-            
-            // Verschlüssele die Antwort mit dem Response-Key
-            byte[] encryptedResponse = vauServerCrypto.encryptResponse(vauResponse, responseKeySpec);
-
-            // Generiere ein neues Userpseudonym für Folge-Requests
-            String newUserPseudonym = generateUserPseudonym();
+                // Nur endgültige Antworten vorhalten; nach Serverfehlern darf der Client es erneut versuchen
+                if (innerResponse.repeatable() || encryptedResponse.length > maxCachedResponseBytes) {
+                    requestIdStore.release(requestId);
+                } else {
+                    requestIdStore.complete(requestId, encryptedResponse);
+                }
+            } catch (Exception e) {
+                requestIdStore.release(requestId);
+                throw e;
+            }
 
-            // Erstelle die Response mit Headers
-            return ResponseEntity
-                .ok()
-                .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                .header("Userpseudonym", newUserPseudonym)
-                .body(encryptedResponse);
+            // Generiere ein neues Userpseudonym für Folge-Requests und lege die Sitzung darunter ab
+            return vauResponse(encryptedResponse, vauSessionCache.store(session));
 
         } catch (Exception e) {
             LOGGER.error("Fehler bei der VAU-Verarbeitung: {}", e.getMessage());
@@ -129,6 +190,15 @@ public class VAUOperationProvider {
         }
     }
 
+    private static ResponseEntity<byte[]> vauResponse(byte[] encryptedResponse, String newUserPseudonym) {
+        // Erstelle die Response mit Headers
+        return ResponseEntity
+            .ok()
+            .contentType(MediaType.APPLICATION_OCTET_STREAM)
+            .header("Userpseudonym", newUserPseudonym)
+            .body(encryptedResponse);
+    }
+
     private void validateHeaders(HttpHeaders headers) {
         String userType = headers.getFirst("X-erp-user");
         String resource = headers.getFirst("X-erp-resource");
@@ -142,89 +212,33 @@ public class VAUOperationProvider {
         }
     }
 
-    private String processInnerRequest(String innerHttpRequest, String accessToken) {
-        try {
-            // Parse den inneren HTTP-Request
-            String[] requestLines = innerHttpRequest.split("\r\n");
-            if (requestLines.length < 1) {
-                throw new UnprocessableEntityException("Ungültiger innerer HTTP-Request");
-            }
+    /**
+     * @param vauResponse Die Antwort "1 REQUEST_ID HTTP_RESPONSE" im Klartext
+     * @param repeatable  true, wenn die Verarbeitung fehlgeschlagen ist und eine Wiederholung erneut ausgeführt werden soll
+     */
+    private record InnerResponse(ByteBuffer vauResponse, boolean repeatable) {
+    }
 
-            // Parse die Request-Line
-            String[] requestLineParts = requestLines[0].split(" ");
-            if (requestLineParts.length != 3) {
-                throw new UnprocessableEntityException("Ungültige Request-Line im inneren HTTP-Request");
-            }
+    private InnerResponse processInnerRequest(HttpServletRequest request, HttpServletResponse response, VAUEnvelope envelope,
+                                              VAUSessionCache.Session session) {
+        try {
+            VAUInnerServletRequest innerRequest = VAUInnerRequestDispatcher.parse(
+                request, envelope.getInnerRequest(), envelope.getAccessToken());
 
-            String method = requestLineParts[0];
-            String path = requestLineParts[1];
-            
-            // Extrahiere den Body und Headers
-            StringBuilder bodyBuilder = new StringBuilder();
-            HttpHeaders headers = new HttpHeaders();
-            boolean foundEmptyLine = false;
-            
-            for (int i = 1; i < requestLines.length; i++) {
-                String line = requestLines[i];
-                if (line.trim().isEmpty()) {
-                    foundEmptyLine = true;
-                    continue;
-                }
-                if (foundEmptyLine) {
-                    bodyBuilder.append(line).append("\r\n");
-                } else {
-                    // Parse Header
-                    int colonIndex = line.indexOf(':');
-                    if (colonIndex > 0) {
-                        String headerName = line.substring(0, colonIndex).trim();
-                        String headerValue = line.substring(colonIndex + 1).trim();
-                        headers.add(headerName, headerValue);
-                    }
-                }
+            // Bereits geprüfte Identität der Sitzung weitergeben, sofern der Client denselben Token verwendet
+            AccessToken verifiedAccessToken = session.getAccessToken(envelope.getAccessToken());
+            if (verifiedAccessToken != null) {
+                innerRequest.setAttribute(AuthenticationInterceptor.VERIFIED_ACCESS_TOKEN_ATTRIBUTE, verifiedAccessToken);
             }
 
-            String body = bodyBuilder.toString().trim();
+            VAUInnerServletResponse innerResponse = innerRequestDispatcher.dispatch(innerRequest, response);
 
-            // Füge Authorization Header hinzu
-            headers.setBearerAuth(accessToken);
-            
-            // Setze Content-Length Header neu
-            headers.setContentLength(body.getBytes().length);
-
-            // Erstelle den Request
-            String baseUrl = getBaseUrl();
-            RestTemplate restTemplate = new RestTemplate();
-            
-            ResponseEntity<String> response = restTemplate.exchange(
-                baseUrl + path,
-                HttpMethod.valueOf(method),
-                new HttpEntity<>(body, headers),
-                String.class
-            );
-
-            // Erstelle die HTTP-Response
-            StringBuilder responseBuilder = new StringBuilder();
-            int statusCode = response.getStatusCode().value();
-            String reasonPhrase = HttpStatus.valueOf(statusCode).getReasonPhrase();
-            responseBuilder.append("HTTP/1.1 ").append(statusCode)
-                         .append(" ").append(reasonPhrase)
-                         .append("\r\n");
-            
-            // Füge Response-Headers hinzu
-            response.getHeaders().forEach((name, values) -> {
-                values.forEach(value -> {
-                    responseBuilder.append(name).append(": ").append(value).append("\r\n");
-                });
-            });
-            
-            // Füge Body hinzu
-            responseBuilder.append("\r\n");
-            if (response.getBody() != null) {
-                responseBuilder.append(response.getBody());
+            // Vom AuthenticationInterceptor geprüfte Identität für Folge-Requests merken
+            if (innerRequest.getAttribute(AuthenticationInterceptor.VERIFIED_ACCESS_TOKEN_ATTRIBUTE) instanceof AccessToken accessToken) {
+                session.setAccessToken(envelope.getAccessToken(), accessToken);
             }
-
-            return responseBuilder.toString();
-
+            return new InnerResponse(envelope.createResponse(innerResponse.getStatus(), innerResponse.getContentType(),
+                innerResponse.getHeaderMap(), innerResponse.getBody()), innerResponse.getStatus() >= 500);
         } catch (Exception e) {
             LOGGER.error("Fehler bei der Verarbeitung des inneren Requests: {}", e.getMessage());
             
@@ -237,30 +251,8 @@ public class VAUOperationProvider {
 
             String errorBody = ctx.newJsonParser().setPrettyPrint(true).encodeResourceToString(outcome);
 
-            return "HTTP/1.1 422 Unprocessable Entity\r\n" +
-                   "Content-Type: application/fhir+json;charset=utf-8\r\n" +
-                   "Content-Length: " + errorBody.length() + "\r\n" +
-                   "\r\n" +
-                   errorBody;
+            return new InnerResponse(envelope.createResponse(HttpStatus.UNPROCESSABLE_ENTITY.value(), "application/fhir+json;charset=utf-8",
+                Map.of(), ByteBuffer.wrap(errorBody.getBytes(StandardCharsets.UTF_8))), true);
         }
     }
-
-    private String getBaseUrl() {
-        // Hole den aktuellen Request-Context
-        jakarta.servlet.http.HttpServletRequest request = 
-            ((org.springframework.web.context.request.ServletRequestAttributes) 
-                org.springframework.web.context.request.RequestContextHolder.currentRequestAttributes())
-            .getRequest();
-        
-        // Baue die Base-URL aus dem Request
-        String scheme = request.getScheme();
-        String serverName = request.getServerName();
-        int serverPort = request.getServerPort();
-        
-        return String.format("%s://%s:%d", scheme, serverName, serverPort);
-    }
-
-    private String generateUserPseudonym() {
-        return UUID.randomUUID().toString() + "-" + UUID.randomUUID().toString();
-    }
 } 
\ No newline at end of file
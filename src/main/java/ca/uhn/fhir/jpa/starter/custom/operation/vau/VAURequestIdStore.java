@@ -0,0 +1,50 @@
+package ca.uhn.fhir.jpa.starter.custom.operation.vau;
+
+import java.time.Instant;
+
+/**
+ * Speicher für bereits verwendete VAU-Request-IDs. Dient dem Erkennen von Replays und dem Ausliefern der
+ * zwischengespeicherten verschlüsselten Antwort, wenn ein Client einen Request nach einem Timeout wiederholt.
+ * <p>
+ * Standard ist {@link InMemoryVAURequestIdStore}; mit {@code hapi.fhir.vau.request_ids.store=jdbc} werden die
+ * Einträge über {@link JdbcVAURequestIdStore} in der Datenbank gehalten und gelten damit knotenübergreifend.
+ */
+public interface VAURequestIdStore {
+
+    /**
+     * Reserviert eine Request-ID für den aufrufenden Request.
+     *
+     * @param requestId   Die Request-ID aus dem VAU-Request
+     * @param fingerprint SHA-256 über den entschlüsselten VAU-Request
+     * @param expiresAt   Ende des Zeitfensters, in dem die Request-ID gesperrt bleibt
+     * @return null, wenn die Request-ID neu ist und reserviert wurde; sonst der bestehende Eintrag
+     */
+    Entry reserve(String requestId, byte[] fingerprint, Instant expiresAt);
+
+    /**
+     * Hinterlegt die verschlüsselte Antwort zu einer reservierten Request-ID. Passt sie nicht mehr in den
+     * Speicher, wird die Reservierung aufgehoben, sodass eine Wiederholung erneut ausgeführt wird.
+     */
+    void complete(String requestId, byte[] encryptedResponse);
+
+    /**
+     * Hebt die Reservierung auf, z.B. wenn die Verarbeitung fehlgeschlagen ist und wiederholt werden darf.
+     */
+    void release(String requestId);
+
+    /**
+     * @param fingerprint       SHA-256 über den entschlüsselten VAU-Request
+     * @param encryptedResponse Die verschlüsselte Antwort oder null, solange der Request noch verarbeitet wird
+     * @param expiresAt         Ende des Zeitfensters
+     */
+    record Entry(byte[] fingerprint, byte[] encryptedResponse, Instant expiresAt) {
+
+        boolean isCompleted() {
+            return encryptedResponse != null;
+        }
+
+        boolean isExpired(Instant now) {
+            return !expiresAt.isAfter(now);
+        }
+    }
+}
@@ -5,7 +5,6 @@ import org.bouncycastle.crypto.digests.SHA256Digest;
 import org.bouncycastle.crypto.generators.HKDFBytesGenerator;
 import org.bouncycastle.crypto.params.HKDFParameters;
 import org.bouncycastle.jce.ECNamedCurveTable;
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.jce.spec.ECNamedCurveParameterSpec;
 import org.springframework.stereotype.Component;
 
@@ -17,41 +16,92 @@ import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.*;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
 import java.security.interfaces.ECPrivateKey;
 import java.security.interfaces.ECPublicKey;
 import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
 
 @Component
 public class VAUServerCrypto {
 
     private static final byte[] INFO_ECIS_VAU_TRANSPORT = "ecies-vau-transport".getBytes();
+    private static final int COORDINATE_LENGTH = 32;
     private static final int IV_LENGTH = 12;
     private static final int AUTHENTICATION_TAG_BITS = 16 * 8;
+    private static final ECNamedCurveParameterSpec CURVE = ECNamedCurveTable.getParameterSpec("brainpoolp256r1");
+    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+
+    /** KeyAgreement- und Cipher-Instanzen sind nicht threadsicher, werden aber pro Thread wiederverwendet. */
+    private static final ThreadLocal<KeyAgreement> KEY_AGREEMENT = ThreadLocal.withInitial(() -> {
+        try {
+            return KeyAgreement.getInstance("ECDH", VAUKeyUtils.PROVIDER);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("ECDH (BC) nicht verfügbar", e);
+        }
+    });
+    private static final ThreadLocal<Cipher> AES_GCM = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+            throw new IllegalStateException("AES/GCM/NoPadding nicht verfügbar", e);
+        }
+    });
+
     private final PrivateKey serverPrivateKey;
     private final PublicKey serverPublicKey;
+    private final X509Certificate serverCertificate;
 
     public VAUServerCrypto() throws Exception {
-        Security.addProvider(new BouncyCastleProvider());
         this.serverPrivateKey = loadServerPrivateKey();
         this.serverPublicKey = loadServerPublicKey();
+        this.serverCertificate = loadServerCertificate();
     }
 
     public PublicKey getPublicKey() {
         return serverPublicKey;
     }
 
+    /**
+     * @return Das VAU-Zertifikat oder null, wenn keines hinterlegt ist
+     */
+    public X509Certificate getCertificate() {
+        return serverCertificate;
+    }
+
     public String decryptRequest(byte[] encryptedRequest) throws Exception {
-        ByteBuffer buffer = ByteBuffer.wrap(encryptedRequest);
-        
+        return StandardCharsets.UTF_8.decode(decryptRequest(ByteBuffer.wrap(encryptedRequest))).toString();
+    }
+
+    public ByteBuffer decryptRequest(ByteBuffer encryptedRequest) throws Exception {
+        return decryptRequest(encryptedRequest, null);
+    }
+
+    /**
+     * Entschlüsselt eine VAU-Anfrage ohne Kopie des Chiffrats: der Klartext wird in den Puffer der Anfrage
+     * geschrieben, deren Inhalt dabei überschrieben wird.
+     *
+     * @param encryptedRequest Die verschlüsselte Anfrage zwischen Position und Limit
+     * @param session          Die VAU-Sitzung des Clients oder null; verwendet der Client seinen ephemeren
+     *                         Schlüssel erneut, entfallen ECDH und HKDF
+     * @return Eine Sicht auf den Klartext innerhalb des übergebenen Puffers
+     */
+    public ByteBuffer decryptRequest(ByteBuffer encryptedRequest, VAUSessionCache.Session session) throws Exception {
+        ByteBuffer buffer = encryptedRequest.duplicate();
+        if (buffer.remaining() < 1 + 2 * COORDINATE_LENGTH + IV_LENGTH + AUTHENTICATION_TAG_BITS / 8) {
+            throw new IllegalArgumentException("Verschlüsselte Anfrage ist zu kurz: " + buffer.remaining() + " Bytes");
+        }
+
         // Read version byte
         byte version = buffer.get();
         if (version != 0x01) {
@@ -59,66 +109,117 @@ public class VAUServerCrypto {
         }
 
         // Read ephemeral public key coordinates
-        byte[] xBytes = new byte[32];
-        byte[] yBytes = new byte[32];
-        buffer.get(xBytes);
-        buffer.get(yBytes);
-        
-        BigInteger x = new BigInteger(1, xBytes);
-        BigInteger y = new BigInteger(1, yBytes);
+        byte[] ephemeralKeyBytes = new byte[2 * COORDINATE_LENGTH];
+        buffer.get(ephemeralKeyBytes);
+
+        SecretKeySpec requestKey = session != null ? session.getRequestKey(ephemeralKeyBytes) : null;
+        if (requestKey == null) {
+            requestKey = new SecretKeySpec(deriveKey(ephemeralKeyBytes), "AES");
+        }
+
+        // Read IV
+        byte[] iv = new byte[IV_LENGTH];
+        buffer.get(iv);
+
+        // Decrypt in place: der Klartext beginnt an der Stelle des Chiffrats
+        ByteBuffer ciphertext = buffer.slice();
+        ByteBuffer plaintext = ciphertext.duplicate();
+        Cipher cipher = AES_GCM.get();
+        GCMParameterSpec spec = new GCMParameterSpec(AUTHENTICATION_TAG_BITS, iv);
+        cipher.init(Cipher.DECRYPT_MODE, requestKey, spec);
+        cipher.doFinal(ciphertext, plaintext);
+
+        if (session != null) {
+            // Erst nach erfolgreicher Authentifizierung des Chiffrats merken
+            session.setRequestKey(ephemeralKeyBytes, requestKey);
+        }
+        return plaintext.flip();
+    }
+
+    /**
+     * Leitet aus dem ephemeren Client-Schlüssel per ECDH und HKDF den Schlüssel für die Anfrage ab.
+     *
+     * @param ephemeralKeyBytes Die Koordinaten x || y des ephemeren Client-Schlüssels
+     */
+    private byte[] deriveKey(byte[] ephemeralKeyBytes) throws GeneralSecurityException {
+        BigInteger x = new BigInteger(1, ephemeralKeyBytes, 0, COORDINATE_LENGTH);
+        BigInteger y = new BigInteger(1, ephemeralKeyBytes, COORDINATE_LENGTH, COORDINATE_LENGTH);
 
         // Reconstruct ephemeral public key
-        ECNamedCurveParameterSpec params = ECNamedCurveTable.getParameterSpec("brainpoolp256r1");
-        ECPublicKey ephemeralPublicKey = VAUKeyUtils.createECPublicKey(params, x, y);
+        ECPublicKey ephemeralPublicKey = VAUKeyUtils.createECPublicKey(CURVE, x, y);
 
         // Generate shared secret
-        KeyAgreement ka = KeyAgreement.getInstance("ECDH");
+        KeyAgreement ka = KEY_AGREEMENT.get();
         ka.init(serverPrivateKey);
         ka.doPhase(ephemeralPublicKey, true);
         byte[] sharedSecret = ka.generateSecret();
 
         // Derive key using HKDF
-        byte[] derivedKey = deriveKey(sharedSecret);
-
-        // Read IV and ciphertext
-        byte[] iv = new byte[IV_LENGTH];
-        buffer.get(iv);
-        byte[] ciphertext = new byte[buffer.remaining()];
-        buffer.get(ciphertext);
+        return hkdf(sharedSecret);
+    }
 
-        // Decrypt
-        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-        GCMParameterSpec spec = new GCMParameterSpec(AUTHENTICATION_TAG_BITS, iv);
-        cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(derivedKey, "AES"), spec);
-        byte[] plaintext = cipher.doFinal(ciphertext);
+    public byte[] encryptResponse(String response, Key clientKey) throws Exception {
+        byte[] responseBytes = response.getBytes(StandardCharsets.UTF_8);
+        return encryptResponse(allocateResponse(responseBytes.length).put(responseBytes).flip(), clientKey);
+    }
 
-        return new String(plaintext);
+    /**
+     * Legt einen Puffer für den Klartext einer Antwort an, vor und hinter dem Platz für IV und Authentication-Tag
+     * frei bleibt, sodass {@link #encryptResponse(ByteBuffer, Key)} ohne weitere Kopie verschlüsseln kann.
+     *
+     * @param plaintextLength Länge des Klartexts in Bytes
+     */
+    public static ByteBuffer allocateResponse(int plaintextLength) {
+        return ByteBuffer.allocate(IV_LENGTH + plaintextLength + AUTHENTICATION_TAG_BITS / 8)
+            .position(IV_LENGTH)
+            .limit(IV_LENGTH + plaintextLength)
+            .slice();
     }
 
-    public byte[] encryptResponse(String response, Key clientKey) throws Exception {
+    /**
+     * Verschlüsselt eine Antwort zu IV || Chiffrat || Tag. Stammt der Puffer aus {@link #allocateResponse(int)},
+     * wird im Puffer selbst verschlüsselt und dessen Array zurückgegeben; sonst wird in ein neues Array kopiert.
+     *
+     * @param response Der Klartext zwischen Position und Limit
+     */
+    public byte[] encryptResponse(ByteBuffer response, Key clientKey) throws Exception {
         if (!(clientKey instanceof SecretKeySpec)) {
             throw new InvalidKeyException("Der Schlüssel muss ein AES-Schlüssel sein");
         }
 
         // Generate IV
         byte[] iv = new byte[IV_LENGTH];
-        new SecureRandom().nextBytes(iv);
+        SECURE_RANDOM.nextBytes(iv);
 
-        // Encrypt with AES/GCM
-        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        Cipher cipher = AES_GCM.get();
         GCMParameterSpec spec = new GCMParameterSpec(AUTHENTICATION_TAG_BITS, iv);
         cipher.init(Cipher.ENCRYPT_MODE, clientKey, spec);
-        byte[] ciphertext = cipher.doFinal(response.getBytes());
 
-        // Format output: IV || Ciphertext
-        ByteArrayOutputStream output = new ByteArrayOutputStream();
-        output.write(iv);
-        output.write(ciphertext);
+        int length = response.remaining();
+        int tagLength = AUTHENTICATION_TAG_BITS / 8;
+        if (response.hasArray() && !response.isReadOnly()) {
+            byte[] array = response.array();
+            int start = response.arrayOffset() + response.position();
+            if (start >= IV_LENGTH && start + length + tagLength <= array.length) {
+                // Format output: IV || Ciphertext, im Array des Klartexts
+                System.arraycopy(iv, 0, array, start - IV_LENGTH, IV_LENGTH);
+                cipher.doFinal(array, start, length, array, start);
+                response.position(response.limit());
+                int end = start + length + tagLength;
+                return start == IV_LENGTH && end == array.length
+                    ? array
+                    : Arrays.copyOfRange(array, start - IV_LENGTH, end);
+            }
+        }
 
-        return output.toByteArray();
+        // Format output: IV || Ciphertext
+        byte[] output = new byte[IV_LENGTH + length + tagLength];
+        System.arraycopy(iv, 0, output, 0, IV_LENGTH);
+        cipher.doFinal(response, ByteBuffer.wrap(output, IV_LENGTH, length + tagLength));
+        return output;
     }
 
-    private byte[] deriveKey(byte[] sharedSecret) {
+    private byte[] hkdf(byte[] sharedSecret) {
         HKDFBytesGenerator hkdf = new HKDFBytesGenerator(new SHA256Digest());
         byte[] derivedKey = new byte[16];
         DerivationParameters params = new HKDFParameters(sharedSecret, null, INFO_ECIS_VAU_TRANSPORT);
@@ -182,4 +283,26 @@ public class VAUServerCrypto {
         
         throw new IOException("VAU öffentlicher Schlüssel nicht gefunden (weder in ClassPath noch im Dateisystem)");
     }
+
+    private X509Certificate loadServerCertificate() throws Exception {
+        CertificateFactory certFactory = CertificateFactory.getInstance("X.509", VAUKeyUtils.PROVIDER);
+        // Versuche zuerst ClassPath-Ressource (für Container)
+        InputStream certStream = getClass().getResourceAsStream("/certificates/id_enc/fd_id_enc.cert");
+        if (certStream != null) {
+            try (InputStream stream = certStream) {
+                return (X509Certificate) certFactory.generateCertificate(stream);
+            }
+        }
+
+        // Fallback auf Dateisystem (für lokale Entwicklung)
+        Path certPath = Paths.get("src/main/resources/certificates/id_enc/fd_id_enc.cert");
+        if (Files.exists(certPath)) {
+            try (InputStream stream = Files.newInputStream(certPath)) {
+                return (X509Certificate) certFactory.generateCertificate(stream);
+            }
+        }
+
+        // Ohne Zertifikat steht lediglich keine OCSP-Antwort zur Verfügung
+        return null;
+    }
 } 
\ No newline at end of file
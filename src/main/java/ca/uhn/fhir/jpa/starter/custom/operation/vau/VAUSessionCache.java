@@ -0,0 +1,200 @@
+package ca.uhn.fhir.jpa.starter.custom.operation.vau;
+
+import ca.uhn.fhir.jpa.starter.custom.interceptor.auth.AccessToken;
+import ca.uhn.fhir.jpa.starter.custom.interceptor.auth.PukTokenManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Serverseitige VAU-Sitzungen, adressiert über das Userpseudonym aus dem Pfad /VAU/{userpseudonym}.
+ * Eine Sitzung hält die bereits geprüfte Identität des Access Tokens und den zuletzt abgeleiteten
+ * Request-Schlüssel, damit Folge-Requests desselben Clients weder den Token erneut prüfen noch, bei
+ * unverändertem ephemeren Schlüssel, ECDH und HKDF wiederholen müssen.
+ * <p>
+ * Jedes Pseudonym gilt nur für einen Request: {@link #take(String)} entfernt die Sitzung, {@link #store(Session)}
+ * legt sie unter einem neuen Pseudonym ab. Sitzungen verfallen nach fester Laufzeit ab ihrer Erzeugung bzw. mit
+ * dem 'exp' des Tokens; wechseln die Schlüssel des IdP, werden alle Sitzungen verworfen.
+ */
+@Component
+public class VAUSessionCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VAUSessionCache.class);
+
+    private final Supplier<Map<String, PublicKey>> idpKeys;
+    private final Duration ttl;
+    private final int maxEntries;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private volatile Map<String, PublicKey> boundKeys;
+
+    @Autowired
+    public VAUSessionCache(PukTokenManager pukTokenManager,
+                           @Value("${hapi.fhir.vau.session.ttl_seconds:300}") long ttlSeconds,
+                           @Value("${hapi.fhir.vau.session.max_entries:10000}") int maxEntries) {
+        this(pukTokenManager::getKeys, ttlSeconds, maxEntries);
+    }
+
+    VAUSessionCache(Supplier<Map<String, PublicKey>> idpKeys, long ttlSeconds, int maxEntries) {
+        this.idpKeys = idpKeys;
+        this.ttl = Duration.ofSeconds(ttlSeconds);
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Entnimmt die Sitzung zu einem Pseudonym. Unbekannte, abgelaufene oder vor einem Schlüsselwechsel des IdP
+     * angelegte Sitzungen werden durch eine neue, leere Sitzung ersetzt.
+     *
+     * @param userPseudonym Das Pseudonym aus dem Pfad; "0" beim ersten Request
+     * @return Die Sitzung für genau diesen Request, nie null
+     */
+    public Session take(String userPseudonym) {
+        bindToKeys(idpKeys.get());
+        Session session = userPseudonym != null ? sessions.remove(userPseudonym) : null;
+        if (session != null && !session.isExpired(Instant.now())) {
+            LOGGER.debug("VAU-Sitzung zum Pseudonym wiederaufgenommen");
+            return session;
+        }
+        return new Session(Instant.now().plus(ttl));
+    }
+
+    /**
+     * Legt die Sitzung unter einem neuen Pseudonym ab, sofern ihr eine geprüfte Identität zugeordnet ist.
+     *
+     * @return Das neue Pseudonym für den Header 'Userpseudonym'
+     */
+    public String store(Session session) {
+        String userPseudonym = UUID.randomUUID() + "-" + UUID.randomUUID();
+        if (maxEntries <= 0 || session.accessToken == null || session.isExpired(Instant.now())) {
+            return userPseudonym;
+        }
+        bindToKeys(idpKeys.get());
+        if (session.boundKeys != boundKeys) {
+            // Die Identität wurde noch mit den Schlüsseln vor einem Wechsel geprüft
+            return userPseudonym;
+        }
+        if (sessions.size() >= maxEntries) {
+            evictExpired();
+            if (sessions.size() >= maxEntries) {
+                // Obergrenze erreicht: der Client arbeitet ohne Sitzung weiter
+                LOGGER.debug("Maximale Anzahl VAU-Sitzungen erreicht, Sitzung wird nicht gespeichert");
+                return userPseudonym;
+            }
+        }
+        sessions.put(userPseudonym, session);
+        return userPseudonym;
+    }
+
+    /**
+     * Bindet die Sitzungen an die aktuellen Schlüssel des IdP; nach einer Schlüsselrotation sind alle ungültig.
+     */
+    void bindToKeys(Map<String, PublicKey> keys) {
+        if (keys != boundKeys) {
+            synchronized (this) {
+                if (keys != boundKeys) {
+                    if (boundKeys != null) {
+                        LOGGER.info("Schlüssel des IdP haben gewechselt, {} VAU-Sitzungen werden verworfen", sessions.size());
+                    }
+                    sessions.clear();
+                    boundKeys = keys;
+                }
+            }
+        }
+    }
+
+    private void evictExpired() {
+        Instant now = Instant.now();
+        sessions.values().removeIf(session -> session.isExpired(now));
+    }
+
+    /**
+     * Verwirft alle Sitzungen, z.B. nach einem Wechsel des VAU-Schlüssels.
+     */
+    public void clear() {
+        sessions.clear();
+    }
+
+    int size() {
+        return sessions.size();
+    }
+
+    private static byte[] hash(String token) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.US_ASCII));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 nicht verfügbar", e);
+        }
+    }
+
+    /**
+     * Zustand einer VAU-Sitzung. Eine Sitzung gehört immer nur dem Request, der sie per {@link #take(String)}
+     * entnommen hat, und wird daher nicht synchronisiert.
+     */
+    public final class Session {
+
+        private final Instant expiresAt;
+        private byte[] tokenHash;
+        private AccessToken accessToken;
+        private Map<String, PublicKey> boundKeys;
+        private byte[] ephemeralPublicKey;
+        private SecretKeySpec requestKey;
+
+        private Session(Instant expiresAt) {
+            this.expiresAt = expiresAt;
+        }
+
+        /**
+         * @param token Der rohe Access Token aus dem VAU-Request
+         * @return Die bereits geprüfte Identität, wenn die Sitzung für genau diesen Token angelegt wurde, sonst null
+         */
+        public AccessToken getAccessToken(String token) {
+            if (accessToken == null || token == null || boundKeys != VAUSessionCache.this.boundKeys) {
+                return null;
+            }
+            return MessageDigest.isEqual(tokenHash, hash(token)) ? accessToken : null;
+        }
+
+        /**
+         * Ordnet der Sitzung die vom AuthenticationInterceptor geprüfte Identität zu.
+         *
+         * @param token       Der rohe Access Token aus dem VAU-Request
+         * @param accessToken Der daraus geprüfte Token
+         */
+        public void setAccessToken(String token, AccessToken accessToken) {
+            this.tokenHash = hash(token);
+            this.accessToken = accessToken;
+            this.boundKeys = VAUSessionCache.this.boundKeys;
+        }
+
+        /**
+         * @param ephemeralPublicKey Die Koordinaten x || y des ephemeren Client-Schlüssels
+         * @return Der zuvor daraus abgeleitete Request-Schlüssel oder null
+         */
+        SecretKeySpec getRequestKey(byte[] ephemeralPublicKey) {
+            return requestKey != null && MessageDigest.isEqual(this.ephemeralPublicKey, ephemeralPublicKey) ? requestKey : null;
+        }
+
+        void setRequestKey(byte[] ephemeralPublicKey, SecretKeySpec requestKey) {
+            this.ephemeralPublicKey = ephemeralPublicKey;
+            this.requestKey = requestKey;
+        }
+
+        private boolean isExpired(Instant now) {
+            return !expiresAt.isAfter(now)
+                || accessToken != null && accessToken.getExp() != null && !accessToken.getExp().isAfter(now);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package ca.uhn.fhir.jpa.starter.custom.search;
+
+import ca.uhn.fhir.batch2.api.IJobCoordinator;
+import ca.uhn.fhir.batch2.jobs.reindex.ReindexAppCtx;
+import ca.uhn.fhir.batch2.jobs.reindex.ReindexJobParameters;
+import ca.uhn.fhir.batch2.model.JobInstanceStartRequest;
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
+import ca.uhn.fhir.rest.server.exceptions.ResourceGoneException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import ca.uhn.fhir.rest.server.util.ISearchParamRegistry;
+import org.hl7.fhir.r4.model.CodeType;
+import org.hl7.fhir.r4.model.Enumerations;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.SearchParameter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Registriert beim Start die fachdienstspezifischen SearchParameter auf DocumentReference,
+ * damit Rechnungsstatus und Fälligkeit aus Tag bzw. Extension indiziert und per Suche (inkl. Sortierung)
+ * abfragbar sind. Registriert werden nur Parameter, die der Fachdienst selbst abfragt: den Rechnungsstatus beim
+ * Leeren des Papierkorbs, die Fälligkeit im Lebenszyklus-Scheduler.
+ * Die Ressourcen werden mit fester ID angelegt; nur neue oder geänderte Definitionen werden geschrieben
+ * und lösen (konfigurierbar) eine Reindizierung der vorhandenen DocumentReferences aus. Nicht mehr verwendete
+ * Definitionen früherer Versionen werden gelöscht, damit sie nicht weiter indiziert werden.
+ */
+@Component
+public class ErgSearchParameterRegistrar {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ErgSearchParameterRegistrar.class);
+
+    public static final String SP_RECHNUNGSSTATUS = "rechnungsstatus";
+    public static final String SP_NEXT_STATUS_CHANGE_DATE = "next-status-change-date";
+
+    // Früher registriert, aber von keiner Suche des Fachdienstes verwendet
+    private static final List<String> RETIRED_SEARCH_PARAMETER_IDS = List.of("erg-markierung", "erg-status-changed-date");
+
+    private static final String RECHNUNGSSTATUS_SYSTEM = "https://gematik.de/fhir/erg/CodeSystem/erg-rechnungsstatus-cs";
+    private static final String NEXT_STATUS_CHANGE_DATE_URL = "https://gematik.de/fhir/erg/StructureDefinition/nextStatusChangeDate";
+
+    private final DaoRegistry daoRegistry;
+    private final ISearchParamRegistry searchParamRegistry;
+    private final IJobCoordinator jobCoordinator;
+    private final boolean reindexOnChange;
+
+    @Autowired
+    public ErgSearchParameterRegistrar(DaoRegistry daoRegistry,
+                                       ISearchParamRegistry searchParamRegistry,
+                                       IJobCoordinator jobCoordinator,
+                                       @Value("${hapi.fhir.erg_search_parameters.reindex_on_change:true}") boolean reindexOnChange) {
+        this.daoRegistry = daoRegistry;
+        this.searchParamRegistry = searchParamRegistry;
+        this.jobCoordinator = jobCoordinator;
+        this.reindexOnChange = reindexOnChange;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void registerSearchParameters() {
+        List<SearchParameter> searchParameters = List.of(
+            searchParameter("erg-rechnungsstatus", SP_RECHNUNGSSTATUS, Enumerations.SearchParamType.TOKEN,
+                "DocumentReference.meta.tag.where(system='" + RECHNUNGSSTATUS_SYSTEM + "')",
+                "Rechnungsstatus (offen, erledigt, papierkorb) aus dem Status-Tag"),
+            searchParameter("erg-next-status-change-date", SP_NEXT_STATUS_CHANGE_DATE, Enumerations.SearchParamType.DATE,
+                "DocumentReference.extension('" + NEXT_STATUS_CHANGE_DATE_URL + "').value",
+                "Datum, an dem der nächste automatische Statuswechsel bzw. die Löschung fällig ist")
+        );
+
+        boolean changed = false;
+        for (SearchParameter searchParameter : searchParameters) {
+            try {
+                if (isUnchanged(searchParameter)) {
+                    LOGGER.debug("SearchParameter '{}' ist bereits aktuell registriert.", searchParameter.getCode());
+                    continue;
+                }
+                daoRegistry.getResourceDao(SearchParameter.class).update(searchParameter, new SystemRequestDetails());
+                changed = true;
+                LOGGER.info("SearchParameter '{}' ({}) registriert.", searchParameter.getCode(), searchParameter.getExpression());
+            } catch (Exception e) {
+                LOGGER.error("Fehler beim Registrieren des SearchParameters '{}': {}", searchParameter.getCode(), e.getMessage(), e);
+            }
+        }
+        RETIRED_SEARCH_PARAMETER_IDS.forEach(this::deleteRetired);
+        searchParamRegistry.forceRefresh();
+
+        if (changed && reindexOnChange) {
+            startReindex();
+        }
+    }
+
+    /**
+     * Prüft, ob die gespeicherte Definition in Typ und Ausdruck der gewünschten entspricht.
+     */
+    private boolean isUnchanged(SearchParameter wanted) {
+        try {
+            SearchParameter existing = daoRegistry.getResourceDao(SearchParameter.class)
+                .read(wanted.getIdElement(), new SystemRequestDetails());
+            return existing.getType() == wanted.getType()
+                && wanted.getExpression().equals(existing.getExpression())
+                && existing.getStatus() == Enumerations.PublicationStatus.ACTIVE;
+        } catch (ResourceNotFoundException | ResourceGoneException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Löscht eine nicht mehr verwendete Definition, falls sie noch gespeichert ist.
+     */
+    private void deleteRetired(String id) {
+        IdType searchParameterId = new IdType("SearchParameter", id);
+        try {
+            daoRegistry.getResourceDao(SearchParameter.class).read(searchParameterId, new SystemRequestDetails());
+        } catch (ResourceNotFoundException | ResourceGoneException e) {
+            return;
+        }
+        try {
+            daoRegistry.getResourceDao(SearchParameter.class).delete(searchParameterId, new SystemRequestDetails());
+            LOGGER.info("Nicht mehr verwendeter SearchParameter '{}' gelöscht.", id);
+        } catch (Exception e) {
+            LOGGER.error("Fehler beim Löschen des SearchParameters '{}': {}", id, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Startet einen Reindex-Job für DocumentReference, damit bereits gespeicherte Dokumente
+     * in die neuen bzw. geänderten Indizes aufgenommen werden.
+     */
+    private void startReindex() {
+        try {
+            ReindexJobParameters parameters = new ReindexJobParameters();
+            parameters.addUrl("DocumentReference?");
+
+            JobInstanceStartRequest request = new JobInstanceStartRequest();
+            request.setJobDefinitionId(ReindexAppCtx.JOB_REINDEX);
+            request.setParameters(parameters);
+
+            String instanceId = jobCoordinator.startInstance(new SystemRequestDetails(), request).getInstanceId();
+            LOGGER.info("Reindizierung der DocumentReferences für geänderte SearchParameter gestartet (Job-Instanz {}).", instanceId);
+        } catch (Exception e) {
+            LOGGER.error("Reindizierung für geänderte SearchParameter konnte nicht gestartet werden: {}", e.getMessage(), e);
+        }
+    }
+
+    private static SearchParameter searchParameter(String id, String code, Enumerations.SearchParamType type,
+                                                   String expression, String description) {
+        SearchParameter searchParameter = new SearchParameter();
+        searchParameter.setId(id);
+        searchParameter.setUrl("https://erg.fachdienst/fhir/SearchParameter/" + id);
+        searchParameter.setName(code);
+        searchParameter.setStatus(Enumerations.PublicationStatus.ACTIVE);
+        searchParameter.setDescription(description);
+        searchParameter.setCode(code);
+        searchParameter.getBase().add(new CodeType("DocumentReference"));
+        searchParameter.setType(type);
+        searchParameter.setExpression(expression);
+        return searchParameter;
+    }
+}
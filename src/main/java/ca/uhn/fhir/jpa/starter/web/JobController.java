@@ -35,6 +35,14 @@ public class JobController {
 		return theJobCoordinator.fetchAllJobInstances(jobInstanceFetchRequest).getContent();
 	}
 
+	@RequestMapping(
+			value = JobController.JOBS + "/{instanceId}",
+			method = RequestMethod.GET,
+			produces = MediaType.APPLICATION_JSON_VALUE)
+	public JobInstance getInstance(@PathVariable(name = "instanceId") String instanceId) {
+		return theJobCoordinator.getInstance(instanceId);
+	}
+
 	@RequestMapping(
 			value = JobController.JOBS,
 			method = RequestMethod.DELETE,
@@ -39,8 +39,10 @@ import static ca.uhn.fhir.jpa.starter.custom.ErgTestResourceUtil.*;
     Application.class, 
 }, properties = {
     //"hapi.fhir.custom-bean-packages=ca.uhn.fhir.jpa.starter.custom.interceptor,ca.uhn.fhir.jpa.starter.custom.operation",
-    "hapi.fhir.custom-interceptor-classes=ca.uhn.fhir.jpa.starter.custom.interceptor.auth.AuthenticationInterceptor,ca.uhn.fhir.jpa.starter.custom.interceptor.auth.ResourceAuthorizationInterceptor",
-    "hapi.fhir.custom-provider-classes=ca.uhn.fhir.jpa.starter.custom.operation.submit.SubmitOperationProvider,ca.uhn.fhir.jpa.starter.custom.operation.retrieve.RetrieveOperationProvider,ca.uhn.fhir.jpa.starter.custom.operation.processFlag.ProcessFlagOperationProvider,ca.uhn.fhir.jpa.starter.custom.operation.changeStatus.ChangeStatusOperationProvider,ca.uhn.fhir.jpa.starter.custom.operation.erase.EraseOperationProvider",
+    "hapi.fhir.custom-interceptor-classes=ca.uhn.fhir.jpa.starter.custom.interceptor.auth.AuthenticationInterceptor,ca.uhn.fhir.jpa.starter.custom.interceptor.auth.ResourceAuthorizationInterceptor,ca.uhn.fhir.jpa.starter.custom.operation.submit.SubmitRequestSpoolingInterceptor,ca.uhn.fhir.jpa.starter.custom.operation.erase.EraseDeleteConflictInterceptor",
+    // Niedriger Schwellwert, damit die Submit-Tests auch das Auslagern der Attachment-Daten durchlaufen
+    "hapi.fhir.submit.spool_threshold_bytes=1024",
+    "hapi.fhir.custom-provider-classes=ca.uhn.fhir.jpa.starter.custom.operation.submit.SubmitOperationProvider,ca.uhn.fhir.jpa.starter.custom.operation.retrieve.RetrieveOperationProvider,ca.uhn.fhir.jpa.starter.custom.operation.retrieve.PdfDownloadOperationProvider,ca.uhn.fhir.jpa.starter.custom.operation.processFlag.ProcessFlagOperationProvider,ca.uhn.fhir.jpa.starter.custom.operation.changeStatus.ChangeStatusOperationProvider,ca.uhn.fhir.jpa.starter.custom.operation.erase.EraseOperationProvider,ca.uhn.fhir.jpa.starter.custom.operation.erase.EmptyTrashOperationProvider",
     "spring.datasource.url=jdbc:h2:mem:dbr4",
     "hapi.fhir.cr_enabled=false",
     "hapi.fhir.fhir_version=r4",
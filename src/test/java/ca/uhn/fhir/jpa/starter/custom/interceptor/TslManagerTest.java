@@ -5,6 +5,7 @@ import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.io.ClassPathResource;
@@ -14,6 +15,10 @@ import ca.uhn.fhir.jpa.starter.custom.interceptor.auth.TslCertificateItem;
 import javax.net.ssl.*;
 import java.io.*;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.security.SecureRandom;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
@@ -23,6 +28,7 @@ import java.util.List;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 class TslManagerTest {
     private static final Logger logger = LoggerFactory.getLogger(TslManagerTest.class);
@@ -182,6 +188,85 @@ class TslManagerTest {
             throw e;
         }
     }
+
+    @Test
+    void testSnapshotWirdGeschriebenUndBeimNeustartVerwendet(@TempDir Path snapshotDir) throws Exception {
+        TslManager first = new TslManager(snapshotDir.toString());
+        Path snapshot = snapshotDir.resolve("tsl-" + first.getTslHash() + ".snapshot");
+        assertTrue(Files.isRegularFile(snapshot), "Nach dem ersten Laden sollte ein Snapshot vorliegen");
+
+        // Zweiter Start mit unveränderter TSL liest nur den Snapshot
+        TslManager second = new TslManager(snapshotDir.toString());
+        assertEquals(first.getTslHash(), second.getTslHash());
+        assertEquals(first.getCertificatesByIssuer().keySet(), second.getCertificatesByIssuer().keySet());
+        for (Map.Entry<String, List<TslCertificateItem>> entry : first.getCertificatesByIssuer().entrySet()) {
+            List<TslCertificateItem> reloaded = second.getCertificatesByIssuer().get(entry.getKey());
+            assertEquals(entry.getValue().size(), reloaded.size());
+            for (int i = 0; i < reloaded.size(); i++) {
+                assertEquals(entry.getValue().get(i).getCertificate(), reloaded.get(i).getCertificate());
+                assertEquals(entry.getValue().get(i).getSupplyPoints(), reloaded.get(i).getSupplyPoints());
+            }
+        }
+    }
+
+    @Test
+    void testSnapshotVerzeichnisWirdNurFuerEigentuemerAngelegt(@TempDir Path tempDir) throws Exception {
+        assumeTrue(tempDir.getFileSystem().supportedFileAttributeViews().contains("posix"));
+        Path snapshotDir = tempDir.resolve("erg-tsl");
+
+        new TslManager(snapshotDir.toString());
+
+        assertEquals(PosixFilePermissions.fromString("rwx------"), Files.getPosixFilePermissions(snapshotDir));
+    }
+
+    @Test
+    void testVeraenderterSnapshotWirdVerworfen(@TempDir Path snapshotDir) throws Exception {
+        TslManager first = new TslManager(snapshotDir.toString());
+        Path snapshot = snapshotDir.resolve("tsl-" + first.getTslHash() + ".snapshot");
+        byte[] original = Files.readAllBytes(snapshot);
+
+        // Ein Byte in den Einträgen verändern: der Digest passt nicht mehr
+        byte[] tampered = original.clone();
+        tampered[tampered.length - 40] ^= 0x01;
+        Files.write(snapshot, tampered);
+
+        TslManager second = new TslManager(snapshotDir.toString());
+        assertEquals(first.getCertificatesByIssuer().keySet(), second.getCertificatesByIssuer().keySet());
+        assertArrayEquals(original, Files.readAllBytes(snapshot), "Der verworfene Snapshot sollte aus der TSL neu geschrieben werden");
+    }
+
+    @Test
+    void testNeueTslWirdZurLaufzeitAusgetauscht(@TempDir Path snapshotDir) throws Exception {
+        TslManager manager = new TslManager(snapshotDir.toString());
+        String initialHash = manager.getTslHash();
+        Map<String, List<TslCertificateItem>> initial = manager.getCertificatesByIssuer();
+        int initialSize = initial.size();
+        TslCertificateItem kept = initial.values().iterator().next().get(0);
+
+        String ns = "http://uri.etsi.org/02231/v2#";
+        String tsl = "<TrustServiceStatusList xmlns=\"" + ns + "\"><TrustServiceProviderList><TrustServiceProvider><TSPServices><TSPService>"
+            + "<ServiceInformation>"
+            + "<ServiceTypeIdentifier>http://uri.etsi.org/TrstSvc/Svctype/CA/PKC</ServiceTypeIdentifier>"
+            + "<ServiceDigitalIdentity><DigitalId><X509Certificate>"
+            + Base64.getEncoder().encodeToString(kept.getCertificate().getEncoded())
+            + "</X509Certificate></DigitalId></ServiceDigitalIdentity>"
+            + "<ServiceStatus>http://uri.etsi.org/TrstSvc/Svcstatus/inaccord</ServiceStatus>"
+            + "<ServiceSupplyPoints><ServiceSupplyPoint>http://ocsp.example.test/ocsp</ServiceSupplyPoint></ServiceSupplyPoints>"
+            + "<ServiceInformationExtensions><Extension Critical=\"false\">"
+            + "<ExtensionOID>1.2.276.0.76.4.203</ExtensionOID><ExtensionValue>oid_fd_sig</ExtensionValue>"
+            + "</Extension></ServiceInformationExtensions>"
+            + "</ServiceInformation></TSPService></TSPServices></TrustServiceProvider></TrustServiceProviderList></TrustServiceStatusList>";
+
+        manager.loadTsl(new ByteArrayInputStream(tsl.getBytes(StandardCharsets.UTF_8)));
+
+        assertNotEquals(initialHash, manager.getTslHash());
+        assertEquals(1, manager.getCertificatesByIssuer().size(), "Der alte Stand sollte vollständig ersetzt sein");
+        TslCertificateItem item = manager.getCertificatesByIssuer().values().iterator().next().get(0);
+        assertEquals(kept.getCertificate(), item.getCertificate());
+        assertEquals(List.of("http://ocsp.example.test/ocsp"), item.getSupplyPoints());
+        // Der zuvor ausgegebene Stand bleibt für laufende Prüfungen unverändert
+        assertEquals(initialSize, initial.size());
+    }
 }
 
 // Hilfsklasse für SSL/TLS
@@ -57,6 +57,64 @@ class AccessTokenServiceTest extends BaseProviderTest {
         logger.info("Ungültige Signatur erfolgreich erkannt");
     }
 
+    @Test
+    void whenSameTokenVerifiedTwice_thenSignatureIsCheckedOnlyOnce() {
+        // Arrange
+        String authHeader = "Bearer " + getValidAccessToken("EGK1");
+        accessTokenService.clearTokenCache();
+        VerifiedTokenCache cache = accessTokenService.getTokenCache();
+        long hitsBefore = cache.getHits();
+
+        // Act
+        AccessToken first = accessTokenService.verifyAndDecode(authHeader);
+        AccessToken second = accessTokenService.verifyAndDecode(authHeader);
+
+        // Assert
+        assertEquals(first.getIdNumber(), second.getIdNumber(), "Der zweite Aufruf sollte den geprüften Token aus dem Cache liefern");
+        assertEquals(hitsBefore + 1, cache.getHits(), "Nur der zweite Aufruf sollte ein Cache-Treffer sein");
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void whenCachedTokenIsModified_thenOtherRequestsAreNotAffected() {
+        // Arrange
+        String authHeader = "Bearer " + getValidAccessToken("EGK1");
+        accessTokenService.clearTokenCache();
+        AccessToken first = accessTokenService.verifyAndDecode(authHeader);
+        String idNumber = first.getIdNumber();
+        String scope = first.getScope();
+
+        // Act
+        first.setIdNumber("X000000000");
+        first.setScope("manipuliert");
+        AccessToken second = accessTokenService.verifyAndDecode(authHeader);
+        second.setIdNumber("X111111111");
+        AccessToken third = accessTokenService.verifyAndDecode(authHeader);
+
+        // Assert
+        assertNotSame(second, third, "Jeder Treffer sollte eine eigene Instanz liefern");
+        assertEquals(idNumber, third.getIdNumber(), "Änderungen eines Requests dürfen den Cache-Eintrag nicht verändern");
+        assertEquals(scope, third.getScope());
+        assertEquals(AuthorizationPolicy.scopeMask(scope), third.getScopeMask());
+    }
+
+    @Test
+    void whenPublicKeyRotates_thenTokenCacheIsCleared() throws Exception {
+        // Arrange
+        accessTokenService.verifyAndDecode("Bearer " + getValidAccessToken("EGK1"));
+        VerifiedTokenCache cache = accessTokenService.getTokenCache();
+        assertTrue(cache.size() > 0);
+
+        // Act
+        java.security.KeyPairGenerator generator = java.security.KeyPairGenerator.getInstance("EC");
+        generator.initialize(256);
+        cache.bindToKeys(java.util.Map.of(PukTokenManager.DEFAULT_KID, generator.generateKeyPair().getPublic()));
+
+        // Assert
+        assertEquals(0, cache.size(), "Nach einem Schlüsselwechsel darf kein geprüfter Token mehr im Cache liegen");
+        cache.bindToKeys(pukTokenManager.getKeys());
+    }
+
     @Test
     void whenInvalidAuthHeader_thenThrowException() {
         // Arrange
@@ -0,0 +1,116 @@
+package ca.uhn.fhir.jpa.starter.custom.interceptor.auth;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH-Benchmark für {@link AccessTokenService#verifyAndDecode(String)}: wiederholte Prüfung desselben Tokens
+ * mit Token-Cache gegenüber vollständiger Signaturprüfung bei jedem Aufruf. Der Token wird mit einem lokal
+ * erzeugten ES256-Schlüssel signiert, damit kein IdP erreichbar sein muss. Kein Unit-Test; Aufruf z.B. mit
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=ca.uhn.fhir.jpa.starter.custom.interceptor.auth.AccessTokenVerificationBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AccessTokenVerificationBenchmark {
+
+    private AccessTokenService cachedService;
+    private AccessTokenService uncachedService;
+    private String authHeader;
+
+    /** Liefert die lokal erzeugten Schlüssel, ohne Discovery-Dokument und JWKS abzurufen. */
+    private static class FixedKeyPukTokenManager extends PukTokenManager {
+        private final Map<String, PublicKey> keys;
+
+        FixedKeyPukTokenManager(PublicKey publicKey) {
+            super("https://localhost/.well-known/openid-configuration", 3600, 60, null);
+            this.keys = Map.of(DEFAULT_KID, publicKey);
+        }
+
+        @Override
+        public Map<String, PublicKey> getKeys() {
+            return keys;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        KeyPair keyPair = generator.generateKeyPair();
+
+        Instant now = Instant.now();
+        String token = JWT.create()
+            .withKeyId(PukTokenManager.DEFAULT_KID)
+            .withIssuer("https://idp.zentral.idp.splitdns.ti-dienste.de")
+            .withSubject("benchmark")
+            .withAudience("https://erp-test.zentral.erp.splitdns.ti-dienste.de/")
+            .withIssuedAt(Date.from(now))
+            .withExpiresAt(Date.from(now.plus(1, ChronoUnit.DAYS)))
+            .withClaim("professionOID", Profession.VERSICHERTER.getOid())
+            .withClaim("idNummer", "X110411675")
+            .withClaim("given_name", "Benchmark")
+            .withClaim("family_name", "TEST-ONLY")
+            .withClaim("organizationName", "Test GKV-SV")
+            .withClaim("client_id", "eRezeptApp")
+            .withClaim("scope", "openid e-rezept")
+            .sign(Algorithm.ECDSA256((ECPublicKey) keyPair.getPublic(), (ECPrivateKey) keyPair.getPrivate()));
+        authHeader = "Bearer " + token;
+
+        cachedService = new AccessTokenService(new FixedKeyPukTokenManager(keyPair.getPublic()), 10_000);
+        // Ohne Einträge nimmt der Cache nichts auf, jeder Aufruf prüft die Signatur
+        uncachedService = new AccessTokenService(new FixedKeyPukTokenManager(keyPair.getPublic()), 0);
+
+        // Verifier anlegen und den Cache füllen, damit nur der eingeschwungene Zustand gemessen wird
+        cachedService.verifyAndDecode(authHeader);
+        uncachedService.verifyAndDecode(authHeader);
+    }
+
+    @Benchmark
+    public AccessToken verifyCached() {
+        return cachedService.verifyAndDecode(authHeader);
+    }
+
+    @Benchmark
+    public AccessToken verifyUncached() {
+        return uncachedService.verifyAndDecode(authHeader);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+            .include(AccessTokenVerificationBenchmark.class.getSimpleName())
+            .build())
+            .run();
+    }
+}
@@ -0,0 +1,129 @@
+package ca.uhn.fhir.jpa.starter.custom.interceptor.auth;
+
+import ca.uhn.fhir.jpa.starter.custom.interceptor.auth.AuthorizationPolicy.Action;
+import ca.uhn.fhir.jpa.starter.custom.interceptor.auth.AuthorizationPolicy.Scope;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AuthorizationPolicyTest {
+
+    /**
+     * Eine Anforderung in ihrer ursprünglichen Form; professions == null bedeutet jede Profession.
+     * exakt: der Scope-Claim muss einem der Scopes gleich sein (scope.equals), sonst genügt es, ihn zu enthalten.
+     */
+    private record Anforderung(boolean exakt, Set<Profession> professions, List<String> scopes) {
+
+        boolean erlaubt(String claim) {
+            if (exakt) {
+                return scopes.contains(claim);
+            }
+            return scopes.stream().anyMatch(required -> (" " + claim + " ").contains(" " + required + " "));
+        }
+    }
+
+    private static final Map<Action, Anforderung> SPEZIFIKATION = Map.of(
+        Action.PATIENT_RESOURCE, new Anforderung(true, null, List.of("insurantAccount.rs", "openid e-rezept")),
+        Action.DOCUMENT_SEARCH, new Anforderung(true, null, List.of("invoiceDoc.s", "openid e-rezept")),
+        Action.DOCUMENT_READ, new Anforderung(true, null, List.of("invoiceDoc.r", "openid e-rezept")),
+        Action.AUDIT_EVENT_RESOURCE, new Anforderung(true, null, List.of("auditEvent.rs", "openid e-rezept")),
+        Action.DOCUMENT_ACCESS, new Anforderung(false, Set.of(Profession.VERSICHERTER, Profession.KOSTENTRAEGER), List.of("invoiceDoc.r", "openid e-rezept")),
+        Action.SUBMIT, new Anforderung(false, Set.of(Profession.LEISTUNGSERBRINGER, Profession.ARZT_KRANKENHAUS), List.of("invoiceDoc.c", "openid e-rezept")),
+        Action.CHANGE_STATUS, new Anforderung(false, Set.of(Profession.VERSICHERTER), List.of("invoiceDoc.u", "openid e-rezept"))
+    );
+
+    private final AuthorizationPolicy policy = new AuthorizationPolicy();
+
+    @Test
+    void whenDumped_thenMatrixMatchesExpectedArtifact() {
+        String expected = """
+            PATIENT_RESOURCE: alle -> insurantAccount.rs | openid e-rezept (exakt)
+            DOCUMENT_SEARCH: alle -> invoiceDoc.s | openid e-rezept (exakt)
+            DOCUMENT_READ: alle -> invoiceDoc.r | openid e-rezept (exakt)
+            AUDIT_EVENT_RESOURCE: alle -> auditEvent.rs | openid e-rezept (exakt)
+            DOCUMENT_ACCESS: VERSICHERTER, KOSTENTRAEGER -> invoiceDoc.r | openid e-rezept
+            SUBMIT: LEISTUNGSERBRINGER, ARZT_KRANKENHAUS -> invoiceDoc.c | openid e-rezept
+            CHANGE_STATUS: VERSICHERTER -> invoiceDoc.u | openid e-rezept""";
+
+        assertEquals(expected, policy.dump());
+    }
+
+    @Test
+    void whenAllCombinationsEvaluated_thenDecisionsMatchSpecification() {
+        List<Profession> professions = new ArrayList<>(Arrays.asList(Profession.values()));
+        professions.add(null);
+        List<Scope> tokenScopes = Arrays.stream(Scope.values()).filter(s -> s != Scope.WILDCARD).toList();
+
+        assertEquals(Action.values().length, SPEZIFIKATION.size(), "Jede Aktion braucht eine Spezifikation");
+        for (Action action : Action.values()) {
+            Anforderung anforderung = SPEZIFIKATION.get(action);
+
+            for (Profession profession : professions) {
+                boolean professionAllowed = anforderung.professions() == null
+                    || profession != null && anforderung.professions().contains(profession);
+                assertEquals(professionAllowed, policy.isProfessionAllowed(action, profession), action + "/" + profession);
+
+                // Alle Teilmengen der bekannten Scopes als Scope-Claim
+                for (int subset = 0; subset < (1 << tokenScopes.size()); subset++) {
+                    List<String> parts = new ArrayList<>();
+                    for (int i = 0; i < tokenScopes.size(); i++) {
+                        if ((subset & (1 << i)) != 0) {
+                            parts.add(tokenScopes.get(i).getValue());
+                        }
+                    }
+                    String claim = String.join(" ", parts);
+                    boolean scopeAllowed = anforderung.erlaubt(claim);
+
+                    int mask = AuthorizationPolicy.scopeMask(claim);
+                    assertEquals(scopeAllowed, policy.hasRequiredScope(action, profession, mask), action + "/" + profession + "/" + claim);
+                    assertEquals(professionAllowed && scopeAllowed, policy.isAllowed(action, profession, mask), action + "/" + profession + "/" + claim);
+                }
+            }
+        }
+    }
+
+    @Test
+    void whenScopeClaimParsed_thenOnlyCompleteScopeValuesCount() {
+        assertEquals(0, AuthorizationPolicy.scopeMask(null));
+        assertEquals(0, AuthorizationPolicy.scopeMask("invoiceDoc.rs"), "Teilzeichenketten dürfen nicht als Scope gelten");
+        assertFalse(policy.hasRequiredScope(Action.DOCUMENT_ACCESS, Profession.VERSICHERTER, AuthorizationPolicy.scopeMask("openid")));
+        assertFalse(policy.hasRequiredScope(Action.DOCUMENT_ACCESS, Profession.VERSICHERTER, AuthorizationPolicy.scopeMask("e-rezept openid")),
+            "Der Wildcard-Scope verlangt 'openid e-rezept' in dieser Reihenfolge");
+        assertTrue(policy.hasRequiredScope(Action.DOCUMENT_ACCESS, Profession.VERSICHERTER, AuthorizationPolicy.scopeMask(" openid  e-rezept ")));
+        assertTrue(policy.hasRequiredScope(Action.DOCUMENT_ACCESS, Profession.VERSICHERTER, AuthorizationPolicy.scopeMask("invoiceDoc.s invoiceDoc.r")));
+    }
+
+    @Test
+    void whenResourceScopeChecked_thenOnlyExactClaimMatches() {
+        // Bisheriges Verhalten des ResourceAuthorizationInterceptor: scope.equals("insurantAccount.rs") bzw. equals("openid e-rezept")
+        assertTrue(policy.isAllowed(Action.PATIENT_RESOURCE, Profession.VERSICHERTER, AuthorizationPolicy.scopeMask("insurantAccount.rs")));
+        assertTrue(policy.isAllowed(Action.PATIENT_RESOURCE, Profession.VERSICHERTER, AuthorizationPolicy.scopeMask("openid e-rezept")));
+        assertFalse(policy.isAllowed(Action.PATIENT_RESOURCE, Profession.VERSICHERTER, AuthorizationPolicy.scopeMask("invoiceDoc.c insurantAccount.rs")),
+            "Ein Token mit mehreren Scopes darf nicht auf Patient-Ressourcen zugreifen");
+        assertFalse(policy.isAllowed(Action.PATIENT_RESOURCE, Profession.VERSICHERTER, AuthorizationPolicy.scopeMask(" insurantAccount.rs")));
+        assertFalse(policy.isAllowed(Action.DOCUMENT_SEARCH, Profession.VERSICHERTER, AuthorizationPolicy.scopeMask("invoiceDoc.s invoiceDoc.r")));
+        assertFalse(policy.isAllowed(Action.DOCUMENT_READ, Profession.VERSICHERTER, AuthorizationPolicy.scopeMask("openid e-rezept invoiceDoc.r")));
+        assertFalse(policy.isAllowed(Action.AUDIT_EVENT_RESOURCE, Profession.VERSICHERTER, AuthorizationPolicy.scopeMask("auditEvent.rs openid")));
+        assertTrue(policy.isAllowed(Action.AUDIT_EVENT_RESOURCE, null, AuthorizationPolicy.scopeMask("auditEvent.rs")));
+
+        // Die Operationen prüften schon bisher auf Enthaltensein
+        assertTrue(policy.isAllowed(Action.SUBMIT, Profession.LEISTUNGSERBRINGER, AuthorizationPolicy.scopeMask("invoiceDoc.c insurantAccount.rs")));
+    }
+
+    @Test
+    void whenScopeSetOnToken_thenMaskIsPrecomputed() {
+        AccessToken accessToken = new AccessToken();
+        accessToken.setProfession(Profession.VERSICHERTER);
+        accessToken.setScope("invoiceDoc.u");
+
+        assertTrue(policy.isAllowed(Action.CHANGE_STATUS, accessToken));
+        assertFalse(policy.isAllowed(Action.SUBMIT, accessToken));
+        assertTrue(policy.hasRequiredScope(Action.CHANGE_STATUS, accessToken));
+    }
+}
@@ -0,0 +1,131 @@
+package ca.uhn.fhir.jpa.starter.custom.interceptor.auth;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.exceptions.SignatureVerificationException;
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Arrays;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BrainpoolP256r1AlgorithmTest {
+
+    private static KeyPair keyPair;
+
+    @BeforeAll
+    static void setUp() throws Exception {
+        if (Security.getProvider("BC") == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC", "BC");
+        generator.initialize(new ECGenParameterSpec("brainpoolP256r1"));
+        keyPair = generator.generateKeyPair();
+    }
+
+    @Test
+    void whenConvertingJoseSignature_thenDerMatchesBouncyCastleEncoding() throws Exception {
+        byte[][] samples = {
+            concat(fill((byte) 0x7f), fill((byte) 0x01)),
+            concat(fill((byte) 0x80), fill((byte) 0xff)),
+            concat(withLeadingZeros(3, (byte) 0x90), withLeadingZeros(31, (byte) 0x05)),
+            new byte[64]
+        };
+        byte[] der = new byte[72];
+        for (byte[] sample : samples) {
+            int length = BrainpoolP256r1Algorithm.convertConcatToDER(sample, der);
+            assertArrayEquals(referenceDer(sample), Arrays.copyOf(der, length));
+        }
+    }
+
+    @Test
+    void whenTokenSignedWithBrainpoolKey_thenSharedAlgorithmVerifiesRepeatedly() throws Exception {
+        BrainpoolP256r1Algorithm algorithm = new BrainpoolP256r1Algorithm(
+            (ECPublicKey) keyPair.getPublic(), (ECPrivateKey) keyPair.getPrivate());
+        String token = signToken(algorithm, "{\"iss\":\"test\"}");
+
+        // Die gepoolte Signature-Instanz muss auch bei wiederholter Nutzung korrekt prüfen
+        for (int i = 0; i < 3; i++) {
+            assertDoesNotThrow(() -> algorithm.verify(JWT.decode(token)));
+        }
+
+        String manipulated = token.substring(0, token.indexOf('.') + 1)
+            + Base64.getUrlEncoder().withoutPadding().encodeToString("{\"iss\":\"evil\"}".getBytes(StandardCharsets.UTF_8))
+            + token.substring(token.lastIndexOf('.'));
+        SignatureVerificationException rejected = assertThrows(SignatureVerificationException.class, () -> algorithm.verify(JWT.decode(manipulated)));
+        // Nicht erneut verpackt
+        assertNull(rejected.getCause());
+        assertDoesNotThrow(() -> algorithm.verify(JWT.decode(token)));
+    }
+
+    @Test
+    void whenSignatureHasWrongLength_thenVerificationFails() throws Exception {
+        BrainpoolP256r1Algorithm algorithm = new BrainpoolP256r1Algorithm(
+            (ECPublicKey) keyPair.getPublic(), (ECPrivateKey) keyPair.getPrivate());
+        String token = signToken(algorithm, "{\"iss\":\"test\"}");
+        String truncated = token.substring(0, token.length() - 4);
+
+        SignatureVerificationException rejected = assertThrows(SignatureVerificationException.class, () -> algorithm.verify(JWT.decode(truncated)));
+        assertInstanceOf(IllegalArgumentException.class, rejected.getCause());
+    }
+
+    private static String signToken(BrainpoolP256r1Algorithm algorithm, String payload) throws Exception {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        String content = encoder.encodeToString("{\"alg\":\"BP256R1\",\"typ\":\"JWT\"}".getBytes(StandardCharsets.UTF_8))
+            + "." + encoder.encodeToString(payload.getBytes(StandardCharsets.UTF_8));
+        // sign() liefert DER, im Token steht die JOSE-Darstellung r || s
+        ASN1Sequence sequence = ASN1Sequence.getInstance(algorithm.sign(content.getBytes(StandardCharsets.UTF_8)));
+        byte[] jose = concat(
+            toFixedLength(ASN1Integer.getInstance(sequence.getObjectAt(0)).getPositiveValue()),
+            toFixedLength(ASN1Integer.getInstance(sequence.getObjectAt(1)).getPositiveValue()));
+        return content + "." + encoder.encodeToString(jose);
+    }
+
+    private static byte[] referenceDer(byte[] concat) throws Exception {
+        ASN1EncodableVector vector = new ASN1EncodableVector();
+        vector.add(new ASN1Integer(new BigInteger(1, Arrays.copyOfRange(concat, 0, 32))));
+        vector.add(new ASN1Integer(new BigInteger(1, Arrays.copyOfRange(concat, 32, 64))));
+        return new DERSequence(vector).getEncoded();
+    }
+
+    private static byte[] toFixedLength(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        byte[] result = new byte[32];
+        int length = Math.min(bytes.length, 32);
+        System.arraycopy(bytes, bytes.length - length, result, 32 - length, length);
+        return result;
+    }
+
+    private static byte[] fill(byte value) {
+        byte[] bytes = new byte[32];
+        Arrays.fill(bytes, value);
+        return bytes;
+    }
+
+    private static byte[] withLeadingZeros(int zeros, byte value) {
+        byte[] bytes = fill(value);
+        Arrays.fill(bytes, 0, zeros, (byte) 0);
+        return bytes;
+    }
+
+    private static byte[] concat(byte[] r, byte[] s) {
+        byte[] result = new byte[64];
+        System.arraycopy(r, 0, result, 0, 32);
+        System.arraycopy(s, 0, result, 32, 32);
+        return result;
+    }
+}
@@ -0,0 +1,179 @@
+package ca.uhn.fhir.jpa.starter.custom.interceptor.auth;
+
+import com.sun.net.httpserver.HttpServer;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPReq;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.OCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.RespID;
+import org.bouncycastle.cert.ocsp.RevokedStatus;
+import org.bouncycastle.cert.ocsp.jcajce.JcaBasicOCSPRespBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Prüft Abruf, Zwischenspeicherung und Erneuerung von OCSP-Antworten gegen einen lokalen Ersatz-Responder.
+ */
+class OcspResponseCacheTest {
+
+    private HttpServer server;
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final AtomicReference<CertificateStatus> status = new AtomicReference<>(CertificateStatus.GOOD);
+    private final AtomicReference<Long> validityMillis = new AtomicReference<>(3_600_000L);
+    private PrivateKey responderKey;
+
+    private KeyPair caKeys;
+    private X509Certificate caCert;
+    private X509Certificate leafCert;
+    private OcspResponseCache ocspResponseCache;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        caKeys = generateKeyPair();
+        caCert = createCertificate(new X500Name("CN=ERG OCSP Test-CA TEST-ONLY"), caKeys.getPublic(), caKeys.getPrivate(), null, true);
+        leafCert = createCertificate(new X500Name("CN=ERG VAU TEST-ONLY"), generateKeyPair().getPublic(), caKeys.getPrivate(), caCert, false);
+        responderKey = caKeys.getPrivate();
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/ocsp", exchange -> {
+            requestCount.incrementAndGet();
+            try {
+                byte[] body = respond(new OCSPReq(exchange.getRequestBody().readAllBytes()));
+                exchange.getResponseHeaders().add("Content-Type", "application/ocsp-response");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+            } catch (Exception e) {
+                exchange.sendResponseHeaders(500, -1);
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+
+        ocspResponseCache = new OcspResponseCache(new TslManager(), "", 60, 300, 3600);
+        ocspResponseCache.track(leafCert, caCert, List.of("http://localhost:" + server.getAddress().getPort() + "/ocsp"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void whenResponseCached_thenItIsServedFromMemory() throws Exception {
+        byte[] stapled = ocspResponseCache.getStapledResponse(leafCert);
+
+        assertNotNull(stapled);
+        assertEquals(OCSPResp.SUCCESSFUL, new OCSPResp(stapled).getStatus());
+        assertEquals(OcspResponseCache.RevocationStatus.GOOD, ocspResponseCache.getStatus(leafCert));
+        assertArrayEquals(stapled, ocspResponseCache.getStapledResponse(leafCert));
+        assertEquals(1, requestCount.get(), "Die Antwort muss aus dem Speicher geliefert werden");
+
+        // Vor Erreichen des Aktualisierungszeitpunkts erfolgt kein weiterer Abruf
+        ocspResponseCache.refreshDue();
+        assertEquals(1, requestCount.get());
+    }
+
+    @Test
+    void whenCertificateRevoked_thenStatusIsRevoked() {
+        status.set(new RevokedStatus(new Date(), CRLReason.keyCompromise));
+
+        assertEquals(OcspResponseCache.RevocationStatus.REVOKED, ocspResponseCache.getStatus(leafCert));
+    }
+
+    @Test
+    void whenNextUpdateApproaches_thenResponseIsRefreshedInBackground() throws Exception {
+        validityMillis.set(2_000L);
+        byte[] first = ocspResponseCache.getStapledResponse(leafCert);
+        assertNotNull(first);
+
+        // Bei kurzer Gültigkeit wird nach der Hälfte der Restlaufzeit erneuert
+        Thread.sleep(1_100);
+        validityMillis.set(3_600_000L);
+        ocspResponseCache.refreshDue();
+
+        assertEquals(2, requestCount.get());
+        assertTrue(ocspResponseCache.getRemainingValiditySeconds(leafCert) > 60);
+        assertFalse(Arrays.equals(first, ocspResponseCache.getStapledResponse(leafCert)));
+    }
+
+    @Test
+    void whenResponderUnreachable_thenPreviousResponseRemainsAvailable() throws Exception {
+        validityMillis.set(2_000L);
+        byte[] first = ocspResponseCache.getStapledResponse(leafCert);
+
+        Thread.sleep(1_100);
+        server.stop(0);
+        ocspResponseCache.refreshDue();
+
+        assertArrayEquals(first, ocspResponseCache.getStapledResponse(leafCert));
+    }
+
+    @Test
+    void whenResponseSignedByForeignKey_thenResponseIsRejected() throws Exception {
+        responderKey = generateKeyPair().getPrivate();
+
+        assertNull(ocspResponseCache.getStapledResponse(leafCert));
+        assertEquals(OcspResponseCache.RevocationStatus.UNAVAILABLE, ocspResponseCache.getStatus(leafCert));
+        assertEquals(1, requestCount.get(), "Nach einem Fehler wird erst nach dem Prüfintervall erneut abgefragt");
+    }
+
+    private byte[] respond(OCSPReq request) throws Exception {
+        CertificateID certificateId = request.getRequestList()[0].getCertID();
+        Date now = new Date();
+        JcaBasicOCSPRespBuilder builder = new JcaBasicOCSPRespBuilder(caKeys.getPublic(),
+            new JcaDigestCalculatorProviderBuilder().build().get(RespID.HASH_SHA1));
+        builder.addResponse(certificateId, status.get(), now, new Date(now.getTime() + validityMillis.get()));
+        BasicOCSPResp basic = builder.build(new JcaContentSignerBuilder("SHA256withECDSA").build(responderKey),
+            new X509CertificateHolder[0], now);
+        return new OCSPRespBuilder().build(OCSPRespBuilder.SUCCESSFUL, basic).getEncoded();
+    }
+
+    private static KeyPair generateKeyPair() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        return generator.generateKeyPair();
+    }
+
+    private static X509Certificate createCertificate(X500Name subject, java.security.PublicKey publicKey, PrivateKey signingKey,
+                                                     X509Certificate issuer, boolean ca) throws Exception {
+        Date now = new Date();
+        X500Name issuerName = issuer != null ? new JcaX509CertificateHolder(issuer).getSubject() : subject;
+        JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(
+            issuerName, BigInteger.valueOf(System.nanoTime()), new Date(now.getTime() - 60_000L),
+            new Date(now.getTime() + 86_400_000L), subject, publicKey);
+        if (ca) {
+            builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(0));
+        }
+        return new JcaX509CertificateConverter().getCertificate(
+            builder.build(new JcaContentSignerBuilder("SHA256withECDSA").build(signingKey)));
+    }
+}
@@ -0,0 +1,194 @@
+package ca.uhn.fhir.jpa.starter.custom.interceptor.auth;
+
+import com.sun.net.httpserver.HttpServer;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.time.ZonedDateTime;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Prüft die Aktualisierung der IdP-Schlüssel gegen einen lokalen Ersatz-Discovery-Server.
+ * Der Ersatz-Server spricht nur HTTP; der Abruf wird deshalb im Test ersetzt, die Anwendung selbst erzwingt HTTPS.
+ */
+class PukTokenManagerRefreshTest {
+
+    private HttpServer server;
+    private final AtomicReference<String> jwksResponse = new AtomicReference<>();
+    private String discoveryDocument;
+    private PukTokenManager pukTokenManager;
+
+    /** Die Zertifikate des Ersatz-Servers sind selbstsigniert und stehen nicht in der TSL. */
+    private static class AcceptingTslManager extends TslManager {
+        @Override
+        public boolean verifyCertificate(X509Certificate cert, ZonedDateTime validationTime) {
+            return true;
+        }
+    }
+
+    /** Ruft den lokalen Ersatz-Server per HTTP ab, statt die HTTPS-Verbindung der Anwendung zu nutzen. */
+    private static class PlainHttpPukTokenManager extends PukTokenManager {
+        private final HttpClient httpClient = HttpClient.newHttpClient();
+
+        PlainHttpPukTokenManager(String discoveryUrl) {
+            super(discoveryUrl, 1, 1, new AcceptingTslManager());
+        }
+
+        @Override
+        String fetchData(String urlString) {
+            try {
+                HttpResponse<String> response = httpClient.send(HttpRequest.newBuilder(URI.create(urlString)).GET().build(),
+                    HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+                if (response.statusCode() != 200) {
+                    throw new IllegalStateException("HTTP " + response.statusCode() + " von " + urlString);
+                }
+                return response.body();
+            } catch (Exception e) {
+                throw new RuntimeException("Fehler beim Datenabruf", e);
+            }
+        }
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/.well-known/openid-configuration", exchange -> respond(exchange, discoveryDocument));
+        server.createContext("/jwks", exchange -> respond(exchange, jwksResponse.get()));
+        server.start();
+        String baseUrl = "http://localhost:" + server.getAddress().getPort();
+
+        X509Certificate discoveryCert = createCertificate(generateKeyPair());
+        String header = encode(new JSONObject()
+            .put("alg", "BP256R1")
+            .put("x5c", new JSONArray().put(Base64.getEncoder().encodeToString(discoveryCert.getEncoded()))).toString());
+        String payload = encode(new JSONObject().put("uri_puk_idp_sig", baseUrl + "/jwks").toString());
+        discoveryDocument = header + "." + payload + ".c2lnbmF0dXI";
+
+        pukTokenManager = new PlainHttpPukTokenManager(baseUrl + "/.well-known/openid-configuration");
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void whenIdpRotatesKeys_thenAllCurrentKeysArePublished() throws Exception {
+        KeyPair first = generateKeyPair();
+        jwksResponse.set(jwk("puk_idp_sig", first).toString());
+        pukTokenManager.init();
+        Map<String, PublicKey> initialKeys = pukTokenManager.getKeys();
+        assertEquals(first.getPublic(), pukTokenManager.getPublicKey("puk_idp_sig"));
+
+        // Unveränderte Schlüssel behalten die Map-Instanz, damit abhängige Caches gültig bleiben
+        pukTokenManager.refreshKeys();
+        assertSame(initialKeys, pukTokenManager.getKeys());
+
+        KeyPair second = generateKeyPair();
+        jwksResponse.set(new JSONObject().put("keys", new JSONArray()
+            .put(jwk("puk_idp_sig", first))
+            .put(jwk("puk_idp_sig_2", second))
+            .put(jwk("puk_idp_enc", generateKeyPair()).put("use", "enc"))).toString());
+        pukTokenManager.refreshKeys();
+
+        Map<String, PublicKey> rotatedKeys = pukTokenManager.getKeys();
+        assertNotSame(initialKeys, rotatedKeys);
+        assertEquals(2, rotatedKeys.size(), "Verschlüsselungsschlüssel dürfen nicht übernommen werden");
+        assertEquals(second.getPublic(), pukTokenManager.getPublicKey("puk_idp_sig_2"));
+        assertEquals(first.getPublic(), pukTokenManager.getCurrentPublicKey());
+        assertThrows(UnsupportedOperationException.class, () -> rotatedKeys.remove("puk_idp_sig"));
+    }
+
+    @Test
+    void whenRefreshFails_thenPreviousKeysRemainAvailable() throws Exception {
+        KeyPair first = generateKeyPair();
+        jwksResponse.set(jwk("puk_idp_sig", first).toString());
+        pukTokenManager.init();
+        Map<String, PublicKey> keys = pukTokenManager.getKeys();
+
+        jwksResponse.set(null);
+        Thread.sleep(1100);
+        assertTrue(pukTokenManager.refreshIfDue(), "Auch nach einem Fehler müssen die bisherigen Schlüssel verfügbar bleiben");
+        assertSame(keys, pukTokenManager.getKeys());
+    }
+
+    @Test
+    void whenDiscoveryUnreachable_thenInitDoesNotFail() {
+        server.stop(0);
+        assertDoesNotThrow(() -> pukTokenManager.init());
+        assertTrue(pukTokenManager.getKeys().isEmpty());
+        assertNull(pukTokenManager.getCurrentPublicKey());
+    }
+
+    @Test
+    void whenDiscoveryUrlIsNotHttps_thenFetchIsRejected() {
+        PukTokenManager httpManager = new PukTokenManager(
+            "http://localhost:" + server.getAddress().getPort() + "/.well-known/openid-configuration", 1, 1, new AcceptingTslManager());
+        RuntimeException exception = assertThrows(RuntimeException.class,
+            () -> httpManager.fetchData("http://localhost:" + server.getAddress().getPort() + "/jwks"));
+        assertInstanceOf(IllegalArgumentException.class, exception.getCause());
+    }
+
+    private static void respond(com.sun.net.httpserver.HttpExchange exchange, String body) throws java.io.IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(500, -1);
+            exchange.close();
+            return;
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        exchange.getResponseBody().write(bytes);
+        exchange.close();
+    }
+
+    private static JSONObject jwk(String kid, KeyPair keyPair) throws Exception {
+        return new JSONObject()
+            .put("kid", kid)
+            .put("use", "sig")
+            .put("x5c", new JSONArray().put(Base64.getEncoder().encodeToString(createCertificate(keyPair).getEncoded())));
+    }
+
+    private static KeyPair generateKeyPair() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        return generator.generateKeyPair();
+    }
+
+    private static X509Certificate createCertificate(KeyPair keyPair) throws Exception {
+        X500Name name = new X500Name("CN=IdP Ersatz TEST-ONLY");
+        Date now = new Date();
+        JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(
+            name, BigInteger.valueOf(System.nanoTime()), now, new Date(now.getTime() + 3_600_000L), name, keyPair.getPublic());
+        return new JcaX509CertificateConverter().getCertificate(
+            builder.build(new JcaContentSignerBuilder("SHA256withECDSA").build(keyPair.getPrivate())));
+    }
+
+    private static String encode(String json) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
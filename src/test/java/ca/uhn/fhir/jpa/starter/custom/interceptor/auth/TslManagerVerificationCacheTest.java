@@ -0,0 +1,127 @@
+package ca.uhn.fhir.jpa.starter.custom.interceptor.auth;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.time.ZonedDateTime;
+import java.util.Base64;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TslManagerVerificationCacheTest {
+
+    private static final X500Name CA_NAME = new X500Name("CN=ERG Test-CA TEST-ONLY");
+
+    @TempDir
+    Path snapshotDir;
+
+    private TslManager tslManager;
+    private KeyPair caKeys;
+    private X509Certificate caCert;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        tslManager = new TslManager(snapshotDir.toString(), 3600);
+        caKeys = generateKeyPair();
+        caCert = createCaCertificate(caKeys);
+        tslManager.loadTsl(new ByteArrayInputStream(tslWith(caCert).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void whenCertificateVerifiedTwice_thenSignatureResultIsCached() throws Exception {
+        X509Certificate leaf = createLeafCertificate(caKeys.getPrivate(), caCert, generateKeyPair());
+
+        assertTrue(tslManager.verifyCertificate(leaf, ZonedDateTime.now()));
+        assertEquals(1, tslManager.getVerificationCacheSize());
+        assertTrue(tslManager.verifyCertificate(leaf, ZonedDateTime.now()));
+        assertEquals(1, tslManager.getVerificationCacheSize());
+
+        // Zeitabhängige Prüfungen laufen trotz Cache bei jedem Aufruf
+        assertFalse(tslManager.verifyCertificate(leaf, ZonedDateTime.now().plusYears(2)));
+    }
+
+    @Test
+    void whenSignedByForeignKey_thenVerificationFails() throws Exception {
+        // Gleicher Aussteller-DN und AKI, aber mit einem fremden Schlüssel signiert
+        X509Certificate forged = createLeafCertificate(generateKeyPair().getPrivate(), caCert, generateKeyPair());
+
+        assertFalse(tslManager.verifyCertificate(forged, ZonedDateTime.now()));
+        assertFalse(tslManager.verifyCertificate(forged, ZonedDateTime.now()));
+    }
+
+    @Test
+    void whenNewTslLoaded_thenCachedResultsAreDiscarded() throws Exception {
+        X509Certificate leaf = createLeafCertificate(caKeys.getPrivate(), caCert, generateKeyPair());
+        assertTrue(tslManager.verifyCertificate(leaf, ZonedDateTime.now()));
+
+        X509Certificate otherCa = createCaCertificate(generateKeyPair());
+        tslManager.loadTsl(new ByteArrayInputStream(tslWith(otherCa).getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(0, tslManager.getVerificationCacheSize());
+        assertFalse(tslManager.verifyCertificate(leaf, ZonedDateTime.now()),
+            "Nach dem Austausch der TSL darf das alte Ergebnis nicht mehr gelten");
+    }
+
+    private static String tslWith(X509Certificate anchor) throws Exception {
+        return "<TrustServiceStatusList xmlns=\"" + TslStreamParser.TSL_NAMESPACE + "\"><TrustServiceProviderList>"
+            + "<TrustServiceProvider><TSPServices><TSPService><ServiceInformation>"
+            + "<ServiceTypeIdentifier>" + TslStreamParser.PKC_SERVICE_TYPE + "</ServiceTypeIdentifier>"
+            + "<ServiceDigitalIdentity><DigitalId><X509Certificate>"
+            + Base64.getEncoder().encodeToString(anchor.getEncoded())
+            + "</X509Certificate></DigitalId></ServiceDigitalIdentity>"
+            + "<ServiceStatus>" + TslStreamParser.SERVICE_STATUS_ACTIVE + "</ServiceStatus>"
+            + "<ServiceInformationExtensions><Extension Critical=\"false\">"
+            + "<ExtensionOID>" + TslStreamParser.EXTENSION_OID + "</ExtensionOID>"
+            + "<ExtensionValue>" + TslStreamParser.EXTENSION_VALUE + "</ExtensionValue>"
+            + "</Extension></ServiceInformationExtensions>"
+            + "</ServiceInformation></TSPService></TSPServices></TrustServiceProvider></TrustServiceProviderList>"
+            + "</TrustServiceStatusList>";
+    }
+
+    private static KeyPair generateKeyPair() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        return generator.generateKeyPair();
+    }
+
+    private static X509Certificate createCaCertificate(KeyPair keyPair) throws Exception {
+        Date now = new Date();
+        JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(
+            CA_NAME, BigInteger.valueOf(System.nanoTime()), new Date(now.getTime() - 60_000L),
+            new Date(now.getTime() + 2L * 365 * 86_400_000L), CA_NAME, keyPair.getPublic());
+        builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(0));
+        builder.addExtension(Extension.subjectKeyIdentifier, false,
+            new JcaX509ExtensionUtils().createSubjectKeyIdentifier(keyPair.getPublic()));
+        return new JcaX509CertificateConverter().getCertificate(
+            builder.build(new JcaContentSignerBuilder("SHA256withECDSA").build(keyPair.getPrivate())));
+    }
+
+    private static X509Certificate createLeafCertificate(java.security.PrivateKey signingKey, X509Certificate issuer,
+                                                         KeyPair subjectKeys) throws Exception {
+        Date now = new Date();
+        JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(
+            issuer, BigInteger.valueOf(System.nanoTime()), new Date(now.getTime() - 60_000L),
+            new Date(now.getTime() + 365L * 86_400_000L), new X500Name("CN=IdP Signatur TEST-ONLY"), subjectKeys.getPublic());
+        builder.addExtension(Extension.authorityKeyIdentifier, false,
+            new JcaX509ExtensionUtils().createAuthorityKeyIdentifier(issuer));
+        return new JcaX509CertificateConverter().getCertificate(
+            builder.build(new JcaContentSignerBuilder("SHA256withECDSA").build(signingKey)));
+    }
+}
@@ -0,0 +1,123 @@
+package ca.uhn.fhir.jpa.starter.custom.lifecycle;
+
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.jpa.starter.custom.BaseProviderTest;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
+import org.hl7.fhir.r4.model.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Testklasse für den DocumentLifecycleService (Fristen aus nextStatusChangeDate).
+ */
+class DocumentLifecycleServiceTest extends BaseProviderTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DocumentLifecycleServiceTest.class);
+    private static final String STATUS_SYSTEM = "https://gematik.de/fhir/erg/CodeSystem/erg-rechnungsstatus-cs";
+    private static final String NEXT_STATUS_CHANGE_DATE_URL = "https://gematik.de/fhir/erg/StructureDefinition/nextStatusChangeDate";
+
+    @Autowired
+    private DocumentLifecycleService documentLifecycleService;
+
+    @Autowired
+    private DaoRegistry daoRegistry;
+
+    private String documentId;
+
+    @Override
+    @BeforeEach
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        Parameters params = new Parameters();
+        params.addParameter().setName("rechnung").setResource(testRechnungDocRef.copy());
+        params.addParameter().setName("modus").setValue(new CodeType("normal"));
+        params.addParameter().setName("angereichertesPDF").setValue(new BooleanType(false));
+
+        Parameters result = client.operation()
+            .onInstance(testPatient.getIdElement())
+            .named("$erechnung-submit")
+            .withParameters(params)
+            .withAdditionalHeader("Authorization", "Bearer " + getValidAccessToken("SMCB_KRANKENHAUS"))
+            .execute();
+
+        documentId = ((StringType) result.getParameter("ergToken").getValue()).getValue();
+        assertNotNull(documentId, "ergToken für Lebenszyklus-Tests darf nicht null sein.");
+        LOGGER.info("DocumentLifecycleServiceTest: Testdokument eingereicht, ID: {}", documentId);
+    }
+
+    private void changeStatus(String tag) {
+        Parameters params = new Parameters();
+        params.addParameter().setName("tag").setValue(new StringType(tag));
+        client.operation()
+            .onInstance(new IdType("DocumentReference", documentId))
+            .named("$change-status")
+            .withParameters(params)
+            .withAdditionalHeader("Authorization", "Bearer " + getValidAccessToken("EGK1"))
+            .execute();
+    }
+
+    /**
+     * Setzt die Frist des Dokuments in die Vergangenheit, ohne den Status zu verändern.
+     */
+    private void backdateNextStatusChange() {
+        DocumentReference document = daoRegistry.getResourceDao(DocumentReference.class)
+            .read(new IdType("DocumentReference", documentId), new SystemRequestDetails());
+        document.getExtension().removeIf(ext -> NEXT_STATUS_CHANGE_DATE_URL.equals(ext.getUrl()));
+        document.addExtension(NEXT_STATUS_CHANGE_DATE_URL,
+            new DateTimeType(Date.from(LocalDate.now().minusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant())));
+        daoRegistry.getResourceDao(DocumentReference.class).update(document, new SystemRequestDetails());
+    }
+
+    @Test
+    void testErledigtNachFristablaufInPapierkorb() {
+        changeStatus("erledigt");
+        backdateNextStatusChange();
+
+        DocumentLifecycleService.Ergebnis ergebnis = documentLifecycleService.processDueDocuments(new Date());
+        assertTrue(ergebnis.getInPapierkorb() >= 1, "Mindestens ein fälliges Dokument sollte in den Papierkorb verschoben werden");
+
+        DocumentReference document = daoRegistry.getResourceDao(DocumentReference.class)
+            .read(new IdType("DocumentReference", documentId), new SystemRequestDetails());
+        assertEquals("papierkorb", document.getMeta().getTag().stream()
+            .filter(tag -> STATUS_SYSTEM.equals(tag.getSystem()))
+            .findFirst().get().getCode(), "Das Status-Tag sollte 'papierkorb' sein");
+        DateTimeType nextChange = (DateTimeType) document.getExtensionByUrl(NEXT_STATUS_CHANGE_DATE_URL).getValue();
+        assertTrue(nextChange.getValue().after(new Date()), "Die neue Frist sollte in der Zukunft liegen");
+    }
+
+    @Test
+    void testPapierkorbNachFristablaufGeloescht() {
+        changeStatus("papierkorb");
+        backdateNextStatusChange();
+
+        DocumentLifecycleService.Ergebnis ergebnis = documentLifecycleService.processDueDocuments(new Date());
+        assertTrue(ergebnis.getGeloescht() >= 1, "Mindestens ein fälliges Dokument sollte gelöscht werden");
+
+        assertThrows(Exception.class, () -> daoRegistry.getResourceDao(DocumentReference.class)
+                .read(new IdType("DocumentReference", documentId), new SystemRequestDetails()),
+            "Das Dokument sollte nach Fristablauf im Papierkorb nicht mehr lesbar sein");
+    }
+
+    @Test
+    void testNichtFaelligeDokumenteBleibenUnveraendert() {
+        changeStatus("erledigt");
+
+        documentLifecycleService.processDueDocuments(new Date());
+
+        DocumentReference document = daoRegistry.getResourceDao(DocumentReference.class)
+            .read(new IdType("DocumentReference", documentId), new SystemRequestDetails());
+        assertEquals("erledigt", document.getMeta().getTag().stream()
+            .filter(tag -> STATUS_SYSTEM.equals(tag.getSystem()))
+            .findFirst().get().getCode(), "Ein nicht fälliges Dokument sollte seinen Status behalten");
+    }
+}
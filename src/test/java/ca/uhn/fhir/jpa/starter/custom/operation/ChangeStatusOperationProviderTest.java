@@ -1,5 +1,10 @@
 package ca.uhn.fhir.jpa.starter.custom.operation;
 
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.jpa.starter.custom.search.ErgSearchParameterRegistrar;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
+import ca.uhn.fhir.rest.param.TokenParam;
 import ca.uhn.fhir.rest.server.exceptions.UnprocessableEntityException;
 import ca.uhn.fhir.rest.server.exceptions.AuthenticationException;
 import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
@@ -10,6 +15,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 
 import java.util.UUID;
 
@@ -26,6 +32,9 @@ class ChangeStatusOperationProviderTest extends BaseProviderTest {
     private static final Logger LOGGER = LoggerFactory.getLogger(ChangeStatusOperationProviderTest.class);
     private DocumentReference testDocument;
 
+    @Autowired
+    private DaoRegistry daoRegistry;
+
     @Override
     @BeforeEach
     protected void setUp() throws Exception {
@@ -157,7 +166,113 @@ class ChangeStatusOperationProviderTest extends BaseProviderTest {
         
         LOGGER.info("Change-Status Operation Test (offen -> erledigt) erfolgreich abgeschlossen");
     }
-    
+
+    @Test
+    void testChangeStatusErzeugtGenauEineVersion() {
+        LOGGER.info("Starte Change-Status Operation Test (eine Version pro Statuswechsel)");
+
+        String authHeader = "Bearer " + super.getValidAccessToken("EGK1");
+        long versionBefore = testDocument.getIdElement().getVersionIdPartAsLong();
+
+        Parameters params = new Parameters();
+        params.addParameter().setName("tag").setValue(new StringType("erledigt"));
+        Parameters result = super.client.operation()
+            .onInstance(testDocument.getIdElement().toVersionless())
+            .named("$change-status")
+            .withParameters(params)
+            .withAdditionalHeader("Authorization", authHeader)
+            .execute();
+
+        Meta meta = (Meta) result.getParameter().get(0).getValue();
+        assertEquals(String.valueOf(versionBefore + 1), meta.getVersionId(),
+            "Ein Statuswechsel sollte genau eine neue Version erzeugen");
+
+        params = new Parameters();
+        params.addParameter().setName("tag").setValue(new StringType("offen"));
+        result = super.client.operation()
+            .onInstance(testDocument.getIdElement().toVersionless())
+            .named("$change-status")
+            .withParameters(params)
+            .withAdditionalHeader("Authorization", authHeader)
+            .execute();
+
+        meta = (Meta) result.getParameter().get(0).getValue();
+        assertEquals(String.valueOf(versionBefore + 2), meta.getVersionId(),
+            "Auch der zweite Statuswechsel sollte genau eine neue Version erzeugen");
+        long statusTags = meta.getTag().stream()
+            .filter(tag -> "https://gematik.de/fhir/erg/CodeSystem/erg-rechnungsstatus-cs".equals(tag.getSystem()))
+            .count();
+        assertEquals(1, statusTags, "Es sollte genau ein Status-Tag vorhanden sein");
+        assertEquals("offen", meta.getTag().stream()
+            .filter(tag -> "https://gematik.de/fhir/erg/CodeSystem/erg-rechnungsstatus-cs".equals(tag.getSystem()))
+            .findFirst().get().getCode(), "Das Status-Tag sollte 'offen' sein");
+
+        LOGGER.info("Change-Status Operation Test (eine Version pro Statuswechsel) erfolgreich abgeschlossen");
+    }
+
+    @Test
+    void testSucheUeberIndiziertenRechnungsstatus() {
+        LOGGER.info("Starte Test für Suche über den SearchParameter 'rechnungsstatus'");
+
+        Parameters params = new Parameters();
+        params.addParameter().setName("tag").setValue(new StringType("erledigt"));
+        super.client.operation()
+            .onInstance(testDocument.getIdElement())
+            .named("$change-status")
+            .withParameters(params)
+            .withAdditionalHeader("Authorization", "Bearer " + super.getValidAccessToken("EGK1"))
+            .execute();
+
+        String documentId = testDocument.getIdElement().getIdPart();
+        SearchParameterMap erledigt = SearchParameterMap.newSynchronous(ErgSearchParameterRegistrar.SP_RECHNUNGSSTATUS,
+            new TokenParam("https://gematik.de/fhir/erg/CodeSystem/erg-rechnungsstatus-cs", "erledigt"));
+        assertTrue(daoRegistry.getResourceDao(DocumentReference.class).search(erledigt, new SystemRequestDetails()).getAllResources().stream()
+            .anyMatch(resource -> documentId.equals(resource.getIdElement().getIdPart())), "Dokument sollte über rechnungsstatus=erledigt gefunden werden");
+
+        SearchParameterMap offen = SearchParameterMap.newSynchronous(ErgSearchParameterRegistrar.SP_RECHNUNGSSTATUS,
+            new TokenParam("https://gematik.de/fhir/erg/CodeSystem/erg-rechnungsstatus-cs", "offen"));
+        assertTrue(daoRegistry.getResourceDao(DocumentReference.class).search(offen, new SystemRequestDetails()).getAllResources().stream()
+            .noneMatch(resource -> documentId.equals(resource.getIdElement().getIdPart())), "Dokument sollte nicht mehr unter rechnungsstatus=offen erscheinen");
+    }
+
+    @Test
+    void testChangeStatusBatchMitErgebnisProToken() {
+        LOGGER.info("Starte Batch-Change-Status Operation Test");
+
+        String authHeader = "Bearer " + super.getValidAccessToken("EGK1");
+        String unbekanntesToken = UUID.randomUUID().toString();
+
+        Parameters params = new Parameters();
+        params.addParameter().setName("token").setValue(new StringType(testDocument.getIdElement().getIdPart()));
+        params.addParameter().setName("token").setValue(new StringType(unbekanntesToken));
+        params.addParameter().setName("tag").setValue(new StringType("erledigt"));
+
+        Parameters result = super.client.operation()
+            .onType(DocumentReference.class)
+            .named("$change-status")
+            .withParameters(params)
+            .withAdditionalHeader("Authorization", authHeader)
+            .execute();
+
+        assertNotNull(result, "Ergebnis sollte nicht null sein");
+        assertEquals(2, result.getParameters("ergebnis").size(), "Es sollte genau ein Ergebnis pro Token geben");
+
+        Parameters.ParametersParameterComponent erfolg = result.getParameters("ergebnis").get(0);
+        assertEquals(testDocument.getIdElement().getIdPart(), ((StringType) erfolg.getPart().get(0).getValue()).getValue());
+        assertEquals("erfolg", ((CodeType) erfolg.getPart().get(1).getValue()).getValue());
+        Meta meta = (Meta) erfolg.getPart().get(2).getValue();
+        assertEquals("erledigt", meta.getTag().stream()
+            .filter(tag -> "https://gematik.de/fhir/erg/CodeSystem/erg-rechnungsstatus-cs".equals(tag.getSystem()))
+            .findFirst().get().getCode(), "Das Status-Tag sollte 'erledigt' sein");
+
+        Parameters.ParametersParameterComponent fehler = result.getParameters("ergebnis").get(1);
+        assertEquals(unbekanntesToken, ((StringType) fehler.getPart().get(0).getValue()).getValue());
+        assertEquals("fehler", ((CodeType) fehler.getPart().get(1).getValue()).getValue());
+        assertEquals(404, ((IntegerType) fehler.getPart().get(2).getValue()).getValue(), "Unbekanntes Token sollte mit 404 gemeldet werden");
+
+        LOGGER.info("Batch-Change-Status Operation Test erfolgreich abgeschlossen");
+    }
+
     @Test
     void testChangeStatusToPapierkorb() {
         LOGGER.info("Starte Change-Status Operation Test (offen -> papierkorb)");
@@ -0,0 +1,120 @@
+package ca.uhn.fhir.jpa.starter.custom.operation;
+
+import ca.uhn.fhir.jpa.starter.custom.BaseProviderTest;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.hl7.fhir.r4.model.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PdfDownloadOperationProviderTest extends BaseProviderTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PdfDownloadOperationProviderTest.class);
+    private String ergToken;
+
+    @Override
+    @BeforeEach
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        Parameters params = new Parameters();
+        params.addParameter().setName("rechnung").setResource(testRechnungDocRef.copy());
+        params.addParameter().setName("modus").setValue(new CodeType("normal"));
+        params.addParameter().setName("angereichertesPDF").setValue(new BooleanType(false));
+
+        Parameters result = client.operation()
+            .onInstance(testPatient.getIdElement())
+            .named("$erechnung-submit")
+            .withParameters(params)
+            .withAdditionalHeader("Authorization", "Bearer " + getValidAccessToken("SMCB_KRANKENHAUS"))
+            .execute();
+
+        ergToken = ((StringType) result.getParameter("ergToken").getValue()).getValue();
+        assertNotNull(ergToken, "ergToken für Download-Tests darf nicht null sein.");
+        LOGGER.info("PdfDownloadOperationProviderTest: Testdokument eingereicht, ergToken: {}", ergToken);
+    }
+
+    private ResponseEntity<byte[]> download(String art, String range) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Authorization", "Bearer " + getValidAccessToken("EGK1"));
+        if (range != null) {
+            headers.set("Range", range);
+        }
+        String url = "http://localhost:" + port + "/fhir/DocumentReference/" + ergToken + "/$download-pdf" + (art != null ? "?art=" + art : "");
+        return new RestTemplate().exchange(url, HttpMethod.GET, new HttpEntity<>(headers), byte[].class);
+    }
+
+    @Test
+    void testDownloadAngereichertesPdfKomplett() throws Exception {
+        ResponseEntity<byte[]> response = download(null, null);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode(), "Vollständiger Download sollte 200 liefern.");
+        assertEquals(MediaType.APPLICATION_PDF, response.getHeaders().getContentType(), "Content-Type sollte application/pdf sein.");
+        assertEquals("bytes", response.getHeaders().getFirst("Accept-Ranges"), "Accept-Ranges sollte 'bytes' sein.");
+        byte[] body = response.getBody();
+        assertNotNull(body, "PDF-Daten sollten nicht null sein.");
+        assertEquals(body.length, response.getHeaders().getContentLength(), "Content-Length sollte der PDF-Größe entsprechen.");
+
+        try (PDDocument document = PDDocument.load(body)) {
+            assertTrue(document.getNumberOfPages() >= 1, "Angereichertes PDF sollte mindestens eine Seite haben.");
+        }
+    }
+
+    @Test
+    void testDownloadMitRangeLiefertTeilinhalt() {
+        byte[] full = download("angereichert", null).getBody();
+        assertNotNull(full);
+
+        ResponseEntity<byte[]> first = download("angereichert", "bytes=0-99");
+        assertEquals(HttpStatus.PARTIAL_CONTENT, first.getStatusCode(), "Range-Request sollte 206 liefern.");
+        assertEquals("bytes 0-99/" + full.length, first.getHeaders().getFirst("Content-Range"));
+        assertArrayEquals(Arrays.copyOfRange(full, 0, 100), first.getBody(), "Teilinhalt sollte den ersten 100 Bytes entsprechen.");
+
+        ResponseEntity<byte[]> rest = download("angereichert", "bytes=100-");
+        assertEquals(HttpStatus.PARTIAL_CONTENT, rest.getStatusCode());
+        assertArrayEquals(Arrays.copyOfRange(full, 100, full.length), rest.getBody(), "Fortgesetzter Download sollte den Rest des PDFs liefern.");
+
+        ResponseEntity<byte[]> suffix = download("angereichert", "bytes=-10");
+        assertEquals(HttpStatus.PARTIAL_CONTENT, suffix.getStatusCode());
+        assertArrayEquals(Arrays.copyOfRange(full, full.length - 10, full.length), suffix.getBody(), "Suffix-Range sollte die letzten 10 Bytes liefern.");
+    }
+
+    @Test
+    void testDownloadMitNichtErfuellbarerRange() {
+        HttpClientErrorException exception = assertThrows(HttpClientErrorException.class,
+            () -> download("angereichert", "bytes=999999999-"));
+        assertEquals(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE, exception.getStatusCode(), "Nicht erfüllbare Range sollte 416 liefern.");
+    }
+
+    @Test
+    void testDownloadOriginalPdf() throws Exception {
+        ResponseEntity<byte[]> response = download("original", null);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(MediaType.APPLICATION_PDF, response.getHeaders().getContentType());
+        try (PDDocument document = PDDocument.load(response.getBody())) {
+            assertTrue(document.getNumberOfPages() >= 1, "Original-PDF sollte mindestens eine Seite haben.");
+        }
+    }
+
+    @Test
+    void testDownloadOhneAuthorization() {
+        String url = "http://localhost:" + port + "/fhir/DocumentReference/" + ergToken + "/$download-pdf";
+        HttpClientErrorException exception = assertThrows(HttpClientErrorException.class,
+            () -> new RestTemplate().exchange(url, HttpMethod.GET, null, byte[].class));
+        assertEquals(HttpStatus.UNAUTHORIZED, exception.getStatusCode(), "Download ohne Access Token sollte 401 liefern.");
+    }
+}
@@ -1,6 +1,9 @@
 package ca.uhn.fhir.jpa.starter.custom.operation;
 
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
 import ca.uhn.fhir.jpa.starter.custom.BaseProviderTest;
+import ca.uhn.fhir.jpa.starter.custom.operation.processFlag.ProcessFlagService;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
 import ca.uhn.fhir.rest.server.exceptions.UnprocessableEntityException;
 import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
 import ca.uhn.fhir.rest.server.exceptions.ForbiddenOperationException;
@@ -9,6 +12,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 
 import java.util.Date;
 
@@ -22,6 +26,12 @@ class ProcessFlagOperationProviderTest extends BaseProviderTest {
     private static final Logger LOGGER = LoggerFactory.getLogger(ProcessFlagOperationProviderTest.class);
     private String documentId;
 
+    @Autowired
+    private DaoRegistry daoRegistry;
+
+    @Autowired
+    private ProcessFlagService processFlagService;
+
     @Override
     @BeforeEach
     protected void setUp() throws Exception {
@@ -301,6 +311,43 @@ class ProcessFlagOperationProviderTest extends BaseProviderTest {
         assertTrue(markierungFound, "Meta sollte die Markierungs-Extension enthalten");
     }
 
+    @Test
+    void testProcessFlagAufVeralteterVersionWirdNeuAngewendet() {
+        LOGGER.info("Starte Process-Flag Test für parallele Änderung (veraltete Version)");
+
+        // Dokument in Version n lesen, danach von "einem anderen Gerät" ändern lassen
+        DocumentReference veraltet = daoRegistry.getResourceDao(DocumentReference.class)
+            .read(new IdType("DocumentReference", documentId), new SystemRequestDetails());
+        long versionVorher = veraltet.getIdElement().getVersionIdPartAsLong();
+
+        Parameters params = new Parameters();
+        params.addParameter().setName("markierung").setValue(new Coding()
+            .setSystem("https://gematik.de/fhir/erg/CodeSystem/erg-rechnung-markierung-cs")
+            .setCode("archiviert"));
+        params.addParameter().setName("zeitpunkt").setValue(new DateTimeType(new Date()));
+        params.addParameter().setName("artDerArchivierung").setValue(new Coding()
+            .setSystem("https://gematik.de/fhir/erg/CodeSystem/erg-dokument-artderarchivierung-cs")
+            .setCode("epa"));
+        client.operation()
+            .onInstance(new IdType("DocumentReference", documentId))
+            .named("$process-flag")
+            .withParameters(params)
+            .withAdditionalHeader("Authorization", "Bearer " + getValidAccessToken("EGK1"))
+            .execute();
+
+        // Markierung auf Basis der veralteten Version: darf die parallele Änderung nicht überschreiben
+        DocumentReference gespeichert = processFlagService.applyFlagToDocument(veraltet,
+            new Coding().setSystem("https://gematik.de/fhir/erg/CodeSystem/erg-rechnung-markierung-cs").setCode("gelesen"),
+            new DateTimeType(new Date()), null, new BooleanType(true), null);
+
+        assertEquals(versionVorher + 2, gespeichert.getIdElement().getVersionIdPartAsLong(),
+            "Die Markierung sollte genau eine neue Version nach der parallelen Änderung erzeugen");
+        long anzahlMarkierungen = gespeichert.getMeta().getExtension().stream()
+            .filter(ext -> "https://gematik.de/fhir/erg/StructureDefinition/erg-documentreference-markierung".equals(ext.getUrl()))
+            .count();
+        assertEquals(2, anzahlMarkierungen, "Beide Markierungen (archiviert und gelesen) sollten erhalten sein");
+    }
+
     @Test
     void testProcessFlagOperation_MissingMarkierung() {
         LOGGER.info("Starte Process-Flag Operation Test mit fehlender Markierung");
@@ -14,6 +14,17 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.RestTemplate;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -498,4 +509,57 @@ public class SubmitOperationProviderTest extends BaseProviderTest {
         assertTrue(transformedDocRef.hasId(), "Die geladene DocumentReference muss eine ID haben.");
         assertEquals(ergToken, transformedDocRef.getIdElement().getIdPart(), "Die ID der geladenen DocumentReference sollte dem ergToken entsprechen.");
     }
+
+    @Test
+    void testSubmitMultipartOperation_ReturnsErgToken() {
+        String authHeader = "Bearer " + getValidAccessToken("SMCB_KRANKENHAUS");
+
+        // Inhalte der Test-Rechnung als binäre Teile übertragen, die DocumentReference nur mit cid-Verweisen
+        DocumentReference rechnung = testRechnungDocRef.copy();
+        MultiValueMap<String, Object> parts = new LinkedMultiValueMap<>();
+        for (int i = 0; i < rechnung.getContent().size(); i++) {
+            Attachment attachment = rechnung.getContent().get(i).getAttachment();
+            if (!attachment.hasData()) {
+                continue;
+            }
+            byte[] data = attachment.getData();
+            if (attachment.getContentType().startsWith("application/fhir+")) {
+                data = Base64.getDecoder().decode(data);
+            }
+            String partName = "inhalt" + i;
+            parts.add(partName, filePart(partName, data, attachment.getContentType()));
+            attachment.setData(null);
+            attachment.setUrl("cid:" + partName);
+        }
+        parts.add("rechnung", part(ctx.newJsonParser().encodeResourceToString(rechnung).getBytes(StandardCharsets.UTF_8), "application/fhir+json"));
+        parts.add("modus", part("normal".getBytes(StandardCharsets.UTF_8), MediaType.TEXT_PLAIN_VALUE));
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+        headers.setAccept(List.of(MediaType.parseMediaType("application/fhir+json")));
+        headers.set("Authorization", authHeader);
+        ResponseEntity<String> response = new RestTemplate().postForEntity(
+            "http://localhost:" + port + "/fhir/Patient/" + testPatient.getIdElement().getIdPart() + "/$erechnung-submit-multipart",
+            new HttpEntity<>(parts, headers), String.class);
+
+        assertEquals(200, response.getStatusCode().value());
+        Parameters outParams = ctx.newJsonParser().parseResource(Parameters.class, response.getBody());
+        Parameters.ParametersParameterComponent ergTokenParam = outParams.getParameter("ergToken");
+        assertNotNull(ergTokenParam, "Der ergToken-Parameter muss auch bei multipart im Normalmodus vorhanden sein.");
+        assertFalse(((StringType) ergTokenParam.getValue()).getValue().isEmpty(), "Der Wert des ergToken darf nicht leer sein.");
+    }
+
+    /** Binäre Teile mit Dateinamen, damit der Container sie nicht als Formularfeld in den Speicher liest */
+    private static HttpEntity<byte[]> filePart(String name, byte[] data, String contentType) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.parseMediaType(contentType));
+        headers.setContentDisposition(ContentDisposition.formData().name(name).filename(name).build());
+        return new HttpEntity<>(data, headers);
+    }
+
+    private static HttpEntity<byte[]> part(byte[] data, String contentType) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.parseMediaType(contentType));
+        return new HttpEntity<>(data, headers);
+    }
 }
@@ -1,17 +1,31 @@
 package ca.uhn.fhir.jpa.starter.custom.operation.erase;
 
+import ca.uhn.fhir.batch2.api.IJobCoordinator;
+import ca.uhn.fhir.batch2.api.IJobMaintenanceService;
+import ca.uhn.fhir.batch2.model.JobInstance;
+import ca.uhn.fhir.batch2.model.StatusEnum;
+import ca.uhn.fhir.batch2.models.JobInstanceFetchRequest;
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
 import ca.uhn.fhir.jpa.starter.custom.BaseProviderTest;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
+import ca.uhn.fhir.rest.param.ReferenceParam;
 import ca.uhn.fhir.rest.server.exceptions.*;
 import org.hl7.fhir.r4.model.*;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 
+import static org.awaitility.Awaitility.await;
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
@@ -27,6 +41,15 @@ class EraseOperationProviderTest extends BaseProviderTest {
     private List<String> associatedInvoiceIds = new ArrayList<>();
     private List<String> relatedAttachmentDocRefIds = new ArrayList<>();
 
+    @Autowired
+    private IJobCoordinator jobCoordinator;
+
+    @Autowired
+    private IJobMaintenanceService jobMaintenanceService;
+
+    @Autowired
+    private DaoRegistry daoRegistry;
+
     @Override
     @BeforeEach
     protected void setUp() throws Exception {
@@ -242,6 +265,115 @@ class EraseOperationProviderTest extends BaseProviderTest {
         LOGGER.info("Test Erfolgreiche $erase Operation BEENDET.");
     }
 
+    @Test
+    void testBereinigungsJobEntferntHistorieUndAuditReferenzen() {
+        String docIdToErase = testDocumentForErase.getIdElement().getIdPart();
+        String erasedId = "DocumentReference/" + docIdToErase;
+        String versichertenAuthHeader = "Bearer " + super.getValidAccessToken("EGK1");
+
+        // Vor dem $erase verweist mindestens das AuditEvent des Statuswechsels auf das Dokument
+        assertFalse(findAuditEventsReferencing(erasedId).isEmpty(), "Vor dem $erase sollten AuditEvents auf das Dokument verweisen.");
+
+        super.client.operation()
+            .onInstance(testDocumentForErase.getIdElement())
+            .named("$erase")
+            .withNoParameters(Parameters.class)
+            .returnResourceType(OperationOutcome.class)
+            .withAdditionalHeader("Authorization", versichertenAuthHeader)
+            .execute();
+
+        await().atMost(Duration.ofSeconds(60)).pollInterval(Duration.ofMillis(500)).until(() -> {
+            jobMaintenanceService.forceMaintenancePass();
+            return findCleanupJob(erasedId).map(job -> job.getStatus() == StatusEnum.COMPLETED).orElse(false);
+        });
+
+        // Der Bereinigungs-Job schreibt die Referenzen vor dem Expunge um
+        assertTrue(findAuditEventsReferencing(erasedId).isEmpty(), "Nach der Bereinigung sollte kein AuditEvent mehr per Referenz auf das Dokument verweisen.");
+
+        assertThrows(ResourceNotFoundException.class, () ->
+            super.client.read().resource(DocumentReference.class).withId(docIdToErase).withAdditionalHeader("Authorization", versichertenAuthHeader).execute(),
+            "Nach dem Expunge sollte das Dokument vollständig entfernt sein.");
+        assertThrows(ResourceNotFoundException.class, () ->
+            super.client.read().resource(DocumentReference.class).withIdAndVersion(docIdToErase, "1").withAdditionalHeader("Authorization", versichertenAuthHeader).execute(),
+            "Nach dem Expunge sollte auch keine frühere Version mehr abrufbar sein.");
+        for (String binaryId : associatedBinaryIds) {
+            assertThrows(ResourceNotFoundException.class, () ->
+                daoRegistry.getResourceDao(Binary.class).read(new IdType("Binary", binaryId), new SystemRequestDetails()),
+                "Binary " + binaryId + " sollte nach dem Expunge vollständig entfernt sein.");
+        }
+    }
+
+    @Test
+    void testEmptyTrashLoeschtDokumenteImPapierkorb() {
+        String docIdToErase = testDocumentForErase.getIdElement().getIdPart();
+        String versichertenAuthHeader = "Bearer " + super.getValidAccessToken("EGK1");
+
+        Parameters startResult = super.client.operation()
+            .onInstance(super.testPatient.getIdElement())
+            .named("$empty-trash")
+            .withNoParameters(Parameters.class)
+            .withAdditionalHeader("Authorization", versichertenAuthHeader)
+            .execute();
+        String jobId = ((StringType) startResult.getParameter("job").getValue()).getValue();
+        assertNotNull(jobId, "$empty-trash sollte die Job-ID zurückgeben.");
+
+        Parameters statusParams = new Parameters();
+        statusParams.addParameter().setName("job").setValue(new StringType(jobId));
+        await().atMost(Duration.ofSeconds(60)).pollInterval(Duration.ofMillis(500)).until(() -> {
+            jobMaintenanceService.forceMaintenancePass();
+            return jobCoordinator.getInstance(jobId).getStatus() == StatusEnum.COMPLETED;
+        });
+
+        Parameters statusResult = super.client.operation()
+            .onInstance(super.testPatient.getIdElement())
+            .named("$empty-trash-status")
+            .withParameters(statusParams)
+            .withAdditionalHeader("Authorization", versichertenAuthHeader)
+            .execute();
+        assertEquals("COMPLETED", ((StringType) statusResult.getParameter("status").getValue()).getValue());
+        assertTrue(((IntegerType) statusResult.getParameter("geloeschteDokumente").getValue()).getValue() >= 1,
+            "Mindestens das Dokument aus dem Papierkorb sollte gelöscht worden sein.");
+
+        assertThrows(ResourceGoneException.class, () ->
+            super.client.read().resource(DocumentReference.class).withId(docIdToErase).withAdditionalHeader("Authorization", versichertenAuthHeader).execute(),
+            "Das Dokument aus dem Papierkorb sollte gelöscht sein.");
+    }
+
+    @Test
+    void testEmptyTrashStatusMitFremdemJob() {
+        String versichertenAuthHeader = "Bearer " + super.getValidAccessToken("EGK1");
+        Parameters statusParams = new Parameters();
+        statusParams.addParameter().setName("job").setValue(new StringType(UUID.randomUUID().toString()));
+
+        assertThrows(ResourceNotFoundException.class, () ->
+            super.client.operation()
+                .onInstance(super.testPatient.getIdElement())
+                .named("$empty-trash-status")
+                .withParameters(statusParams)
+                .withAdditionalHeader("Authorization", versichertenAuthHeader)
+                .execute());
+    }
+
+    private List<AuditEvent> findAuditEventsReferencing(String resourceId) {
+        SearchParameterMap map = SearchParameterMap.newSynchronous();
+        map.add(AuditEvent.SP_ENTITY, new ReferenceParam(resourceId));
+        return daoRegistry.getResourceDao(AuditEvent.class).search(map, new SystemRequestDetails()).getAllResources()
+            .stream().map(AuditEvent.class::cast).toList();
+    }
+
+    private Optional<JobInstance> findCleanupJob(String documentId) {
+        JobInstanceFetchRequest request = new JobInstanceFetchRequest();
+        request.setPageStart(0);
+        request.setBatchSize(50);
+        request.setJobStatus("");
+        request.setSort(Sort.by(Sort.Direction.DESC, "myCreateTime"));
+        return jobCoordinator.fetchAllJobInstances(request).getContent().stream()
+            .filter(job -> EraseCleanupAppCtx.JOB_ERASE_CLEANUP.equals(job.getJobDefinitionId()))
+            .filter(job -> job.getParameters(EraseCleanupJobParameters.class).getDocuments().stream()
+                .anyMatch(document -> documentId.equals(document.getDocumentId())))
+            .findFirst();
+    }
+
     @Test
     void testEraseWithWrongStatus() {
         LOGGER.info("Starte Test: $erase mit falschem Dokumentstatus.");
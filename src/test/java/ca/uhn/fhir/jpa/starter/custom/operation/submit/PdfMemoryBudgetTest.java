@@ -0,0 +1,117 @@
+package ca.uhn.fhir.jpa.starter.custom.operation.submit;
+
+import ca.uhn.fhir.rest.server.exceptions.UnclassifiedServerFailureException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PdfMemoryBudgetTest {
+
+    private static final long BUDGET = 1024 * 1024;
+
+    @TempDir
+    Path scratchDir;
+
+    @Test
+    void whenLeaseIsClosed_thenBudgetIsReleasedAndScratchDirectoryRemoved() throws IOException {
+        PdfMemoryBudget budget = budget(0);
+
+        Path leaseDirectory;
+        try (PdfMemoryBudget.Lease lease = budget.acquire(256 * 1024)) {
+            leaseDirectory = lease.getDirectory();
+            Files.write(leaseDirectory.resolve("scratch.bin"), new byte[16]);
+            assertEquals(BUDGET - 256 * 1024, budget.availableBytes());
+            assertEquals(leaseDirectory.toFile(), lease.getMemoryUsageSetting().getTempDir());
+        }
+
+        assertEquals(BUDGET, budget.availableBytes());
+        assertFalse(Files.exists(leaseDirectory));
+    }
+
+    @Test
+    void whenBudgetIsExhausted_thenAcquireFailsAfterTimeout() throws IOException {
+        PdfMemoryBudget budget = budget(0);
+
+        try (PdfMemoryBudget.Lease ignored = budget.acquire(BUDGET)) {
+            UnclassifiedServerFailureException e = assertThrows(UnclassifiedServerFailureException.class, () -> budget.acquire(1));
+            assertEquals(503, e.getStatusCode());
+        }
+        assertEquals(BUDGET, budget.availableBytes());
+    }
+
+    @Test
+    void whenEstimateExceedsBudget_thenLeaseIsCappedToWholeBudget() throws IOException {
+        PdfMemoryBudget budget = budget(0);
+
+        try (PdfMemoryBudget.Lease lease = budget.acquire(10 * BUDGET)) {
+            assertEquals(0, budget.availableBytes());
+            assertEquals(64 * 1024, lease.getMemoryUsageSetting().getMaxMainMemoryBytes(), "Heap-Anteil pro Dokument ist begrenzt");
+        }
+    }
+
+    @Test
+    void whenLeaseIsClosedTwice_thenBudgetIsReleasedOnce() throws IOException {
+        PdfMemoryBudget budget = budget(0);
+        PdfMemoryBudget.Lease lease = budget.acquire(1024);
+
+        lease.close();
+        lease.close();
+
+        assertEquals(BUDGET, budget.availableBytes());
+    }
+
+    @Test
+    void whenStarting_thenOnlyDirectoriesOfTerminatedInstancesAreRemoved() throws IOException {
+        Path terminated = Files.createDirectories(scratchDir.resolve("instance-123"));
+        Files.writeString(terminated.resolve(".lock"), "4711");
+        Files.write(Files.createDirectories(terminated.resolve("pdf-1")).resolve("scratch.bin"), new byte[16]);
+        Path starting = Files.createDirectories(scratchDir.resolve("instance-456"));
+        Files.createFile(starting.resolve(".lock"));
+        Path foreign = Files.createDirectories(scratchDir.resolve("pdf-789"));
+
+        budget(0);
+
+        assertFalse(Files.exists(terminated));
+        assertTrue(Files.exists(starting), "Eine Instanz, die ihre Sperre gerade anlegt, bleibt unberührt");
+        assertTrue(Files.exists(foreign), "Fremde Dateien im Scratch-Verzeichnis bleiben unberührt");
+    }
+
+    @Test
+    void whenSecondInstanceStarts_thenLeasesOfRunningInstanceAreKept() throws IOException {
+        PdfMemoryBudget first = budget(0);
+        try (PdfMemoryBudget.Lease lease = first.acquire(1024)) {
+            Files.write(lease.getDirectory().resolve("scratch.bin"), new byte[16]);
+
+            PdfMemoryBudget second = budget(0);
+
+            assertTrue(Files.exists(lease.getDirectory().resolve("scratch.bin")));
+            assertNotEquals(lease.getDirectory().getParent(), second.acquire(1024).getDirectory().getParent());
+        } finally {
+            first.removeScratchDirectory();
+        }
+    }
+
+    @Test
+    void whenShuttingDown_thenInstanceDirectoryIsRemoved() throws IOException {
+        PdfMemoryBudget budget = budget(0);
+        Path instanceDirectory = budget.acquire(1024).getDirectory().getParent();
+
+        budget.removeScratchDirectory();
+
+        assertFalse(Files.exists(instanceDirectory));
+        try (var remaining = Files.list(scratchDir)) {
+            assertEquals(0, remaining.count());
+        }
+    }
+
+    private PdfMemoryBudget budget(long timeoutSeconds) throws IOException {
+        PdfMemoryBudget budget = new PdfMemoryBudget(BUDGET, 64 * 1024, scratchDir.toString(), timeoutSeconds);
+        budget.prepareScratchDirectory();
+        return budget;
+    }
+}
@@ -0,0 +1,94 @@
+package ca.uhn.fhir.jpa.starter.custom.operation.submit;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PdfStructureValidatorTest {
+
+    private static final long MAX_BYTES = 10 * 1024 * 1024;
+
+    @Test
+    void whenPdfIsWellFormed_thenItPassesAndPdfBoxLoadsIt() throws Exception {
+        List<Path> fixtures = fixtures("valid");
+        assertFalse(fixtures.isEmpty());
+        for (Path fixture : fixtures) {
+            byte[] pdf = Files.readAllBytes(fixture);
+            assertDoesNotThrow(() -> PdfStructureValidator.validate(pdf, MAX_BYTES), fixture.getFileName().toString());
+            // Die Vorprüfung darf nichts verwerfen, was PDFBox laden kann – die Fixtures selbst müssen also gültig sein
+            try (PDDocument document = PDDocument.load(pdf)) {
+                assertEquals(1, document.getNumberOfPages(), fixture.getFileName().toString());
+            }
+        }
+    }
+
+    @Test
+    void whenPdfWasGeneratedByPdfBox_thenItPasses() throws Exception {
+        Path invoicePdf = resource("generated-test-resources/erg-invoice.pdf");
+
+        assertDoesNotThrow(() -> PdfStructureValidator.validate(Files.readAllBytes(invoicePdf), MAX_BYTES));
+    }
+
+    @Test
+    void whenPdfIsMalformed_thenItIsRejected() throws Exception {
+        List<Path> fixtures = fixtures("malformed");
+        assertFalse(fixtures.isEmpty());
+        for (Path fixture : fixtures) {
+            byte[] pdf = Files.readAllBytes(fixture);
+            IOException e = assertThrows(IOException.class, () -> PdfStructureValidator.validate(pdf, MAX_BYTES),
+                fixture.getFileName() + " sollte verworfen werden");
+            assertNotNull(e.getMessage());
+            // Die Vorprüfung darf nur verwerfen, was auch PDFBox nicht laden kann
+            assertThrows(IOException.class, () -> PDDocument.load(pdf).close(),
+                fixture.getFileName() + " darf nur verworfen werden, wenn PDFBox es ebenfalls nicht laden kann");
+        }
+    }
+
+    @Test
+    void whenPdfHasStructuralAnomalies_thenPdfBoxDecides() throws Exception {
+        // Defekte Querverweise, fehlendes %%EOF, startxref hinter dem Dateiende, ein später Header usw. repariert PDFBox häufig
+        List<Path> fixtures = fixtures("anomalous");
+        assertFalse(fixtures.isEmpty());
+        for (Path fixture : fixtures) {
+            byte[] pdf = Files.readAllBytes(fixture);
+            assertDoesNotThrow(() -> PdfStructureValidator.validate(pdf, MAX_BYTES), fixture.getFileName() + " darf nicht vorab verworfen werden");
+        }
+    }
+
+    @Test
+    void whenXrefIsBrokenButRepairable_thenPdfBoxLoadsIt() throws Exception {
+        for (String name : List.of("root-offset-wrong.pdf", "missing-eof.pdf", "invalid-xref-entry.pdf", "startxref-beyond-eof.pdf", "startxref-into-stream.pdf")) {
+            byte[] pdf = Files.readAllBytes(resource("pdf-fixtures/anomalous/" + name));
+            assertDoesNotThrow(() -> PdfStructureValidator.validate(pdf, MAX_BYTES), name);
+            try (PDDocument document = PDDocument.load(pdf)) {
+                assertEquals(1, document.getNumberOfPages(), name);
+            }
+        }
+    }
+
+    @Test
+    void whenPdfExceedsMaxSize_thenItIsRejectedBeforeParsing() throws Exception {
+        byte[] pdf = Files.readAllBytes(resource("pdf-fixtures/valid/classic-xref.pdf"));
+
+        IOException e = assertThrows(IOException.class, () -> PdfStructureValidator.validate(pdf, pdf.length - 1));
+        assertTrue(e.getMessage().contains("maximale Größe"));
+    }
+
+    private static List<Path> fixtures(String directory) throws IOException, URISyntaxException {
+        try (Stream<Path> files = Files.list(resource("pdf-fixtures/" + directory))) {
+            return files.filter(path -> path.toString().endsWith(".pdf")).sorted().toList();
+        }
+    }
+
+    private static Path resource(String name) throws URISyntaxException {
+        return Path.of(PdfStructureValidatorTest.class.getClassLoader().getResource(name).toURI());
+    }
+}
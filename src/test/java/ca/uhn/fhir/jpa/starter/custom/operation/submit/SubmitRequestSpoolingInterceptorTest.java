@@ -0,0 +1,94 @@
+package ca.uhn.fhir.jpa.starter.custom.operation.submit;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SubmitRequestSpoolingInterceptorTest {
+
+    private static final long THRESHOLD = 1024;
+    private static final Pattern SPOOL_ID = Pattern.compile("\"valueString\":\"([^\"]+)\"");
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void whenAttachmentDataExceedsThreshold_thenItIsDecodedToDiskAndReplacedByReference() throws IOException {
+        byte[] pdf = new byte[10 * 1024];
+        for (int i = 0; i < pdf.length; i++) {
+            pdf[i] = (byte) i;
+        }
+        String body = parameters(
+            attachment("application/pdf", Base64.getEncoder().encodeToString(pdf)),
+            attachment("text/plain", Base64.getEncoder().encodeToString("klein".getBytes(StandardCharsets.UTF_8))));
+
+        try (SubmitRequestSpoolingInterceptor.Spool spool = new SubmitRequestSpoolingInterceptor.Spool(spoolDir())) {
+            String rewritten = new String(spool.rewrite(stream(body), THRESHOLD), StandardCharsets.UTF_8);
+
+            assertTrue(rewritten.length() < THRESHOLD, "Große Daten dürfen nicht im Body verbleiben");
+            assertTrue(rewritten.contains("\"_data\":{\"extension\":[{\"url\":\"" + SubmitRequestSpoolingInterceptor.SPOOLED_CONTENT_EXTENSION_URL + "\""));
+            assertTrue(rewritten.contains("\"data\":\"" + Base64.getEncoder().encodeToString("klein".getBytes(StandardCharsets.UTF_8)) + "\""),
+                "Daten unter dem Schwellwert bleiben im Body");
+            assertTrue(rewritten.contains("\"name\":\"rechnung\""));
+
+            Matcher matcher = SPOOL_ID.matcher(rewritten);
+            assertTrue(matcher.find());
+            SpooledContent spooled = spool.get(matcher.group(1));
+            assertNotNull(spooled);
+            assertEquals(pdf.length, spooled.getSize());
+            assertArrayEquals(pdf, spooled.readAllBytes());
+        }
+        assertFalse(Files.exists(tempDir.resolve("spool")), "Nach close() darf das Spool-Verzeichnis nicht mehr existieren");
+    }
+
+    @Test
+    void whenDataIsOutsideOfAttachment_thenItIsCopiedUnchanged() throws IOException {
+        String large = Base64.getEncoder().encodeToString(new byte[4 * 1024]);
+        String body = "{\"resourceType\":\"Parameters\",\"parameter\":[{\"name\":\"data\",\"valueString\":\"" + large + "\"},"
+            + "{\"name\":\"anhang\",\"resource\":{\"resourceType\":\"Binary\",\"data\":\"" + large + "\"}}]}";
+
+        try (SubmitRequestSpoolingInterceptor.Spool spool = new SubmitRequestSpoolingInterceptor.Spool(spoolDir())) {
+            String rewritten = new String(spool.rewrite(stream(body), THRESHOLD), StandardCharsets.UTF_8);
+
+            assertEquals(body, rewritten);
+        }
+    }
+
+    @Test
+    void whenAttachmentDataIsNoValidBase64_thenRewriteFails() throws IOException {
+        String body = parameters(attachment("application/pdf", "kein base64!"));
+
+        try (SubmitRequestSpoolingInterceptor.Spool spool = new SubmitRequestSpoolingInterceptor.Spool(spoolDir())) {
+            assertThrows(JsonProcessingException.class, () -> spool.rewrite(stream(body), THRESHOLD));
+        }
+    }
+
+    private Path spoolDir() throws IOException {
+        return Files.createDirectory(tempDir.resolve("spool"));
+    }
+
+    private static String parameters(String... attachments) {
+        return "{\"resourceType\":\"Parameters\",\"parameter\":[{\"name\":\"rechnung\",\"resource\":"
+            + "{\"resourceType\":\"DocumentReference\",\"status\":\"current\",\"content\":["
+            + String.join(",", attachments) + "]}}]}";
+    }
+
+    private static String attachment(String contentType, String data) {
+        return "{\"attachment\":{\"contentType\":\"" + contentType + "\",\"data\":\"" + data + "\"}}";
+    }
+
+    private static ByteArrayInputStream stream(String body) {
+        return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,90 @@
+package ca.uhn.fhir.jpa.starter.custom.operation.vau;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InMemoryVAURequestIdStoreTest {
+
+    private static final byte[] FINGERPRINT = {1, 2, 3};
+
+    @Test
+    void whenRequestIdIsNew_thenItIsReserved() {
+        InMemoryVAURequestIdStore store = new InMemoryVAURequestIdStore(10, 1024);
+
+        assertNull(store.reserve("r1", FINGERPRINT, inFiveMinutes()));
+
+        VAURequestIdStore.Entry existing = store.reserve("r1", FINGERPRINT, inFiveMinutes());
+        assertNotNull(existing);
+        assertFalse(existing.isCompleted(), "Der erste Request wird noch verarbeitet");
+    }
+
+    @Test
+    void whenRequestIsCompleted_thenRetryGetsStoredResponse() {
+        InMemoryVAURequestIdStore store = new InMemoryVAURequestIdStore(10, 1024);
+        byte[] response = new byte[100];
+        store.reserve("r1", FINGERPRINT, inFiveMinutes());
+
+        store.complete("r1", response);
+        VAURequestIdStore.Entry existing = store.reserve("r1", FINGERPRINT, inFiveMinutes());
+
+        assertTrue(existing.isCompleted());
+        assertSame(response, existing.encryptedResponse());
+        assertSame(FINGERPRINT, existing.fingerprint());
+        assertEquals(100, store.getCachedBytes());
+    }
+
+    @Test
+    void whenWindowIsOver_thenRequestIdCanBeReservedAgain() {
+        InMemoryVAURequestIdStore store = new InMemoryVAURequestIdStore(10, 1024);
+        store.reserve("r1", FINGERPRINT, Instant.now().minusSeconds(1));
+        store.complete("r1", new byte[100]);
+
+        assertNull(store.reserve("r1", FINGERPRINT, inFiveMinutes()));
+        assertEquals(0, store.getCachedBytes());
+    }
+
+    @Test
+    void whenReleased_thenRetryIsProcessedAgain() {
+        InMemoryVAURequestIdStore store = new InMemoryVAURequestIdStore(10, 1024);
+        store.reserve("r1", FINGERPRINT, inFiveMinutes());
+
+        store.release("r1");
+
+        assertNull(store.reserve("r1", FINGERPRINT, inFiveMinutes()));
+    }
+
+    @Test
+    void whenResponseExceedsByteBudget_thenReservationIsDropped() {
+        InMemoryVAURequestIdStore store = new InMemoryVAURequestIdStore(10, 150);
+        store.reserve("r1", FINGERPRINT, inFiveMinutes());
+        store.complete("r1", new byte[100]);
+        store.reserve("r2", FINGERPRINT, inFiveMinutes());
+
+        store.complete("r2", new byte[100]);
+
+        assertNull(store.reserve("r2", FINGERPRINT, inFiveMinutes()), "Ohne gespeicherte Antwort wird erneut ausgeführt");
+        assertTrue(store.reserve("r1", FINGERPRINT, inFiveMinutes()).isCompleted());
+        assertEquals(100, store.getCachedBytes());
+    }
+
+    @Test
+    void whenMaxEntriesIsReached_thenExpiredEntriesAreEvicted() {
+        InMemoryVAURequestIdStore store = new InMemoryVAURequestIdStore(2, 1024);
+        store.reserve("r1", FINGERPRINT, Instant.now().minusSeconds(1));
+        store.reserve("r2", FINGERPRINT, inFiveMinutes());
+
+        assertNull(store.reserve("r3", FINGERPRINT, inFiveMinutes()));
+        assertEquals(2, store.size());
+
+        // Ohne abgelaufene Einträge wird nicht mehr vorgehalten, der Request aber verarbeitet
+        assertNull(store.reserve("r4", FINGERPRINT, inFiveMinutes()));
+        assertEquals(2, store.size());
+    }
+
+    private static Instant inFiveMinutes() {
+        return Instant.now().plusSeconds(300);
+    }
+}
@@ -0,0 +1,71 @@
+package ca.uhn.fhir.jpa.starter.custom.operation.vau;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JdbcVAURequestIdStoreTest {
+
+    private static final byte[] FINGERPRINT = {1, 2, 3};
+
+    private JdbcDataSource dataSource;
+    private JdbcVAURequestIdStore store;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+        store = new JdbcVAURequestIdStore(dataSource);
+        store.migrateSchema();
+    }
+
+    @Test
+    void whenSchemaIsMigratedAgain_thenExistingEntriesAreKept() throws Exception {
+        store.reserve("r1", FINGERPRINT, inFiveMinutes());
+
+        JdbcVAURequestIdStore restarted = new JdbcVAURequestIdStore(dataSource);
+        restarted.migrateSchema();
+
+        assertNotNull(restarted.reserve("r1", FINGERPRINT, inFiveMinutes()));
+    }
+
+    @Test
+    void whenRequestIdIsLong_thenItIsReservedAndDetected() {
+        String requestId = "r".repeat(1000);
+
+        assertNull(store.reserve(requestId, FINGERPRINT, inFiveMinutes()));
+
+        VAURequestIdStore.Entry existing = store.reserve(requestId, FINGERPRINT, inFiveMinutes());
+        assertNotNull(existing);
+        assertArrayEquals(FINGERPRINT, existing.fingerprint());
+        assertNull(store.reserve(requestId + "x", FINGERPRINT, inFiveMinutes()));
+    }
+
+    @Test
+    void whenRequestIsCompleted_thenRetryGetsStoredResponse() {
+        byte[] response = {4, 5, 6};
+        store.reserve("r1", FINGERPRINT, inFiveMinutes());
+
+        store.complete("r1", response);
+
+        assertArrayEquals(response, store.reserve("r1", FINGERPRINT, inFiveMinutes()).encryptedResponse());
+    }
+
+    @Test
+    void whenReleased_thenRequestIdCanBeReservedAgain() {
+        store.reserve("r1", FINGERPRINT, inFiveMinutes());
+
+        store.release("r1");
+
+        assertNull(store.reserve("r1", FINGERPRINT, inFiveMinutes()));
+    }
+
+    private static Instant inFiveMinutes() {
+        return Instant.now().plusSeconds(300);
+    }
+}
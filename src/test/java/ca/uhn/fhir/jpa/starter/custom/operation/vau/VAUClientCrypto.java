@@ -77,6 +77,12 @@ public class VAUClientCrypto {
 	public byte[] encrypt(Key vauPublicKey, String plaintext)
 		throws NoSuchAlgorithmException, InvalidKeyException, InvalidAlgorithmParameterException,
 		NoSuchPaddingException, IllegalBlockSizeException, BadPaddingException, IOException {
+		return encrypt(vauPublicKey, plaintext.getBytes(StandardCharsets.UTF_8));
+	}
+
+	public byte[] encrypt(Key vauPublicKey, byte[] plaintext)
+		throws NoSuchAlgorithmException, InvalidKeyException, InvalidAlgorithmParameterException,
+		NoSuchPaddingException, IllegalBlockSizeException, BadPaddingException, IOException {
 
 		ECNamedCurveParameterSpec parameterSpec = ECNamedCurveTable.getParameterSpec("brainpoolp256r1");
 		KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("ECDH");
@@ -99,7 +105,7 @@ public class VAUClientCrypto {
 		GCMParameterSpec spec = new GCMParameterSpec(AUTHENTICATION_TAG_BITS, iv);
 		Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
 		cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(derivedSharedSecret, "AES"), spec);
-		byte[] cipherText = cipher.doFinal(plaintext.getBytes());
+		byte[] cipherText = cipher.doFinal(plaintext);
 
 		ECPublicKey ecPublicKey = (ECPublicKey) keyPair.getPublic();
 		BigInteger x = ecPublicKey.getW().getAffineX();
@@ -118,6 +124,12 @@ public class VAUClientCrypto {
 	public String decrypt(SecretKeySpec responseKey, byte[] encryptedInnerResponse)
 		throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException, IllegalBlockSizeException,
 		BadPaddingException, InvalidKeySpecException, InvalidAlgorithmParameterException {
+		return new String(decryptBytes(responseKey, encryptedInnerResponse), StandardCharsets.UTF_8);
+	}
+
+	public byte[] decryptBytes(SecretKeySpec responseKey, byte[] encryptedInnerResponse)
+		throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException, IllegalBlockSizeException,
+		BadPaddingException, InvalidKeySpecException, InvalidAlgorithmParameterException {
 
 		ByteBuffer byteBuffer = ByteBuffer.wrap(encryptedInnerResponse);
 		byte[] iv = new byte[IV_LENGTH];
@@ -128,9 +140,7 @@ public class VAUClientCrypto {
 		Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
 		GCMParameterSpec spec = new GCMParameterSpec(AUTHENTICATION_TAG_BITS, iv);
 		cipher.init(Cipher.DECRYPT_MODE, responseKey, spec);
-		byte[] decryptedResponse = cipher.doFinal(cipherText);
-
-		return new String(decryptedResponse, StandardCharsets.UTF_8);
+		return cipher.doFinal(cipherText);
 	}
 
 	/**
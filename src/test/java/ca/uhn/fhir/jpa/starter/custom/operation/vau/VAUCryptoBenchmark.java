@@ -0,0 +1,91 @@
+package ca.uhn.fhir.jpa.starter.custom.operation.vau;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH-Benchmark für den vollständigen VAU-Durchlauf auf Serverseite: Entschlüsseln der Anfrage, Parsen von
+ * Umschlag und innerem Request sowie Aufbau und Verschlüsselung einer gleich großen Antwort. Kein Unit-Test;
+ * Aufruf z.B. mit
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=ca.uhn.fhir.jpa.starter.custom.operation.vau.VAUCryptoBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VAUCryptoBenchmark {
+
+    /** Größe des inneren Bodys in Bytes: 1 KB, 100 KB, 10 MB */
+    @Param({"1024", "102400", "10485760"})
+    public int payloadSize;
+
+    private VAUServerCrypto serverCrypto;
+    private SecretKeySpec responseKey;
+    private byte[] encryptedRequest;
+    private byte[] receiveBuffer;
+    private final MockHttpServletRequest outerRequest = new MockHttpServletRequest();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        VAUClientCrypto clientCrypto = new VAUClientCrypto();
+        serverCrypto = new VAUServerCrypto();
+        responseKey = clientCrypto.generateResponseKey();
+
+        byte[] body = new byte[payloadSize];
+        new Random(42).nextBytes(body);
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        request.writeBytes(("1 ACCESS_TOKEN REQUEST_ID " + Base64.getEncoder().encodeToString(responseKey.getEncoded())
+            + " POST /fhir/Binary HTTP/1.1\r\nContent-Type: application/pdf\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        request.writeBytes(body);
+
+        encryptedRequest = clientCrypto.encrypt(serverCrypto.getPublicKey(), request.toByteArray());
+        receiveBuffer = new byte[encryptedRequest.length];
+    }
+
+    @Benchmark
+    public byte[] roundTrip() throws Exception {
+        // Die Entschlüsselung überschreibt den Puffer, daher wie beim Empfang jedes Mal neu befüllen
+        System.arraycopy(encryptedRequest, 0, receiveBuffer, 0, encryptedRequest.length);
+
+        VAUEnvelope envelope = VAUEnvelope.parse(serverCrypto.decryptRequest(ByteBuffer.wrap(receiveBuffer)));
+        VAUInnerServletRequest request = VAUInnerRequestDispatcher.parse(outerRequest, envelope.getInnerRequest(), envelope.getAccessToken());
+
+        // Als Antwort dient der innere Request selbst, damit die Antwort mit der Nutzlast wächst
+        ByteBuffer response = envelope.createResponse(200, request.getContentType(), Map.of(), envelope.getInnerRequest());
+        return serverCrypto.encryptResponse(response, responseKey);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+            .include(VAUCryptoBenchmark.class.getSimpleName())
+            .build())
+            .run();
+    }
+}
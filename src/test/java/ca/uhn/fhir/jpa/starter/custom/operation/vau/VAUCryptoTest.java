@@ -5,6 +5,12 @@ import org.junit.jupiter.api.Test;
 
 
 import javax.crypto.spec.SecretKeySpec;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -61,4 +67,30 @@ class VAUCryptoTest {
         // Verify decrypted response matches original
         assertEquals(originalResponse, decryptedResponse);
     }
-} 
\ No newline at end of file
+
+    @Test
+    void testConcurrentRoundTripsWithPerThreadEngines() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                String message = "Nachricht " + i + " für VAU";
+                results.add(executor.submit(() -> {
+                    // Request vom Client an den Server
+                    byte[] encryptedRequest = clientCrypto.encrypt(serverCrypto.getPublicKey(), message);
+                    String decryptedRequest = serverCrypto.decryptRequest(encryptedRequest);
+
+                    // Antwort vom Server an den Client
+                    SecretKeySpec responseKey = clientCrypto.generateResponseKey();
+                    byte[] encryptedResponse = serverCrypto.encryptResponse(decryptedRequest, responseKey);
+                    return message.equals(clientCrypto.decrypt(responseKey, encryptedResponse));
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get(60, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package ca.uhn.fhir.jpa.starter.custom.operation.vau;
+
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Prüft die byteorientierte Verarbeitung von VAU-Anfragen und -Antworten: binäre Bodies bleiben unverändert, und
+ * Entschlüsselung, Parsen und Verschlüsselung kopieren die Nutzdaten höchstens einmal.
+ */
+class VAUEnvelopeTest {
+
+    private static final int SMALL_PAYLOAD_SIZE = 1024;
+    private static final int LARGE_PAYLOAD_SIZE = 8 * 1024 * 1024;
+    /** Erlaubte Abweichung zwischen den Messungen, weit unterhalb einer Kopie der Nutzdaten */
+    private static final long ALLOCATION_TOLERANCE = 256 * 1024;
+
+    private VAUClientCrypto clientCrypto;
+    private VAUServerCrypto serverCrypto;
+    private SecretKeySpec responseKey;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        clientCrypto = new VAUClientCrypto();
+        serverCrypto = new VAUServerCrypto();
+        responseKey = clientCrypto.generateResponseKey();
+    }
+
+    @Test
+    void whenBodyIsBinary_thenItReachesTheInnerRequestUnchanged() throws Exception {
+        byte[] pdf = payload(64 * 1024);
+        byte[] encrypted = clientCrypto.encrypt(serverCrypto.getPublicKey(), vauRequest("POST /fhir/Binary HTTP/1.1", "application/pdf", pdf));
+
+        VAUEnvelope envelope = VAUEnvelope.parse(serverCrypto.decryptRequest(ByteBuffer.wrap(encrypted)));
+        VAUInnerServletRequest request = VAUInnerRequestDispatcher.parse(new MockHttpServletRequest(), envelope.getInnerRequest(), envelope.getAccessToken());
+
+        assertEquals("POST", request.getMethod());
+        assertEquals("/fhir/Binary", request.getRequestURI());
+        assertEquals("/Binary", request.getPathInfo());
+        assertEquals("Bearer ACCESS_TOKEN", request.getHeader("authorization"));
+        assertEquals(pdf.length, request.getContentLength());
+        assertArrayEquals(pdf, request.getInputStream().readAllBytes());
+    }
+
+    @Test
+    void whenResponseIsBinary_thenClientDecryptsIdenticalBytes() throws Exception {
+        byte[] pdf = payload(64 * 1024);
+        VAUEnvelope envelope = VAUEnvelope.parse(ByteBuffer.wrap(vauRequest("GET /fhir/Binary/1 HTTP/1.1", null, new byte[0])));
+
+        ByteBuffer plaintext = envelope.createResponse(200, "application/pdf", Map.of("ETag", List.of("W/\"1\"")), ByteBuffer.wrap(pdf));
+        byte[] decrypted = clientCrypto.decryptBytes(responseKey, serverCrypto.encryptResponse(plaintext, responseKey));
+
+        String head = "1 REQUEST_ID HTTP/1.1 200 OK\r\nContent-Type: application/pdf\r\nETag: W/\"1\"\r\n"
+            + "Content-Length: " + pdf.length + "\r\n\r\n";
+        assertEquals(head, new String(decrypted, 0, head.length(), StandardCharsets.UTF_8));
+        assertArrayEquals(pdf, Arrays.copyOfRange(decrypted, head.length(), decrypted.length));
+    }
+
+    @Test
+    void whenResponseBufferIsAllocatedForEncryption_thenItIsEncryptedInPlace() throws Exception {
+        byte[] message = "1 REQUEST_ID HTTP/1.1 204 No Content\r\n\r\n".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer plaintext = VAUServerCrypto.allocateResponse(message.length).put(message).flip();
+
+        byte[] encrypted = serverCrypto.encryptResponse(plaintext, responseKey);
+
+        assertSame(plaintext.array(), encrypted, "Die Antwort muss im Puffer des Klartexts verschlüsselt werden");
+        assertArrayEquals(message, clientCrypto.decryptBytes(responseKey, encrypted));
+    }
+
+    @Test
+    void whenLargeRequestIsProcessed_thenPayloadIsNotCopied() throws Exception {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assumptions.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported() && threadMXBean.isThreadAllocatedMemoryEnabled(),
+            "Messung der Allokationen wird von der JVM nicht unterstützt");
+
+        // Der feste Anteil (Schlüsselvereinbarung, Header) fällt bei beiden Größen gleich an; verglichen wird der Zuwachs
+        long[] small = measureAllocations(threadMXBean, SMALL_PAYLOAD_SIZE);
+        long[] large = measureAllocations(threadMXBean, LARGE_PAYLOAD_SIZE);
+        long payloadGrowth = LARGE_PAYLOAD_SIZE - SMALL_PAYLOAD_SIZE;
+
+        assertTrue(large[0] - small[0] < ALLOCATION_TOLERANCE,
+            "Entschlüsseln und Parsen dürfen die Nutzdaten nicht kopieren, zusätzlich allokiert: " + (large[0] - small[0]));
+        assertTrue(large[1] - small[1] < payloadGrowth + ALLOCATION_TOLERANCE,
+            "Die Antwort darf die Nutzdaten nur einmal kopieren, zusätzlich allokiert: " + (large[1] - small[1]));
+    }
+
+    /**
+     * @return Die geringsten Allokationen je Anfrage in Bytes für {Anfrage, Antwort} über mehrere Durchläufe, damit
+     *         Klassenladen und einmalige Initialisierungen nicht mitgezählt werden
+     */
+    private long[] measureAllocations(com.sun.management.ThreadMXBean threadMXBean, int payloadSize) throws Exception {
+        byte[] pdf = payload(payloadSize);
+        byte[] request = vauRequest("POST /fhir/Binary HTTP/1.1", "application/pdf", pdf);
+        MockHttpServletRequest outerRequest = new MockHttpServletRequest();
+
+        long[] allocations = {Long.MAX_VALUE, Long.MAX_VALUE};
+        for (int run = 0; run < 3; run++) {
+            byte[] encrypted = clientCrypto.encrypt(serverCrypto.getPublicKey(), request);
+
+            long before = threadMXBean.getCurrentThreadAllocatedBytes();
+            VAUEnvelope envelope = VAUEnvelope.parse(serverCrypto.decryptRequest(ByteBuffer.wrap(encrypted)));
+            VAUInnerServletRequest innerRequest = VAUInnerRequestDispatcher.parse(outerRequest, envelope.getInnerRequest(), envelope.getAccessToken());
+            long afterRequest = threadMXBean.getCurrentThreadAllocatedBytes();
+
+            ByteBuffer plaintext = envelope.createResponse(200, "application/pdf", Map.of(), ByteBuffer.wrap(pdf));
+            serverCrypto.encryptResponse(plaintext, responseKey);
+            long afterResponse = threadMXBean.getCurrentThreadAllocatedBytes();
+
+            assertEquals(payloadSize, innerRequest.getContentLength());
+            allocations[0] = Math.min(allocations[0], afterRequest - before);
+            allocations[1] = Math.min(allocations[1], afterResponse - afterRequest);
+        }
+        return allocations;
+    }
+
+    private byte[] vauRequest(String requestLine, String contentType, byte[] body) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        String head = "1 ACCESS_TOKEN REQUEST_ID " + Base64.getEncoder().encodeToString(responseKey.getEncoded()) + " "
+            + requestLine + "\r\n"
+            + (contentType != null ? "Content-Type: " + contentType + "\r\n" : "")
+            + "\r\n";
+        output.writeBytes(head.getBytes(StandardCharsets.UTF_8));
+        output.writeBytes(body);
+        return output.toByteArray();
+    }
+
+    private static byte[] payload(int size) {
+        // Zufällige Bytes enthalten ungültige UTF-8-Sequenzen
+        byte[] payload = new byte[size];
+        new Random(42).nextBytes(payload);
+        return payload;
+    }
+}
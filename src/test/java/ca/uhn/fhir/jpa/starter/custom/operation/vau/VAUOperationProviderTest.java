@@ -11,10 +11,15 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.server.LocalServerPort;
 import org.springframework.http.*;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.test.context.TestPropertySource;
+import org.springframework.web.client.HttpStatusCodeException;
 import org.springframework.web.client.RestTemplate;
 
 import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.KeyFactory;
 import java.security.PublicKey;
 import java.security.spec.X509EncodedKeySpec;
@@ -40,6 +45,9 @@ class VAUOperationProviderTest extends BaseProviderTest {
     @Autowired
     private FhirContext ctx;
 
+    @Autowired
+    private VAUInnerRequestDispatcher dispatcher;
+
     private VAUClientCrypto vauClientCrypto;
     private RestTemplate restTemplate;
     private String baseUrl;
@@ -208,4 +216,59 @@ class VAUOperationProviderTest extends BaseProviderTest {
 
         LOGGER.info("VAU Create Patient Operation Test erfolgreich abgeschlossen.");
     }
-} 
\ No newline at end of file
+
+    @Test
+    void testVAURetryReturnsStoredResponseAndReplayIsRejected() throws Exception {
+        byte[] certData = restTemplate.getForObject(baseUrl + "/VAUCertificate", byte[].class);
+        PublicKey serverPublicKey = KeyFactory.getInstance("EC").generatePublic(new X509EncodedKeySpec(certData));
+
+        Patient patient = new Patient();
+        patient.addName().setFamily("VAU-Retry");
+        String patientJson = ctx.newJsonParser().encodeResourceToString(patient);
+        String requestId = vauClientCrypto.generateRequestId();
+        SecretKeySpec responseKey = vauClientCrypto.generateResponseKey();
+        String vauRequest = "1 " + getValidAccessToken("SMCB_KRANKENHAUS") + " " + requestId + " "
+            + Base64.getEncoder().encodeToString(responseKey.getEncoded()) + " "
+            + "POST /fhir/Patient HTTP/1.1\r\nContent-Type: application/fhir+json\r\n\r\n" + patientJson;
+
+        // Wiederholung nach Timeout: derselbe Request, neu verschlüsselt
+        ResponseEntity<byte[]> first = postVAU(vauClientCrypto.encrypt(serverPublicKey, vauRequest));
+        ResponseEntity<byte[]> retry = postVAU(vauClientCrypto.encrypt(serverPublicKey, vauRequest));
+
+        assertEquals(HttpStatus.OK, first.getStatusCode());
+        assertEquals(HttpStatus.OK, retry.getStatusCode());
+        assertArrayEquals(first.getBody(), retry.getBody(), "Die Wiederholung muss die gespeicherte Antwort erhalten");
+        assertTrue(vauClientCrypto.decrypt(responseKey, retry.getBody()).contains("HTTP/1.1 201 Created"));
+
+        // Replay: bekannte Request-ID mit anderem Inhalt
+        String replay = vauRequest.replace("VAU-Retry", "VAU-Replay");
+        HttpStatusCodeException rejected = assertThrows(HttpStatusCodeException.class,
+            () -> postVAU(vauClientCrypto.encrypt(serverPublicKey, replay)));
+        assertEquals(HttpStatus.CONFLICT, rejected.getStatusCode());
+    }
+
+    @Test
+    void testVAUMultipartSubmitIsRejectedWithUnsupportedMediaType() throws Exception {
+        String body = "--grenze\r\n"
+            + "Content-Disposition: form-data; name=\"modus\"\r\n\r\n"
+            + "normal\r\n"
+            + "--grenze--\r\n";
+        String innerRequest = "POST /fhir/Patient/" + testPatient.getIdElement().getIdPart() + "/$erechnung-submit-multipart HTTP/1.1\r\n"
+            + "Content-Type: multipart/form-data; boundary=grenze\r\n\r\n" + body;
+
+        VAUInnerServletResponse response = dispatcher.dispatch(new MockHttpServletRequest(), new MockHttpServletResponse(),
+            ByteBuffer.wrap(innerRequest.getBytes(StandardCharsets.UTF_8)), getValidAccessToken("SMCB_KRANKENHAUS"));
+
+        assertEquals(HttpStatus.UNSUPPORTED_MEDIA_TYPE.value(), response.getStatus());
+        assertTrue(StandardCharsets.UTF_8.decode(response.getBody()).toString().contains("$erechnung-submit"),
+            "Die Antwort sollte auf $erechnung-submit verweisen");
+    }
+
+    private ResponseEntity<byte[]> postVAU(byte[] encryptedRequest) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        headers.add("X-erp-user", "l");
+        headers.add("X-erp-resource", "Patient");
+        return restTemplate.exchange(baseUrl + "/VAU/0", HttpMethod.POST, new HttpEntity<>(encryptedRequest, headers), byte[].class);
+    }
+}
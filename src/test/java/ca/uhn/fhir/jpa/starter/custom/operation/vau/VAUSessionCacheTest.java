@@ -0,0 +1,134 @@
+package ca.uhn.fhir.jpa.starter.custom.operation.vau;
+
+import ca.uhn.fhir.jpa.starter.custom.interceptor.auth.AccessToken;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.PublicKey;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VAUSessionCacheTest {
+
+    private static final String TOKEN = "header.payload.signature";
+
+    private final AtomicReference<Map<String, PublicKey>> idpKeys = new AtomicReference<>(new HashMap<>());
+    private VAUSessionCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = new VAUSessionCache(idpKeys::get, 300, 10);
+    }
+
+    @Test
+    void whenSessionIsStored_thenNextRequestReusesVerifiedIdentity() {
+        AccessToken accessToken = accessToken(Instant.now().plusSeconds(600));
+        VAUSessionCache.Session session = cache.take("0");
+        assertNull(session.getAccessToken(TOKEN));
+        session.setAccessToken(TOKEN, accessToken);
+
+        String pseudonym = cache.store(session);
+        VAUSessionCache.Session resumed = cache.take(pseudonym);
+
+        assertSame(session, resumed);
+        assertSame(accessToken, resumed.getAccessToken(TOKEN));
+        assertNull(resumed.getAccessToken("other.token.value"), "Ein anderer Token darf die Identität nicht übernehmen");
+    }
+
+    @Test
+    void whenPseudonymWasUsed_thenItCannotBeUsedAgain() {
+        VAUSessionCache.Session session = cache.take("0");
+        session.setAccessToken(TOKEN, accessToken(Instant.now().plusSeconds(600)));
+        String pseudonym = cache.store(session);
+
+        cache.take(pseudonym);
+
+        assertNotSame(session, cache.take(pseudonym));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void whenSessionHasNoIdentity_thenItIsNotStored() {
+        String pseudonym = cache.store(cache.take("0"));
+
+        assertNotNull(pseudonym);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void whenTtlIsOver_thenSessionIsNotResumed() {
+        cache = new VAUSessionCache(idpKeys::get, 0, 10);
+        VAUSessionCache.Session session = cache.take("0");
+        session.setAccessToken(TOKEN, accessToken(Instant.now().plusSeconds(600)));
+
+        String pseudonym = cache.store(session);
+
+        assertNotSame(session, cache.take(pseudonym));
+    }
+
+    @Test
+    void whenAccessTokenIsExpired_thenSessionIsNotResumed() {
+        VAUSessionCache.Session session = cache.take("0");
+        session.setAccessToken(TOKEN, accessToken(Instant.now().minusSeconds(1)));
+
+        String pseudonym = cache.store(session);
+
+        assertEquals(0, cache.size());
+        assertNotSame(session, cache.take(pseudonym));
+    }
+
+    @Test
+    void whenMaxEntriesIsReached_thenFurtherSessionsAreNotStored() {
+        cache = new VAUSessionCache(idpKeys::get, 300, 2);
+        for (int i = 0; i < 3; i++) {
+            VAUSessionCache.Session session = cache.take("0");
+            session.setAccessToken(TOKEN + i, accessToken(Instant.now().plusSeconds(600)));
+            cache.store(session);
+        }
+
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    void whenIdpKeysRotate_thenSessionsAreEvicted() {
+        VAUSessionCache.Session session = cache.take("0");
+        session.setAccessToken(TOKEN, accessToken(Instant.now().plusSeconds(600)));
+        String pseudonym = cache.store(session);
+
+        idpKeys.set(new HashMap<>());
+
+        assertNotSame(session, cache.take(pseudonym));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void whenEphemeralKeyIsReused_thenDerivedRequestKeyIsReused() throws Exception {
+        VAUClientCrypto clientCrypto = new VAUClientCrypto();
+        VAUServerCrypto serverCrypto = new VAUServerCrypto();
+        byte[] encrypted = clientCrypto.encrypt(serverCrypto.getPublicKey(), "1 TOKEN REQUEST_ID KEY GET /fhir/metadata HTTP/1.1\r\n\r\n");
+        byte[] ephemeralPublicKey = Arrays.copyOfRange(encrypted, 1, 65);
+        VAUSessionCache.Session session = cache.take("0");
+
+        ByteBuffer first = serverCrypto.decryptRequest(ByteBuffer.wrap(encrypted.clone()), session);
+        SecretKeySpec requestKey = session.getRequestKey(ephemeralPublicKey);
+        ByteBuffer second = serverCrypto.decryptRequest(ByteBuffer.wrap(encrypted.clone()), session);
+
+        assertNotNull(requestKey);
+        assertSame(requestKey, session.getRequestKey(ephemeralPublicKey));
+        assertEquals(StandardCharsets.UTF_8.decode(first).toString(), StandardCharsets.UTF_8.decode(second).toString());
+    }
+
+    private static AccessToken accessToken(Instant exp) {
+        AccessToken accessToken = new AccessToken();
+        accessToken.setExp(exp);
+        return accessToken;
+    }
+}